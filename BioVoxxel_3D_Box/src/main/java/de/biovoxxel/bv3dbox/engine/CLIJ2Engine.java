@@ -0,0 +1,503 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.Arrays;
+
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+import net.haesleinhuepf.clij2.CLIJ2;
+import net.haesleinhuepf.clijx.imagej2.ImageJ2Tubeness;
+import net.haesleinhuepf.clijx.plugins.BinaryFillHolesSliceBySlice;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * {@link ComputeEngine} running all operations on the OpenCL device via CLIJ2.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class CLIJ2Engine implements ComputeEngine {
+
+	private final CLIJ2 clij2;
+
+
+	public CLIJ2Engine() {
+		this(CLIJ2.getInstance());
+	}
+
+
+	public CLIJ2Engine(CLIJ2 clij2) {
+		this.clij2 = clij2;
+	}
+
+
+	public CLIJ2 getCLIJ2() {
+		return clij2;
+	}
+
+
+	public static ClearCLBuffer buffer(EngineImage image) {
+		return ((CLIJ2Image) image).getBuffer();
+	}
+
+
+	@Override
+	public String getName() {
+		return "CLIJ2 (" + clij2.getGPUName() + ")";
+	}
+
+
+	@Override
+	public EngineImage push(ImagePlus image) {
+		return new CLIJ2Image(clij2.push(image));
+	}
+
+	@Override
+	public EngineImage pushCurrentSelection(ImagePlus image) {
+		return new CLIJ2Image(clij2.pushCurrentSelection(image));
+	}
+
+	@Override
+	public ImagePlus pull(EngineImage image) {
+		return clij2.pull(buffer(image));
+	}
+
+	@Override
+	public HostImage pullHostImage(EngineImage image) {
+		return HostImage.fromImagePlus(clij2.pull(buffer(image)), null);
+	}
+
+
+	@Override
+	public EngineImage create(EngineImage template) {
+		return new CLIJ2Image(clij2.create(buffer(template)));
+	}
+
+	@Override
+	public EngineImage create(long[] dimensions) {
+		return new CLIJ2Image(clij2.create(dimensions, NativeTypeEnum.Float));
+	}
+
+	@Override
+	public EngineImage create(long[] dimensions, int bitDepth) {
+		NativeTypeEnum type = bitDepth == 8 ? NativeTypeEnum.UnsignedByte : (bitDepth == 16 ? NativeTypeEnum.UnsignedShort : NativeTypeEnum.Float);
+		return new CLIJ2Image(clij2.create(dimensions, type));
+	}
+
+	@Override
+	public void copy(EngineImage source, EngineImage destination) {
+		clij2.copy(buffer(source), buffer(destination));
+	}
+
+
+	@Override
+	public void gaussianBlur(EngineImage source, EngineImage destination, double sigmaX, double sigmaY, double sigmaZ) {
+		if (source.getDepth() == 1) {
+			clij2.gaussianBlur2D(buffer(source), buffer(destination), sigmaX, sigmaY);
+		} else {
+			clij2.gaussianBlur3D(buffer(source), buffer(destination), sigmaX, sigmaY, sigmaZ);
+		}
+	}
+
+	@Override
+	public void differenceOfGaussian(EngineImage source, EngineImage destination, double sigma1X, double sigma1Y, double sigma1Z, double sigma2X, double sigma2Y, double sigma2Z) {
+		if (source.getDepth() == 1) {
+			clij2.differenceOfGaussian2D(buffer(source), buffer(destination), sigma1X, sigma1Y, sigma2X, sigma2Y);
+		} else {
+			clij2.differenceOfGaussian3D(buffer(source), buffer(destination), sigma1X, sigma1Y, sigma1Z, sigma2X, sigma2Y, sigma2Z);
+		}
+	}
+
+
+	@Override
+	public void median(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+		if (source.getDepth() == 1) {
+			if (box) {
+				clij2.median2DBox(buffer(source), buffer(destination), radiusX, radiusY);
+			} else {
+				clij2.median2DSphere(buffer(source), buffer(destination), radiusX, radiusY);
+			}
+		} else if (radiusZ == 0) {
+			if (box) {
+				clij2.median3DSliceBySliceBox(buffer(source), buffer(destination), radiusX, radiusY);
+			} else {
+				clij2.median3DSliceBySliceSphere(buffer(source), buffer(destination), radiusX, radiusY);
+			}
+		} else if (box) {
+			clij2.median3DBox(buffer(source), buffer(destination), radiusX, radiusY, radiusZ);
+		} else {
+			clij2.median3DSphere(buffer(source), buffer(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void minimum(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+		if (source.getDepth() == 1) {
+			if (box) {
+				clij2.minimum2DBox(buffer(source), buffer(destination), radiusX, radiusY);
+			} else {
+				clij2.minimum2DSphere(buffer(source), buffer(destination), radiusX, radiusY);
+			}
+		} else if (box) {
+			clij2.minimum3DBox(buffer(source), buffer(destination), radiusX, radiusY, radiusZ);
+		} else if (radiusZ == 0) {
+			clij2.minimum3DSliceBySliceSphere(buffer(source), buffer(destination), radiusX, radiusY);
+		} else {
+			clij2.minimum3DSphere(buffer(source), buffer(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void maximum(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+		if (source.getDepth() == 1) {
+			if (box) {
+				clij2.maximum2DBox(buffer(source), buffer(destination), radiusX, radiusY);
+			} else {
+				clij2.maximum2DSphere(buffer(source), buffer(destination), radiusX, radiusY);
+			}
+		} else if (box) {
+			clij2.maximum3DBox(buffer(source), buffer(destination), radiusX, radiusY, radiusZ);
+		} else if (radiusZ == 0) {
+			clij2.maximum3DSliceBySliceSphere(buffer(source), buffer(destination), radiusX, radiusY);
+		} else {
+			clij2.maximum3DSphere(buffer(source), buffer(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void mean(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+		if (source.getDepth() == 1) {
+			if (box) {
+				clij2.mean2DBox(buffer(source), buffer(destination), radiusX, radiusY);
+			} else {
+				clij2.mean2DSphere(buffer(source), buffer(destination), radiusX, radiusY);
+			}
+		} else if (box) {
+			clij2.mean3DBox(buffer(source), buffer(destination), radiusX, radiusY, radiusZ);
+		} else if (radiusZ == 0) {
+			clij2.mean3DSliceBySliceSphere(buffer(source), buffer(destination), radiusX, radiusY);
+		} else {
+			clij2.mean3DSphere(buffer(source), buffer(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void variance(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+		if (box) {
+			clij2.varianceBox(buffer(source), buffer(destination), radiusX, radiusY, radiusZ);
+		} else {
+			clij2.varianceSphere(buffer(source), buffer(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+
+	@Override
+	public void threshold(EngineImage source, EngineImage destination, double threshold) {
+		clij2.threshold(buffer(source), buffer(destination), threshold);
+	}
+
+	@Override
+	public void mask(EngineImage source, EngineImage mask, EngineImage destination) {
+		clij2.mask(buffer(source), buffer(mask), buffer(destination));
+	}
+
+	@Override
+	public void connectedComponentsLabeling(EngineImage binary, EngineImage labels, boolean diamond) {
+		if (diamond) {
+			clij2.connectedComponentsLabelingDiamond(buffer(binary), buffer(labels));
+		} else {
+			clij2.connectedComponentsLabelingBox(buffer(binary), buffer(labels));
+		}
+	}
+
+	@Override
+	public void binaryFillHoles(EngineImage binary, EngineImage destination) {
+		clij2.binaryFillHoles(buffer(binary), buffer(destination));
+	}
+
+	@Override
+	public void binaryFillHolesSliceBySlice(EngineImage binary, EngineImage destination) {
+		BinaryFillHolesSliceBySlice.binaryFillHolesSliceBySlice(clij2, buffer(binary), buffer(destination));
+	}
+
+	@Override
+	public void closeIndexGaps(EngineImage labels, EngineImage destination) {
+		clij2.closeIndexGapsInLabelMap(buffer(labels), buffer(destination));
+	}
+
+	@Override
+	public void erodeLabels(EngineImage labels, EngineImage destination, double radius, double[] spacing, boolean relabelIslands) {
+		clij2.erodeLabels(buffer(labels), buffer(destination), (int) Math.round(radius), relabelIslands);
+	}
+
+	@Override
+	public void dilateLabels(EngineImage labels, EngineImage destination, double radius, double[] spacing) {
+		clij2.dilateLabels(buffer(labels), buffer(destination), (int) Math.round(radius));
+	}
+
+	@Override
+	public void separateLabels(EngineImage labels, EngineImage destination) {
+		ClearCLBuffer dilated_image = clij2.create(buffer(labels));
+		clij2.dilateLabels(buffer(labels), dilated_image, 1);
+
+		ClearCLBuffer edge_image = clij2.create(dilated_image);
+		clij2.reduceLabelsToLabelEdges(dilated_image, edge_image);
+
+		clij2.subtractImages(dilated_image, edge_image, buffer(destination));
+		edge_image.close();
+		dilated_image.close();
+	}
+
+	@Override
+	public void excludeLabelsOutsideSizeRange(EngineImage labels, EngineImage destination, double minimumVoxels, double maximumVoxels) {
+		clij2.excludeLabelsOutsideSizeRange(buffer(labels), buffer(destination), minimumVoxels, maximumVoxels);
+	}
+
+	@Override
+	public void excludeLabelsOnEdges(EngineImage labels, EngineImage destination) {
+		clij2.excludeLabelsOnEdges(buffer(labels), buffer(destination));
+	}
+
+	/**
+	 * The spacing is not supported, the seeds grow by one voxel per step.
+	 */
+	@Override
+	public void maskedVoronoiLabeling(EngineImage seeds, EngineImage mask, EngineImage labels, double[] spacing) {
+		ClearCLBuffer masked_seeds = clij2.create(buffer(seeds));
+		clij2.mask(buffer(seeds), buffer(mask), masked_seeds);
+		clij2.maskedVoronoiLabeling(masked_seeds, buffer(mask), buffer(labels));
+		masked_seeds.close();
+	}
+
+	@Override
+	public void extendLabelingViaVoronoi(EngineImage labels, EngineImage destination) {
+		clij2.extendLabelingViaVoronoi(buffer(labels), buffer(destination));
+	}
+
+	@Override
+	public void touchingNeighborCountMap(EngineImage labels, EngineImage destination) {
+		clij2.touchingNeighborCountMap(buffer(labels), buffer(destination));
+	}
+
+	@Override
+	public void proximalNeighborCountMap(EngineImage labels, EngineImage destination, double minimumDistance, double maximumDistance) {
+		clij2.proximalNeighborCountMap(buffer(labels), buffer(destination), minimumDistance, maximumDistance);
+	}
+
+	@Override
+	public void visualizeOutlinesOnOriginal(EngineImage intensity, EngineImage labels, EngineImage destination) {
+		clij2.visualizeOutlinesOnOriginal(buffer(intensity), buffer(labels), buffer(destination));
+	}
+
+
+	/**
+	 * Cubic voxels use the CLIJ2 distance map, which ignores the voxel spacing and approximates
+	 * the Euclidean distance. Only anisotropic voxels fall back to the exact distance transform
+	 * on the host, the images are pulled and pushed for that.
+	 */
+	@Override
+	public void distanceMap(EngineImage binary, EngineImage destination, double[] spacing) {
+		if (isIsotropic(spacing)) {
+			clij2.distanceMap(buffer(binary), buffer(destination));
+			return;
+		}
+		
+		HostImage binary_image = HostImage.fromImagePlus(clij2.pull(buffer(binary)), null);
+		HostImage distances = new HostImage(binary.getWidth(), binary.getHeight(), binary.getDepth(), 32);
+		DistanceTransform.distanceMap(binary_image, distances, spacing);
+		binary_image.close();
+
+		ClearCLBuffer temp_distance_map = clij2.push(distances.toImagePlus());
+		clij2.copy(temp_distance_map, buffer(destination));
+		temp_distance_map.close();
+	}
+	
+	private static boolean isIsotropic(double[] spacing) {
+		return spacing == null || (spacing[0] == spacing[1] && spacing[0] == spacing[2]);
+	}
+
+	@Override
+	public void detectMaxima(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ) {
+		if (source.getDepth() == 1) {
+			clij2.detectMaxima2DBox(buffer(source), buffer(destination), radiusX, radiusY);
+		} else {
+			clij2.detectMaxima3DBox(buffer(source), buffer(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void tubeness(EngineImage source, EngineImage destination, double sigma) {
+		new ImageJ2Tubeness().imageJ2Tubeness(clij2, buffer(source), buffer(destination), (float) sigma, 0f, 0f, 0f);
+	}
+
+	@Override
+	public ResultsTable statisticsOfLabelledPixels(EngineImage intensity, EngineImage labels) {
+		ResultsTable table = new ResultsTable();
+		clij2.statisticsOfLabelledPixels(buffer(intensity), buffer(labels), table);
+		return table;
+	}
+
+	/**
+	 * The lookup table is extended to the maximum of the source, so that the kernel never reads beyond it.
+	 */
+	@Override
+	public void replaceIntensities(EngineImage source, float[] lookupTable, EngineImage destination) {
+		int length = Math.max(lookupTable.length, (int) clij2.maximumOfAllPixels(buffer(source)) + 1);
+		float[] values = Arrays.copyOf(lookupTable, length);
+		ClearCLBuffer lookup_vector = clij2.pushArray(values, values.length, 1, 1);
+		clij2.replaceIntensities(buffer(source), lookup_vector, buffer(destination));
+		lookup_vector.close();
+	}
+
+
+	@Override
+	public void subtractImages(EngineImage subtrahend, EngineImage minuend, EngineImage destination) {
+		clij2.subtractImages(buffer(subtrahend), buffer(minuend), buffer(destination));
+	}
+
+	@Override
+	public void divideImages(EngineImage divident, EngineImage divisor, EngineImage destination) {
+		clij2.divideImages(buffer(divident), buffer(divisor), buffer(destination));
+	}
+
+	@Override
+	public void multiplyImageAndScalar(EngineImage source, EngineImage destination, double scalar) {
+		clij2.multiplyImageAndScalar(buffer(source), buffer(destination), scalar);
+	}
+
+
+	@Override
+	public void absoluteDifference(EngineImage source1, EngineImage source2, EngineImage destination) {
+		clij2.absoluteDifference(buffer(source1), buffer(source2), buffer(destination));
+	}
+
+	@Override
+	public void imageToStack(EngineImage slice, EngineImage destination) {
+		clij2.imageToStack(buffer(slice), buffer(destination), destination.getDepth());
+	}
+
+	@Override
+	public void crop(EngineImage source, EngineImage destination, int x, int y, int z) {
+		if (source.getDepth() == 1) {
+			clij2.crop2D(buffer(source), buffer(destination), x, y);
+		} else {
+			clij2.crop3D(buffer(source), buffer(destination), x, y, z);
+		}
+	}
+
+	@Override
+	public void makeIsotropic(EngineImage source, EngineImage destination, double voxelWidth, double voxelHeight, double voxelDepth, double newVoxelSize) {
+		clij2.makeIsotropic(buffer(source), buffer(destination), voxelWidth, voxelHeight, voxelDepth, newVoxelSize);
+	}
+
+	@Override
+	public void invert(EngineImage source, EngineImage destination) {
+		clij2.invert(buffer(source), buffer(destination));
+	}
+
+	@Override
+	public void different(EngineImage source1, EngineImage source2, EngineImage destination, double tolerance) {
+		clij2.different(buffer(source1), buffer(source2), buffer(destination), tolerance);
+	}
+
+	@Override
+	public void set(EngineImage image, double value) {
+		clij2.set(buffer(image), value);
+	}
+
+	@Override
+	public void drawSphere(EngineImage image, double x, double y, double z, double radiusX, double radiusY, double radiusZ, double value) {
+		clij2.drawSphere(buffer(image), x, y, z, radiusX, radiusY, radiusZ, value);
+	}
+
+
+	@Override
+	public double meanOfAllPixels(EngineImage image) {
+		return clij2.meanOfAllPixels(buffer(image));
+	}
+
+	@Override
+	public double minimumOfAllPixels(EngineImage image) {
+		return clij2.minimumOfAllPixels(buffer(image));
+	}
+
+	@Override
+	public double maximumOfAllPixels(EngineImage image) {
+		return clij2.maximumOfAllPixels(buffer(image));
+	}
+
+	/**
+	 * CLIJ2 centers its bins on min + i * bin width, which gives the same counts for integer values and bins of width 1
+	 */
+	@Override
+	public long[] histogram(EngineImage image, int binCount, double min, double max) {
+		double binWidth = (max - min) / binCount;
+		ClearCLBuffer histogram = clij2.create(new long[] { binCount, 1, 1 }, NativeTypeEnum.Float);
+		clij2.histogram(buffer(image), histogram, binCount, (float) min, (float) (max - binWidth), false);
+		float[] binCounts = (float[]) clij2.pull(histogram).getProcessor().getPixels();
+		histogram.close();
+
+		long[] counts = new long[binCount];
+		for (int bin = 0; bin < binCount; bin++) {
+			counts[bin] = (long) binCounts[bin];
+		}
+		return counts;
+	}
+
+
+	@Override
+	public long getMemorySize() {
+		return clij2.getCLIJ().getClearCLContext().getDevice().getGlobalMemorySizeInBytes();
+	}
+
+	@Override
+	public long getMaxAllocationSize() {
+		return clij2.getCLIJ().getClearCLContext().getDevice().getMaxMemoryAllocationSizeInBytes();
+	}
+
+
+	@Override
+	public void clear() {
+		clij2.clear();
+	}
+
+	@Override
+	public void close() {
+		clij2.close();
+	}
+
+}
@@ -0,0 +1,109 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * {@link EngineImage} wrapping a CLIJ2 device buffer.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class CLIJ2Image implements EngineImage {
+
+	private final ClearCLBuffer buffer;
+
+
+	public CLIJ2Image(ClearCLBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+
+	public ClearCLBuffer getBuffer() {
+		return buffer;
+	}
+
+
+	@Override
+	public int getWidth() {
+		return (int) buffer.getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return (int) buffer.getHeight();
+	}
+
+	@Override
+	public int getDepth() {
+		return (int) buffer.getDepth();
+	}
+
+	@Override
+	public int getBitDepth() {
+		NativeTypeEnum type = buffer.getNativeType();
+		if (type == NativeTypeEnum.UnsignedByte || type == NativeTypeEnum.Byte) {
+			return 8;
+		} else if (type == NativeTypeEnum.UnsignedShort || type == NativeTypeEnum.Short) {
+			return 16;
+		} else {
+			return 32;
+		}
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		return buffer.getSizeInBytes();
+	}
+
+	@Override
+	public String getName() {
+		return buffer.getName();
+	}
+
+	@Override
+	public void setName(String name) {
+		buffer.setName(name);
+	}
+
+
+	@Override
+	public void close() {
+		buffer.close();
+	}
+
+}
@@ -0,0 +1,997 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * {@link ComputeEngine} running all operations in pure Java on the heap.
+ * Work is distributed over slices, rows or lines using {@link CPUThreads}.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class CPUEngine implements ComputeEngine {
+
+	/**
+	 * From this sigma on the recursive Gaussian is used, it deviates about 1% of an edge height from the convolution
+	 */
+	static final double RECURSIVE_SIGMA = 3.0;
+
+
+	public static HostImage host(EngineImage image) {
+		return (HostImage) image;
+	}
+
+
+	@Override
+	public String getName() {
+		return "CPU (" + CPUThreads.getThreadCount() + " threads)";
+	}
+
+
+	@Override
+	public EngineImage push(ImagePlus image) {
+		return HostImage.fromImagePlus(image, null);
+	}
+
+	@Override
+	public EngineImage pushCurrentSelection(ImagePlus image) {
+		Rectangle bounds = image.getRoi() != null ? image.getRoi().getBounds().intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight())) : null;
+		return HostImage.fromImagePlus(image, bounds);
+	}
+
+	@Override
+	public ImagePlus pull(EngineImage image) {
+		return host(image).toImagePlus();
+	}
+
+	/**
+	 * Label images stay stored as int and 8-bit images as byte.
+	 */
+	@Override
+	public HostImage pullHostImage(EngineImage image) {
+		HostImage copy = host(create(image));
+		copy(image, copy);
+		return copy;
+	}
+
+
+	@Override
+	public EngineImage create(EngineImage template) {
+		return new HostImage(template.getWidth(), template.getHeight(), template.getDepth(), template.getBitDepth());
+	}
+
+	@Override
+	public EngineImage create(long[] dimensions) {
+		return create(dimensions, 32);
+	}
+
+	@Override
+	public EngineImage create(long[] dimensions, int bitDepth) {
+		int depth = dimensions.length > 2 ? (int) dimensions[2] : 1;
+		return new HostImage((int) dimensions[0], (int) dimensions[1], depth, bitDepth);
+	}
+
+	/**
+	 * Label images stay stored as int and 8-bit images as byte.
+	 */
+	@Override
+	public void copy(EngineImage source, EngineImage destination) {
+		if (source == destination) {
+			return;
+		}
+		HostImage.Storage storage = host(source).getStorage();
+		if (storage == HostImage.Storage.INT) {
+			int[][] src = host(source).getLabelSlices();
+			int[][] dst = host(destination).getLabelSlices();
+			CPUThreads.parallelFor(0, src.length, z -> System.arraycopy(src[z], 0, dst[z], 0, src[z].length));
+		} else if (storage == HostImage.Storage.BYTE && destination.getBitDepth() == 8) {
+			byte[][] src = host(source).getByteSlices();
+			byte[][] dst = host(destination).getByteSlices();
+			CPUThreads.parallelFor(0, src.length, z -> System.arraycopy(src[z], 0, dst[z], 0, src[z].length));
+		} else {
+			float[][] dst = host(destination).getSlices();
+			CPUThreads.parallelFor(0, dst.length, z -> {
+				float[] src = host(source).readSlice(z, dst[z]);
+				if (src != dst[z]) {
+					System.arraycopy(src, 0, dst[z], 0, src.length);
+				}
+			});
+		}
+		host(destination).convertToBitDepth();
+	}
+
+
+	@Override
+	public void gaussianBlur(EngineImage source, EngineImage destination, double sigmaX, double sigmaY, double sigmaZ) {
+		copy(source, destination);
+		float[][] data = host(destination).getSlices();
+		gaussianBlur(data, source.getWidth(), source.getHeight(), sigmaX, sigmaY, sigmaZ);
+		host(destination).convertToBitDepth();
+	}
+
+	@Override
+	public void differenceOfGaussian(EngineImage source, EngineImage destination, double sigma1X, double sigma1Y, double sigma1Z, double sigma2X, double sigma2Y, double sigma2Z) {
+		int width = source.getWidth();
+		int height = source.getHeight();
+		float[][] blurred1 = copyOf(host(source));
+		float[][] blurred2 = copyOf(host(source));
+		gaussianBlur(blurred1, width, height, sigma1X, sigma1Y, sigma1Z);
+		gaussianBlur(blurred2, width, height, sigma2X, sigma2Y, sigma2Z);
+
+		float[][] dst = host(destination).getSlices();
+		CPUThreads.parallelFor(0, dst.length, z -> {
+			for (int i = 0; i < dst[z].length; i++) {
+				dst[z][i] = blurred1[z][i] - blurred2[z][i];
+			}
+		});
+		host(destination).convertToBitDepth();
+	}
+
+
+	@Override
+	public void median(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+		if (box) {
+			MedianFilter.box(host(source), host(destination), radiusX, radiusY, radiusZ);
+		} else {
+			MedianFilter.sphere(host(source), host(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void minimum(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+		if (box) {
+			MinMaxFilter.minimumBox(host(source), host(destination), radiusX, radiusY, radiusZ);
+		} else {
+			SphereMinMaxFilter.minimum(host(source), host(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void maximum(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+		if (box) {
+			MinMaxFilter.maximumBox(host(source), host(destination), radiusX, radiusY, radiusZ);
+		} else {
+			SphereMinMaxFilter.maximum(host(source), host(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	/**
+	 * Filters in place, all filters accept the source as destination.
+	 */
+	@Override
+	public void opening(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box, boolean closing) {
+		if (closing) {
+			maximum(source, destination, radiusX, radiusY, radiusZ, box);
+			minimum(destination, destination, radiusX, radiusY, radiusZ, box);
+		} else {
+			minimum(source, destination, radiusX, radiusY, radiusZ, box);
+			maximum(destination, destination, radiusX, radiusY, radiusZ, box);
+		}
+	}
+
+	@Override
+	public void mean(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+		MeanFilter.mean(host(source), host(destination), radiusX, radiusY, radiusZ, box);
+	}
+
+	@Override
+	public void variance(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+		MeanFilter.variance(host(source), host(destination), radiusX, radiusY, radiusZ, box);
+	}
+
+
+	/**
+	 * 8-bit destinations are written as byte.
+	 */
+	@Override
+	public void threshold(EngineImage source, EngineImage destination, double threshold) {
+		if (destination.getBitDepth() == 8 && source != destination) {
+			byte[][] dst = host(destination).getByteSlices();
+			CPUThreads.parallelFor(0, dst.length, z -> {
+				float[] src = host(source).readSlice(z, null);
+				for (int i = 0; i < dst[z].length; i++) {
+					dst[z][i] = (byte) (src[i] >= threshold ? 1 : 0);
+				}
+			});
+		} else {
+			float[][] dst = host(destination).getSlices();
+			CPUThreads.parallelFor(0, dst.length, z -> {
+				float[] src = host(source).readSlice(z, null);
+				for (int i = 0; i < dst[z].length; i++) {
+					dst[z][i] = src[i] >= threshold ? 1f : 0f;
+				}
+			});
+			host(destination).convertToBitDepth();
+		}
+	}
+
+	/**
+	 * Label images are masked as int.
+	 */
+	@Override
+	public void mask(EngineImage source, EngineImage mask, EngineImage destination) {
+		if (host(source).getStorage() == HostImage.Storage.INT && mask != destination) {
+			int[][] src = host(source).getLabelSlices();
+			int[][] dst = host(destination).getLabelSlices();
+			CPUThreads.parallelFor(0, dst.length, z -> {
+				float[] msk = host(mask).readSlice(z, null);
+				for (int i = 0; i < dst[z].length; i++) {
+					dst[z][i] = msk[i] != 0 ? src[z][i] : 0;
+				}
+			});
+		} else {
+			float[][] dst = host(destination).getSlices();
+			CPUThreads.parallelFor(0, dst.length, z -> {
+				float[] src = host(source).readSlice(z, null);
+				float[] msk = host(mask).readSlice(z, null);
+				for (int i = 0; i < dst[z].length; i++) {
+					dst[z][i] = msk[i] != 0 ? src[i] : 0f;
+				}
+			});
+		}
+		host(destination).convertToBitDepth();
+	}
+
+	@Override
+	public void connectedComponentsLabeling(EngineImage binary, EngineImage labels, boolean diamond) {
+		ConnectedComponentsLabeling.label(host(binary), host(labels), diamond);
+		host(labels).convertToBitDepth();
+	}
+
+	/**
+	 * The background is labeled as in the CLIJ2 implementation, and all background
+	 * labels touching the border (only along x and y in 2D) are kept.
+	 */
+	@Override
+	public void binaryFillHoles(EngineImage binary, EngineImage destination) {
+		fillHoles(host(binary), host(destination), false);
+	}
+
+	@Override
+	public void binaryFillHolesSliceBySlice(EngineImage binary, EngineImage destination) {
+		fillHoles(host(binary), host(destination), true);
+	}
+
+
+	private static void fillHoles(HostImage source, HostImage destination, boolean sliceBySlice) {
+
+		final int width = source.getWidth();
+		final int height = source.getHeight();
+		final int depth = source.getDepth();
+
+		final byte[][] background = new byte[depth][width * height];
+		CPUThreads.parallelFor(0, depth, z -> {
+			float[] slice = source.readSlice(z, null);
+			for (int i = 0; i < background[z].length; i++) {
+				background[z][i] = (byte) (slice[i] == 0 ? 1 : 0);
+			}
+		});
+
+		final int[][] output = destination.getLabelSlices();
+		if (sliceBySlice) {
+			for (int z = 0; z < depth; z++) {
+				fillHoles(new byte[][] { background[z] }, width, height, new int[][] { output[z] });
+			}
+		} else {
+			fillHoles(background, width, height, output);
+		}
+		destination.convertToBitDepth();
+	}
+
+
+	/**
+	 * @param background	1 for background voxels
+	 * @param output		1 for foreground and holes
+	 */
+	private static void fillHoles(byte[][] background, int width, int height, int[][] output) {
+
+		final int depth = background.length;
+		final HostImage components = new HostImage(width, height, depth, 32);
+		int count = ConnectedComponentsLabeling.label(new HostImage(width, height, background), components, false);
+		final int[][] component = components.getLabelSlices();
+
+		final boolean[] border = new boolean[count + 1];
+		for (int z = 0; z < depth; z++) {
+			boolean borderSlice = depth > 1 && (z == 0 || z == depth - 1);
+			for (int y = 0, i = 0; y < height; y++) {
+				for (int x = 0; x < width; x++, i++) {
+					if (borderSlice || x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+						border[component[z][i]] = true;
+					}
+				}
+			}
+		}
+
+		CPUThreads.parallelFor(0, depth, z -> {
+			for (int i = 0; i < output[z].length; i++) {
+				output[z][i] = background[z][i] == 0 || !border[component[z][i]] ? 1 : 0;
+			}
+		});
+	}
+
+	@Override
+	public void closeIndexGaps(EngineImage labels, EngineImage destination) {
+
+		if (labels != destination) {
+			copy(labels, destination);
+		}
+		final int[][] slices = host(destination).getLabelSlices();
+
+		int maxLabel = 0;
+		for (int[] slice : slices) {
+			for (int label : slice) {
+				maxLabel = Math.max(maxLabel, label);
+			}
+		}
+
+		final boolean[] present = new boolean[maxLabel + 1];
+		CPUThreads.parallelFor(0, slices.length, z -> {
+			for (int label : slices[z]) {
+				if (label > 0) {
+					present[label] = true;
+				}
+			}
+		});
+
+		new LabelFilter(maxLabel).keepIf(index -> present[index + 1]).apply(host(destination));
+	}
+
+	@Override
+	public void erodeLabels(EngineImage labels, EngineImage destination, double radius, double[] spacing, boolean relabelIslands) {
+		LabelMorphology.erode(host(labels), host(destination), radius, spacing, relabelIslands);
+	}
+
+	@Override
+	public void dilateLabels(EngineImage labels, EngineImage destination, double radius, double[] spacing) {
+		LabelMorphology.dilate(host(labels), host(destination), radius, spacing);
+	}
+
+	/**
+	 * Works in place on the destination without a temporary image.
+	 */
+	@Override
+	public void openingLabels(EngineImage labels, EngineImage destination, double radius, double[] spacing) {
+		LabelMorphology.erode(host(labels), host(destination), radius, spacing, true);
+		LabelMorphology.dilate(host(destination), host(destination), radius, spacing);
+	}
+
+	@Override
+	public void separateLabels(EngineImage labels, EngineImage destination) {
+		LabelMorphology.separate(host(labels), host(destination));
+	}
+
+	@Override
+	public void excludeLabelsOutsideSizeRange(EngineImage labels, EngineImage destination, double minimumVoxels, double maximumVoxels) {
+		copy(labels, destination);
+		excludeLabels(host(destination), minimumVoxels, maximumVoxels, false);
+	}
+
+	@Override
+	public void excludeLabelsOnEdges(EngineImage labels, EngineImage destination) {
+		copy(labels, destination);
+		excludeLabels(host(destination), 0, Double.POSITIVE_INFINITY, true);
+	}
+
+
+	/**
+	 * Removes the labels outside of the voxel count range and optionally those touching the
+	 * image border (only along x and y in 2D), and relabels the remaining ones consecutively.
+	 *
+	 * @param labels			filtered in place
+	 * @param minimumVoxels
+	 * @param maximumVoxels
+	 * @param excludeOnEdges
+	 * @return number of remaining labels
+	 */
+	public static int excludeLabels(HostImage labels, double minimumVoxels, double maximumVoxels, boolean excludeOnEdges) {
+
+		LabelStatistics statistics = LabelStatistics.measure(labels, new HostImage[0], false);
+
+		final double[] pixelCount = statistics.getPixelCount();
+		LabelFilter labelFilter = new LabelFilter(statistics.getLabelCount())
+				.keepIf(l -> pixelCount[l] > 0)
+				.keepInRange(pixelCount, minimumVoxels, maximumVoxels);
+
+		if (excludeOnEdges) {
+			int[] size = { labels.getWidth(), labels.getHeight(), labels.getDepth() };
+			for (int axis = 0; axis < 3; axis++) {
+				if (size[axis] > 1) {
+					labelFilter.keepInRange(statistics.getBoundingBoxStart(axis), 1, Double.POSITIVE_INFINITY)
+							.keepInRange(statistics.getBoundingBoxEnd(axis), Double.NEGATIVE_INFINITY, size[axis] - 2);
+				}
+			}
+		}
+
+		return labelFilter.apply(labels);
+	}
+
+
+	/**
+	 * The path length is measured with the voxel spacing.
+	 */
+	@Override
+	public void maskedVoronoiLabeling(EngineImage seeds, EngineImage mask, EngineImage labels, double[] spacing) {
+		MaskedVoronoiLabeling.label(host(seeds), host(mask), host(labels), spacing);
+		host(labels).convertToBitDepth();
+	}
+
+	/**
+	 * The path length is measured with the steps to the 26 neighbors (8 in 2D) of cubic voxels.
+	 */
+	@Override
+	public void extendLabelingViaVoronoi(EngineImage labels, EngineImage destination) {
+		MaskedVoronoiLabeling.extend(host(labels), host(destination), null);
+		host(destination).convertToBitDepth();
+	}
+
+	@Override
+	public void touchingNeighborCountMap(EngineImage labels, EngineImage destination) {
+		generateParametricImage(labels, LabelNeighbors.countTouchingNeighbors(host(labels)), destination);
+	}
+
+	@Override
+	public void proximalNeighborCountMap(EngineImage labels, EngineImage destination, double minimumDistance, double maximumDistance) {
+		LabelStatistics statistics = LabelStatistics.measure(host(labels), new HostImage[0], false);
+		generateParametricImage(labels, LabelNeighbors.countProximalNeighbors(statistics, minimumDistance, maximumDistance), destination);
+	}
+
+	/**
+	 * Labeled voxels with a differently labeled neighbor along x, y or z are edges.
+	 */
+	@Override
+	public void visualizeOutlinesOnOriginal(EngineImage intensity, EngineImage labels, EngineImage destination) {
+
+		final int width = labels.getWidth();
+		final int height = labels.getHeight();
+		final int depth = labels.getDepth();
+		final int[][] label = host(labels).getLabelSlices();
+		final float maximum = (float) maximumOfAllPixels(intensity);
+
+		final float[][] output = new float[depth][];
+		CPUThreads.parallelFor(0, depth, z -> {
+			float[] buffer = new float[width * height];
+			float[] slice = host(intensity).readSlice(z, buffer);
+			if (slice != buffer) {
+				slice = slice.clone();
+			}
+			int[] current = label[z];
+			for (int y = 0, i = 0; y < height; y++) {
+				for (int x = 0; x < width; x++, i++) {
+					int value = current[i];
+					if (value > 0 && ((x > 0 && current[i - 1] != value) || (x < width - 1 && current[i + 1] != value)
+							|| (y > 0 && current[i - width] != value) || (y < height - 1 && current[i + width] != value)
+							|| (z > 0 && label[z - 1][i] != value) || (z < depth - 1 && label[z + 1][i] != value))) {
+						slice[i] = maximum;
+					}
+				}
+			}
+			output[z] = slice;
+		});
+
+		float[][] dst = host(destination).getSlices();
+		CPUThreads.parallelFor(0, depth, z -> System.arraycopy(output[z], 0, dst[z], 0, output[z].length));
+		host(destination).convertToBitDepth();
+	}
+
+
+	@Override
+	public void distanceMap(EngineImage binary, EngineImage destination, double[] spacing) {
+		DistanceTransform.distanceMap(host(binary), host(destination), spacing);
+	}
+
+	/**
+	 * All voxels of a plateau reaching the maximum of their neighborhood are marked.
+	 */
+	@Override
+	public void detectMaxima(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ) {
+		HostImage maxima = new HostImage(source.getWidth(), source.getHeight(), source.getDepth(), 32);
+		MinMaxFilter.maximumBox(host(source), maxima, radiusX, radiusY, radiusZ);
+
+		final float[][] max = maxima.getSlices();
+		float[][] dst = host(destination).getSlices();
+		CPUThreads.parallelFor(0, dst.length, z -> {
+			float[] src = host(source).readSlice(z, null);
+			for (int i = 0; i < dst[z].length; i++) {
+				dst[z][i] = src[i] >= max[z][i] ? 1f : 0f;
+			}
+		});
+		host(destination).convertToBitDepth();
+	}
+
+	@Override
+	public void tubeness(EngineImage source, EngineImage destination, double sigma) {
+		Tubeness.tubeness(host(source), host(destination), sigma);
+	}
+
+	@Override
+	public ResultsTable statisticsOfLabelledPixels(EngineImage intensity, EngineImage labels) {
+		return LabelStatistics.measure(host(labels), new HostImage[] { host(intensity) }, true).toResultsTable(0);
+	}
+
+	/**
+	 * Label images stay stored as int if all values of the lookup table are integers.
+	 */
+	@Override
+	public void replaceIntensities(EngineImage source, float[] lookupTable, EngineImage destination) {
+
+		boolean integers = host(source).getStorage() == HostImage.Storage.INT && destination.getBitDepth() == 32;
+		for (int v = 0; integers && v < lookupTable.length; v++) {
+			integers = lookupTable[v] == (int) lookupTable[v];
+		}
+
+		if (integers) {
+			int[][] src = host(source).getLabelSlices();
+			int[][] dst = host(destination).getLabelSlices();
+			CPUThreads.parallelFor(0, dst.length, z -> {
+				for (int i = 0; i < dst[z].length; i++) {
+					int value = src[z][i];
+					dst[z][i] = value >= 0 && value < lookupTable.length ? (int) lookupTable[value] : 0;
+				}
+			});
+		} else {
+			float[][] dst = host(destination).getSlices();
+			CPUThreads.parallelFor(0, dst.length, z -> {
+				float[] src = host(source).readSlice(z, null);
+				for (int i = 0; i < dst[z].length; i++) {
+					int value = (int) src[i];
+					dst[z][i] = value >= 0 && value < lookupTable.length ? lookupTable[value] : 0f;
+				}
+			});
+		}
+		host(destination).convertToBitDepth();
+	}
+
+
+	@Override
+	public void subtractImages(EngineImage subtrahend, EngineImage minuend, EngineImage destination) {
+		float[][] dst = host(destination).getSlices();
+		CPUThreads.parallelFor(0, dst.length, z -> {
+			float[] a = host(subtrahend).readSlice(z, null);
+			float[] b = host(minuend).readSlice(z, null);
+			for (int i = 0; i < dst[z].length; i++) {
+				dst[z][i] = a[i] - b[i];
+			}
+		});
+		host(destination).convertToBitDepth();
+	}
+
+	@Override
+	public void divideImages(EngineImage divident, EngineImage divisor, EngineImage destination) {
+		float[][] dst = host(destination).getSlices();
+		CPUThreads.parallelFor(0, dst.length, z -> {
+			float[] a = host(divident).readSlice(z, null);
+			float[] b = host(divisor).readSlice(z, null);
+			for (int i = 0; i < dst[z].length; i++) {
+				dst[z][i] = a[i] / b[i];
+			}
+		});
+		host(destination).convertToBitDepth();
+	}
+
+	@Override
+	public void multiplyImageAndScalar(EngineImage source, EngineImage destination, double scalar) {
+		float[][] dst = host(destination).getSlices();
+		final float factor = (float) scalar;
+		CPUThreads.parallelFor(0, dst.length, z -> {
+			float[] src = host(source).readSlice(z, null);
+			for (int i = 0; i < dst[z].length; i++) {
+				dst[z][i] = src[i] * factor;
+			}
+		});
+		host(destination).convertToBitDepth();
+	}
+
+
+	@Override
+	public void absoluteDifference(EngineImage source1, EngineImage source2, EngineImage destination) {
+		float[][] dst = host(destination).getSlices();
+		CPUThreads.parallelFor(0, dst.length, z -> {
+			float[] a = host(source1).readSlice(z, null);
+			float[] b = host(source2).readSlice(z, null);
+			for (int i = 0; i < dst[z].length; i++) {
+				dst[z][i] = Math.abs(a[i] - b[i]);
+			}
+		});
+		host(destination).convertToBitDepth();
+	}
+
+	@Override
+	public void imageToStack(EngineImage slice, EngineImage destination) {
+		float[] src = host(slice).readSlice(0, null);
+		float[][] dst = host(destination).getSlices();
+		CPUThreads.parallelFor(0, dst.length, z -> System.arraycopy(src, 0, dst[z], 0, src.length));
+		host(destination).convertToBitDepth();
+	}
+
+	/**
+	 * Label images stay stored as int.
+	 */
+	@Override
+	public void crop(EngineImage source, EngineImage destination, int x, int y, int z) {
+		final int sourceWidth = source.getWidth();
+		final int width = destination.getWidth();
+		final int height = destination.getHeight();
+		if (host(source).getStorage() == HostImage.Storage.INT) {
+			int[][] src = host(source).getLabelSlices();
+			int[][] dst = host(destination).getLabelSlices();
+			CPUThreads.parallelFor(0, dst.length, slice -> {
+				for (int row = 0; row < height; row++) {
+					System.arraycopy(src[z + slice], (y + row) * sourceWidth + x, dst[slice], row * width, width);
+				}
+			});
+		} else {
+			float[][] dst = host(destination).getSlices();
+			CPUThreads.parallelFor(0, dst.length, slice -> {
+				float[] src = host(source).readSlice(z + slice, null);
+				for (int row = 0; row < height; row++) {
+					System.arraycopy(src, (y + row) * sourceWidth + x, dst[slice], row * width, width);
+				}
+			});
+		}
+		host(destination).convertToBitDepth();
+	}
+
+	/**
+	 * The source is sampled at the centers of the new voxels, clamped to the image.
+	 */
+	@Override
+	public void makeIsotropic(EngineImage source, EngineImage destination, double voxelWidth, double voxelHeight, double voxelDepth, double newVoxelSize) {
+
+		final int width = destination.getWidth();
+		final int height = destination.getHeight();
+		final int sourceWidth = source.getWidth();
+		final float[][] src = copyOf(host(source));
+
+		final int[] startX = new int[width];
+		final int[] endX = new int[width];
+		final double[] fractionX = new double[width];
+		for (int x = 0; x < width; x++) {
+			double position = samplePosition(x, newVoxelSize / voxelWidth, sourceWidth);
+			startX[x] = (int) position;
+			endX[x] = Math.min(sourceWidth - 1, startX[x] + 1);
+			fractionX[x] = position - startX[x];
+		}
+
+		final float[][] dst = host(destination).getSlices();
+		CPUThreads.parallelFor(0, height * destination.getDepth(), row -> {
+			double positionY = samplePosition(row % height, newVoxelSize / voxelHeight, source.getHeight());
+			int startY = (int) positionY;
+			int endY = Math.min(source.getHeight() - 1, startY + 1);
+			double fractionY = positionY - startY;
+			double positionZ = samplePosition(row / height, newVoxelSize / voxelDepth, source.getDepth());
+			int startZ = (int) positionZ;
+			float[] front = src[startZ];
+			float[] back = src[Math.min(source.getDepth() - 1, startZ + 1)];
+			double fractionZ = positionZ - startZ;
+
+			float[] output = dst[row / height];
+			int offset = (row % height) * width;
+			for (int x = 0; x < width; x++) {
+				double frontValue = interpolate(front, startY * sourceWidth, endY * sourceWidth, startX[x], endX[x], fractionX[x], fractionY);
+				double backValue = interpolate(back, startY * sourceWidth, endY * sourceWidth, startX[x], endX[x], fractionX[x], fractionY);
+				output[offset + x] = (float) (frontValue + (backValue - frontValue) * fractionZ);
+			}
+		});
+		host(destination).convertToBitDepth();
+	}
+
+
+	private static double samplePosition(int position, double scale, int length) {
+		return Math.min(length - 1, Math.max(0, (position + 0.5) * scale - 0.5));
+	}
+
+
+	private static double interpolate(float[] slice, int startRow, int endRow, int startX, int endX, double fractionX, double fractionY) {
+		double start = slice[startRow + startX] + (slice[startRow + endX] - slice[startRow + startX]) * fractionX;
+		double end = slice[endRow + startX] + (slice[endRow + endX] - slice[endRow + startX]) * fractionX;
+		return start + (end - start) * fractionY;
+	}
+
+	@Override
+	public void invert(EngineImage source, EngineImage destination) {
+		multiplyImageAndScalar(source, destination, -1);
+	}
+
+	@Override
+	public void different(EngineImage source1, EngineImage source2, EngineImage destination, double tolerance) {
+		float[][] dst = host(destination).getSlices();
+		CPUThreads.parallelFor(0, dst.length, z -> {
+			float[] a = host(source1).readSlice(z, null);
+			float[] b = host(source2).readSlice(z, null);
+			for (int i = 0; i < dst[z].length; i++) {
+				dst[z][i] = Math.abs(a[i] - b[i]) > tolerance ? 1f : 0f;
+			}
+		});
+		host(destination).convertToBitDepth();
+	}
+
+	@Override
+	public void set(EngineImage image, double value) {
+		float[][] dst = host(image).getSlices();
+		CPUThreads.parallelFor(0, dst.length, z -> Arrays.fill(dst[z], (float) value));
+		host(image).convertToBitDepth();
+	}
+
+	/**
+	 * Images with one slice or a radius of 0 along z are only drawn into the nearest slice.
+	 */
+	@Override
+	public void drawSphere(EngineImage image, double x, double y, double z, double radiusX, double radiusY, double radiusZ, double value) {
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		final int depth = image.getDepth();
+		boolean flat = depth == 1 || radiusZ <= 0;
+		int startZ = flat ? (int) Math.round(z) : (int) Math.ceil(z - radiusZ);
+		int endZ = flat ? startZ : (int) Math.floor(z + radiusZ);
+		int startY = Math.max(0, (int) Math.ceil(y - radiusY));
+		int endY = Math.min(height - 1, (int) Math.floor(y + radiusY));
+		int startX = Math.max(0, (int) Math.ceil(x - radiusX));
+		int endX = Math.min(width - 1, (int) Math.floor(x + radiusX));
+
+		float[][] dst = host(image).getSlices();
+		for (int iz = Math.max(0, startZ); iz <= Math.min(depth - 1, endZ); iz++) {
+			double dz = flat ? 0 : (iz - z) / radiusZ;
+			for (int iy = startY; iy <= endY; iy++) {
+				double dy = (iy - y) / radiusY;
+				for (int ix = startX; ix <= endX; ix++) {
+					double dx = (ix - x) / radiusX;
+					if (dx * dx + dy * dy + dz * dz <= 1) {
+						dst[iz][iy * width + ix] = (float) value;
+					}
+				}
+			}
+		}
+		host(image).convertToBitDepth();
+	}
+
+
+	@Override
+	public double meanOfAllPixels(EngineImage image) {
+		final int depth = image.getDepth();
+		double[] sums = new double[depth];
+		CPUThreads.parallelFor(0, depth, z -> {
+			double sum = 0;
+			for (float value : host(image).readSlice(z, null)) {
+				sum += value;
+			}
+			sums[z] = sum;
+		});
+		double sum = 0;
+		for (double s : sums) {
+			sum += s;
+		}
+		return sum / image.getVoxelCount();
+	}
+
+	@Override
+	public double minimumOfAllPixels(EngineImage image) {
+		final int depth = image.getDepth();
+		float[] minima = new float[depth];
+		CPUThreads.parallelFor(0, depth, z -> {
+			float min = Float.POSITIVE_INFINITY;
+			for (float value : host(image).readSlice(z, null)) {
+				min = Math.min(min, value);
+			}
+			minima[z] = min;
+		});
+		float min = Float.POSITIVE_INFINITY;
+		for (float m : minima) {
+			min = Math.min(min, m);
+		}
+		return min;
+	}
+
+	@Override
+	public double maximumOfAllPixels(EngineImage image) {
+		final int depth = image.getDepth();
+		float[] maxima = new float[depth];
+		CPUThreads.parallelFor(0, depth, z -> {
+			float max = Float.NEGATIVE_INFINITY;
+			for (float value : host(image).readSlice(z, null)) {
+				max = Math.max(max, value);
+			}
+			maxima[z] = max;
+		});
+		float max = Float.NEGATIVE_INFINITY;
+		for (float m : maxima) {
+			max = Math.max(max, m);
+		}
+		return max;
+	}
+
+	@Override
+	public long[] histogram(EngineImage image, int binCount, double min, double max) {
+		final int depth = image.getDepth();
+		final double binWidth = (max - min) / binCount;
+		final long[][] counts = new long[depth][binCount];
+		CPUThreads.parallelFor(0, depth, z -> {
+			for (float value : host(image).readSlice(z, null)) {
+				if (!Float.isNaN(value)) {
+					int bin = (int) Math.floor((value - min) / binWidth);
+					counts[z][bin < 0 ? 0 : (bin >= binCount ? binCount - 1 : bin)]++;
+				}
+			}
+		});
+		long[] histogram = new long[binCount];
+		for (long[] sliceCounts : counts) {
+			for (int bin = 0; bin < binCount; bin++) {
+				histogram[bin] += sliceCounts[bin];
+			}
+		}
+		return histogram;
+	}
+
+
+	/**
+	 * The maximum heap size of the JVM
+	 */
+	@Override
+	public long getMemorySize() {
+		return Runtime.getRuntime().maxMemory();
+	}
+
+	/**
+	 * Images are stored slice by slice, so their size is only limited by the heap
+	 */
+	@Override
+	public long getMaxAllocationSize() {
+		return Long.MAX_VALUE;
+	}
+
+
+	@Override
+	public void clear() {
+		//heap memory is released by the garbage collector as soon as images are not referenced anymore
+	}
+
+	@Override
+	public void close() {
+
+	}
+
+
+
+	private static float[][] copyOf(HostImage image) {
+		float[][] copy = new float[image.getDepth()][];
+		CPUThreads.parallelFor(0, copy.length, z -> {
+			float[] buffer = new float[image.getWidth() * image.getHeight()];
+			float[] slice = image.readSlice(z, buffer);
+			copy[z] = slice == buffer ? buffer : slice.clone();
+		});
+		return copy;
+	}
+
+
+	/**
+	 * Separable Gaussian convolution in place with clamp-to-edge borders.
+	 * The kernel is cut at 4 sigma as in CLIJ2. Axes with a sigma of at least
+	 * {@link #RECURSIVE_SIGMA} are filtered by the {@link RecursiveGaussian},
+	 * whose cost does not grow with sigma.
+	 */
+	static void gaussianBlur(float[][] data, int width, int height, double sigmaX, double sigmaY, double sigmaZ) {
+
+		final int depth = data.length;
+
+		RecursiveGaussian.blur(data, width, height,
+				sigmaX >= RECURSIVE_SIGMA ? sigmaX : 0,
+				sigmaY >= RECURSIVE_SIGMA ? sigmaY : 0,
+				sigmaZ >= RECURSIVE_SIGMA ? sigmaZ : 0);
+
+		if (sigmaX > 0 && sigmaX < RECURSIVE_SIGMA && width > 1) {
+			final float[] kernel = gaussianKernel(sigmaX);
+			CPUThreads.parallelFor(0, depth, z -> {
+				float[] line = new float[width];
+				float[] result = new float[width];
+				for (int y = 0; y < height; y++) {
+					System.arraycopy(data[z], y * width, line, 0, width);
+					convolveLine(line, result, width, kernel);
+					System.arraycopy(result, 0, data[z], y * width, width);
+				}
+			});
+		}
+
+		if (sigmaY > 0 && sigmaY < RECURSIVE_SIGMA && height > 1) {
+			final float[] kernel = gaussianKernel(sigmaY);
+			CPUThreads.parallelFor(0, depth, z -> {
+				float[] line = new float[height];
+				float[] result = new float[height];
+				for (int x = 0; x < width; x++) {
+					for (int y = 0; y < height; y++) {
+						line[y] = data[z][y * width + x];
+					}
+					convolveLine(line, result, height, kernel);
+					for (int y = 0; y < height; y++) {
+						data[z][y * width + x] = result[y];
+					}
+				}
+			});
+		}
+
+		if (sigmaZ > 0 && sigmaZ < RECURSIVE_SIGMA && depth > 1) {
+			final float[] kernel = gaussianKernel(sigmaZ);
+			CPUThreads.parallelFor(0, height, y -> {
+				float[] line = new float[depth];
+				float[] result = new float[depth];
+				for (int x = 0; x < width; x++) {
+					int index = y * width + x;
+					for (int z = 0; z < depth; z++) {
+						line[z] = data[z][index];
+					}
+					convolveLine(line, result, depth, kernel);
+					for (int z = 0; z < depth; z++) {
+						data[z][index] = result[z];
+					}
+				}
+			});
+		}
+	}
+
+
+	private static float[] gaussianKernel(double sigma) {
+		int radius = (int) Math.ceil(sigma * 4);
+		float[] kernel = new float[2 * radius + 1];
+		double sum = 0;
+		for (int i = -radius; i <= radius; i++) {
+			double value = Math.exp(-(i * i) / (2 * sigma * sigma));
+			kernel[i + radius] = (float) value;
+			sum += value;
+		}
+		for (int i = 0; i < kernel.length; i++) {
+			kernel[i] /= sum;
+		}
+		return kernel;
+	}
+
+
+	private static void convolveLine(float[] line, float[] result, int length, float[] kernel) {
+		int radius = kernel.length / 2;
+		for (int i = 0; i < length; i++) {
+			double sum = 0;
+			for (int k = -radius; k <= radius; k++) {
+				int position = i + k;
+				position = position < 0 ? 0 : (position >= length ? length - 1 : position);
+				sum += line[position] * kernel[k + radius];
+			}
+			result[i] = (float) sum;
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+import org.scijava.prefs.DefaultPrefService;
+import org.scijava.prefs.PrefService;
+
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Shared thread pool of the CPU engine. The number of threads is read from
+ * the BioVoxxel 3D Box settings (0 = all available processors).
+ *
+ * @author BioVoxxel
+ *
+ */
+public class CPUThreads {
+
+	private static PrefService prefs = new DefaultPrefService();
+
+	private static ForkJoinPool pool;
+	private static int threadCountOverride = 0;
+
+
+	/**
+	 * Overrides the thread count from the settings, e.g. when several volumes
+	 * are processed in parallel by a batch job.
+	 *
+	 * @param threads 0 uses the thread count from the settings again
+	 */
+	public static synchronized void setThreadCount(int threads) {
+		threadCountOverride = Math.max(0, threads);
+	}
+
+
+	public static int getThreadCount() {
+		int threads = threadCountOverride > 0 ? threadCountOverride : prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_cpu_threads", 0);
+		return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+
+	public static synchronized ForkJoinPool getPool() {
+		int threads = getThreadCount();
+		if (pool == null || pool.getParallelism() != threads) {
+			if (pool != null) {
+				pool.shutdown();
+			}
+			pool = new ForkJoinPool(threads);
+		}
+		return pool;
+	}
+
+
+	/**
+	 * Runs body for every index in [start, end) distributed over the pool.
+	 * Nested calls from inside the pool run sequentially in the calling thread.
+	 *
+	 * @param start inclusive
+	 * @param end exclusive
+	 * @param body
+	 */
+	public static void parallelFor(int start, int end, IntConsumer body) {
+
+		int count = end - start;
+		if (count <= 0) {
+			return;
+		}
+
+		ForkJoinPool forkJoinPool = getPool();
+		int chunks = Math.min(count, forkJoinPool.getParallelism() * 4);
+
+		if (chunks <= 1 || ForkJoinTask.inForkJoinPool()) {
+			for (int i = start; i < end; i++) {
+				body.accept(i);
+			}
+			return;
+		}
+
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(chunks);
+		for (int c = 0; c < chunks; c++) {
+			final int chunkStart = start + (int) ((long) count * c / chunks);
+			final int chunkEnd = start + (int) ((long) count * (c + 1) / chunks);
+			tasks.add(forkJoinPool.submit(() -> {
+				for (int i = chunkStart; i < chunkEnd; i++) {
+					body.accept(i);
+				}
+			}));
+		}
+
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+	}
+
+}
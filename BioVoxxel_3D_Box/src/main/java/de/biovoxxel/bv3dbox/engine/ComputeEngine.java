@@ -0,0 +1,544 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Common set of image operations used by the BioVoxxel 3D Box plugins.
+ * Implementations exist for CLIJ2 (OpenCL devices) and for the CPU (pure Java,
+ * multithreaded). Use {@link ComputeEngineFactory#getEngine()} to obtain the
+ * engine chosen in the BioVoxxel 3D Box settings.
+ *
+ * Operations follow the CLIJ2 conventions: output images are created by the
+ * caller, radii are given as sigma/radius per axis and 0 means no filtering
+ * along this axis.
+ *
+ * @author BioVoxxel
+ *
+ */
+public interface ComputeEngine {
+
+	public String getName();
+
+
+	public EngineImage push(ImagePlus image);
+
+	/**
+	 * Pushes only the bounding rectangle of the current selection
+	 * or the complete image if there is no selection.
+	 *
+	 * @param image
+	 * @return
+	 */
+	public EngineImage pushCurrentSelection(ImagePlus image);
+
+	public ImagePlus pull(EngineImage image);
+
+	/**
+	 * Copies the image into a new image on the host, e.g. for the measurements of
+	 * {@link LabelStatistics}, {@link LabelOverlap} or {@link LabelDistances}.
+	 *
+	 * @param image
+	 * @return	independent of the image, label images keep their values
+	 */
+	public HostImage pullHostImage(EngineImage image);
+
+
+	/**
+	 * Creates an empty image with the same dimensions and type as the template.
+	 *
+	 * @param template
+	 * @return
+	 */
+	public EngineImage create(EngineImage template);
+
+	/**
+	 * Creates an empty 32-bit image.
+	 *
+	 * @param dimensions width, height and depth
+	 * @return
+	 */
+	public EngineImage create(long[] dimensions);
+
+	/**
+	 * Creates an empty image.
+	 *
+	 * @param dimensions width, height and depth
+	 * @param bitDepth	8, 16 or 32
+	 * @return
+	 */
+	public EngineImage create(long[] dimensions, int bitDepth);
+
+	public void copy(EngineImage source, EngineImage destination);
+
+
+	/**
+	 *
+	 * @param source
+	 * @param destination
+	 * @param sigmaX
+	 * @param sigmaY
+	 * @param sigmaZ	0 filters each slice in 2D
+	 */
+	public void gaussianBlur(EngineImage source, EngineImage destination, double sigmaX, double sigmaY, double sigmaZ);
+
+	public void differenceOfGaussian(EngineImage source, EngineImage destination, double sigma1X, double sigma1Y, double sigma1Z, double sigma2X, double sigma2Y, double sigma2Z);
+
+
+	/**
+	 * Median in an ellipsoid (sphere) or box neighborhood
+	 *
+	 * @param source
+	 * @param destination
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ	0 filters slice by slice, ignored for 2D images
+	 * @param box		box instead of sphere neighborhood
+	 */
+	public void median(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box);
+
+	/**
+	 * Minimum (erosion) in an ellipsoid (sphere) or box neighborhood
+	 *
+	 * @param source
+	 * @param destination
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ	0 filters slice by slice, ignored for 2D images
+	 * @param box		box instead of sphere neighborhood
+	 */
+	public void minimum(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box);
+
+	/**
+	 * Maximum (dilation) in an ellipsoid (sphere) or box neighborhood
+	 *
+	 * @param source
+	 * @param destination
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ	0 filters slice by slice, ignored for 2D images
+	 * @param box		box instead of sphere neighborhood
+	 */
+	public void maximum(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box);
+
+	/**
+	 * Opening (minimum followed by maximum) or closing (maximum followed by minimum)
+	 *
+	 * @param source
+	 * @param destination
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ	0 filters slice by slice, ignored for 2D images
+	 * @param box		box instead of sphere neighborhood
+	 * @param closing	closing instead of opening
+	 */
+	public default void opening(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box, boolean closing) {
+		try (EngineImage temp = create(source)) {
+			if (closing) {
+				maximum(source, temp, radiusX, radiusY, radiusZ, box);
+				minimum(temp, destination, radiusX, radiusY, radiusZ, box);
+			} else {
+				minimum(source, temp, radiusX, radiusY, radiusZ, box);
+				maximum(temp, destination, radiusX, radiusY, radiusZ, box);
+			}
+		}
+	}
+
+	/**
+	 * Mean in an ellipsoid (sphere) or box neighborhood
+	 *
+	 * @param source
+	 * @param destination
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ	0 filters slice by slice, ignored for 2D images
+	 * @param box		box instead of sphere neighborhood
+	 */
+	public void mean(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box);
+
+	/**
+	 * Variance in an ellipsoid (sphere) or box neighborhood
+	 *
+	 * @param source
+	 * @param destination
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ	0 filters slice by slice, ignored for 2D images
+	 * @param box		box instead of sphere neighborhood
+	 */
+	public void variance(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ, boolean box);
+
+
+	/**
+	 * Sets all voxels with an intensity >= threshold to 1, all others to 0.
+	 *
+	 * @param source
+	 * @param destination
+	 * @param threshold
+	 */
+	public void threshold(EngineImage source, EngineImage destination, double threshold);
+
+	public void mask(EngineImage source, EngineImage mask, EngineImage destination);
+
+	/**
+	 *
+	 * @param binary
+	 * @param labels
+	 * @param diamond	true for 6-connectivity (4 in 2D), false for 26-connectivity (8 in 2D)
+	 */
+	public void connectedComponentsLabeling(EngineImage binary, EngineImage labels, boolean diamond);
+
+	/**
+	 * Sets all background voxels which are not connected to the image border
+	 * (26-connectivity, 8 in 2D) to 1.
+	 *
+	 * @param binary		foreground != 0
+	 * @param destination
+	 */
+	public void binaryFillHoles(EngineImage binary, EngineImage destination);
+
+	/**
+	 * Fills the holes of each slice separately (8-connectivity of the background).
+	 *
+	 * @param binary		foreground != 0
+	 * @param destination
+	 */
+	public void binaryFillHolesSliceBySlice(EngineImage binary, EngineImage destination);
+
+	/**
+	 * Relabels the labels consecutively without gaps in the order of the current labels.
+	 *
+	 * @param labels
+	 * @param destination	can be the same as labels
+	 */
+	public void closeIndexGaps(EngineImage labels, EngineImage destination);
+
+	/**
+	 * Erosion of labels, which stop at each other.
+	 *
+	 * @param labels
+	 * @param destination
+	 * @param radius			in voxels along x, number of iterations for CLIJ2
+	 * @param spacing			voxel width, height and depth relative to the width for an anisotropic radius,
+	 * 							null for cubic voxels (CPU only)
+	 * @param relabelIslands	give the parts of labels falling apart their own label
+	 */
+	public void erodeLabels(EngineImage labels, EngineImage destination, double radius, double[] spacing, boolean relabelIslands);
+
+	/**
+	 * Dilation of labels into the background, which stop at each other.
+	 *
+	 * @param labels
+	 * @param destination
+	 * @param radius	in voxels along x, number of iterations for CLIJ2
+	 * @param spacing	voxel width, height and depth relative to the width for an anisotropic radius,
+	 * 					null for cubic voxels (CPU only)
+	 */
+	public void dilateLabels(EngineImage labels, EngineImage destination, double radius, double[] spacing);
+
+	/**
+	 * Erosion with relabeled islands followed by the dilation of the labels.
+	 *
+	 * @param labels
+	 * @param destination
+	 * @param radius	in voxels along x, number of iterations for CLIJ2
+	 * @param spacing	voxel width, height and depth relative to the width for an anisotropic radius,
+	 * 					null for cubic voxels (CPU only)
+	 */
+	public default void openingLabels(EngineImage labels, EngineImage destination, double radius, double[] spacing) {
+		try (EngineImage temp = create(labels)) {
+			erodeLabels(labels, temp, radius, spacing, true);
+			dilateLabels(temp, destination, radius, spacing);
+		}
+	}
+
+	/**
+	 * Separates touching labels by a gap, i.e. dilates the labels by one voxel and removes the label edges.
+	 *
+	 * @param labels
+	 * @param destination
+	 */
+	public void separateLabels(EngineImage labels, EngineImage destination);
+
+	/**
+	 * Removes all labels with less or more voxels than given and relabels the remaining ones consecutively.
+	 *
+	 * @param labels
+	 * @param destination
+	 * @param minimumVoxels
+	 * @param maximumVoxels
+	 */
+	public void excludeLabelsOutsideSizeRange(EngineImage labels, EngineImage destination, double minimumVoxels, double maximumVoxels);
+
+	/**
+	 * Removes all labels touching the image border (only along x and y in 2D) and relabels the remaining ones consecutively.
+	 *
+	 * @param labels
+	 * @param destination
+	 */
+	public void excludeLabelsOnEdges(EngineImage labels, EngineImage destination);
+
+	/**
+	 * Grows the seeds inside the mask until they touch each other. Connected seeds form one label.
+	 * The CPU measures the path length with the voxel spacing, CLIJ2 in steps between neighboring voxels.
+	 *
+	 * @param seeds		all voxels != 0 inside of the mask are seeds
+	 * @param mask		voxels > 0 can be labeled
+	 * @param labels
+	 * @param spacing	voxel width, height and depth relative to the width, null for cubic voxels (CPU only)
+	 */
+	public void maskedVoronoiLabeling(EngineImage seeds, EngineImage mask, EngineImage labels, double[] spacing);
+
+	/**
+	 * Grows all labels into the background until they touch each other. The labels keep their values.
+	 *
+	 * @param labels
+	 * @param destination
+	 */
+	public void extendLabelingViaVoronoi(EngineImage labels, EngineImage destination);
+
+	/**
+	 * Replaces each label by the number of other labels it touches (6-connectivity, 4 in 2D).
+	 *
+	 * @param labels
+	 * @param destination	background stays 0
+	 */
+	public void touchingNeighborCountMap(EngineImage labels, EngineImage destination);
+
+	/**
+	 * Replaces each label by the number of other labels with their centroid in the distance range around its centroid.
+	 *
+	 * @param labels
+	 * @param destination		background stays 0
+	 * @param minimumDistance	in pixels
+	 * @param maximumDistance	in pixels
+	 */
+	public void proximalNeighborCountMap(EngineImage labels, EngineImage destination, double minimumDistance, double maximumDistance);
+
+	/**
+	 * Overlays the label edges with the maximum intensity of the intensity image.
+	 *
+	 * @param intensity
+	 * @param labels
+	 * @param destination	same type as the intensity image
+	 */
+	public void visualizeOutlinesOnOriginal(EngineImage intensity, EngineImage labels, EngineImage destination);
+
+
+	/**
+	 * Euclidean distance of each foreground voxel to the nearest background voxel. Engines may
+	 * approximate it for cubic voxels, anisotropic spacing is always measured exactly.
+	 *
+	 * @param binary		foreground != 0
+	 * @param destination	32-bit
+	 * @param spacing		voxel width, height and depth relative to the width, null for cubic voxels
+	 */
+	public void distanceMap(EngineImage binary, EngineImage destination, double[] spacing);
+
+	/**
+	 * Sets all voxels which are not lower than any voxel in their box neighborhood to 1, all others to 0.
+	 *
+	 * @param source
+	 * @param destination
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ
+	 */
+	public void detectMaxima(EngineImage source, EngineImage destination, double radiusX, double radiusY, double radiusZ);
+
+	/**
+	 * Tubeness after Sato et al. from the Hessian matrix at the scale sigma.
+	 *
+	 * @param source
+	 * @param destination
+	 * @param sigma			in pixels
+	 */
+	public void tubeness(EngineImage source, EngineImage destination, double sigma);
+
+	/**
+	 * Measures intensity and shape statistics of all labels with column names as in
+	 * {@link net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels.STATISTICS_ENTRY}
+	 *
+	 * @param intensity
+	 * @param labels
+	 * @return	one row per label without background
+	 */
+	public ResultsTable statisticsOfLabelledPixels(EngineImage intensity, EngineImage labels);
+
+	/**
+	 * Replaces each intensity by the entry of the lookup table at this index, e.g. to relabel with a {@link LabelFilter}.
+	 *
+	 * @param source		integer values
+	 * @param lookupTable	new value for each value, values beyond the table are set to 0
+	 * @param destination
+	 */
+	public void replaceIntensities(EngineImage source, float[] lookupTable, EngineImage destination);
+
+	/**
+	 * Replaces each label by a value measured on the host, e.g. from {@link LabelStatistics} or {@link LabelOverlap}.
+	 *
+	 * @param labels
+	 * @param perLabelValues	index 0 refers to label 1
+	 * @param destination		background stays 0
+	 */
+	public default void generateParametricImage(EngineImage labels, double[] perLabelValues, EngineImage destination) {
+		float[] lookupTable = new float[perLabelValues.length + 1];
+		for (int l = 0; l < perLabelValues.length; l++) {
+			lookupTable[l + 1] = (float) perLabelValues[l];
+		}
+		replaceIntensities(labels, lookupTable, destination);
+	}
+
+
+	public void subtractImages(EngineImage subtrahend, EngineImage minuend, EngineImage destination);
+
+	public void divideImages(EngineImage divident, EngineImage divisor, EngineImage destination);
+
+	public void multiplyImageAndScalar(EngineImage source, EngineImage destination, double scalar);
+
+	public void absoluteDifference(EngineImage source1, EngineImage source2, EngineImage destination);
+
+	/**
+	 * Repeats a single slice in all slices of the destination.
+	 *
+	 * @param slice
+	 * @param destination
+	 */
+	public void imageToStack(EngineImage slice, EngineImage destination);
+
+	/**
+	 * Copies the region of the size of the destination starting at the given position.
+	 *
+	 * @param source
+	 * @param destination
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	public void crop(EngineImage source, EngineImage destination, int x, int y, int z);
+
+	/**
+	 * Resamples the image with linear interpolation to cubic voxels.
+	 *
+	 * @param source
+	 * @param destination	size of the source scaled by the original voxel size divided by the new voxel size
+	 * @param voxelWidth	of the source
+	 * @param voxelHeight	of the source
+	 * @param voxelDepth	of the source
+	 * @param newVoxelSize	edge length of the destination voxels in the same unit
+	 */
+	public void makeIsotropic(EngineImage source, EngineImage destination, double voxelWidth, double voxelHeight, double voxelDepth, double newVoxelSize);
+
+	/**
+	 * Negates all values.
+	 *
+	 * @param source
+	 * @param destination
+	 */
+	public void invert(EngineImage source, EngineImage destination);
+
+	/**
+	 * Sets all voxels with an absolute difference of both images above the tolerance to 1, all others to 0.
+	 *
+	 * @param source1
+	 * @param source2
+	 * @param destination
+	 * @param tolerance
+	 */
+	public void different(EngineImage source1, EngineImage source2, EngineImage destination, double tolerance);
+
+	public void set(EngineImage image, double value);
+
+	/**
+	 * Sets all voxels within the ellipsoid to the value.
+	 *
+	 * @param image
+	 * @param x			center
+	 * @param y
+	 * @param z
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ
+	 * @param value
+	 */
+	public void drawSphere(EngineImage image, double x, double y, double z, double radiusX, double radiusY, double radiusZ, double value);
+
+
+	public double meanOfAllPixels(EngineImage image);
+
+	public double minimumOfAllPixels(EngineImage image);
+
+	public double maximumOfAllPixels(EngineImage image);
+
+	/**
+	 * Histogram computed where the image is stored, e.g. for automatic thresholds without pulling the image.
+	 * Bin i counts the values from min + i * (max - min) / binCount on, values outside of the range
+	 * are counted in the first or last bin.
+	 *
+	 * @param image
+	 * @param binCount
+	 * @param min	start of the first bin
+	 * @param max	end of the last bin
+	 * @return one count per bin
+	 */
+	public long[] histogram(EngineImage image, int binCount, double min, double max);
+
+
+	/**
+	 *
+	 * @return bytes of the device memory or of the Java heap
+	 */
+	public long getMemorySize();
+
+	/**
+	 *
+	 * @return bytes of the largest single image which can be created
+	 */
+	public long getMaxAllocationSize();
+
+
+	/**
+	 * Releases all images created by this engine.
+	 */
+	public void clear();
+
+	/**
+	 * Releases the engine itself. It should not be used afterwards.
+	 */
+	public void close();
+
+}
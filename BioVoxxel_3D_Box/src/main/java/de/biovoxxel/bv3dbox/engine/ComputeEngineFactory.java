@@ -0,0 +1,135 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.List;
+
+import org.scijava.log.LogLevel;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
+import org.scijava.prefs.DefaultPrefService;
+import org.scijava.prefs.PrefService;
+
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
+import net.haesleinhuepf.clij.CLIJ;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Creates the {@link ComputeEngine} selected in the BioVoxxel 3D Box settings.
+ * With the setting "Auto" CLIJ2 is used if an OpenCL device is available
+ * and the CPU engine otherwise.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class ComputeEngineFactory {
+
+	public static final String ENGINE_AUTO = "Auto";
+	public static final String ENGINE_CLIJ2 = "CLIJ2 (GPU)";
+	public static final String ENGINE_CPU = "CPU (multithreaded)";
+
+	private static PrefService prefs = new DefaultPrefService();
+	private static LogService log = new StderrLogService();
+
+	private static Boolean openCLAvailable = null;
+
+
+	public static ComputeEngine getEngine() {
+		return getEngine(getEngineChoice());
+	}
+
+
+	public static ComputeEngine getEngine(String engineChoice) {
+
+		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
+
+		ComputeEngine engine;
+		switch (engineChoice) {
+		case ENGINE_CLIJ2:
+			engine = new CLIJ2Engine();
+			break;
+		case ENGINE_CPU:
+			engine = new CPUEngine();
+			break;
+		default:
+			engine = isOpenCLAvailable() ? new CLIJ2Engine() : new CPUEngine();
+			break;
+		}
+
+		log.debug("Compute engine = " + engine.getName());
+		return engine;
+	}
+
+
+	/**
+	 * Public and returning a String to be accessible via call() from the macro language.
+	 *
+	 * @return the compute engine choice from the settings
+	 */
+	public static String getEngineChoice() {
+		return prefs.get(BV3DBoxSettings.class, "bv_3d_box_settings_compute_engine", ENGINE_AUTO);
+	}
+
+
+	/**
+	 * Public and returning a String to be accessible via call() from the macro language.
+	 *
+	 * @return the CPU thread count from the settings
+	 */
+	public static String getCPUThreadsSetting() {
+		return String.valueOf(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_cpu_threads", 0));
+	}
+
+
+	public static boolean isCPUEngineSelected() {
+		String engineChoice = getEngineChoice();
+		return engineChoice.equals(ENGINE_CPU) || (engineChoice.equals(ENGINE_AUTO) && !isOpenCLAvailable());
+	}
+
+
+	public static synchronized boolean isOpenCLAvailable() {
+
+		if (openCLAvailable == null) {
+			try {
+				List<String> devices = CLIJ.getAvailableDeviceNames();
+				openCLAvailable = devices != null && !devices.isEmpty();
+			} catch (Throwable t) {
+				log.debug("No OpenCL device available: " + t.getMessage());
+				openCLAvailable = false;
+			}
+		}
+		return openCLAvailable;
+	}
+
+}
@@ -0,0 +1,282 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.Arrays;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Multithreaded connected components labeling of binary images on the CPU.
+ *
+ * The volume is split into slabs along z (along y for 2D images). Each slab is
+ * labeled independently by a raster scan with union-find, then the provisional
+ * labels are merged across the slab borders and finally replaced by consecutive
+ * labels starting at 1. No additional gap closing is necessary.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class ConnectedComponentsLabeling {
+
+	/**
+	 *
+	 * @param binary	all voxels != 0 are foreground, read without converting its storage
+	 * @param labels	output stored as int, can be the same image as binary
+	 * @param diamond	true for 6-connectivity (4 in 2D), false for 26-connectivity (8 in 2D)
+	 * @return number of labels
+	 */
+	public static int label(HostImage binary, HostImage labels, boolean diamond) {
+
+		final int width = binary.getWidth();
+		final int height = binary.getHeight();
+		final int depth = binary.getDepth();
+		final boolean slabsAlongZ = depth > 1;
+		final int slabAxisLength = slabsAlongZ ? depth : height;
+		final int[][] neighbors = getBackwardNeighbors(diamond);
+
+		final int slabCount = Math.max(1, Math.min(slabAxisLength, CPUThreads.getThreadCount()));
+		final int[] slabStart = new int[slabCount + 1];
+		for (int s = 0; s <= slabCount; s++) {
+			slabStart[s] = (int) ((long) slabAxisLength * s / slabCount);
+		}
+
+		final int[][] provisional = new int[depth][width * height];
+		final int[][] slabParents = new int[slabCount][];
+		final int[] slabLabelCount = new int[slabCount];
+
+		CPUThreads.parallelFor(0, slabCount, s -> {
+			int zStart = slabsAlongZ ? slabStart[s] : 0;
+			int zEnd = slabsAlongZ ? slabStart[s + 1] : 1;
+			int yStart = slabsAlongZ ? 0 : slabStart[s];
+			int yEnd = slabsAlongZ ? height : slabStart[s + 1];
+
+			int[] parent = new int[1024];
+			int nextLabel = 1;
+			float[] buffer = null;
+
+			for (int z = zStart; z < zEnd; z++) {
+				float[] input = binary.readSlice(z, buffer);
+				buffer = input;
+				int[] current = provisional[z];
+
+				for (int y = yStart; y < yEnd; y++) {
+					for (int x = 0; x < width; x++) {
+						int index = y * width + x;
+						if (input[index] == 0) {
+							continue;
+						}
+
+						int label = 0;
+						for (int[] n : neighbors) {
+							int nx = x + n[0];
+							int ny = y + n[1];
+							int nz = z + n[2];
+							if (nx < 0 || nx >= width || ny < yStart || ny >= height || nz < zStart) {
+								continue;
+							}
+							int neighborLabel = provisional[nz][ny * width + nx];
+							if (neighborLabel == 0) {
+								continue;
+							}
+							if (label == 0) {
+								label = neighborLabel;
+							} else if (neighborLabel != label) {
+								union(parent, label, neighborLabel);
+							}
+						}
+
+						if (label == 0) {
+							if (nextLabel == parent.length) {
+								parent = Arrays.copyOf(parent, parent.length * 2);
+							}
+							parent[nextLabel] = nextLabel;
+							label = nextLabel++;
+						}
+						current[index] = label;
+					}
+				}
+			}
+
+			for (int l = 1; l < nextLabel; l++) {
+				parent[l] = find(parent, l);
+			}
+			slabParents[s] = parent;
+			slabLabelCount[s] = nextLabel - 1;
+		});
+
+
+		//combine the slab local label ranges into one global union-find
+		final int[] offset = new int[slabCount];
+		long totalLabels = 0;
+		for (int s = 0; s < slabCount; s++) {
+			offset[s] = (int) totalLabels;
+			totalLabels += slabLabelCount[s];
+		}
+		if (totalLabels >= Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too many connected components for CPU labeling");
+		}
+
+		final int[] parent = new int[(int) totalLabels + 1];
+		for (int s = 0; s < slabCount; s++) {
+			for (int l = 1; l <= slabLabelCount[s]; l++) {
+				parent[offset[s] + l] = offset[s] + slabParents[s][l];
+			}
+			slabParents[s] = null;
+		}
+
+		CPUThreads.parallelFor(0, slabCount, s -> {
+			if (offset[s] == 0) {
+				return;
+			}
+			int zStart = slabsAlongZ ? slabStart[s] : 0;
+			int zEnd = slabsAlongZ ? slabStart[s + 1] : 1;
+			int yStart = slabsAlongZ ? 0 : slabStart[s];
+			int yEnd = slabsAlongZ ? height : slabStart[s + 1];
+			for (int z = zStart; z < zEnd; z++) {
+				int[] current = provisional[z];
+				for (int i = yStart * width; i < yEnd * width; i++) {
+					if (current[i] != 0) {
+						current[i] += offset[s];
+					}
+				}
+			}
+		});
+
+
+		//merge labels touching each other across slab borders
+		for (int s = 1; s < slabCount; s++) {
+			int z = slabsAlongZ ? slabStart[s] : 0;
+			int yStart = slabsAlongZ ? 0 : slabStart[s];
+			int yEnd = slabsAlongZ ? height : slabStart[s] + 1;
+			int[] current = provisional[z];
+
+			for (int y = yStart; y < yEnd; y++) {
+				for (int x = 0; x < width; x++) {
+					int label = current[y * width + x];
+					if (label == 0) {
+						continue;
+					}
+					for (int[] n : neighbors) {
+						int nx = x + n[0];
+						int ny = y + n[1];
+						int nz = z + n[2];
+						boolean outsideSlab = slabsAlongZ ? nz < z : ny < yStart;
+						if (!outsideSlab || nx < 0 || nx >= width || ny < 0 || ny >= height || nz < 0) {
+							continue;
+						}
+						int neighborLabel = provisional[nz][ny * width + nx];
+						if (neighborLabel != 0) {
+							union(parent, label, neighborLabel);
+						}
+					}
+				}
+			}
+		}
+
+
+		//consecutive final labels in order of the first occurrence
+		final int[] finalLabel = new int[parent.length];
+		int labelCount = 0;
+		for (int l = 1; l < parent.length; l++) {
+			int root = find(parent, l);
+			if (root == l) {
+				finalLabel[l] = ++labelCount;
+			} else {
+				finalLabel[l] = finalLabel[root];
+			}
+		}
+
+		CPUThreads.parallelFor(0, depth, z -> {
+			int[] current = provisional[z];
+			for (int i = 0; i < current.length; i++) {
+				current[i] = finalLabel[current[i]];
+			}
+		});
+		labels.setLabelSlices(provisional);
+
+		return labelCount;
+	}
+
+
+	static int[][] getBackwardNeighbors(boolean diamond) {
+
+		if (diamond) {
+			return new int[][] { {-1, 0, 0}, {0, -1, 0}, {0, 0, -1} };
+		}
+
+		int[][] neighbors = new int[13][];
+		int n = 0;
+		for (int dz = -1; dz <= 0; dz++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					if (dz == 0 && (dy > 0 || (dy == 0 && dx >= 0))) {
+						continue;
+					}
+					neighbors[n++] = new int[] { dx, dy, dz };
+				}
+			}
+		}
+		return neighbors;
+	}
+
+
+	static int find(int[] parent, int label) {
+		int root = label;
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+		while (parent[label] != root) {
+			int next = parent[label];
+			parent[label] = root;
+			label = next;
+		}
+		return root;
+	}
+
+
+	/**
+	 * Links both trees keeping the smaller label as root,
+	 * so that roots are always the first occurrence in raster order.
+	 */
+	static void union(int[] parent, int a, int b) {
+		int rootA = find(parent, a);
+		int rootB = find(parent, b);
+		if (rootA < rootB) {
+			parent[rootB] = rootA;
+		} else if (rootB < rootA) {
+			parent[rootA] = rootB;
+		}
+	}
+
+}
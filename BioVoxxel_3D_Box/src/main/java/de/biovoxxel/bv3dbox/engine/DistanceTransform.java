@@ -0,0 +1,435 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.function.IntBinaryOperator;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Exact Euclidean distance transform with anisotropic voxel spacing, computed in
+ * linear time as a sequence of one-dimensional transforms along x, y and z
+ * (lower envelope of parabolas after Felzenszwalb and Huttenlocher). The lines
+ * of each pass are independent and distributed over the {@link CPUThreads}.
+ *
+ * For label images, each label is treated separately and the distance refers to
+ * the nearest voxel with a different label, including background. This is done by
+ * splitting each line into runs of the same label and treating the voxels next to
+ * a run as boundary. The image border is not a boundary.
+ *
+ * Background voxels are 0. Voxels without any boundary in the image keep
+ * {@link Float#POSITIVE_INFINITY}.
+ *
+ * The nearest label map inverts the roles: the labeled voxels are the sites and
+ * each parabola carries the label of its site through the passes, which gives the
+ * distance to and the label of the nearest labeled voxel at the same cost.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class DistanceTransform {
+
+	private static final double INFINITE = Double.POSITIVE_INFINITY;
+
+
+	/**
+	 * Distance of each foreground voxel to the nearest background voxel
+	 *
+	 * @param binary	foreground > 0
+	 * @param distances	32-bit image of the same size, needs to be different from the input
+	 * @param spacing	voxel width, height and depth, e.g. from {@link de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities#getVoxelSpacing(ij.ImagePlus)}
+	 */
+	public static void distanceMap(HostImage binary, HostImage distances, double[] spacing) {
+		transform(binary, distances, spacing, true);
+	}
+
+
+	/**
+	 * Distance of each labeled voxel to the nearest voxel with a different label
+	 *
+	 * @param labels	background = 0
+	 * @param distances	32-bit image of the same size, needs to be different from the input
+	 * @param spacing	voxel width, height and depth, e.g. from {@link de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities#getVoxelSpacing(ij.ImagePlus)}
+	 */
+	public static void labelBorderDistanceMap(HostImage labels, HostImage distances, double[] spacing) {
+		transform(labels, distances, spacing, false);
+	}
+
+
+	/**
+	 * Distance of each voxel to the nearest labeled voxel and the label of this voxel.
+	 * Labeled voxels have the distance 0 and keep their label. A voxel at the same
+	 * distance to several labels gets one of them.
+	 *
+	 * @param labels		background = 0
+	 * @param distances		32-bit image of the same size, needs to be different from the labels
+	 * @param nearestLabels	image of the same size stored as int afterwards, can be the labels image
+	 * @param spacing		voxel width, height and depth, e.g. from {@link de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities#getVoxelSpacing(ij.ImagePlus)}
+	 */
+	public static void nearestLabelMap(HostImage labels, HostImage distances, HostImage nearestLabels, double[] spacing) {
+
+		if (labels == distances || nearestLabels == distances) {
+			throw new IllegalArgumentException("Distances need to be written to a different image");
+		}
+
+		final int width = labels.getWidth();
+		final int height = labels.getHeight();
+		final int depth = labels.getDepth();
+		final int[][] nearest = nearestLabels.getLabelSlices();
+		final IntBinaryOperator input = getObjects(labels, false);
+		final float[][] squaredDistances = distances.getSlices();
+		final double[] weight = getWeights(spacing);
+
+		//x: each row is read completely before it is written, so the labels can be replaced
+		processLines(height * depth, width, (line, buffer) -> {
+			int offset = (line % height) * width;
+			for (int x = 0; x < width; x++) {
+				buffer.object[x] = input.applyAsInt(line / height, offset + x);
+				buffer.f[x] = buffer.object[x] > 0 ? 0 : INFINITE;
+			}
+			buffer.transformNearest(width, weight[0]);
+			int[] nearestSlice = nearest[line / height];
+			float[] distanceSlice = squaredDistances[line / height];
+			for (int x = 0; x < width; x++) {
+				nearestSlice[offset + x] = buffer.nearest[x];
+				distanceSlice[offset + x] = (float) buffer.d[x];
+			}
+		});
+
+		//y: lines are the columns of each slice
+		if (height > 1) {
+			processLines(width * depth, height, (line, buffer) -> {
+				int[] nearestSlice = nearest[line / width];
+				float[] distanceSlice = squaredDistances[line / width];
+				int x = line % width;
+				for (int y = 0; y < height; y++) {
+					buffer.object[y] = nearestSlice[y * width + x];
+					buffer.f[y] = distanceSlice[y * width + x];
+				}
+				buffer.transformNearest(height, weight[1]);
+				for (int y = 0; y < height; y++) {
+					nearestSlice[y * width + x] = buffer.nearest[y];
+					distanceSlice[y * width + x] = (float) buffer.d[y];
+				}
+			});
+		}
+
+		//z: lines run through all slices at the same position
+		if (depth > 1) {
+			processLines(width * height, depth, (index, buffer) -> {
+				for (int z = 0; z < depth; z++) {
+					buffer.object[z] = nearest[z][index];
+					buffer.f[z] = squaredDistances[z][index];
+				}
+				buffer.transformNearest(depth, weight[2]);
+				for (int z = 0; z < depth; z++) {
+					nearest[z][index] = buffer.nearest[z];
+					squaredDistances[z][index] = (float) buffer.d[z];
+				}
+			});
+		}
+
+		squareRoot(squaredDistances);
+	}
+
+
+	private static void transform(HostImage input, HostImage distances, double[] spacing, final boolean binary) {
+
+		if (input == distances) {
+			throw new IllegalArgumentException("Distances need to be written to a different image");
+		}
+
+		final int width = input.getWidth();
+		final int height = input.getHeight();
+		final int depth = input.getDepth();
+		final IntBinaryOperator objects = getObjects(input, binary);
+		final float[][] squaredDistances = distances.getSlices();
+		final double[] weight = getWeights(spacing);
+
+		//x: lines are the rows of each slice
+		processLines(height * depth, width, (line, buffer) -> {
+			int offset = (line % height) * width;
+			for (int x = 0; x < width; x++) {
+				buffer.object[x] = objects.applyAsInt(line / height, offset + x);
+				buffer.f[x] = INFINITE;
+			}
+			buffer.transform(width, weight[0]);
+			float[] distanceSlice = squaredDistances[line / height];
+			for (int x = 0; x < width; x++) {
+				distanceSlice[offset + x] = (float) buffer.d[x];
+			}
+		});
+
+		//y: lines are the columns of each slice
+		if (height > 1) {
+			processLines(width * depth, height, (line, buffer) -> {
+				float[] distanceSlice = squaredDistances[line / width];
+				int x = line % width;
+				for (int y = 0; y < height; y++) {
+					buffer.object[y] = objects.applyAsInt(line / width, y * width + x);
+					buffer.f[y] = distanceSlice[y * width + x];
+				}
+				buffer.transform(height, weight[1]);
+				for (int y = 0; y < height; y++) {
+					distanceSlice[y * width + x] = (float) buffer.d[y];
+				}
+			});
+		}
+
+		//z: lines run through all slices at the same position
+		if (depth > 1) {
+			processLines(width * height, depth, (index, buffer) -> {
+				for (int z = 0; z < depth; z++) {
+					buffer.object[z] = objects.applyAsInt(z, index);
+					buffer.f[z] = squaredDistances[z][index];
+				}
+				buffer.transform(depth, weight[2]);
+				for (int z = 0; z < depth; z++) {
+					squaredDistances[z][index] = (float) buffer.d[z];
+				}
+			});
+		}
+
+		squareRoot(squaredDistances);
+	}
+
+
+	/**
+	 * Squared step lengths along x, y and z
+	 */
+	private static double[] getWeights(double[] spacing) {
+		final double[] weight = new double[3];
+		for (int a = 0; a < 3; a++) {
+			double axisSpacing = spacing != null && spacing.length > a && spacing[a] > 0 ? spacing[a] : 1.0;
+			weight[a] = axisSpacing * axisSpacing;
+		}
+		return weight;
+	}
+
+
+	private static void squareRoot(final float[][] squaredDistances) {
+		CPUThreads.parallelFor(0, squaredDistances.length, z -> {
+			float[] slice = squaredDistances[z];
+			for (int i = 0; i < slice.length; i++) {
+				slice[i] = (float) Math.sqrt(slice[i]);
+			}
+		});
+	}
+
+
+	/**
+	 * Reads the object of each voxel by slice and index without converting the storage of the image
+	 *
+	 * @return 0 = background, otherwise the label or 1 for binary images
+	 */
+	private static IntBinaryOperator getObjects(HostImage image, final boolean binary) {
+		switch (image.getStorage()) {
+		case BYTE:
+			final byte[][] bytes = image.getByteSlices();
+			return (z, index) -> binary ? (bytes[z][index] != 0 ? 1 : 0) : bytes[z][index] & 0xff;
+		case INT:
+			final int[][] labels = image.getLabelSlices();
+			return (z, index) -> labels[z][index] > 0 ? (binary ? 1 : labels[z][index]) : 0;
+		default:
+			final float[][] values = image.getSlices();
+			return (z, index) -> values[z][index] > 0 ? (binary ? 1 : (int) values[z][index]) : 0;
+		}
+	}
+
+
+	/**
+	 * Distributes the lines in chunks, so that each worker allocates its line buffer only once
+	 */
+	private static void processLines(final int lineCount, final int length, final LineProcessor processor) {
+
+		final int chunkCount = Math.max(1, Math.min(lineCount, CPUThreads.getThreadCount() * 4));
+
+		CPUThreads.parallelFor(0, chunkCount, c -> {
+			int lineStart = (int) ((long) lineCount * c / chunkCount);
+			int lineEnd = (int) ((long) lineCount * (c + 1) / chunkCount);
+			LineBuffer buffer = new LineBuffer(length);
+			for (int line = lineStart; line < lineEnd; line++) {
+				processor.process(line, buffer);
+			}
+		});
+	}
+
+
+	private interface LineProcessor {
+		void process(int line, LineBuffer buffer);
+	}
+
+
+	private static class LineBuffer {
+
+		final int[] object;		//0 = background, otherwise label or 1 for binary images
+		final double[] f;		//squared distances of the previous pass
+		final double[] d;		//squared distances after this pass
+		final int[] nearest;	//label of the nearest site after this pass
+		final int[] v;			//positions of the parabolas in the lower envelope
+		final double[] z;		//borders between the parabolas
+
+
+		LineBuffer(int length) {
+			object = new int[length];
+			nearest = new int[length];
+			f = new double[length];
+			d = new double[length];
+			v = new int[length];
+			z = new double[length + 1];
+		}
+
+
+		void transform(int length, double weight) {
+
+			int start = 0;
+			while (start < length) {
+
+				if (object[start] == 0) {
+					d[start] = 0;
+					start++;
+					continue;
+				}
+
+				int end = start + 1;
+				while (end < length && object[end] == object[start]) {
+					end++;
+				}
+
+				transformRun(start, end, weight);
+
+				//the voxels next to the run belong to another object or background
+				for (int q = start; q < end; q++) {
+					if (start > 0) {
+						double left = q - start + 1;
+						d[q] = Math.min(d[q], weight * left * left);
+					}
+					if (end < length) {
+						double right = end - q;
+						d[q] = Math.min(d[q], weight * right * right);
+					}
+				}
+
+				start = end;
+			}
+		}
+
+
+		/**
+		 * Transform of the whole line, where object holds the label of the site each value of f refers to
+		 */
+		void transformNearest(int length, double weight) {
+
+			int k = lowerEnvelope(0, length, weight);
+
+			if (k < 0) {
+				for (int q = 0; q < length; q++) {
+					d[q] = INFINITE;
+					nearest[q] = 0;
+				}
+				return;
+			}
+
+			int j = 0;
+			for (int q = 0; q < length; q++) {
+				while (z[j + 1] < q) {
+					j++;
+				}
+				double offset = q - v[j];
+				d[q] = weight * offset * offset + f[v[j]];
+				nearest[q] = object[v[j]];
+			}
+		}
+
+
+		private void transformRun(int start, int end, double weight) {
+
+			int k = lowerEnvelope(start, end, weight);
+
+			if (k < 0) {
+				for (int q = start; q < end; q++) {
+					d[q] = INFINITE;
+				}
+				return;
+			}
+
+			int j = 0;
+			for (int q = start; q < end; q++) {
+				while (z[j + 1] < q) {
+					j++;
+				}
+				double offset = q - v[j];
+				d[q] = weight * offset * offset + f[v[j]];
+			}
+		}
+
+
+		/**
+		 * Collects the parabolas of all finite values between start and end
+		 *
+		 * @return index of the last parabola, -1 if there is none
+		 */
+		private int lowerEnvelope(int start, int end, double weight) {
+
+			int k = -1;
+			for (int q = start; q < end; q++) {
+				if (f[q] == INFINITE) {
+					continue;
+				}
+				if (k < 0) {
+					k = 0;
+					v[0] = q;
+					z[0] = Double.NEGATIVE_INFINITY;
+					z[1] = INFINITE;
+					continue;
+				}
+				double s = intersection(q, v[k], weight);
+				while (s <= z[k]) {
+					k--;
+					s = intersection(q, v[k], weight);
+				}
+				k++;
+				v[k] = q;
+				z[k] = s;
+				z[k + 1] = INFINITE;
+			}
+			return k;
+		}
+
+
+		private double intersection(int q, int p, double weight) {
+			return ((f[q] + weight * q * q) - (f[p] + weight * (double) p * p)) / (2 * weight * (q - p));
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package de.biovoxxel.bv3dbox.engine;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Handle to an image living in the memory of a {@link ComputeEngine}.
+ * Depending on the engine this is either a device buffer (CLIJ2) or a
+ * primitive array on the heap (CPU).
+ *
+ * @author BioVoxxel
+ *
+ */
+public interface EngineImage extends AutoCloseable {
+
+	public int getWidth();
+
+	public int getHeight();
+
+	public int getDepth();
+
+	/**
+	 *
+	 * @return bit depth of the image as used by ImageJ (8, 16 or 32)
+	 */
+	public int getBitDepth();
+
+	public String getName();
+
+	public void setName(String name);
+
+
+	public default long[] getDimensions() {
+		return new long[] { getWidth(), getHeight(), getDepth() };
+	}
+
+
+	public default long getVoxelCount() {
+		return (long) getWidth() * getHeight() * getDepth();
+	}
+
+
+	public default long getSizeInBytes() {
+		return getVoxelCount() * (getBitDepth() / 8);
+	}
+
+
+	/**
+	 * Releases the memory held by this image. Does not throw.
+	 */
+	@Override
+	public void close();
+
+}
@@ -0,0 +1,522 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Image stored as one primitive array per z-slice on the heap. Used by the
+ * {@link CPUEngine}. The original bit depth is kept so that pulled images
+ * have the same type as the equivalent CLIJ2 buffer.
+ *
+ * The voxels are stored as float, as int for label images (see {@link #getLabelSlices()})
+ * or as byte for 8-bit images, which is the storage of pushed and converted 8-bit images.
+ * Requesting the slices of another type converts the storage slice by slice, so arrays
+ * returned before must not be used afterwards. The slices are only allocated when
+ * they are accessed for the first time. Accessing the voxels of a closed image throws
+ * an {@link IllegalStateException}.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class HostImage implements EngineImage {
+
+	public enum Storage { BYTE, INT, FLOAT }
+
+	private final int width;
+	private final int height;
+	private final int depth;
+	private final int bitDepth;
+	private Storage storage;
+	private byte[][] byteSlices = null;
+	private int[][] labelSlices = null;
+	private float[][] floatSlices = null;
+	private boolean allocated = false;
+	private volatile boolean closed = false;
+	private String name = "";
+
+
+	public HostImage(int width, int height, int depth, int bitDepth) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.bitDepth = bitDepth;
+		this.storage = bitDepth == 8 ? Storage.BYTE : Storage.FLOAT;
+	}
+
+
+	/**
+	 * Wraps existing slices without copying.
+	 */
+	public HostImage(int width, int height, int bitDepth, float[][] slices) {
+		this(width, height, slices.length, bitDepth);
+		this.storage = Storage.FLOAT;
+		this.floatSlices = slices;
+		this.allocated = true;
+	}
+
+
+	/**
+	 * Wraps existing label slices without copying.
+	 */
+	public HostImage(int width, int height, int bitDepth, int[][] labelSlices) {
+		this(width, height, labelSlices.length, bitDepth);
+		this.storage = Storage.INT;
+		this.labelSlices = labelSlices;
+		this.allocated = true;
+	}
+
+
+	/**
+	 * Wraps existing 8-bit slices without copying.
+	 */
+	public HostImage(int width, int height, byte[][] byteSlices) {
+		this(width, height, byteSlices.length, 8);
+		this.byteSlices = byteSlices;
+		this.allocated = true;
+	}
+
+
+	/**
+	 * Reads the z-stack of the current channel and frame. If a bounds rectangle
+	 * is given, only this region is read. 8-bit images are stored as byte.
+	 *
+	 * @param image
+	 * @param bounds can be null
+	 * @return
+	 */
+	public static HostImage fromImagePlus(ImagePlus image, Rectangle bounds) {
+
+		if (bounds == null) {
+			bounds = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+		}
+
+		int bitDepth = image.getBitDepth() == 24 ? 32 : image.getBitDepth();
+		int nSlices = image.getNSlices();
+		HostImage hostImage = new HostImage(bounds.width, bounds.height, nSlices, bitDepth);
+		hostImage.setName(image.getTitle());
+
+		ImageStack stack = image.getStack();
+		int channel = image.getChannel();
+		int frame = image.getFrame();
+		final Rectangle region = bounds;
+
+		if (bitDepth == 8) {
+			byte[][] slices = hostImage.getByteSlices();
+			for (int z = 0; z < nSlices; z++) {
+				byte[] pixels = (byte[]) stack.getPixels(image.getStackIndex(channel, z + 1, frame));
+				for (int y = 0; y < region.height; y++) {
+					System.arraycopy(pixels, (region.y + y) * image.getWidth() + region.x, slices[z], y * region.width, region.width);
+				}
+			}
+		} else {
+			float[][] slices = hostImage.getSlices();
+			for (int z = 0; z < nSlices; z++) {
+				ImageProcessor ip = stack.getProcessor(image.getStackIndex(channel, z + 1, frame));
+				float[] slice = slices[z];
+				int i = 0;
+				for (int y = region.y; y < region.y + region.height; y++) {
+					for (int x = region.x; x < region.x + region.width; x++) {
+						slice[i++] = ip.getf(x, y);
+					}
+				}
+			}
+		}
+
+		return hostImage;
+	}
+
+
+	/**
+	 * Creates an ImagePlus with a copy of the voxels without changing the storage of this image.
+	 *
+	 * @return
+	 */
+	public ImagePlus toImagePlus() {
+
+		ImageStack stack = new ImageStack(width, height);
+		float[] buffer = null;
+
+		for (int z = 0; z < depth; z++) {
+			ImageProcessor ip;
+
+			if (bitDepth == 8 && getStorage() == Storage.BYTE) {
+				ip = new ByteProcessor(width, height, getByteSlices()[z].clone());
+			} else {
+				buffer = readSlice(z, buffer);
+				if (bitDepth == 8) {
+					byte[] pixels = new byte[buffer.length];
+					for (int i = 0; i < buffer.length; i++) {
+						pixels[i] = (byte) clamp(buffer[i], 255);
+					}
+					ip = new ByteProcessor(width, height, pixels);
+				} else if (bitDepth == 16) {
+					short[] pixels = new short[buffer.length];
+					for (int i = 0; i < buffer.length; i++) {
+						pixels[i] = (short) clamp(buffer[i], 65535);
+					}
+					ip = new ShortProcessor(width, height, pixels, null);
+				} else {
+					ip = new FloatProcessor(width, height, buffer.clone());
+				}
+			}
+			stack.addSlice(ip);
+		}
+
+		ImagePlus image = new ImagePlus(name, stack);
+		image.resetDisplayRange();
+		return image;
+	}
+
+
+	private static int clamp(float value, int max) {
+		int rounded = Math.round(value);
+		return rounded < 0 ? 0 : (rounded > max ? max : rounded);
+	}
+
+
+	private static int clamp(int value, int max) {
+		return value < 0 ? 0 : (value > max ? max : value);
+	}
+
+
+	/**
+	 * Rounds and clamps all values to the range of the bit depth, the same way
+	 * an OpenCL kernel writing into an integer buffer would. 8-bit images are
+	 * stored as byte afterwards.
+	 */
+	public synchronized void convertToBitDepth() {
+
+		checkOpen();
+		if (bitDepth == 32 || !allocated) {
+			return;
+		}
+
+		if (bitDepth == 8) {
+			getByteSlices();
+		} else if (storage == Storage.INT) {
+			CPUThreads.parallelFor(0, depth, z -> {
+				int[] slice = labelSlices[z];
+				for (int i = 0; i < slice.length; i++) {
+					slice[i] = clamp(slice[i], 65535);
+				}
+			});
+		} else if (storage == Storage.FLOAT) {
+			CPUThreads.parallelFor(0, depth, z -> {
+				float[] slice = floatSlices[z];
+				for (int i = 0; i < slice.length; i++) {
+					slice[i] = clamp(slice[i], 65535);
+				}
+			});
+		}
+	}
+
+
+	public synchronized Storage getStorage() {
+		return storage;
+	}
+
+
+	/**
+	 *
+	 * @return the slices as float, converted from the current storage if necessary
+	 */
+	public synchronized float[][] getSlices() {
+		checkOpen();
+		if (storage != Storage.FLOAT || !allocated) {
+			final float[][] converted = new float[depth][];
+			convert(z -> {
+				float[] slice = new float[width * height];
+				if (storage == Storage.BYTE && byteSlices != null) {
+					byte[] source = byteSlices[z];
+					for (int i = 0; i < slice.length; i++) {
+						slice[i] = source[i] & 0xff;
+					}
+					byteSlices[z] = null;
+				} else if (storage == Storage.INT && labelSlices != null) {
+					int[] source = labelSlices[z];
+					for (int i = 0; i < slice.length; i++) {
+						slice[i] = source[i];
+					}
+					labelSlices[z] = null;
+				}
+				converted[z] = slice;
+			});
+			setStorage(Storage.FLOAT, null, null, converted);
+		}
+		return floatSlices;
+	}
+
+
+	public float[] getSlice(int z) {
+		return getSlices()[z];
+	}
+
+
+	/**
+	 * Label images are stored as int to be exact above 2^24 labels. Float values are truncated.
+	 *
+	 * @return the slices as int, converted from the current storage if necessary
+	 */
+	public synchronized int[][] getLabelSlices() {
+		checkOpen();
+		if (storage != Storage.INT || !allocated) {
+			final int[][] converted = new int[depth][];
+			convert(z -> {
+				int[] slice = new int[width * height];
+				if (storage == Storage.BYTE && byteSlices != null) {
+					byte[] source = byteSlices[z];
+					for (int i = 0; i < slice.length; i++) {
+						slice[i] = source[i] & 0xff;
+					}
+					byteSlices[z] = null;
+				} else if (storage == Storage.FLOAT && floatSlices != null) {
+					float[] source = floatSlices[z];
+					for (int i = 0; i < slice.length; i++) {
+						slice[i] = (int) source[i];
+					}
+					floatSlices[z] = null;
+				}
+				converted[z] = slice;
+			});
+			setStorage(Storage.INT, null, converted, null);
+		}
+		return labelSlices;
+	}
+
+
+	public int[] getLabelSlice(int z) {
+		return getLabelSlices()[z];
+	}
+
+
+	/**
+	 * Replaces all voxels by the given labels without copying.
+	 *
+	 * @param labelSlices	one array of width * height labels per slice
+	 */
+	public synchronized void setLabelSlices(int[][] labelSlices) {
+		if (labelSlices.length != depth) {
+			throw new IllegalArgumentException("Expected " + depth + " slices but got " + labelSlices.length);
+		}
+		checkOpen();
+		setStorage(Storage.INT, null, labelSlices, null);
+	}
+
+
+	/**
+	 * Values are rounded and clamped to 0-255.
+	 *
+	 * @return the slices as byte, converted from the current storage if necessary
+	 */
+	public synchronized byte[][] getByteSlices() {
+		checkOpen();
+		if (storage != Storage.BYTE || !allocated) {
+			final byte[][] converted = new byte[depth][];
+			convert(z -> {
+				byte[] slice = new byte[width * height];
+				if (storage == Storage.INT && labelSlices != null) {
+					int[] source = labelSlices[z];
+					for (int i = 0; i < slice.length; i++) {
+						slice[i] = (byte) clamp(source[i], 255);
+					}
+					labelSlices[z] = null;
+				} else if (storage == Storage.FLOAT && floatSlices != null) {
+					float[] source = floatSlices[z];
+					for (int i = 0; i < slice.length; i++) {
+						slice[i] = (byte) clamp(source[i], 255);
+					}
+					floatSlices[z] = null;
+				}
+				converted[z] = slice;
+			});
+			setStorage(Storage.BYTE, converted, null, null);
+		}
+		return byteSlices;
+	}
+
+
+	/**
+	 * Converts slice by slice, so that only one additional slice per thread is needed
+	 */
+	private void convert(IntConsumer sliceConversion) {
+		if (allocated) {
+			CPUThreads.parallelFor(0, depth, sliceConversion);
+		} else {
+			for (int z = 0; z < depth; z++) {
+				sliceConversion.accept(z);
+			}
+		}
+	}
+
+
+	private void setStorage(Storage storage, byte[][] byteSlices, int[][] labelSlices, float[][] floatSlices) {
+		this.storage = storage;
+		this.byteSlices = byteSlices;
+		this.labelSlices = labelSlices;
+		this.floatSlices = floatSlices;
+		this.allocated = true;
+	}
+
+
+	/**
+	 * Reads one slice as float without changing the storage.
+	 *
+	 * @param z
+	 * @param buffer	used for the converted values if the image is not stored as float, can be null
+	 * @return the slice itself if it is stored as float, the buffer otherwise
+	 */
+	public float[] readSlice(int z, float[] buffer) {
+
+		checkOpen();
+		Storage current = getStorage();
+		if (current == Storage.FLOAT && allocated) {
+			return floatSlices[z];
+		}
+
+		if (buffer == null || buffer.length < width * height) {
+			buffer = new float[width * height];
+		}
+		if (!allocated) {
+			Arrays.fill(buffer, 0f);
+		} else if (current == Storage.BYTE) {
+			byte[] source = byteSlices[z];
+			for (int i = 0; i < source.length; i++) {
+				buffer[i] = source[i] & 0xff;
+			}
+		} else {
+			int[] source = labelSlices[z];
+			for (int i = 0; i < source.length; i++) {
+				buffer[i] = source[i];
+			}
+		}
+		return buffer;
+	}
+
+
+	public synchronized float get(int x, int y, int z) {
+		checkOpen();
+		int index = y * width + x;
+		switch (allocated ? storage : Storage.FLOAT) {
+		case BYTE:
+			return byteSlices[z][index] & 0xff;
+		case INT:
+			return labelSlices[z][index];
+		default:
+			return allocated ? floatSlices[z][index] : 0f;
+		}
+	}
+
+
+	/**
+	 * The value is rounded and clamped for images stored as byte and truncated for images stored as int.
+	 */
+	public synchronized void set(int x, int y, int z, float value) {
+		checkOpen();
+		int index = y * width + x;
+		switch (storage) {
+		case BYTE:
+			getByteSlices()[z][index] = (byte) clamp(value, 255);
+			break;
+		case INT:
+			getLabelSlices()[z][index] = (int) value;
+			break;
+		default:
+			getSlices()[z][index] = value;
+			break;
+		}
+	}
+
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return bitDepth;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public void setName(String name) {
+		this.name = name;
+	}
+
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("HostImage " + name + " is closed");
+		}
+	}
+
+
+	/**
+	 * Releases the slices, the image can not be accessed afterwards.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		allocated = false;
+		byteSlices = null;
+		labelSlices = null;
+		floatSlices = null;
+	}
+
+}
@@ -0,0 +1,384 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import ij.measure.ResultsTable;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Distances of all voxels of a label image to the border and to the centroid of
+ * their own label, together with the statistics of the centroid distance on the
+ * label edges (edge extensions), e.g. for the mean-max extension ratio (MMDTCR).
+ *
+ * The border distances come from the exact {@link DistanceTransform}. Centroid
+ * distances and edge extensions are measured in one traversal of the labels.
+ * Edge voxels have at least one face neighbor with a different label or background
+ * inside the image. All distances consider the given voxel spacing.
+ *
+ * An instance keeps the label image and both distance maps, so that it can be reused
+ * for several measurements of the same labels, and follows the relabeling of a
+ * {@link LabelFilter} without measuring again.
+ *
+ * Per-label columns are indexed like {@link LabelStatistics} with index 0 referring to label 1.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class LabelDistances {
+
+	private final HostImage labels;
+	private final HostImage borderDistances;
+	private final HostImage centroidDistances;
+
+	private final int labelCount;
+	private final double[] edgeCount;
+	private final double[] edgeSum;
+	private final double[] edgeSumOfSquares;
+	private final double[] edgeMin;
+	private final double[] edgeMax;
+
+
+	private LabelDistances(HostImage labels, HostImage borderDistances, HostImage centroidDistances, int labelCount) {
+		this.labels = labels;
+		this.borderDistances = borderDistances;
+		this.centroidDistances = centroidDistances;
+		this.labelCount = labelCount;
+
+		edgeCount = new double[labelCount];
+		edgeSum = new double[labelCount];
+		edgeSumOfSquares = new double[labelCount];
+		edgeMin = new double[labelCount];
+		edgeMax = new double[labelCount];
+	}
+
+
+	/**
+	 *
+	 * @param labels	background = 0, kept by the returned instance
+	 * @param statistics	of the same labels, e.g. from a previous measurement, for the centroids
+	 * @param spacing	voxel width, height and depth, e.g. from {@link de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities#getVoxelSpacing(ij.ImagePlus)}
+	 * @return
+	 */
+	public static LabelDistances measure(HostImage labels, LabelStatistics statistics, double[] spacing) {
+
+		final int width = labels.getWidth();
+		final int height = labels.getHeight();
+		final int depth = labels.getDepth();
+		final int rows = height * depth;
+		final int[][] labelSlices = labels.getLabelSlices();
+		final int labelCount = statistics.getLabelCount();
+
+		HostImage borderDistances = new HostImage(width, height, depth, 32);
+		borderDistances.setName("border_dist_" + labels.getName());
+		DistanceTransform.labelBorderDistanceMap(labels, borderDistances, spacing);
+
+		HostImage centroidDistances = new HostImage(width, height, depth, 32);
+		centroidDistances.setName("centroid_dist_" + labels.getName());
+		final float[][] centroidSlices = centroidDistances.getSlices();
+
+		final LabelDistances distances = new LabelDistances(labels, borderDistances, centroidDistances, labelCount);
+		if (labelCount == 0) {
+			return distances;
+		}
+
+		final double[][] centroid = { statistics.getCentroid(0), statistics.getCentroid(1), statistics.getCentroid(2) };
+		final double[] voxelSpacing = new double[3];
+		for (int a = 0; a < 3; a++) {
+			voxelSpacing[a] = spacing != null && spacing.length > a && spacing[a] > 0 ? spacing[a] : 1.0;
+		}
+
+		final int slabCount = Math.max(1, Math.min(rows, CPUThreads.getThreadCount()));
+		final LabelDistances[] partial = new LabelDistances[slabCount];
+		final int[] partialOffset = new int[slabCount];
+
+		CPUThreads.parallelFor(0, slabCount, s -> {
+			int rowStart = (int) ((long) rows * s / slabCount);
+			int rowEnd = (int) ((long) rows * (s + 1) / slabCount);
+
+			//accumulate only over the label range of this slab
+			int minLabel = Integer.MAX_VALUE;
+			int maxLabel = 0;
+			for (int row = rowStart; row < rowEnd; row++) {
+				int[] labelSlice = labelSlices[row / height];
+				int offset = (row % height) * width;
+				for (int i = offset; i < offset + width; i++) {
+					int label = labelSlice[i];
+					if (label > 0) {
+						minLabel = Math.min(minLabel, label);
+						maxLabel = Math.max(maxLabel, label);
+					}
+				}
+			}
+			if (maxLabel == 0) {
+				return;
+			}
+			LabelDistances local = new LabelDistances(null, null, null, maxLabel - minLabel + 1);
+
+			for (int row = rowStart; row < rowEnd; row++) {
+				int z = row / height;
+				int y = row % height;
+				int[] labelSlice = labelSlices[z];
+				float[] centroidSlice = centroidSlices[z];
+
+				for (int x = 0; x < width; x++) {
+					int index = y * width + x;
+					int label = labelSlice[index];
+					if (label <= 0) {
+						continue;
+					}
+					int g = label - 1;
+					double dx = (x - centroid[0][g]) * voxelSpacing[0];
+					double dy = (y - centroid[1][g]) * voxelSpacing[1];
+					double dz = (z - centroid[2][g]) * voxelSpacing[2];
+					double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+					centroidSlice[index] = (float) distance;
+
+					boolean edge = (x > 0 && labelSlice[index - 1] != labelSlice[index])
+							|| (x < width - 1 && labelSlice[index + 1] != labelSlice[index])
+							|| (y > 0 && labelSlice[index - width] != labelSlice[index])
+							|| (y < height - 1 && labelSlice[index + width] != labelSlice[index])
+							|| (z > 0 && labelSlices[z - 1][index] != labelSlice[index])
+							|| (z < depth - 1 && labelSlices[z + 1][index] != labelSlice[index]);
+
+					if (edge) {
+						local.addEdge(label - minLabel, distance);
+					}
+				}
+			}
+			partial[s] = local;
+			partialOffset[s] = minLabel - 1;
+		});
+
+		for (int s = 0; s < slabCount; s++) {
+			if (partial[s] != null) {
+				distances.merge(partial[s], partialOffset[s]);
+				partial[s] = null;
+			}
+		}
+
+		return distances;
+	}
+
+
+	private void addEdge(int l, double distance) {
+		if (edgeCount[l] == 0) {
+			edgeMin[l] = distance;
+			edgeMax[l] = distance;
+		} else {
+			edgeMin[l] = Math.min(edgeMin[l], distance);
+			edgeMax[l] = Math.max(edgeMax[l], distance);
+		}
+		edgeCount[l]++;
+		edgeSum[l] += distance;
+		edgeSumOfSquares[l] += distance * distance;
+	}
+
+
+	private void merge(LabelDistances local, int offset) {
+		for (int l = 0; l < local.labelCount; l++) {
+			if (local.edgeCount[l] == 0) {
+				continue;
+			}
+			int g = l + offset;
+			if (edgeCount[g] == 0) {
+				edgeMin[g] = local.edgeMin[l];
+				edgeMax[g] = local.edgeMax[l];
+			} else {
+				edgeMin[g] = Math.min(edgeMin[g], local.edgeMin[l]);
+				edgeMax[g] = Math.max(edgeMax[g], local.edgeMax[l]);
+			}
+			edgeCount[g] += local.edgeCount[l];
+			edgeSum[g] += local.edgeSum[l];
+			edgeSumOfSquares[g] += local.edgeSumOfSquares[l];
+		}
+	}
+
+
+	/**
+	 * Applies the filter to a copy of the labels and both distance maps and keeps the
+	 * columns of the remaining labels. Removing labels does not change the distances of the
+	 * remaining ones, since their borders and centroids stay the same.
+	 *
+	 * @param filter	created for the labels of this instance
+	 * @return the distances of the relabeled image
+	 */
+	public LabelDistances relabel(LabelFilter filter) {
+
+		final int width = labels.getWidth();
+		final int height = labels.getHeight();
+		final int depth = labels.getDepth();
+
+		HostImage newLabels = new HostImage(width, height, depth, labels.getBitDepth());
+		HostImage newBorderDistances = new HostImage(width, height, depth, 32);
+		HostImage newCentroidDistances = new HostImage(width, height, depth, 32);
+		newLabels.setName(labels.getName());
+		newBorderDistances.setName(borderDistances.getName());
+		newCentroidDistances.setName(centroidDistances.getName());
+
+		final float[] newLabel = filter.getNewLabels();
+		final int[][] labelSlices = labels.getLabelSlices();
+		final float[][] borderSlices = borderDistances.getSlices();
+		final float[][] centroidSlices = centroidDistances.getSlices();
+		final int[][] newLabelSlices = newLabels.getLabelSlices();
+		final float[][] newBorderSlices = newBorderDistances.getSlices();
+		final float[][] newCentroidSlices = newCentroidDistances.getSlices();
+
+		CPUThreads.parallelFor(0, depth, z -> {
+			int[] labelSlice = labelSlices[z];
+			float[] border = borderSlices[z];
+			float[] centroid = centroidSlices[z];
+			int[] newLabelSlice = newLabelSlices[z];
+			float[] newBorder = newBorderSlices[z];
+			float[] newCentroid = newCentroidSlices[z];
+			for (int i = 0; i < labelSlice.length; i++) {
+				int label = labelSlice[i];
+				if (label > 0 && label < newLabel.length && newLabel[label] > 0) {
+					newLabelSlice[i] = (int) newLabel[label];
+					newBorder[i] = border[i];
+					newCentroid[i] = centroid[i];
+				}
+			}
+		});
+
+		newLabels.convertToBitDepth();
+
+		int[] keptIndices = filter.getKeptIndices();
+		LabelDistances relabeled = new LabelDistances(newLabels, newBorderDistances, newCentroidDistances, keptIndices.length);
+		for (int k = 0; k < keptIndices.length; k++) {
+			int l = keptIndices[k];
+			relabeled.edgeCount[k] = edgeCount[l];
+			relabeled.edgeSum[k] = edgeSum[l];
+			relabeled.edgeSumOfSquares[k] = edgeSumOfSquares[l];
+			relabeled.edgeMin[k] = edgeMin[l];
+			relabeled.edgeMax[k] = edgeMax[l];
+		}
+		return relabeled;
+	}
+
+
+	public int getLabelCount() {
+		return labelCount;
+	}
+
+
+	public HostImage getLabels() {
+		return labels;
+	}
+
+
+	/**
+	 *
+	 * @return distance of each labeled voxel to the nearest voxel with a different label
+	 */
+	public HostImage getBorderDistanceMap() {
+		return borderDistances;
+	}
+
+
+	/**
+	 *
+	 * @return distance of each labeled voxel to the centroid of its label
+	 */
+	public HostImage getCentroidDistanceMap() {
+		return centroidDistances;
+	}
+
+
+	public double[] getEdgeVoxelCount() {
+		return edgeCount.clone();
+	}
+
+
+	public double[] getMinimumEdgeExtension() {
+		return edgeMin.clone();
+	}
+
+
+	public double[] getMaximumEdgeExtension() {
+		return edgeMax.clone();
+	}
+
+
+	public double[] getMeanEdgeExtension() {
+		double[] mean = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			mean[l] = edgeCount[l] > 0 ? edgeSum[l] / edgeCount[l] : 0;
+		}
+		return mean;
+	}
+
+
+	public double[] getEdgeExtensionStandardDeviation() {
+		double[] standardDeviation = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			if (edgeCount[l] > 0) {
+				double mean = edgeSum[l] / edgeCount[l];
+				standardDeviation[l] = Math.sqrt(Math.max(0, edgeSumOfSquares[l] / edgeCount[l] - mean * mean));
+			}
+		}
+		return standardDeviation;
+	}
+
+
+	/**
+	 *
+	 * @return one row per label with the statistics of its edge extensions
+	 */
+	public ResultsTable toResultsTable() {
+
+		ResultsTable table = new ResultsTable(labelCount);
+		double[] identifier = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			identifier[l] = l + 1;
+		}
+		table.setValues("IDENTIFIER", identifier);
+		table.setValues("EDGE_VOXELS", getEdgeVoxelCount());
+		table.setValues("MIN_EXTENSION", getMinimumEdgeExtension());
+		table.setValues("MAX_EXTENSION", getMaximumEdgeExtension());
+		table.setValues("MEAN_EXTENSION", getMeanEdgeExtension());
+		table.setValues("STD_DEV_EXTENSION", getEdgeExtensionStandardDeviation());
+		return table;
+	}
+
+
+	/**
+	 * Releases the labels and both distance maps
+	 */
+	public void close() {
+		labels.close();
+		borderDistances.close();
+		centroidDistances.close();
+	}
+
+}
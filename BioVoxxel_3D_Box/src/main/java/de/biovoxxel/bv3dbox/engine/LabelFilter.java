@@ -0,0 +1,218 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Removes labels which do not fulfill all given conditions and relabels the
+ * remaining ones consecutively in one pass over the label image, on the CPU
+ * ({@link #apply(HostImage)}) or with any {@link ComputeEngine} ({@link #apply(ComputeEngine, EngineImage, EngineImage)}).
+ *
+ * The conditions are evaluated on per-label columns, e.g. of {@link LabelStatistics},
+ * where index 0 refers to label 1. The resulting lookup table from old to new label
+ * is computed once on the host, so that only this table needs to be pushed to the GPU.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class LabelFilter {
+
+	private final int labelCount;
+	private final List<IntPredicate> conditions = new ArrayList<IntPredicate>();
+	private float[] newLabels = null;
+	private int[] keptIndices = null;
+
+
+	/**
+	 *
+	 * @param labelCount	highest label in the label image
+	 */
+	public LabelFilter(int labelCount) {
+		this.labelCount = labelCount;
+	}
+
+
+	/**
+	 *
+	 * @param condition	receives the label index (label - 1) and returns true to keep the label
+	 * @return this filter
+	 */
+	public LabelFilter keepIf(IntPredicate condition) {
+		conditions.add(condition);
+		newLabels = null;
+		return this;
+	}
+
+
+	/**
+	 * Keeps labels with min <= value <= max. NaN values are removed. Labels missing
+	 * in the label image have a value of 0 in the {@link LabelStatistics} columns
+	 * and are only removed if 0 is outside of the range.
+	 *
+	 * @param column	one value per label
+	 * @param min
+	 * @param max
+	 * @return this filter
+	 */
+	public LabelFilter keepInRange(final double[] column, final double min, final double max) {
+		return keepIf(index -> column[index] >= min && column[index] <= max);
+	}
+
+
+	private void evaluate() {
+
+		if (newLabels != null) {
+			return;
+		}
+
+		newLabels = new float[labelCount + 1];
+		int[] kept = new int[labelCount];
+		int keptCount = 0;
+
+		for (int index = 0; index < labelCount; index++) {
+			boolean keep = true;
+			for (int c = 0; c < conditions.size() && keep; c++) {
+				keep = conditions.get(c).test(index);
+			}
+			if (keep) {
+				kept[keptCount++] = index;
+				newLabels[index + 1] = keptCount;
+			}
+		}
+
+		keptIndices = new int[keptCount];
+		System.arraycopy(kept, 0, keptIndices, 0, keptCount);
+	}
+
+
+	/**
+	 *
+	 * @return new label for each old label (array index), 0 for removed labels
+	 */
+	public float[] getNewLabels() {
+		evaluate();
+		return newLabels;
+	}
+
+
+	/**
+	 *
+	 * @return label indices (label - 1) of all kept labels in ascending order
+	 */
+	public int[] getKeptIndices() {
+		evaluate();
+		return keptIndices;
+	}
+
+
+	public int getKeptCount() {
+		return getKeptIndices().length;
+	}
+
+
+	/**
+	 * Relabels the label image in place with multiple threads.
+	 * Labels above the label count of this filter are removed.
+	 *
+	 * @param labels
+	 * @return the number of remaining labels
+	 * @throws IllegalArgumentException if the image contains negative or non-integer values
+	 */
+	public int apply(HostImage labels) {
+
+		final float[] newLabels = getNewLabels();
+		final int[] lookupTable = new int[newLabels.length];
+		for (int l = 0; l < newLabels.length; l++) {
+			lookupTable[l] = (int) newLabels[l];
+		}
+		final int width = labels.getWidth();
+		final int height = labels.getHeight();
+
+		//float labels are checked before the conversion to int would truncate them
+		if (labels.getStorage() == HostImage.Storage.FLOAT) {
+			final float[][] slices = labels.getSlices();
+			CPUThreads.parallelFor(0, height * labels.getDepth(), row -> {
+				float[] slice = slices[row / height];
+				int rowEnd = (row % height + 1) * width;
+				for (int i = rowEnd - width; i < rowEnd; i++) {
+					if ((int) slice[i] != slice[i] || slice[i] < 0) {
+						throw new IllegalArgumentException(getInvalidLabelMessage(slice[i], i, width, row / height));
+					}
+				}
+			});
+		}
+
+		final int[][] slices = labels.getLabelSlices();
+		CPUThreads.parallelFor(0, height * labels.getDepth(), row -> {
+			int[] slice = slices[row / height];
+			int rowEnd = (row % height + 1) * width;
+			for (int i = rowEnd - width; i < rowEnd; i++) {
+				int label = slice[i];
+				if (label < 0) {
+					throw new IllegalArgumentException(getInvalidLabelMessage(label, i, width, row / height));
+				}
+				slice[i] = label < lookupTable.length ? lookupTable[label] : 0;
+			}
+		});
+		labels.convertToBitDepth();
+
+		return getKeptCount();
+	}
+
+
+	private static String getInvalidLabelMessage(float value, int index, int width, int z) {
+		return "Not a label image, found the value " + value + " at x=" + (index % width) + ", y=" + (index / width) + ", z=" + z;
+	}
+
+
+	/**
+	 * Relabels the label image with the lookup table as intensity replacement vector.
+	 *
+	 * @param engine
+	 * @param labels
+	 * @param destination	can be the same as labels
+	 * @return the number of remaining labels
+	 */
+	public int apply(ComputeEngine engine, EngineImage labels, EngineImage destination) {
+
+		engine.replaceIntensities(labels, getNewLabels(), destination);
+
+		return getKeptCount();
+	}
+
+}
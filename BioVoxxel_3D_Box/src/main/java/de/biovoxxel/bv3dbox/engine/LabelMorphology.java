@@ -0,0 +1,247 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Erosion and dilation of label images by any radius in a single pass, the
+ * counterpart of CLIJ2 erodeLabels and dilateLabels, which shrink or grow the
+ * labels by one voxel per iteration. Both are thresholds of a distance transform
+ * (see {@link DistanceTransform}), so the cost does not depend on the radius.
+ *
+ * An eroded label keeps the voxels farther than the radius from any other label or
+ * the background. A dilated label takes over the background voxels within the
+ * radius for which it is the nearest label, so labels stop at each other.
+ * The radius is Euclidean and measured with the voxel spacing, e.g. in pixels along
+ * x with the spacing from {@link de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities#getVoxelSpacing(ij.ImagePlus)}
+ * for anisotropic stacks. Without a spacing all voxels are cubes.
+ *
+ * The separation of touching labels replaces the dilation by one voxel, the
+ * reduction to label edges and the subtraction by two passes over the image.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class LabelMorphology {
+
+	/**
+	 * Distances closer than this to the radius still count as inside, to include voxels at exactly the radius
+	 */
+	private static final double TOLERANCE = 1e-6;
+
+	private static final int[][] NEIGHBORS = { { -1, 0, 0 }, { 1, 0, 0 }, { 0, -1, 0 }, { 0, 1, 0 }, { 0, 0, -1 }, { 0, 0, 1 } };
+
+
+	/**
+	 * Removes all voxels within the radius of another label or the background.
+	 * The image border does not count as background.
+	 *
+	 * @param labels			background = 0
+	 * @param destination		same size as labels, can be the same image
+	 * @param radius
+	 * @param spacing			voxel width, height and depth, null for cubic voxels
+	 * @param relabelIslands	give each connected part (6-connectivity, 4 in 2D) of the remaining
+	 * 							labels its own label, numbered consecutively
+	 */
+	public static void erode(HostImage labels, HostImage destination, double radius, double[] spacing, boolean relabelIslands) {
+
+		checkSize(labels, destination);
+
+		final HostImage distances = new HostImage(labels.getWidth(), labels.getHeight(), labels.getDepth(), 32);
+		DistanceTransform.labelBorderDistanceMap(labels, distances, spacing);
+
+		final int[][] input = labels.getLabelSlices();
+		final int[][] output = destination.getLabelSlices();
+		final float[][] distance = distances.getSlices();
+		final double threshold = radius + TOLERANCE;
+
+		CPUThreads.parallelFor(0, output.length, z -> {
+			for (int i = 0; i < output[z].length; i++) {
+				output[z][i] = input[z][i] > 0 && distance[z][i] > threshold ? input[z][i] : 0;
+			}
+		});
+
+		if (relabelIslands) {
+			relabelIslands(destination);
+		}
+		destination.convertToBitDepth();
+	}
+
+
+	private static void relabelIslands(HostImage labels) {
+
+		final HostImage components = new HostImage(labels.getWidth(), labels.getHeight(), labels.getDepth(), 32);
+		final int count = ConnectedComponentsLabeling.label(labels, components, true);
+		final int[][] label = labels.getLabelSlices();
+		final int[][] component = components.getLabelSlices();
+
+		//labels are usually apart after eroding, but can still touch along axes with a spacing larger than the radius
+		int[] owner = new int[count + 1];
+		boolean touching = false;
+		for (int z = 0; z < label.length && !touching; z++) {
+			for (int i = 0; i < label[z].length; i++) {
+				int c = component[z][i];
+				if (owner[c] == 0) {
+					owner[c] = label[z][i];
+				} else if (owner[c] != label[z][i]) {
+					touching = true;
+					break;
+				}
+			}
+		}
+
+		if (!touching) {
+			labels.setLabelSlices(component);
+			return;
+		}
+
+		//each label within a component gets its own number
+		Map<Long, Integer> numbers = new HashMap<>();
+		for (int z = 0; z < label.length; z++) {
+			for (int i = 0; i < label[z].length; i++) {
+				if (label[z][i] > 0) {
+					long key = ((long) component[z][i] << 32) | (long) label[z][i];
+					Integer number = numbers.get(key);
+					if (number == null) {
+						number = numbers.size() + 1;
+						numbers.put(key, number);
+					}
+					label[z][i] = number;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Grows the labels into the background up to the radius. Background voxels
+	 * at the same distance to several labels get one of them.
+	 *
+	 * @param labels		background = 0
+	 * @param destination	same size as labels, can be the same image
+	 * @param radius
+	 * @param spacing		voxel width, height and depth, null for cubic voxels
+	 */
+	public static void dilate(HostImage labels, HostImage destination, double radius, double[] spacing) {
+
+		checkSize(labels, destination);
+
+		final HostImage distances = new HostImage(labels.getWidth(), labels.getHeight(), labels.getDepth(), 32);
+		DistanceTransform.nearestLabelMap(labels, distances, destination, spacing);
+
+		final int[][] output = destination.getLabelSlices();
+		final float[][] distance = distances.getSlices();
+		final double threshold = radius + TOLERANCE;
+
+		CPUThreads.parallelFor(0, output.length, z -> {
+			for (int i = 0; i < output[z].length; i++) {
+				if (distance[z][i] > threshold) {
+					output[z][i] = 0;
+				}
+			}
+		});
+		destination.convertToBitDepth();
+	}
+
+
+	/**
+	 * Separates touching labels by a gap as the dilation by one voxel followed by
+	 * the removal of the label edges. The dilation only fills background voxels
+	 * with the highest label among the 6 face neighbors (4 in 2D) as in CLIJ2, and a
+	 * voxel is a label edge if one of these neighbors has another value after the
+	 * dilation. Neighbors outside of the image are ignored.
+	 *
+	 * @param labels		background = 0
+	 * @param destination	same size as labels, can be the same image
+	 */
+	public static void separate(HostImage labels, HostImage destination) {
+
+		checkSize(labels, destination);
+
+		final int width = labels.getWidth();
+		final int height = labels.getHeight();
+		final int depth = labels.getDepth();
+		final int[][] input = labels.getLabelSlices();
+		final int[][] output = destination.getLabelSlices();
+		final int[][] dilated = new int[depth][width * height];
+
+		CPUThreads.parallelFor(0, depth, z -> {
+			for (int y = 0, i = 0; y < height; y++) {
+				for (int x = 0; x < width; x++, i++) {
+					int value = input[z][i];
+					if (value == 0) {
+						for (int[] neighbor : NEIGHBORS) {
+							int nx = x + neighbor[0];
+							int ny = y + neighbor[1];
+							int nz = z + neighbor[2];
+							if (nx >= 0 && nx < width && ny >= 0 && ny < height && nz >= 0 && nz < depth) {
+								value = Math.max(value, input[nz][ny * width + nx]);
+							}
+						}
+					}
+					dilated[z][i] = value;
+				}
+			}
+		});
+
+		CPUThreads.parallelFor(0, depth, z -> {
+			for (int y = 0, i = 0; y < height; y++) {
+				for (int x = 0; x < width; x++, i++) {
+					int value = dilated[z][i];
+					for (int[] neighbor : NEIGHBORS) {
+						int nx = x + neighbor[0];
+						int ny = y + neighbor[1];
+						int nz = z + neighbor[2];
+						if (value != 0 && nx >= 0 && nx < width && ny >= 0 && ny < height && nz >= 0 && nz < depth && dilated[nz][ny * width + nx] != value) {
+							value = 0;
+						}
+					}
+					output[z][i] = value;
+				}
+			}
+		});
+		destination.convertToBitDepth();
+	}
+
+
+	private static void checkSize(HostImage labels, HostImage destination) {
+		if (destination.getWidth() != labels.getWidth() || destination.getHeight() != labels.getHeight() || destination.getDepth() != labels.getDepth()) {
+			throw new IllegalArgumentException("Labels and destination need to have the same size");
+		}
+	}
+
+}
@@ -0,0 +1,170 @@
+package de.biovoxxel.bv3dbox.engine;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Neighbor counts of all labels on the CPU, the counterparts of CLIJ2
+ * touchingNeighborCountMap and proximalNeighborCountMap before the counts are
+ * written into the label map.
+ *
+ * Touching labels are collected as label pairs in one pass over the label map,
+ * comparing each voxel with its next voxel along x, y and z (6-connectivity,
+ * 4 in 2D) in the same hash tables as {@link LabelOverlap}. Proximal labels are
+ * found by comparing the centroids of all label pairs. The background is never
+ * counted as a neighbor.
+ *
+ * Counts are indexed like {@link LabelStatistics} with index 0 referring to label 1.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class LabelNeighbors {
+
+	/**
+	 *
+	 * @param labels	label map, background = 0
+	 * @return number of different labels touching each label
+	 */
+	public static double[] countTouchingNeighbors(HostImage labels) {
+
+		final int width = labels.getWidth();
+		final int height = labels.getHeight();
+		final int depth = labels.getDepth();
+		final int rows = height * depth;
+		final int[][] slices = labels.getLabelSlices();
+
+		final int chunkCount = Math.max(1, Math.min(rows, CPUThreads.getThreadCount() * 4));
+		final LabelOverlap.PairCounts[] partial = new LabelOverlap.PairCounts[chunkCount];
+		final int[] partialMaxLabel = new int[chunkCount];
+
+		CPUThreads.parallelFor(0, chunkCount, c -> {
+			int rowStart = (int) ((long) rows * c / chunkCount);
+			int rowEnd = (int) ((long) rows * (c + 1) / chunkCount);
+			LabelOverlap.PairCounts local = new LabelOverlap.PairCounts(256);
+			int maxLabel = 0;
+
+			for (int row = rowStart; row < rowEnd; row++) {
+				int y = row % height;
+				int[] slice = slices[row / height];
+				int[] nextSlice = row / height < depth - 1 ? slices[row / height + 1] : null;
+				int offset = y * width;
+				for (int i = offset; i < offset + width; i++) {
+					int label = slice[i];
+					if (label <= 0) {
+						continue;
+					}
+					maxLabel = Math.max(maxLabel, label);
+					if (i < offset + width - 1) {
+						addPair(local, label, slice[i + 1]);
+					}
+					if (y < height - 1) {
+						addPair(local, label, slice[i + width]);
+					}
+					if (nextSlice != null) {
+						addPair(local, label, nextSlice[i]);
+					}
+				}
+			}
+			partial[c] = local;
+			partialMaxLabel[c] = maxLabel;
+		});
+
+		LabelOverlap.PairCounts pairs = partial[0];
+		int labelCount = partialMaxLabel[0];
+		for (int c = 1; c < chunkCount; c++) {
+			pairs.addAll(partial[c]);
+			labelCount = Math.max(labelCount, partialMaxLabel[c]);
+		}
+
+		double[] neighborCount = new double[labelCount];
+		for (long key : pairs.getKeys()) {
+			neighborCount[(int) (key >>> 32) - 1]++;
+			neighborCount[(int) key - 1]++;
+		}
+		return neighborCount;
+	}
+
+
+	/**
+	 * Stores each pair of different labels once with the lower label first
+	 */
+	private static void addPair(LabelOverlap.PairCounts pairs, int label, int neighbor) {
+		if (neighbor > 0 && neighbor != label) {
+			pairs.add(((long) Math.min(label, neighbor) << 32) | Math.max(label, neighbor), 1);
+		}
+	}
+
+
+	/**
+	 *
+	 * @param statistics		of the label map, labels without voxels are skipped
+	 * @param minimumDistance	between the centroids in pixels
+	 * @param maximumDistance	between the centroids in pixels
+	 * @return number of other labels with a centroid in the distance range around the centroid of each label
+	 */
+	public static double[] countProximalNeighbors(LabelStatistics statistics, double minimumDistance, double maximumDistance) {
+
+		final int labelCount = statistics.getLabelCount();
+		final double[] pixelCount = statistics.getPixelCount();
+		final double[] centroidX = statistics.getCentroid(0);
+		final double[] centroidY = statistics.getCentroid(1);
+		final double[] centroidZ = statistics.getCentroid(2);
+		final double minimumSquare = Math.max(0, minimumDistance) * Math.max(0, minimumDistance);
+		final double maximumSquare = maximumDistance * maximumDistance;
+
+		final double[] neighborCount = new double[labelCount];
+		CPUThreads.parallelFor(0, labelCount, l -> {
+			if (pixelCount[l] == 0) {
+				return;
+			}
+			int count = 0;
+			for (int n = 0; n < labelCount; n++) {
+				if (n == l || pixelCount[n] == 0) {
+					continue;
+				}
+				double dx = centroidX[n] - centroidX[l];
+				double dy = centroidY[n] - centroidY[l];
+				double dz = centroidZ[n] - centroidZ[l];
+				double squareDistance = dx * dx + dy * dy + dz * dz;
+				if (squareDistance >= minimumSquare && squareDistance <= maximumSquare) {
+					count++;
+				}
+			}
+			neighborCount[l] = count;
+		});
+		return neighborCount;
+	}
+
+}
@@ -0,0 +1,382 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.Arrays;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Sparse overlap matrix of two label maps of the same size, measured in one pass
+ * over both maps. Each entry holds a pair of labels (primary, secondary) and the
+ * number of voxels in which they overlap. Pairs with the background (label 0) of
+ * one of the maps are included, so that the voxel count of each label and its
+ * overlap with any label of the other map are derived from the same entries.
+ *
+ * Only pairs which actually occur are stored, in a primitive hash table per
+ * worker which is merged at the end, so that memory scales with the number of
+ * overlapping pairs and not with the product of both label counts.
+ *
+ * Per-label columns are indexed like {@link LabelStatistics} with index 0 referring to label 1.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class LabelOverlap {
+
+	private final int primaryLabelCount;
+	private final int secondaryLabelCount;
+
+	//sorted by primary and then secondary label
+	private final int[] primaryLabel;
+	private final int[] secondaryLabel;
+	private final long[] voxelCount;
+
+
+	private LabelOverlap(PairCounts pairs) {
+
+		long[] keys = pairs.getKeys();
+		Arrays.sort(keys);
+
+		primaryLabel = new int[keys.length];
+		secondaryLabel = new int[keys.length];
+		voxelCount = new long[keys.length];
+
+		int maxPrimary = 0;
+		int maxSecondary = 0;
+		for (int p = 0; p < keys.length; p++) {
+			primaryLabel[p] = (int) (keys[p] >>> 32);
+			secondaryLabel[p] = (int) keys[p];
+			voxelCount[p] = pairs.get(keys[p]);
+			maxPrimary = Math.max(maxPrimary, primaryLabel[p]);
+			maxSecondary = Math.max(maxSecondary, secondaryLabel[p]);
+		}
+		primaryLabelCount = maxPrimary;
+		secondaryLabelCount = maxSecondary;
+	}
+
+
+	/**
+	 *
+	 * @param primary	label map, background = 0
+	 * @param secondary	label map of the same size, background = 0
+	 * @return the overlap of all labels of both maps
+	 * @throws IllegalArgumentException	if the sizes differ
+	 */
+	public static LabelOverlap measure(HostImage primary, HostImage secondary) {
+
+		if (primary.getWidth() != secondary.getWidth() || primary.getHeight() != secondary.getHeight() || primary.getDepth() != secondary.getDepth()) {
+			throw new IllegalArgumentException("Label maps need to have the same size");
+		}
+
+		final int width = primary.getWidth();
+		final int height = primary.getHeight();
+		final int rows = height * primary.getDepth();
+		final int[][] primarySlices = primary.getLabelSlices();
+		final int[][] secondarySlices = secondary.getLabelSlices();
+
+		final int chunkCount = Math.max(1, Math.min(rows, CPUThreads.getThreadCount() * 4));
+		final PairCounts[] partial = new PairCounts[chunkCount];
+
+		CPUThreads.parallelFor(0, chunkCount, c -> {
+			int rowStart = (int) ((long) rows * c / chunkCount);
+			int rowEnd = (int) ((long) rows * (c + 1) / chunkCount);
+			PairCounts local = new PairCounts(1024);
+
+			for (int row = rowStart; row < rowEnd; row++) {
+				int[] primarySlice = primarySlices[row / height];
+				int[] secondarySlice = secondarySlices[row / height];
+				int offset = (row % height) * width;
+
+				//neighboring voxels mostly belong to the same pair, count runs to save hash lookups
+				long runKey = 0;
+				long runLength = 0;
+				for (int i = offset; i < offset + width; i++) {
+					long key = getKey(primarySlice[i], secondarySlice[i]);
+					if (key == runKey) {
+						runLength++;
+					} else {
+						if (runKey != 0) {
+							local.add(runKey, runLength);
+						}
+						runKey = key;
+						runLength = 1;
+					}
+				}
+				if (runKey != 0) {
+					local.add(runKey, runLength);
+				}
+			}
+			partial[c] = local;
+		});
+
+		PairCounts pairs = partial[0];
+		for (int c = 1; c < chunkCount; c++) {
+			pairs.addAll(partial[c]);
+			partial[c] = null;
+		}
+
+		return new LabelOverlap(pairs);
+	}
+
+
+	private static long getKey(int primaryLabel, int secondaryLabel) {
+		return ((long) Math.max(0, primaryLabel) << 32) | Math.max(0, secondaryLabel);
+	}
+
+
+	/**
+	 *
+	 * @return highest label of the primary map
+	 */
+	public int getPrimaryLabelCount() {
+		return primaryLabelCount;
+	}
+
+
+	/**
+	 *
+	 * @return highest label of the secondary map
+	 */
+	public int getSecondaryLabelCount() {
+		return secondaryLabelCount;
+	}
+
+
+	/**
+	 *
+	 * @return number of stored label pairs, including pairs with the background of one map
+	 */
+	public int getPairCount() {
+		return voxelCount.length;
+	}
+
+
+	public int getPrimaryLabel(int pair) {
+		return primaryLabel[pair];
+	}
+
+
+	public int getSecondaryLabel(int pair) {
+		return secondaryLabel[pair];
+	}
+
+
+	public long getVoxelCount(int pair) {
+		return voxelCount[pair];
+	}
+
+
+	/**
+	 *
+	 * @return number of voxels of each primary label
+	 */
+	public double[] getPrimaryVoxelCount() {
+		double[] count = new double[primaryLabelCount];
+		for (int p = 0; p < voxelCount.length; p++) {
+			if (primaryLabel[p] > 0) {
+				count[primaryLabel[p] - 1] += voxelCount[p];
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 *
+	 * @return number of voxels of each secondary label
+	 */
+	public double[] getSecondaryVoxelCount() {
+		double[] count = new double[secondaryLabelCount];
+		for (int p = 0; p < voxelCount.length; p++) {
+			if (secondaryLabel[p] > 0) {
+				count[secondaryLabel[p] - 1] += voxelCount[p];
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 *
+	 * @return number of voxels of each primary label covered by any secondary label
+	 */
+	public double[] getOverlapVoxelCount() {
+		double[] count = new double[primaryLabelCount];
+		for (int p = 0; p < voxelCount.length; p++) {
+			if (primaryLabel[p] > 0 && secondaryLabel[p] > 0) {
+				count[primaryLabel[p] - 1] += voxelCount[p];
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 *
+	 * @return percentage of the voxels of each primary label covered by any secondary label
+	 */
+	public double[] getOverlapPercent() {
+		double[] primaryVoxels = getPrimaryVoxelCount();
+		double[] percent = getOverlapVoxelCount();
+		for (int l = 0; l < percent.length; l++) {
+			percent[l] = primaryVoxels[l] > 0 ? (100.0 / primaryVoxels[l]) * percent[l] : 0.0;
+		}
+		return percent;
+	}
+
+
+	/**
+	 *
+	 * @return number of different secondary labels overlapping with each primary label
+	 */
+	public double[] getSecondaryLabelCountPerPrimary() {
+		double[] count = new double[primaryLabelCount];
+		for (int p = 0; p < voxelCount.length; p++) {
+			if (primaryLabel[p] > 0 && secondaryLabel[p] > 0) {
+				count[primaryLabel[p] - 1]++;
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 * The origin of a secondary label is the primary label it shares most voxels with.
+	 * For equal overlaps the lower primary label is chosen.
+	 *
+	 * @return primary label of origin for each secondary label, 0 if it does not overlap with any primary label
+	 */
+	public double[] getPrimaryOrigin() {
+		double[] origin = new double[secondaryLabelCount];
+		long[] largestOverlap = new long[secondaryLabelCount];
+		for (int p = 0; p < voxelCount.length; p++) {
+			if (primaryLabel[p] > 0 && secondaryLabel[p] > 0) {
+				int l = secondaryLabel[p] - 1;
+				if (voxelCount[p] > largestOverlap[l]) {
+					largestOverlap[l] = voxelCount[p];
+					origin[l] = primaryLabel[p];
+				}
+			}
+		}
+		return origin;
+	}
+
+
+	/**
+	 * Open addressing hash table from a packed label pair to its voxel count.
+	 * Key 0 (background in both maps) is never stored and marks empty slots.
+	 * Also collects the touching label pairs of {@link LabelNeighbors}.
+	 */
+	static class PairCounts {
+
+		private long[] keys;
+		private long[] counts;
+		private int size = 0;
+		private int mask;
+
+
+		PairCounts(int capacity) {
+			int tableSize = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+			keys = new long[tableSize];
+			counts = new long[tableSize];
+			mask = tableSize - 1;
+		}
+
+
+		private int getSlot(long key) {
+			int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+			while (keys[slot] != 0 && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+
+		void add(long key, long count) {
+			int slot = getSlot(key);
+			if (keys[slot] == 0) {
+				keys[slot] = key;
+				size++;
+			}
+			counts[slot] += count;
+
+			if (size * 4L > keys.length * 3L) {
+				grow();
+			}
+		}
+
+
+		void addAll(PairCounts other) {
+			for (int slot = 0; slot < other.keys.length; slot++) {
+				if (other.keys[slot] != 0) {
+					add(other.keys[slot], other.counts[slot]);
+				}
+			}
+		}
+
+
+		long get(long key) {
+			return counts[getSlot(key)];
+		}
+
+
+		long[] getKeys() {
+			long[] occupied = new long[size];
+			int k = 0;
+			for (long key : keys) {
+				if (key != 0) {
+					occupied[k++] = key;
+				}
+			}
+			return occupied;
+		}
+
+
+		private void grow() {
+			long[] oldKeys = keys;
+			long[] oldCounts = counts;
+			keys = new long[oldKeys.length * 2];
+			counts = new long[oldKeys.length * 2];
+			mask = keys.length - 1;
+			for (int slot = 0; slot < oldKeys.length; slot++) {
+				if (oldKeys[slot] != 0) {
+					int newSlot = getSlot(oldKeys[slot]);
+					keys[newSlot] = oldKeys[slot];
+					counts[newSlot] = oldCounts[slot];
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,609 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.Arrays;
+
+import ij.measure.ResultsTable;
+import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels.STATISTICS_ENTRY;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Per-label statistics of several intensity channels against one label map,
+ * computed in a single parallel pass over the volume (plus an optional second
+ * pass for the distances to centroid and mass center, which consider the voxel
+ * spacing like {@link LabelDistances}).
+ *
+ * All columns are primitive arrays with one entry per label, index 0 holding
+ * label 1, the same row order as in the CLIJ2 statisticsOfLabelledPixels table.
+ *
+ * Each worker accumulates into arrays covering only the label range occurring in
+ * its slab. For labels created by a raster scan (e.g. connected components
+ * labeling) these ranges hardly overlap and memory stays close to one set of
+ * columns.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class LabelStatistics {
+
+	private final int labelCount;
+	private final int channelCount;
+
+	private final double[] pixelCount;
+	private final double[][] positionSum;
+	private final double[][] boundingBoxMin;
+	private final double[][] boundingBoxMax;
+
+	private final double[][] sum;
+	private final double[][] sumOfSquares;
+	private final double[][] min;
+	private final double[][] max;
+	private final double[][][] weightedPositionSum;
+
+	private double[] distanceToCentroidSum;
+	private double[] distanceToCentroidMax;
+	private double[] distanceToMassCenterSum;
+	private double[] distanceToMassCenterMax;
+
+
+	private LabelStatistics(int labelCount, int channelCount) {
+		this.labelCount = labelCount;
+		this.channelCount = channelCount;
+
+		pixelCount = new double[labelCount];
+		positionSum = new double[3][labelCount];
+		boundingBoxMin = new double[3][labelCount];
+		boundingBoxMax = new double[3][labelCount];
+		sum = new double[channelCount][labelCount];
+		sumOfSquares = new double[channelCount][labelCount];
+		min = new double[channelCount][labelCount];
+		max = new double[channelCount][labelCount];
+		weightedPositionSum = new double[channelCount][3][labelCount];
+
+		for (int a = 0; a < 3; a++) {
+			Arrays.fill(boundingBoxMin[a], Double.POSITIVE_INFINITY);
+			Arrays.fill(boundingBoxMax[a], Double.NEGATIVE_INFINITY);
+		}
+		for (int c = 0; c < channelCount; c++) {
+			Arrays.fill(min[c], Double.POSITIVE_INFINITY);
+			Arrays.fill(max[c], Double.NEGATIVE_INFINITY);
+		}
+	}
+
+
+	/**
+	 *
+	 * @param labels	label map, background = 0
+	 * @param channels	intensity images of the same size, can be empty
+	 * @param measureDistances	adds a second pass to measure the mean and maximum distance
+	 * 							of all voxels to the centroid and to the mass center of the first channel
+	 * @return
+	 */
+	public static LabelStatistics measure(HostImage labels, HostImage[] channels, boolean measureDistances) {
+		return measure(labels, channels, measureDistances, null);
+	}
+
+
+	/**
+	 *
+	 * @param labels	label map, background = 0
+	 * @param channels	intensity images of the same size, can be empty
+	 * @param measureDistances	adds a second pass to measure the mean and maximum distance
+	 * 							of all voxels to the centroid and to the mass center of the first channel
+	 * @param spacing	voxel width, height and depth for the distances, e.g. from {@link de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities#getVoxelSpacing(ij.ImagePlus)},
+	 * 					null for distances in voxels
+	 * @return
+	 */
+	public static LabelStatistics measure(HostImage labels, HostImage[] channels, boolean measureDistances, double[] spacing) {
+
+		final int width = labels.getWidth();
+		final int height = labels.getHeight();
+		final int rows = height * labels.getDepth();
+		final int[][] labelSlices = labels.getLabelSlices();
+		final int channelCount = channels.length;
+
+		int[] labelRange = getLabelRange(labelSlices);
+		final int labelCount = labelRange[1];
+
+		LabelStatistics statistics = new LabelStatistics(labelCount, channelCount);
+		if (labelCount == 0) {
+			return statistics;
+		}
+
+		final int[] slabStart = getSlabs(labelSlices, width, height, rows, 8 + 7 * channelCount);
+		final int slabCount = slabStart.length - 1;
+		final LabelStatistics[] partial = new LabelStatistics[slabCount];
+		final int[] partialOffset = new int[slabCount];
+
+		CPUThreads.parallelFor(0, slabCount, s -> {
+			int[] range = getLabelRange(labelSlices, width, height, slabStart[s], slabStart[s + 1]);
+			if (range[1] < range[0]) {
+				return;
+			}
+			int offset = range[0];
+			LabelStatistics local = new LabelStatistics(range[1] - range[0] + 1, channelCount);
+			float[][] channelSlices = new float[channelCount][];
+			float[][] buffers = new float[channelCount][];
+			int channelZ = -1;
+
+			for (int row = slabStart[s]; row < slabStart[s + 1]; row++) {
+				int z = row / height;
+				int y = row % height;
+				int[] labelSlice = labelSlices[z];
+				if (z != channelZ) {
+					for (int c = 0; c < channelCount; c++) {
+						channelSlices[c] = channels[c].readSlice(z, buffers[c]);
+						if (channels[c].getStorage() != HostImage.Storage.FLOAT) {
+							buffers[c] = channelSlices[c];
+						}
+					}
+					channelZ = z;
+				}
+
+				for (int x = 0; x < width; x++) {
+					int index = y * width + x;
+					int label = labelSlice[index];
+					if (label <= 0) {
+						continue;
+					}
+					int l = label - offset;
+					local.pixelCount[l]++;
+					local.addPosition(0, l, x);
+					local.addPosition(1, l, y);
+					local.addPosition(2, l, z);
+
+					for (int c = 0; c < channelCount; c++) {
+						double value = channelSlices[c][index];
+						local.sum[c][l] += value;
+						local.sumOfSquares[c][l] += value * value;
+						if (value < local.min[c][l]) {
+							local.min[c][l] = value;
+						}
+						if (value > local.max[c][l]) {
+							local.max[c][l] = value;
+						}
+						local.weightedPositionSum[c][0][l] += value * x;
+						local.weightedPositionSum[c][1][l] += value * y;
+						local.weightedPositionSum[c][2][l] += value * z;
+					}
+				}
+			}
+			partial[s] = local;
+			partialOffset[s] = offset;
+		});
+
+		for (int s = 0; s < slabCount; s++) {
+			if (partial[s] != null) {
+				statistics.merge(partial[s], partialOffset[s] - 1);
+				partial[s] = null;
+			}
+		}
+
+		if (measureDistances) {
+			statistics.measureDistances(labelSlices, width, height, slabStart, spacing);
+		}
+
+		return statistics;
+	}
+
+
+	private void addPosition(int axis, int l, int position) {
+		positionSum[axis][l] += position;
+		if (position < boundingBoxMin[axis][l]) {
+			boundingBoxMin[axis][l] = position;
+		}
+		if (position > boundingBoxMax[axis][l]) {
+			boundingBoxMax[axis][l] = position;
+		}
+	}
+
+
+	private void merge(LabelStatistics local, int offset) {
+
+		for (int l = 0; l < local.labelCount; l++) {
+			if (local.pixelCount[l] == 0) {
+				continue;
+			}
+			int g = l + offset;
+			pixelCount[g] += local.pixelCount[l];
+			for (int a = 0; a < 3; a++) {
+				positionSum[a][g] += local.positionSum[a][l];
+				boundingBoxMin[a][g] = Math.min(boundingBoxMin[a][g], local.boundingBoxMin[a][l]);
+				boundingBoxMax[a][g] = Math.max(boundingBoxMax[a][g], local.boundingBoxMax[a][l]);
+			}
+			for (int c = 0; c < channelCount; c++) {
+				sum[c][g] += local.sum[c][l];
+				sumOfSquares[c][g] += local.sumOfSquares[c][l];
+				min[c][g] = Math.min(min[c][g], local.min[c][l]);
+				max[c][g] = Math.max(max[c][g], local.max[c][l]);
+				for (int a = 0; a < 3; a++) {
+					weightedPositionSum[c][a][g] += local.weightedPositionSum[c][a][l];
+				}
+			}
+		}
+	}
+
+
+	private void measureDistances(final int[][] labelSlices, final int width, final int height, final int[] slabStart, final double[] spacing) {
+
+		final int slabCount = slabStart.length - 1;
+		final double[] voxelSpacing = new double[3];
+		for (int a = 0; a < 3; a++) {
+			voxelSpacing[a] = spacing != null && spacing.length > a && spacing[a] > 0 ? spacing[a] : 1.0;
+		}
+		final double[][] centroid = { getCentroid(0), getCentroid(1), getCentroid(2) };
+		final double[][] massCenter = channelCount > 0 ? new double[][] { getMassCenter(0, 0), getMassCenter(0, 1), getMassCenter(0, 2) } : centroid;
+		final double[][][] partial = new double[slabCount][][];
+		final int[] partialOffset = new int[slabCount];
+
+		CPUThreads.parallelFor(0, slabCount, s -> {
+			int[] range = getLabelRange(labelSlices, width, height, slabStart[s], slabStart[s + 1]);
+			if (range[1] < range[0]) {
+				return;
+			}
+			int offset = range[0];
+			int size = range[1] - range[0] + 1;
+			double[][] local = new double[4][size];
+
+			for (int row = slabStart[s]; row < slabStart[s + 1]; row++) {
+				int z = row / height;
+				int y = row % height;
+				int[] labelSlice = labelSlices[z];
+
+				for (int x = 0; x < width; x++) {
+					int label = labelSlice[y * width + x];
+					if (label <= 0) {
+						continue;
+					}
+					int g = label - 1;
+					int l = label - offset;
+					double dx = (x - centroid[0][g]) * voxelSpacing[0];
+					double dy = (y - centroid[1][g]) * voxelSpacing[1];
+					double dz = (z - centroid[2][g]) * voxelSpacing[2];
+					double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+					local[0][l] += distance;
+					local[1][l] = Math.max(local[1][l], distance);
+
+					dx = (x - massCenter[0][g]) * voxelSpacing[0];
+					dy = (y - massCenter[1][g]) * voxelSpacing[1];
+					dz = (z - massCenter[2][g]) * voxelSpacing[2];
+					distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+					local[2][l] += distance;
+					local[3][l] = Math.max(local[3][l], distance);
+				}
+			}
+			partial[s] = local;
+			partialOffset[s] = offset;
+		});
+
+		distanceToCentroidSum = new double[labelCount];
+		distanceToCentroidMax = new double[labelCount];
+		distanceToMassCenterSum = new double[labelCount];
+		distanceToMassCenterMax = new double[labelCount];
+
+		for (int s = 0; s < slabCount; s++) {
+			double[][] local = partial[s];
+			if (local == null) {
+				continue;
+			}
+			for (int l = 0; l < local[0].length; l++) {
+				int g = l + partialOffset[s] - 1;
+				distanceToCentroidSum[g] += local[0][l];
+				distanceToCentroidMax[g] = Math.max(distanceToCentroidMax[g], local[1][l]);
+				distanceToMassCenterSum[g] += local[2][l];
+				distanceToMassCenterMax[g] = Math.max(distanceToMassCenterMax[g], local[3][l]);
+			}
+		}
+	}
+
+
+	/**
+	 *
+	 * @return [0] = smallest label > 0, [1] = largest label
+	 */
+	private static int[] getLabelRange(int[][] labelSlices) {
+		final int[][] ranges = new int[labelSlices.length][];
+		CPUThreads.parallelFor(0, labelSlices.length, z -> ranges[z] = getLabelRange(labelSlices[z], 0, labelSlices[z].length));
+
+		int[] range = { Integer.MAX_VALUE, 0 };
+		for (int[] r : ranges) {
+			range[0] = Math.min(range[0], r[0]);
+			range[1] = Math.max(range[1], r[1]);
+		}
+		return range;
+	}
+
+
+	private static int[] getLabelRange(int[][] labelSlices, int width, int height, int rowStart, int rowEnd) {
+		int[] range = { Integer.MAX_VALUE, 0 };
+		for (int row = rowStart; row < rowEnd; row++) {
+			int[] r = getLabelRange(labelSlices[row / height], (row % height) * width, (row % height + 1) * width);
+			range[0] = Math.min(range[0], r[0]);
+			range[1] = Math.max(range[1], r[1]);
+		}
+		return range;
+	}
+
+
+	private static int[] getLabelRange(int[] labels, int start, int end) {
+		int[] range = { Integer.MAX_VALUE, 0 };
+		for (int i = start; i < end; i++) {
+			int label = labels[i];
+			if (label > 0) {
+				if (label < range[0]) {
+					range[0] = label;
+				}
+				if (label > range[1]) {
+					range[1] = label;
+				}
+			}
+		}
+		return range;
+	}
+
+
+	/**
+	 * Splits the rows into one slab per thread, reduced to fewer slabs if
+	 * the per slab label ranges would not fit into a quarter of the free heap.
+	 */
+	private static int[] getSlabs(int[][] labelSlices, int width, int height, int rows, int valuesPerLabel) {
+
+		long freeMemory = Runtime.getRuntime().maxMemory() - (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+		int slabCount = Math.max(1, Math.min(rows, CPUThreads.getThreadCount()));
+
+		while (true) {
+			int[] slabStart = new int[slabCount + 1];
+			for (int s = 0; s <= slabCount; s++) {
+				slabStart[s] = (int) ((long) rows * s / slabCount);
+			}
+			if (slabCount == 1) {
+				return slabStart;
+			}
+
+			long labelsInSlabs = 0;
+			for (int s = 0; s < slabCount; s++) {
+				int[] range = getLabelRange(labelSlices, width, height, slabStart[s], slabStart[s + 1]);
+				labelsInSlabs += Math.max(0, range[1] - range[0] + 1);
+			}
+			if (labelsInSlabs * valuesPerLabel * 8 < freeMemory / 4) {
+				return slabStart;
+			}
+			slabCount /= 2;
+		}
+	}
+
+
+
+	public int getLabelCount() {
+		return labelCount;
+	}
+
+	public int getChannelCount() {
+		return channelCount;
+	}
+
+	public double[] getIdentifier() {
+		double[] identifier = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			identifier[l] = l + 1;
+		}
+		return identifier;
+	}
+
+	public double[] getPixelCount() {
+		return pixelCount;
+	}
+
+	public double[] getCentroid(int axis) {
+		double[] centroid = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			centroid[l] = pixelCount[l] > 0 ? positionSum[axis][l] / pixelCount[l] : 0;
+		}
+		return centroid;
+	}
+
+	public double[] getBoundingBoxStart(int axis) {
+		double[] start = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			start[l] = pixelCount[l] > 0 ? boundingBoxMin[axis][l] : 0;
+		}
+		return start;
+	}
+
+	public double[] getBoundingBoxEnd(int axis) {
+		double[] end = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			end[l] = pixelCount[l] > 0 ? boundingBoxMax[axis][l] : 0;
+		}
+		return end;
+	}
+
+	public double[] getBoundingBoxSize(int axis) {
+		double[] size = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			size[l] = pixelCount[l] > 0 ? boundingBoxMax[axis][l] - boundingBoxMin[axis][l] + 1 : 0;
+		}
+		return size;
+	}
+
+	/**
+	 *
+	 * @return pixel count divided by the bounding box volume
+	 */
+	public double[] getBoundingBoxExtent() {
+		double[] width = getBoundingBoxSize(0);
+		double[] height = getBoundingBoxSize(1);
+		double[] depth = getBoundingBoxSize(2);
+		double[] extent = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			extent[l] = pixelCount[l] / (width[l] * height[l] * depth[l]);
+		}
+		return extent;
+	}
+
+	public double[] getSum(int channel) {
+		return sum[channel];
+	}
+
+	public double[] getMinimum(int channel) {
+		double[] minimum = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			minimum[l] = pixelCount[l] > 0 ? min[channel][l] : 0;
+		}
+		return minimum;
+	}
+
+	public double[] getMaximum(int channel) {
+		double[] maximum = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			maximum[l] = pixelCount[l] > 0 ? max[channel][l] : 0;
+		}
+		return maximum;
+	}
+
+	public double[] getMean(int channel) {
+		double[] mean = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			mean[l] = pixelCount[l] > 0 ? sum[channel][l] / pixelCount[l] : 0;
+		}
+		return mean;
+	}
+
+	public double[] getStandardDeviation(int channel) {
+		double[] standardDeviation = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			if (pixelCount[l] > 0) {
+				double mean = sum[channel][l] / pixelCount[l];
+				standardDeviation[l] = Math.sqrt(Math.max(0, sumOfSquares[channel][l] / pixelCount[l] - mean * mean));
+			}
+		}
+		return standardDeviation;
+	}
+
+	public double[] getMassCenter(int channel, int axis) {
+		double[] massCenter = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			massCenter[l] = sum[channel][l] != 0 ? weightedPositionSum[channel][axis][l] / sum[channel][l] : 0;
+		}
+		return massCenter;
+	}
+
+	public double[] getMeanDistanceToCentroid() {
+		return divideByPixelCount(distanceToCentroidSum);
+	}
+
+	public double[] getMaxDistanceToCentroid() {
+		return distanceToCentroidMax;
+	}
+
+	public double[] getMaxMeanDistanceToCentroidRatio() {
+		return ratio(distanceToCentroidMax, getMeanDistanceToCentroid());
+	}
+
+	public double[] getMeanDistanceToMassCenter() {
+		return divideByPixelCount(distanceToMassCenterSum);
+	}
+
+	public double[] getMaxDistanceToMassCenter() {
+		return distanceToMassCenterMax;
+	}
+
+	public double[] getMaxMeanDistanceToMassCenterRatio() {
+		return ratio(distanceToMassCenterMax, getMeanDistanceToMassCenter());
+	}
+
+
+	private double[] divideByPixelCount(double[] values) {
+		double[] result = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			result[l] = pixelCount[l] > 0 ? values[l] / pixelCount[l] : 0;
+		}
+		return result;
+	}
+
+	private double[] ratio(double[] dividend, double[] divisor) {
+		double[] result = new double[labelCount];
+		for (int l = 0; l < labelCount; l++) {
+			result[l] = divisor[l] > 0 ? dividend[l] / divisor[l] : 0;
+		}
+		return result;
+	}
+
+
+	/**
+	 * Creates a table with the column names used by CLIJ2 statisticsOfLabelledPixels.
+	 *
+	 * @param channel	the intensity channel to report
+	 * @return
+	 */
+	public ResultsTable toResultsTable(int channel) {
+
+		ResultsTable table = new ResultsTable(labelCount);
+		table.setValues(STATISTICS_ENTRY.IDENTIFIER.name(), getIdentifier());
+		table.setValues(STATISTICS_ENTRY.BOUNDING_BOX_X.name(), getBoundingBoxStart(0));
+		table.setValues(STATISTICS_ENTRY.BOUNDING_BOX_Y.name(), getBoundingBoxStart(1));
+		table.setValues(STATISTICS_ENTRY.BOUNDING_BOX_Z.name(), getBoundingBoxStart(2));
+		table.setValues(STATISTICS_ENTRY.BOUNDING_BOX_END_X.name(), getBoundingBoxEnd(0));
+		table.setValues(STATISTICS_ENTRY.BOUNDING_BOX_END_Y.name(), getBoundingBoxEnd(1));
+		table.setValues(STATISTICS_ENTRY.BOUNDING_BOX_END_Z.name(), getBoundingBoxEnd(2));
+		table.setValues(STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name(), getBoundingBoxSize(0));
+		table.setValues(STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name(), getBoundingBoxSize(1));
+		table.setValues(STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name(), getBoundingBoxSize(2));
+		table.setValues(STATISTICS_ENTRY.MINIMUM_INTENSITY.name(), getMinimum(channel));
+		table.setValues(STATISTICS_ENTRY.MAXIMUM_INTENSITY.name(), getMaximum(channel));
+		table.setValues(STATISTICS_ENTRY.MEAN_INTENSITY.name(), getMean(channel));
+		table.setValues(STATISTICS_ENTRY.SUM_INTENSITY.name(), getSum(channel));
+		table.setValues(STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name(), getStandardDeviation(channel));
+		table.setValues(STATISTICS_ENTRY.PIXEL_COUNT.name(), getPixelCount());
+		table.setValues(STATISTICS_ENTRY.MASS_CENTER_X.name(), getMassCenter(channel, 0));
+		table.setValues(STATISTICS_ENTRY.MASS_CENTER_Y.name(), getMassCenter(channel, 1));
+		table.setValues(STATISTICS_ENTRY.MASS_CENTER_Z.name(), getMassCenter(channel, 2));
+		table.setValues(STATISTICS_ENTRY.CENTROID_X.name(), getCentroid(0));
+		table.setValues(STATISTICS_ENTRY.CENTROID_Y.name(), getCentroid(1));
+		table.setValues(STATISTICS_ENTRY.CENTROID_Z.name(), getCentroid(2));
+
+		if (distanceToCentroidSum != null) {
+			table.setValues(STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name(), getMeanDistanceToCentroid());
+			table.setValues(STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name(), getMaxDistanceToCentroid());
+			table.setValues(STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name(), getMaxMeanDistanceToCentroidRatio());
+			table.setValues(STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name(), getMeanDistanceToMassCenter());
+			table.setValues(STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name(), getMaxDistanceToMassCenter());
+			table.setValues(STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name(), getMaxMeanDistanceToMassCenterRatio());
+		}
+
+		return table;
+	}
+
+}
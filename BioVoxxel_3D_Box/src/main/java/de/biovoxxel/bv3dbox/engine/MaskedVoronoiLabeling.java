@@ -0,0 +1,455 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.Arrays;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Seeded Voronoi labeling restricted to a mask on the CPU, the counterpart of
+ * CLIJ2 maskedVoronoiLabeling.
+ *
+ * The seeds are labeled as connected components (26-connectivity) and grown
+ * inside the mask along the shortest path within the mask. The path length is
+ * measured with the anisotropic step lengths to the 26 neighbors (8 in 2D),
+ * quantized to integer costs. The growth runs as a priority flood with a
+ * circular bucket queue (Dial), so only the current front is kept in compact
+ * int queues beside the label image. One byte per voxel holds the state of the
+ * voxel, i.e. outside of the mask, labeled or the pending cost relative to the
+ * bucket ring, so that a voxel is only queued again on a path which is not longer. If several labels reach a voxel with the
+ * same cost, the highest label wins, as in the iterative maximum dilation of CLIJ2.
+ * Mask voxels not connected to any seed stay 0. Without a mask, existing labels
+ * are grown into the complete background without labeling them again
+ * ({@link #extend(HostImage, HostImage, double[])}).
+ *
+ * All voxels of one cost level are processed in parallel. The rows of all slices
+ * are split into slabs and each slab only sets the voxels it owns, while each
+ * thread writes into its own queues.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class MaskedVoronoiLabeling {
+
+	/**
+	 * Cost of a step along the axis with the smallest spacing
+	 */
+	private static final int UNIT_COST = 10;
+
+	/**
+	 * Largest step cost, so that the pending cost of a voxel fits into one byte relative to the current cost
+	 */
+	private static final int MAXIMUM_COST = 253;
+
+	/**
+	 * State of voxels outside of the mask or with their final label
+	 */
+	private static final byte BLOCKED = (byte) 0xFF;
+
+
+	/**
+	 *
+	 * @param seeds		all voxels != 0 inside of the mask are seeds
+	 * @param mask		voxels > 0 can be labeled, e.g. an 8-bit binary image stored as byte
+	 * @param labels	output stored as int, can be the same image as seeds but not as mask
+	 * @param spacing	voxel width, height and depth, e.g. from {@link de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities#getVoxelSpacing(ij.ImagePlus)}
+	 * @return number of labels
+	 */
+	public static int label(HostImage seeds, HostImage mask, HostImage labels, double[] spacing) {
+
+		final int width = seeds.getWidth();
+		final int height = seeds.getHeight();
+		final int depth = seeds.getDepth();
+
+		if (mask.getWidth() != width || mask.getHeight() != height || mask.getDepth() != depth) {
+			throw new IllegalArgumentException("Seeds and mask need to have the same size");
+		}
+		if (mask == labels) {
+			throw new IllegalArgumentException("Labels need to be written to a different image than the mask");
+		}
+		if ((long) width * height * depth > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Images with more than " + Integer.MAX_VALUE + " voxels are not supported");
+		}
+
+		//seeds are masked before labeling, as they would be connected outside of the mask otherwise
+		final byte[][] states = new byte[depth][width * height];
+		CPUThreads.parallelFor(0, depth, z -> {
+			byte[] seedSlice = readMask(seeds, z, true);
+			byte[] maskSlice = readMask(mask, z, false);
+			byte[] state = states[z];
+			for (int i = 0; i < state.length; i++) {
+				state[i] = (byte) (seedSlice[i] != 0 && maskSlice[i] != 0 ? 1 : 0);
+			}
+		});
+
+		final int labelCount = ConnectedComponentsLabeling.label(new HostImage(width, height, states), labels, false);
+
+		if (labelCount == 0) {
+			return 0;
+		}
+
+		//the seed mask is reused for the states
+		final int[][] labelSlices = labels.getLabelSlices();
+		CPUThreads.parallelFor(0, depth, z -> {
+			byte[] maskSlice = readMask(mask, z, false);
+			int[] labelSlice = labelSlices[z];
+			byte[] state = states[z];
+			for (int i = 0; i < state.length; i++) {
+				state[i] = maskSlice[i] == 0 || labelSlice[i] > 0 ? BLOCKED : 0;
+			}
+		});
+
+		new Flood(width, height, depth, states, labelSlices, spacing).run();
+
+		return labelCount;
+	}
+
+
+	/**
+	 * Grows all labels into the background until they touch each other, the counterpart of
+	 * CLIJ2 extendLabelingViaVoronoi. The labels keep their values.
+	 *
+	 * @param seeds		label image, background = 0
+	 * @param labels	output stored as int, can be the same image as seeds
+	 * @param spacing	voxel width, height and depth, null for cubic voxels
+	 */
+	public static void extend(HostImage seeds, HostImage labels, double[] spacing) {
+
+		final int width = seeds.getWidth();
+		final int height = seeds.getHeight();
+		final int depth = seeds.getDepth();
+
+		if (labels.getWidth() != width || labels.getHeight() != height || labels.getDepth() != depth) {
+			throw new IllegalArgumentException("Seeds and labels need to have the same size");
+		}
+		if ((long) width * height * depth > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Images with more than " + Integer.MAX_VALUE + " voxels are not supported");
+		}
+
+		final int[][] seedSlices = seeds.getLabelSlices();
+		final int[][] labelSlices = labels.getLabelSlices();
+		final byte[][] states = new byte[depth][width * height];
+		CPUThreads.parallelFor(0, depth, z -> {
+			int[] labelSlice = labelSlices[z];
+			if (seedSlices[z] != labelSlice) {
+				System.arraycopy(seedSlices[z], 0, labelSlice, 0, labelSlice.length);
+			}
+			byte[] state = states[z];
+			for (int i = 0; i < state.length; i++) {
+				if (labelSlice[i] > 0) {
+					state[i] = BLOCKED;
+				} else {
+					labelSlice[i] = 0;
+				}
+			}
+		});
+
+		new Flood(width, height, depth, states, labelSlices, spacing).run();
+	}
+
+
+	/**
+	 * One slice as != 0 for the set voxels. Byte slices are returned as they are,
+	 * other storages are compared without converting the image.
+	 *
+	 * @param image
+	 * @param z
+	 * @param nonZero	all voxels != 0 are set instead of only those > 0
+	 * @return
+	 */
+	private static byte[] readMask(HostImage image, int z, boolean nonZero) {
+
+		if (image.getStorage() == HostImage.Storage.BYTE) {
+			return image.getByteSlices()[z];
+		}
+
+		byte[] mask = new byte[image.getWidth() * image.getHeight()];
+		if (image.getStorage() == HostImage.Storage.INT) {
+			int[] slice = image.getLabelSlices()[z];
+			for (int i = 0; i < mask.length; i++) {
+				mask[i] = (byte) (slice[i] > 0 || (nonZero && slice[i] != 0) ? 1 : 0);
+			}
+		} else {
+			float[] slice = image.readSlice(z, null);
+			for (int i = 0; i < mask.length; i++) {
+				mask[i] = (byte) (slice[i] > 0 || (nonZero && slice[i] != 0) ? 1 : 0);
+			}
+		}
+		return mask;
+	}
+
+
+	private static class Flood {
+
+		final int width;
+		final int height;
+		final int depth;
+		final int plane;
+		final int[][] labels;
+
+		final int zRange;
+		final int[] stepCost;			//[(dz + 1) * 9 + (dy + 1) * 3 + dx + 1]
+		final byte[][] states;			//0 = not queued, BLOCKED or 1 + pending cost % bucketCount
+
+		final int slabCount;
+		final int[] slabOfRow;
+		final int[] slabStart;			//in rows, with rows counted through all slices
+
+		final int bucketCount;
+		final IntQueue[][][] buckets;	//[cost % bucketCount][target slab][producing slab]
+		final long[][] pushed;			//[producing slab][cost % bucketCount]
+		final long[] bucketSize;
+		final IntQueue[] fronts;		//voxels of each slab labeled with the current cost
+
+
+		Flood(int width, int height, int depth, byte[][] states, int[][] labels, double[] spacing) {
+			this.width = width;
+			this.height = height;
+			this.depth = depth;
+			this.plane = width * height;
+			this.states = states;
+			this.labels = labels;
+
+			double[] axisSpacing = new double[3];
+			double minimumSpacing = Double.MAX_VALUE;
+			for (int a = 0; a < 3; a++) {
+				axisSpacing[a] = spacing != null && spacing.length > a && spacing[a] > 0 ? spacing[a] : 1.0;
+				if (a < 2 || depth > 1) {
+					minimumSpacing = Math.min(minimumSpacing, axisSpacing[a]);
+				}
+			}
+
+			zRange = depth > 1 ? 1 : 0;
+			double[] stepLength = new double[27];
+			double maximumLength = 0;
+			for (int dz = -zRange; dz <= zRange; dz++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dx = -1; dx <= 1; dx++) {
+						double length = Math.sqrt(Math.pow(dx * axisSpacing[0], 2) + Math.pow(dy * axisSpacing[1], 2) + Math.pow(dz * axisSpacing[2], 2));
+						stepLength[(dz + 1) * 9 + (dy + 1) * 3 + dx + 1] = length;
+						maximumLength = Math.max(maximumLength, length);
+					}
+				}
+			}
+
+			//very anisotropic spacings are quantized more coarsely
+			double costScale = Math.min(UNIT_COST / minimumSpacing, MAXIMUM_COST / maximumLength);
+			stepCost = new int[27];
+			int maximumCost = 0;
+			for (int n = 0; n < 27; n++) {
+				stepCost[n] = Math.max(1, (int) Math.round(costScale * stepLength[n]));
+				maximumCost = Math.max(maximumCost, stepCost[n]);
+			}
+
+			int rows = height * depth;
+			slabCount = Math.max(1, Math.min(rows, CPUThreads.getThreadCount()));
+			slabStart = new int[slabCount + 1];
+			slabOfRow = new int[rows];
+			for (int s = 0; s <= slabCount; s++) {
+				slabStart[s] = (int) ((long) rows * s / slabCount);
+			}
+			for (int s = 0; s < slabCount; s++) {
+				Arrays.fill(slabOfRow, slabStart[s], slabStart[s + 1], s);
+			}
+
+			bucketCount = maximumCost + 1;
+			buckets = new IntQueue[bucketCount][slabCount][slabCount];
+			pushed = new long[slabCount][bucketCount];
+			bucketSize = new long[bucketCount];
+			fronts = new IntQueue[slabCount];
+			for (int s = 0; s < slabCount; s++) {
+				fronts[s] = new IntQueue();
+			}
+		}
+
+
+		void run() {
+
+			//the seeds form the front with cost 0
+			CPUThreads.parallelFor(0, slabCount, s -> {
+				for (int row = slabStart[s]; row < slabStart[s + 1]; row++) {
+					int[] labelSlice = labels[row / height];
+					int offset = (row % height) * width;
+					for (int x = 0; x < width; x++) {
+						int label = labelSlice[offset + x];
+						if (label > 0) {
+							expand(s, 0, row / height * plane + offset + x, label);
+						}
+					}
+				}
+			});
+			long queued = collectPushes();
+
+			for (int cost = 1; queued > 0; cost++) {
+
+				final int bucket = cost % bucketCount;
+				if (bucketSize[bucket] == 0) {
+					continue;
+				}
+				queued -= bucketSize[bucket];
+				bucketSize[bucket] = 0;
+				final int currentCost = cost;
+
+				//the highest label arriving at a voxel with this cost is marked negative
+				CPUThreads.parallelFor(0, slabCount, t -> {
+					for (IntQueue queue : buckets[bucket][t]) {
+						if (queue == null) {
+							continue;
+						}
+						for (int e = 0; e < queue.size; e += 2) {
+							int index = queue.values[e];
+							int label = queue.values[e + 1];
+							int[] labelSlice = labels[index / plane];
+							int current = labelSlice[index % plane];
+							if (current == 0 || (current < 0 && label > -current)) {
+								labelSlice[index % plane] = -label;
+							}
+						}
+					}
+				});
+
+				//only negative voxels are final with this cost, all others were reached earlier
+				CPUThreads.parallelFor(0, slabCount, t -> {
+					IntQueue front = fronts[t];
+					for (IntQueue queue : buckets[bucket][t]) {
+						if (queue == null) {
+							continue;
+						}
+						for (int e = 0; e < queue.size; e += 2) {
+							int index = queue.values[e];
+							int[] labelSlice = labels[index / plane];
+							int label = labelSlice[index % plane];
+							if (label < 0) {
+								labelSlice[index % plane] = -label;
+								states[index / plane][index % plane] = BLOCKED;
+								front.add(index);
+							}
+						}
+						queue.size = 0;
+					}
+
+					//expanding in memory order keeps the neighborhoods in the cache
+					Arrays.sort(front.values, 0, front.size);
+					for (int f = 0; f < front.size; f++) {
+						int index = front.values[f];
+						expand(t, currentCost, index, labels[index / plane][index % plane]);
+					}
+					front.size = 0;
+				});
+
+				queued += collectPushes();
+			}
+		}
+
+
+		/**
+		 * Queues all unlabeled mask voxels around index, which are not yet queued with a lower cost
+		 */
+		private void expand(int slab, int cost, int index, int label) {
+			int z = index / plane;
+			int y = (index % plane) / width;
+			int x = index % width;
+
+			//the voxel itself is already blocked
+			for (int nz = Math.max(0, z - zRange); nz <= Math.min(depth - 1, z + zRange); nz++) {
+				byte[] stateSlice = states[nz];
+				for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+					int target = slabOfRow[nz * height + ny];
+					for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+						int neighborIndex = ny * width + nx;
+						byte state = stateSlice[neighborIndex];
+						if (state == BLOCKED) {
+							continue;
+						}
+						//a pending cost is never below the current cost, equal costs are queued for the highest label
+						int step = stepCost[(nz - z + 1) * 9 + (ny - y + 1) * 3 + nx - x + 1];
+						if (state != 0 && Math.floorMod((state & 0xFF) - 1 - cost, bucketCount) < step) {
+							continue;
+						}
+						int bucket = (cost + step) % bucketCount;
+						stateSlice[neighborIndex] = (byte) (bucket + 1);
+						IntQueue queue = buckets[bucket][target][slab];
+						if (queue == null) {
+							queue = new IntQueue();
+							buckets[bucket][target][slab] = queue;
+						}
+						queue.add(nz * plane + neighborIndex, label);
+						pushed[slab][bucket]++;
+					}
+				}
+			}
+		}
+
+
+		private long collectPushes() {
+			long total = 0;
+			for (int s = 0; s < slabCount; s++) {
+				for (int b = 0; b < bucketCount; b++) {
+					bucketSize[b] += pushed[s][b];
+					total += pushed[s][b];
+					pushed[s][b] = 0;
+				}
+			}
+			return total;
+		}
+	}
+
+
+	/**
+	 * Voxel indices or pairs of voxel index and label, the capacity is kept when the queue is emptied
+	 */
+	private static class IntQueue {
+
+		int[] values = new int[64];
+		int size;
+
+
+		void add(int index) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, values.length * 2);
+			}
+			values[size++] = index;
+		}
+
+
+		void add(int index, int label) {
+			if (size + 2 > values.length) {
+				values = Arrays.copyOf(values, values.length * 2);
+			}
+			values[size++] = index;
+			values[size++] = label;
+		}
+	}
+
+}
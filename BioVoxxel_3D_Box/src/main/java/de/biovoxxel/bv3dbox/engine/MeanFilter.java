@@ -0,0 +1,158 @@
+package de.biovoxxel.bv3dbox.engine;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Mean and variance filter with ellipsoid (sphere) or box neighborhoods, the
+ * counterpart of the CLIJ2 mean and variance filters.
+ *
+ * The neighborhood is decomposed into chords along x as in the {@link MedianFilter}.
+ * When moving one voxel along a row only the first voxel of each chord leaves
+ * and the voxel behind its end enters the running sums, so the cost per voxel
+ * grows with the number of chords instead of with the neighborhood size.
+ * The sums are accumulated as double. Voxels outside of the image are replaced
+ * by the nearest border voxel. Rows are distributed over the {@link CPUThreads}.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class MeanFilter {
+
+	/**
+	 * Mean in an ellipsoid or box neighborhood.
+	 * A radius of 0 excludes the axis, e.g. radiusZ = 0 for slice-by-slice filtering.
+	 *
+	 * @param source
+	 * @param destination	same size as source, can be the same image
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ
+	 * @param box			box instead of sphere neighborhood
+	 */
+	public static void mean(HostImage source, HostImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+		filter(source, destination, radiusX, radiusY, radiusZ, box, false);
+	}
+
+
+	/**
+	 * Population variance in an ellipsoid or box neighborhood.
+	 * A radius of 0 excludes the axis, e.g. radiusZ = 0 for slice-by-slice filtering.
+	 *
+	 * @param source
+	 * @param destination	same size as source, can be the same image
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ
+	 * @param box			box instead of sphere neighborhood
+	 */
+	public static void variance(HostImage source, HostImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+		filter(source, destination, radiusX, radiusY, radiusZ, box, true);
+	}
+
+
+	private static void filter(HostImage source, HostImage destination, double radiusX, double radiusY, double radiusZ, boolean box, boolean variance) {
+
+		final int width = source.getWidth();
+		final int height = source.getHeight();
+		final int depth = source.getDepth();
+
+		if (destination.getWidth() != width || destination.getHeight() != height || destination.getDepth() != depth) {
+			throw new IllegalArgumentException("Source and destination need to have the same size");
+		}
+
+		final int[][] chords = MedianFilter.getChords(radiusX, height > 1 ? radiusY : 0, depth > 1 ? radiusZ : 0, box);
+		int voxels = 0;
+		for (int[] chord : chords) {
+			voxels += 2 * chord[2] + 1;
+		}
+		final double count = voxels;
+
+		//the input is kept apart from the output, which can be the same image
+		final float[][] input = new float[depth][];
+		CPUThreads.parallelFor(0, depth, z -> {
+			float[] buffer = new float[width * height];
+			float[] slice = source.readSlice(z, buffer);
+			input[z] = slice != buffer && source == destination ? slice.clone() : slice;
+		});
+		final float[][] output = destination.getSlices();
+
+		final int rows = height * depth;
+		CPUThreads.parallelFor(0, rows, row -> {
+			int y = row % height;
+			int z = row / height;
+			float[][] chordRows = new float[chords.length][];
+			int[] chordOffsets = new int[chords.length];
+
+			//chord k covers the row y + dy in slice z + dz from x - halfWidth to x + halfWidth
+			for (int k = 0; k < chords.length; k++) {
+				chordRows[k] = input[clamp(z + chords[k][1], depth)];
+				chordOffsets[k] = clamp(y + chords[k][0], height) * width;
+			}
+
+			double sum = 0;
+			double sumOfSquares = 0;
+			for (int k = 0; k < chords.length; k++) {
+				for (int dx = -chords[k][2]; dx <= chords[k][2]; dx++) {
+					double value = chordRows[k][chordOffsets[k] + clamp(dx, width)];
+					sum += value;
+					sumOfSquares += value * value;
+				}
+			}
+
+			float[] outputSlice = output[z];
+			for (int x = 0; x < width; x++) {
+				if (x > 0) {
+					for (int k = 0; k < chords.length; k++) {
+						int halfWidth = chords[k][2];
+						double leaving = chordRows[k][chordOffsets[k] + clamp(x - halfWidth - 1, width)];
+						double entering = chordRows[k][chordOffsets[k] + clamp(x + halfWidth, width)];
+						sum += entering - leaving;
+						sumOfSquares += entering * entering - leaving * leaving;
+					}
+				}
+				double mean = sum / count;
+				outputSlice[y * width + x] = (float) (variance ? Math.max(0, sumOfSquares / count - mean * mean) : mean);
+			}
+		});
+
+		destination.convertToBitDepth();
+	}
+
+
+	private static int clamp(int position, int length) {
+		return position < 0 ? 0 : (position >= length ? length - 1 : position);
+	}
+
+}
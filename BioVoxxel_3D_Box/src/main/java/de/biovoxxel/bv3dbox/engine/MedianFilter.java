@@ -0,0 +1,332 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.Arrays;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Median filter with ellipsoid (sphere) or box neighborhoods using a sliding
+ * histogram of 16-bit gray values instead of sorting the neighborhood.
+ *
+ * The neighborhood is decomposed into chords along x. When moving one voxel
+ * along a row only the first voxel of each chord leaves and the voxel behind its
+ * end enters the histogram, and the median is tracked from the previous one (Huang).
+ * A coarse histogram of 256 blocks with 256 values each lets the tracking skip
+ * empty value ranges. The cost per voxel therefore grows with the number of
+ * chords, i.e. with the radius in 2D, instead of with the neighborhood size.
+ *
+ * 8- and 16-bit images as well as 32-bit images with integer values from 0 to 65535
+ * are filtered exactly. Other 32-bit images are quantized to 65536 levels between
+ * their minimum and maximum. Voxels outside of the image are replaced by the
+ * nearest border voxel as in CLIJ2. Rows are distributed over the {@link CPUThreads}.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class MedianFilter {
+
+	private static final int LEVELS = 65536;
+	private static final int BLOCK_SHIFT = 8;
+
+
+	/**
+	 * Median in an ellipsoid neighborhood, voxels with (dx/radiusX)^2 + (dy/radiusY)^2 + (dz/radiusZ)^2 <= 1.
+	 * A radius of 0 excludes the axis, e.g. radiusZ = 0 for slice-by-slice filtering.
+	 *
+	 * @param source
+	 * @param destination	same size as source, can be the same image
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ
+	 */
+	public static void sphere(HostImage source, HostImage destination, double radiusX, double radiusY, double radiusZ) {
+		filter(source, destination, radiusX, radiusY, radiusZ, false);
+	}
+
+
+	/**
+	 * Median in a box neighborhood of (2 * radius + 1) voxels along each axis
+	 *
+	 * @param source
+	 * @param destination	same size as source, can be the same image
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ		0 for slice-by-slice filtering
+	 */
+	public static void box(HostImage source, HostImage destination, double radiusX, double radiusY, double radiusZ) {
+		filter(source, destination, radiusX, radiusY, radiusZ, true);
+	}
+
+
+	private static void filter(HostImage source, HostImage destination, double radiusX, double radiusY, double radiusZ, boolean box) {
+
+		final int width = source.getWidth();
+		final int height = source.getHeight();
+		final int depth = source.getDepth();
+
+		if (destination.getWidth() != width || destination.getHeight() != height || destination.getDepth() != depth) {
+			throw new IllegalArgumentException("Source and destination need to have the same size");
+		}
+
+		final int[][] chords = getChords(radiusX, height > 1 ? radiusY : 0, depth > 1 ? radiusZ : 0, box);
+
+		final Quantization quantization = new Quantization(source);
+		final char[][] levels = quantization.levels;
+		final float[][] output = destination.getSlices();
+
+		final int rows = height * depth;
+		final int chunkCount = Math.max(1, Math.min(rows, CPUThreads.getThreadCount() * 4));
+
+		//all rows are read from the quantized copy, so the destination can be the source
+		CPUThreads.parallelFor(0, chunkCount, c -> {
+			int rowStart = (int) ((long) rows * c / chunkCount);
+			int rowEnd = (int) ((long) rows * (c + 1) / chunkCount);
+			SlidingHistogram histogram = new SlidingHistogram();
+			char[][] chordRows = new char[chords.length][];
+			int[] chordOffsets = new int[chords.length];
+
+			for (int row = rowStart; row < rowEnd; row++) {
+				int y = row % height;
+				int z = row / height;
+				float[] outputSlice = output[z];
+
+				//chord k covers the row y + dy in slice z + dz from x - halfWidth to x + halfWidth
+				for (int k = 0; k < chords.length; k++) {
+					int chordZ = clamp(z + chords[k][1], depth);
+					int chordY = clamp(y + chords[k][0], height);
+					chordRows[k] = levels[chordZ];
+					chordOffsets[k] = chordY * width;
+				}
+
+				for (int k = 0; k < chords.length; k++) {
+					for (int dx = -chords[k][2]; dx <= chords[k][2]; dx++) {
+						histogram.add(chordRows[k][chordOffsets[k] + clamp(dx, width)]);
+					}
+				}
+				outputSlice[y * width] = quantization.value(histogram.median());
+
+				for (int x = 1; x < width; x++) {
+					for (int k = 0; k < chords.length; k++) {
+						int halfWidth = chords[k][2];
+						histogram.remove(chordRows[k][chordOffsets[k] + clamp(x - halfWidth - 1, width)]);
+						histogram.add(chordRows[k][chordOffsets[k] + clamp(x + halfWidth, width)]);
+					}
+					outputSlice[y * width + x] = quantization.value(histogram.median());
+				}
+
+				//emptying by removal is cheaper than clearing all levels
+				for (int k = 0; k < chords.length; k++) {
+					for (int dx = -chords[k][2]; dx <= chords[k][2]; dx++) {
+						histogram.remove(chordRows[k][chordOffsets[k] + clamp(width - 1 + dx, width)]);
+					}
+				}
+			}
+		});
+
+		destination.convertToBitDepth();
+	}
+
+
+	/**
+	 * @return {dy, dz, half width along x} of each chord
+	 */
+	static int[][] getChords(double radiusX, double radiusY, double radiusZ, boolean box) {
+
+		int extentX = (int) Math.max(0, Math.floor(radiusX));
+		int extentY = (int) Math.max(0, Math.floor(radiusY));
+		int extentZ = (int) Math.max(0, Math.floor(radiusZ));
+
+		int[][] chords = new int[(2 * extentY + 1) * (2 * extentZ + 1)][];
+		int count = 0;
+		for (int dz = -extentZ; dz <= extentZ; dz++) {
+			for (int dy = -extentY; dy <= extentY; dy++) {
+				if (box) {
+					chords[count++] = new int[] { dy, dz, extentX };
+					continue;
+				}
+				double remaining = 1 - square(dy, radiusY) - square(dz, radiusZ);
+				if (remaining < 0) {
+					continue;
+				}
+				int halfWidth = extentX == 0 ? 0 : (int) Math.floor(radiusX * Math.sqrt(remaining) + 1e-9);
+				chords[count++] = new int[] { dy, dz, Math.min(halfWidth, extentX) };
+			}
+		}
+		return Arrays.copyOf(chords, count);
+	}
+
+
+	private static double square(int offset, double radius) {
+		return radius > 0 ? (offset / radius) * (offset / radius) : 0;
+	}
+
+
+	private static int clamp(int position, int length) {
+		return position < 0 ? 0 : (position >= length ? length - 1 : position);
+	}
+
+
+	/**
+	 * Maps the gray values to 16-bit levels and back
+	 */
+	private static class Quantization {
+
+		final char[][] levels;
+		final double minimum;
+		final double step;
+
+
+		Quantization(HostImage image) {
+
+			final float[][] slices = image.getSlices();
+			final int depth = slices.length;
+			final double[] sliceMinimum = new double[depth];
+			final double[] sliceMaximum = new double[depth];
+			final boolean[] sliceIntegral = new boolean[depth];
+
+			CPUThreads.parallelFor(0, depth, z -> {
+				double min = Double.MAX_VALUE;
+				double max = -Double.MAX_VALUE;
+				boolean integral = true;
+				for (float value : slices[z]) {
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+					integral &= value == (int) value;
+				}
+				sliceMinimum[z] = min;
+				sliceMaximum[z] = max;
+				sliceIntegral[z] = integral;
+			});
+
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			boolean integral = true;
+			for (int z = 0; z < depth; z++) {
+				min = Math.min(min, sliceMinimum[z]);
+				max = Math.max(max, sliceMaximum[z]);
+				integral &= sliceIntegral[z];
+			}
+
+			if (integral && min >= 0 && max < LEVELS) {
+				minimum = 0;
+				step = 1;
+			} else {
+				minimum = min;
+				step = max > min ? (max - min) / (LEVELS - 1) : 1;
+			}
+
+			levels = new char[depth][];
+			CPUThreads.parallelFor(0, depth, z -> {
+				float[] slice = slices[z];
+				char[] level = new char[slice.length];
+				for (int i = 0; i < slice.length; i++) {
+					level[i] = (char) Math.round((slice[i] - minimum) / step);
+				}
+				levels[z] = level;
+			});
+		}
+
+
+		float value(int level) {
+			return (float) (minimum + level * step);
+		}
+	}
+
+
+	/**
+	 * Histogram of 16-bit levels with the median tracked between updates
+	 */
+	private static class SlidingHistogram {
+
+		final int[] counts = new int[LEVELS];
+		final int[] blockCounts = new int[LEVELS >> BLOCK_SHIFT];
+		int total;
+		int median;		//current median level
+		int below;		//number of values below the median level
+
+
+		void add(int level) {
+			counts[level]++;
+			blockCounts[level >> BLOCK_SHIFT]++;
+			total++;
+			if (level < median) {
+				below++;
+			}
+		}
+
+
+		void remove(int level) {
+			counts[level]--;
+			blockCounts[level >> BLOCK_SHIFT]--;
+			total--;
+			if (level < median) {
+				below--;
+			}
+		}
+
+
+		/**
+		 * @return the level with (total / 2) values below and at least one value at or above it
+		 */
+		int median() {
+
+			final int rank = total / 2;
+			final int blockMask = (1 << BLOCK_SHIFT) - 1;
+
+			while (below > rank) {
+				median--;
+				if ((median & blockMask) == blockMask) {
+					while (blockCounts[median >> BLOCK_SHIFT] == 0) {
+						median -= 1 << BLOCK_SHIFT;
+					}
+				}
+				below -= counts[median];
+			}
+
+			while (below + counts[median] <= rank) {
+				below += counts[median];
+				median++;
+				if ((median & blockMask) == 0) {
+					while (blockCounts[median >> BLOCK_SHIFT] == 0) {
+						median += 1 << BLOCK_SHIFT;
+					}
+				}
+			}
+
+			return median;
+		}
+	}
+
+}
@@ -0,0 +1,269 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.Arrays;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Separable minimum and maximum filter with box neighborhoods after van Herk and
+ * Gil and Werman. Each line is split into blocks of the window size, in which
+ * running minima (maxima) are accumulated forward and backward. Every window
+ * covers the end of one block and the start of the next, so its result is
+ * combined from one backward and one forward value. This takes three comparisons
+ * per voxel and axis independent of the radius.
+ *
+ * Voxels outside of the image are ignored, which gives the same result as
+ * the border extension with the edge value in CLIJ2.
+ *
+ * The lines of each axis are independent and distributed over the {@link CPUThreads}.
+ * Lines along y and z are filtered in blocks of neighboring columns to read and
+ * write whole cache lines.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class MinMaxFilter {
+
+	private static final int BLOCK_WIDTH = 64;
+
+
+	/**
+	 * Minimum in a box neighborhood of (2 * radius + 1) voxels along each axis (erosion)
+	 *
+	 * @param source
+	 * @param destination	same size as source, can be the same image
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ		0 for slice-by-slice filtering
+	 */
+	public static void minimumBox(HostImage source, HostImage destination, double radiusX, double radiusY, double radiusZ) {
+		filter(source, destination, radiusX, radiusY, radiusZ, false);
+	}
+
+
+	/**
+	 * Maximum in a box neighborhood of (2 * radius + 1) voxels along each axis (dilation)
+	 *
+	 * @param source
+	 * @param destination	same size as source, can be the same image
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ		0 for slice-by-slice filtering
+	 */
+	public static void maximumBox(HostImage source, HostImage destination, double radiusX, double radiusY, double radiusZ) {
+		filter(source, destination, radiusX, radiusY, radiusZ, true);
+	}
+
+
+	private static void filter(HostImage source, HostImage destination, double radiusX, double radiusY, double radiusZ, boolean maximum) {
+
+		if (destination.getWidth() != source.getWidth() || destination.getHeight() != source.getHeight() || destination.getDepth() != source.getDepth()) {
+			throw new IllegalArgumentException("Source and destination need to have the same size");
+		}
+
+		final float[][] data = destination.getSlices();
+		if (destination != source) {
+			final float[][] input = source.getSlices();
+			CPUThreads.parallelFor(0, data.length, z -> System.arraycopy(input[z], 0, data[z], 0, input[z].length));
+		}
+
+		filter(data, source.getWidth(), source.getHeight(), toRadius(radiusX), toRadius(radiusY), toRadius(radiusZ), maximum);
+		destination.convertToBitDepth();
+	}
+
+
+	private static int toRadius(double radius) {
+		return (int) Math.max(0, Math.floor(radius));
+	}
+
+
+	/**
+	 * Separable box minimum or maximum in place. Axes with a radius of 0 are not filtered.
+	 *
+	 * @param data		slices of the image
+	 * @param width
+	 * @param height
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ
+	 * @param maximum	maximum instead of minimum
+	 */
+	static void filter(final float[][] data, final int width, final int height, int radiusX, int radiusY, int radiusZ, final boolean maximum) {
+
+		final int depth = data.length;
+
+		//a window reaching beyond both ends of the line covers the full line
+		final int rx = Math.min(radiusX, width - 1);
+		final int ry = Math.min(radiusY, height - 1);
+		final int rz = Math.min(radiusZ, depth - 1);
+
+		//x: each unit is one row
+		if (rx > 0) {
+			processUnits(height * depth, width, rx, 1, maximum, (unit, line) -> {
+				float[] slice = data[unit / height];
+				int offset = (unit % height) * width;
+				for (int x = 0; x < width; x++) {
+					line.values[rx + x] = slice[offset + x];
+				}
+				line.filter(width, rx, 1);
+				for (int x = 0; x < width; x++) {
+					slice[offset + x] = line.values[x];
+				}
+			});
+		}
+
+		final int blocks = (width + BLOCK_WIDTH - 1) / BLOCK_WIDTH;
+		final int blockWidth = Math.min(width, BLOCK_WIDTH);
+
+		//y: each unit is a block of columns in one slice
+		if (ry > 0) {
+			processUnits(blocks * depth, height, ry, blockWidth, maximum, (unit, line) -> {
+				float[] slice = data[unit / blocks];
+				int xStart = (unit % blocks) * BLOCK_WIDTH;
+				int stride = Math.min(BLOCK_WIDTH, width - xStart);
+				for (int y = 0; y < height; y++) {
+					System.arraycopy(slice, y * width + xStart, line.values, (ry + y) * stride, stride);
+				}
+				line.filter(height, ry, stride);
+				for (int y = 0; y < height; y++) {
+					System.arraycopy(line.values, y * stride, slice, y * width + xStart, stride);
+				}
+			});
+		}
+
+		//z: each unit is a block of columns in one row through all slices
+		if (rz > 0) {
+			processUnits(blocks * height, depth, rz, blockWidth, maximum, (unit, line) -> {
+				int offset = (unit / blocks) * width + (unit % blocks) * BLOCK_WIDTH;
+				int stride = Math.min(BLOCK_WIDTH, width - (unit % blocks) * BLOCK_WIDTH);
+				for (int z = 0; z < depth; z++) {
+					System.arraycopy(data[z], offset, line.values, (rz + z) * stride, stride);
+				}
+				line.filter(depth, rz, stride);
+				for (int z = 0; z < depth; z++) {
+					System.arraycopy(line.values, z * stride, data[z], offset, stride);
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * Distributes the units in chunks, so that each worker allocates its buffers only once
+	 */
+	private static void processUnits(final int unitCount, final int length, final int radius, final int stride, final boolean maximum, final UnitProcessor processor) {
+
+		final int chunkCount = Math.max(1, Math.min(unitCount, CPUThreads.getThreadCount() * 4));
+
+		CPUThreads.parallelFor(0, chunkCount, c -> {
+			int unitStart = (int) ((long) unitCount * c / chunkCount);
+			int unitEnd = (int) ((long) unitCount * (c + 1) / chunkCount);
+			LineBuffer line = new LineBuffer(length, radius, stride, maximum);
+			for (int unit = unitStart; unit < unitEnd; unit++) {
+				processor.process(unit, line);
+			}
+		});
+	}
+
+
+	private interface UnitProcessor {
+		void process(int unit, LineBuffer line);
+	}
+
+
+	/**
+	 * Interleaved lines, value n of line i is at n * stride + i. The line values start behind
+	 * radius padding positions and are followed by padding up to a multiple of the window size.
+	 */
+	static class LineBuffer {
+
+		final float[] values;
+		final float[] forward;
+		final boolean maximum;
+		final float identity;
+
+
+		LineBuffer(int length, int radius, int stride, boolean maximum) {
+			int window = 2 * radius + 1;
+			int paddedLength = (length + 2 * radius + window - 1) / window * window;
+			values = new float[paddedLength * stride];
+			forward = new float[paddedLength * stride];
+			this.maximum = maximum;
+			identity = maximum ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+		}
+
+
+		/**
+		 * Replaces the first length values of each line by the minimum (maximum) of the window around the value
+		 */
+		void filter(int length, int radius, int stride) {
+
+			final int window = 2 * radius + 1;
+			final int paddedLength = (length + 2 * radius + window - 1) / window * window;
+			final int end = paddedLength * stride;
+
+			Arrays.fill(values, 0, radius * stride, identity);
+			Arrays.fill(values, (radius + length) * stride, end, identity);
+
+			final int blockSize = window * stride;
+			for (int blockStart = 0; blockStart < end; blockStart += blockSize) {
+				int blockEnd = blockStart + blockSize;
+
+				//running values from the block start
+				System.arraycopy(values, blockStart, forward, blockStart, stride);
+				for (int index = blockStart + stride; index < blockEnd; index++) {
+					forward[index] = combine(forward[index - stride], values[index]);
+				}
+
+				//running values from the block end, in place
+				for (int index = blockEnd - stride - 1; index >= blockStart; index--) {
+					values[index] = combine(values[index + stride], values[index]);
+				}
+			}
+
+			//the window starting at n ends at n + 2 * radius in the same or the following block
+			final int shift = 2 * radius * stride;
+			for (int index = 0; index < length * stride; index++) {
+				values[index] = combine(values[index], forward[index + shift]);
+			}
+		}
+
+
+		private float combine(float a, float b) {
+			return maximum ? (a > b ? a : b) : (a < b ? a : b);
+		}
+	}
+
+}
@@ -0,0 +1,264 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.Arrays;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Recursive (IIR) approximation of the Gaussian blur after Young and van Vliet
+ * with the coefficients of Young, van Vliet and van Ginkel (2002). Each axis is
+ * filtered by a causal and an anticausal third order recursion, so the cost per
+ * voxel does not depend on sigma.
+ *
+ * The borders are extended with the edge value (clamp-to-edge) as in
+ * {@link CPUEngine}. The causal pass starts in its steady state and the
+ * anticausal pass is initialized after Triggs and Sdika (2006), so that no
+ * artifacts appear at the image borders.
+ *
+ * The lines of each pass are independent and distributed over the {@link CPUThreads}.
+ * Lines along y and z are filtered in blocks of neighboring columns to read and
+ * write whole cache lines.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class RecursiveGaussian {
+
+	/**
+	 * The approximation is not defined below this sigma
+	 */
+	public static final double MINIMUM_SIGMA = 0.5;
+
+	private static final int BLOCK_WIDTH = 64;
+
+	/**
+	 * Rows in front of and behind each line in the buffer, holding the border extension of the recursion
+	 */
+	private static final int PADDING = 3;
+
+
+	/**
+	 * Separable Gaussian blur in place. Axes with a sigma below {@link #MINIMUM_SIGMA} are not filtered.
+	 *
+	 * @param data		slices of the image
+	 * @param width
+	 * @param height
+	 * @param sigmaX	in pixels
+	 * @param sigmaY	in pixels
+	 * @param sigmaZ	in slices
+	 */
+	public static void blur(final float[][] data, final int width, final int height, double sigmaX, double sigmaY, double sigmaZ) {
+
+		final int depth = data.length;
+
+		//x: each unit is one row
+		if (sigmaX >= MINIMUM_SIGMA && width > 1) {
+			final Coefficients c = new Coefficients(sigmaX);
+			processUnits(height * depth, width, 1, (unit, buffer) -> {
+				float[] slice = data[unit / height];
+				int offset = (unit % height) * width;
+				for (int x = 0; x < width; x++) {
+					buffer[x + PADDING] = slice[offset + x];
+				}
+				c.filter(buffer, width, 1);
+				for (int x = 0; x < width; x++) {
+					slice[offset + x] = (float) buffer[x + PADDING];
+				}
+			});
+		}
+
+		final int blocks = (width + BLOCK_WIDTH - 1) / BLOCK_WIDTH;
+		final int blockWidth = Math.min(width, BLOCK_WIDTH);
+
+		//y: each unit is a block of columns in one slice
+		if (sigmaY >= MINIMUM_SIGMA && height > 1) {
+			final Coefficients c = new Coefficients(sigmaY);
+			processUnits(blocks * depth, height, blockWidth, (unit, buffer) -> {
+				float[] slice = data[unit / blocks];
+				int xStart = (unit % blocks) * BLOCK_WIDTH;
+				int stride = Math.min(BLOCK_WIDTH, width - xStart);
+				for (int y = 0; y < height; y++) {
+					for (int i = 0; i < stride; i++) {
+						buffer[(y + PADDING) * stride + i] = slice[y * width + xStart + i];
+					}
+				}
+				c.filter(buffer, height, stride);
+				for (int y = 0; y < height; y++) {
+					for (int i = 0; i < stride; i++) {
+						slice[y * width + xStart + i] = (float) buffer[(y + PADDING) * stride + i];
+					}
+				}
+			});
+		}
+
+		//z: each unit is a block of columns in one row through all slices
+		if (sigmaZ >= MINIMUM_SIGMA && depth > 1) {
+			final Coefficients c = new Coefficients(sigmaZ);
+			processUnits(blocks * height, depth, blockWidth, (unit, buffer) -> {
+				int offset = (unit / blocks) * width + (unit % blocks) * BLOCK_WIDTH;
+				int stride = Math.min(BLOCK_WIDTH, width - (unit % blocks) * BLOCK_WIDTH);
+				for (int z = 0; z < depth; z++) {
+					for (int i = 0; i < stride; i++) {
+						buffer[(z + PADDING) * stride + i] = data[z][offset + i];
+					}
+				}
+				c.filter(buffer, depth, stride);
+				for (int z = 0; z < depth; z++) {
+					for (int i = 0; i < stride; i++) {
+						data[z][offset + i] = (float) buffer[(z + PADDING) * stride + i];
+					}
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * Distributes the units in chunks, so that each worker allocates its buffer only once
+	 */
+	private static void processUnits(final int unitCount, final int length, final int stride, final UnitProcessor processor) {
+
+		final int chunkCount = Math.max(1, Math.min(unitCount, CPUThreads.getThreadCount() * 4));
+
+		CPUThreads.parallelFor(0, chunkCount, c -> {
+			int unitStart = (int) ((long) unitCount * c / chunkCount);
+			int unitEnd = (int) ((long) unitCount * (c + 1) / chunkCount);
+			double[] buffer = new double[(length + 2 * PADDING) * stride];
+			for (int unit = unitStart; unit < unitEnd; unit++) {
+				processor.process(unit, buffer);
+			}
+		});
+	}
+
+
+	private interface UnitProcessor {
+		void process(int unit, double[] buffer);
+	}
+
+
+	/**
+	 * Recursion coefficients for one sigma, with w[n] = B x[n] + a1 w[n-1] + a2 w[n-2] + a3 w[n-3]
+	 * in the causal pass and the same recursion in the opposite direction in the anticausal pass.
+	 */
+	static class Coefficients {
+
+		final double a1;
+		final double a2;
+		final double a3;
+		final double b;
+
+		/**
+		 * Maps the last three deviations of the causal pass from the border value
+		 * to the deviations of the anticausal pass just behind the border.
+		 */
+		final double[][] border = new double[3][3];
+
+
+		Coefficients(double sigma) {
+
+			double q = sigma >= 2.5 ? 0.98711 * sigma - 0.96330 : 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+			double q2 = q * q;
+			double q3 = q2 * q;
+			double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+			a1 = (2.44413 * q + 2.85619 * q2 + 1.26661 * q3) / b0;
+			a2 = -(1.4281 * q2 + 1.26661 * q3) / b0;
+			a3 = 0.422205 * q3 / b0;
+			b = 1 - (a1 + a2 + a3);
+
+			//Triggs and Sdika: the causal pass continues beyond the border with the
+			//constant border value, its deviation decays and is filtered backwards
+			int extension = 40 * (int) Math.ceil(q) + 100;
+			double[] causal = new double[extension + 3];
+			double[] anticausal = new double[extension + 3];
+			for (int j = 0; j < 3; j++) {
+				Arrays.fill(causal, 0);
+				Arrays.fill(anticausal, 0);
+				causal[2 - j] = 1;	//causal[0..2] are the positions N-3, N-2 and N-1
+				for (int n = 3; n < causal.length; n++) {
+					causal[n] = a1 * causal[n - 1] + a2 * causal[n - 2] + a3 * causal[n - 3];
+				}
+				for (int n = causal.length - 1; n >= 3; n--) {
+					double value = b * causal[n];
+					value += n + 1 < anticausal.length ? a1 * anticausal[n + 1] : 0;
+					value += n + 2 < anticausal.length ? a2 * anticausal[n + 2] : 0;
+					value += n + 3 < anticausal.length ? a3 * anticausal[n + 3] : 0;
+					anticausal[n] = value;
+				}
+				for (int i = 0; i < 3; i++) {
+					border[i][j] = anticausal[3 + i];
+				}
+			}
+		}
+
+
+		/**
+		 * Filters the interleaved lines of the buffer in place. Value n of line i is at
+		 * (n + PADDING) * stride + i, all lines are filtered together in the inner loop.
+		 */
+		void filter(double[] buffer, int length, int stride) {
+
+			int end = (length + PADDING) * stride;
+
+			//causal pass, starting in the steady state of the first value
+			for (int i = 0; i < stride; i++) {
+				double first = buffer[PADDING * stride + i];
+				for (int p = 0; p < PADDING; p++) {
+					buffer[p * stride + i] = first;
+				}
+			}
+			double[] last = new double[stride];
+			System.arraycopy(buffer, end - stride, last, 0, stride);
+
+			for (int index = PADDING * stride; index < end; index++) {
+				buffer[index] = b * buffer[index] + a1 * buffer[index - stride] + a2 * buffer[index - 2 * stride] + a3 * buffer[index - 3 * stride];
+			}
+
+			//anticausal pass, starting behind the border with the deviations of the causal pass from the last value
+			for (int i = 0; i < stride; i++) {
+				double d1 = buffer[end - stride + i] - last[i];
+				double d2 = buffer[end - 2 * stride + i] - last[i];
+				double d3 = buffer[end - 3 * stride + i] - last[i];
+				for (int p = 0; p < PADDING; p++) {
+					buffer[end + p * stride + i] = last[i] + border[p][0] * d1 + border[p][1] * d2 + border[p][2] * d3;
+				}
+			}
+
+			for (int index = end - 1; index >= PADDING * stride; index--) {
+				buffer[index] = b * buffer[index] + a1 * buffer[index + stride] + a2 * buffer[index + 2 * stride] + a3 * buffer[index + 3 * stride];
+			}
+		}
+	}
+
+}
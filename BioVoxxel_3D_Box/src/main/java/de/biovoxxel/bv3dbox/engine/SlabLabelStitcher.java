@@ -0,0 +1,234 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.Arrays;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Combines label images computed independently for consecutive z-slabs of a
+ * stack into one consistent label image.
+ *
+ * Each slab is added with the labels of its core slices plus the labels of the
+ * first slice after its core, which is part of the halo computed together with
+ * the slab. This lookahead slice is the first core slice of the following slab.
+ * Labels overlapping on this slice are merged with union-find if their overlap
+ * covers the majority of the voxels of both labels on this slice. Neighboring
+ * objects with slightly different borders in both slabs are not merged by a few
+ * overlapping voxels. Finally, all labels are replaced by consecutive labels in
+ * order of their first occurrence. Labels are stored as int to stay exact above 2^24.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class SlabLabelStitcher {
+
+	private final int width;
+	private final int height;
+	private final int[][] labels;
+
+	private int[] parent = new int[1024];
+	private int labelCount = 0;
+	private int nextSlabStart = 0;
+	private int[] lookahead = null;
+
+
+	public SlabLabelStitcher(int width, int height, int depth) {
+		this.width = width;
+		this.height = height;
+		this.labels = new int[depth][];
+	}
+
+
+	/**
+	 * Slabs need to be added in ascending z order without gaps.
+	 *
+	 * @param coreStart	z position of the first core slice
+	 * @param coreLabels	labels of all core slices, background = 0
+	 * @param lookaheadLabels	labels of the slice coreStart + coreLabels.length computed with this slab, null for the last slab
+	 */
+	public void addSlab(int coreStart, int[][] coreLabels, int[] lookaheadLabels) {
+
+		if (coreStart != nextSlabStart) {
+			throw new IllegalArgumentException("Slab starts at " + coreStart + " instead of " + nextSlabStart);
+		}
+
+		int maxLabel = Math.max(getMaximum(coreLabels), lookaheadLabels == null ? 0 : getMaximum(new int[][] { lookaheadLabels }));
+		final int offset = labelCount;
+		if ((long) offset + maxLabel >= Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too many labels for stitching");
+		}
+		labelCount += maxLabel;
+		if (parent.length <= labelCount) {
+			parent = Arrays.copyOf(parent, Math.max(parent.length * 2, labelCount + 1));
+		}
+		for (int l = offset + 1; l <= labelCount; l++) {
+			parent[l] = l;
+		}
+
+		CPUThreads.parallelFor(0, coreLabels.length, z -> {
+			int[] slice = coreLabels[z].clone();
+			for (int i = 0; i < slice.length; i++) {
+				if (slice[i] > 0) {
+					slice[i] += offset;
+				}
+			}
+			labels[coreStart + z] = slice;
+		});
+
+		if (lookahead != null && coreLabels.length > 0) {
+			mergeMajorityOverlaps(lookahead, labels[coreStart]);
+		}
+
+		if (lookaheadLabels == null) {
+			lookahead = null;
+		} else {
+			lookahead = new int[lookaheadLabels.length];
+			for (int i = 0; i < lookaheadLabels.length; i++) {
+				lookahead[i] = lookaheadLabels[i] > 0 ? lookaheadLabels[i] + offset : 0;
+			}
+		}
+
+		nextSlabStart = coreStart + coreLabels.length;
+	}
+
+
+	/**
+	 * The labels of both slices are disjoint, the voxel counts of all labels share one table.
+	 *
+	 * @param previous	lookahead slice of the previous slab
+	 * @param current	first core slice of the current slab
+	 */
+	private void mergeMajorityOverlaps(int[] previous, int[] current) {
+
+		LabelOverlap.PairCounts overlaps = new LabelOverlap.PairCounts(256);
+		LabelOverlap.PairCounts voxelCounts = new LabelOverlap.PairCounts(256);
+		for (int i = 0; i < previous.length; i++) {
+			if (previous[i] > 0) {
+				voxelCounts.add(previous[i], 1);
+			}
+			if (current[i] > 0) {
+				voxelCounts.add(current[i], 1);
+				if (previous[i] > 0) {
+					overlaps.add(((long) previous[i] << 32) | current[i], 1);
+				}
+			}
+		}
+
+		for (long key : overlaps.getKeys()) {
+			int previousLabel = (int) (key >>> 32);
+			int currentLabel = (int) key;
+			long overlap = overlaps.get(key);
+			if (2 * overlap > voxelCounts.get(previousLabel) && 2 * overlap > voxelCounts.get(currentLabel)) {
+				ConnectedComponentsLabeling.union(parent, previousLabel, currentLabel);
+			}
+		}
+	}
+
+
+	/**
+	 * Merges and relabels all slabs. All slices of the stack need to be added before.
+	 *
+	 * @return number of labels
+	 */
+	public int finish() {
+
+		if (nextSlabStart != labels.length) {
+			throw new IllegalStateException("Only " + nextSlabStart + " of " + labels.length + " slices added");
+		}
+
+		final int[] finalLabel = new int[labelCount + 1];
+		int count = 0;
+		for (int[] slice : labels) {
+			for (int i = 0; i < slice.length; i++) {
+				int label = slice[i];
+				if (label == 0) {
+					continue;
+				}
+				int root = ConnectedComponentsLabeling.find(parent, label);
+				if (finalLabel[root] == 0) {
+					finalLabel[root] = ++count;
+				}
+			}
+		}
+
+		CPUThreads.parallelFor(0, labels.length, z -> {
+			int[] slice = labels[z];
+			for (int i = 0; i < slice.length; i++) {
+				int label = slice[i];
+				if (label > 0) {
+					slice[i] = finalLabel[findRoot(label)];
+				}
+			}
+		});
+
+		parent = null;
+		lookahead = null;
+		return count;
+	}
+
+
+	/**
+	 * Read only find for the parallel relabeling, the trees are not compressed.
+	 */
+	private int findRoot(int label) {
+		while (parent[label] != label) {
+			label = parent[label];
+		}
+		return label;
+	}
+
+
+	private static int getMaximum(int[][] slices) {
+		int max = 0;
+		for (int[] slice : slices) {
+			for (int value : slice) {
+				if (value > max) {
+					max = value;
+				}
+			}
+		}
+		return max;
+	}
+
+
+	/**
+	 *
+	 * @return the stitched labels, valid after {@link #finish()}
+	 */
+	public HostImage getLabelImage() {
+		return new HostImage(width, height, 32, labels);
+	}
+
+}
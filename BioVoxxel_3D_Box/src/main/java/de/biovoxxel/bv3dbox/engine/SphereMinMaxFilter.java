@@ -0,0 +1,634 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import java.util.Arrays;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Minimum and maximum filter with ellipsoid (sphere) neighborhoods, voxels with
+ * (dx/radiusX)^2 + (dy/radiusY)^2 + (dz/radiusZ)^2 <= 1 as in {@link MedianFilter}.
+ *
+ * Binary images (0 and one foreground value) are eroded and dilated exactly by
+ * thresholding the anisotropic {@link DistanceTransform} scaled to the radii, which
+ * takes linear time for any radius.
+ *
+ * Gray values are filtered exactly for small neighborhoods as the minimum (maximum)
+ * over the chords along x, each of which is a {@link MinMaxFilter} line. Larger
+ * neighborhoods are decomposed into line segments along the lattice directions
+ * (axes, face and body diagonals), whose successive filtering with
+ * {@link MinMaxFilter} lines gives a polygon or polyhedron approximating the
+ * ellipse or ellipsoid within about 5 to 10% of the radius. The cost per voxel is
+ * independent of the radius. Flat ellipsoids, which the polyhedron does not fit,
+ * are the union of the ellipses in the slices within the z radius.
+ *
+ * Voxels outside of the image are ignored as in CLIJ2.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class SphereMinMaxFilter {
+
+	/**
+	 * Neighborhoods with up to this number of chords are filtered exactly
+	 */
+	static final int EXACT_CHORDS = 50;
+
+	/**
+	 * Distances are compared with the radius with this tolerance for rounding errors
+	 */
+	private static final double TOLERANCE = 1e-6;
+
+	/**
+	 * Lattice directions of the decomposition, axes first
+	 */
+	private static final int[][] DIRECTIONS = {
+			{ 1, 0, 0 }, { 0, 1, 0 }, { 0, 0, 1 },
+			{ 1, 1, 0 }, { 1, -1, 0 }, { 1, 0, 1 }, { 1, 0, -1 }, { 0, 1, 1 }, { 0, 1, -1 },
+			{ 1, 1, 1 }, { 1, 1, -1 }, { 1, -1, 1 }, { -1, 1, 1 } };
+
+	/**
+	 * Largest relative deviation of the lattice decomposition from the ellipsoid
+	 */
+	private static final double MAXIMUM_DEVIATION = 0.1;
+
+	private static final int SAMPLES = 400;
+
+
+	/**
+	 * Minimum in an ellipsoid neighborhood (erosion)
+	 *
+	 * @param source
+	 * @param destination	same size as source, can be the same image
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ		0 for slice-by-slice filtering
+	 */
+	public static void minimum(HostImage source, HostImage destination, double radiusX, double radiusY, double radiusZ) {
+		filter(source, destination, radiusX, radiusY, radiusZ, false);
+	}
+
+
+	/**
+	 * Maximum in an ellipsoid neighborhood (dilation)
+	 *
+	 * @param source
+	 * @param destination	same size as source, can be the same image
+	 * @param radiusX
+	 * @param radiusY
+	 * @param radiusZ		0 for slice-by-slice filtering
+	 */
+	public static void maximum(HostImage source, HostImage destination, double radiusX, double radiusY, double radiusZ) {
+		filter(source, destination, radiusX, radiusY, radiusZ, true);
+	}
+
+
+	private static void filter(HostImage source, HostImage destination, double radiusX, double radiusY, double radiusZ, boolean maximum) {
+
+		final int width = source.getWidth();
+		final int height = source.getHeight();
+		final int depth = source.getDepth();
+
+		if (destination.getWidth() != width || destination.getHeight() != height || destination.getDepth() != depth) {
+			throw new IllegalArgumentException("Source and destination need to have the same size");
+		}
+
+		double[] radius = { width > 1 ? radiusX : 0, height > 1 ? radiusY : 0, depth > 1 ? radiusZ : 0 };
+		for (int a = 0; a < 3; a++) {
+			radius[a] = Math.max(0, radius[a]);
+		}
+
+		float foreground = getBinaryForeground(source);
+		if (!Float.isNaN(foreground)) {
+			binaryFilter(source, destination, radius, maximum, foreground);
+		} else {
+			float[][] input = source == destination ? copySlices(source) : source.getSlices();
+			grayFilter(input, destination.getSlices(), width, height, radius, maximum);
+		}
+
+		destination.convertToBitDepth();
+	}
+
+
+	/**
+	 * @return the only value above 0 or NaN if there are other values
+	 */
+	private static float getBinaryForeground(HostImage image) {
+
+		final float[][] slices = image.getSlices();
+		final float[] sliceForeground = new float[slices.length];
+
+		CPUThreads.parallelFor(0, slices.length, z -> {
+			float value = 0;
+			for (float voxel : slices[z]) {
+				if (voxel != 0 && voxel != value) {
+					if (value != 0 || voxel < 0 || Float.isNaN(voxel)) {
+						value = Float.NaN;
+						break;
+					}
+					value = voxel;
+				}
+			}
+			sliceForeground[z] = value;
+		});
+
+		float foreground = 0;
+		for (float value : sliceForeground) {
+			if (Float.isNaN(value) || (value != 0 && foreground != 0 && value != foreground)) {
+				return Float.NaN;
+			}
+			foreground = value != 0 ? value : foreground;
+		}
+		return foreground;
+	}
+
+
+	/**
+	 * Erosion keeps the foreground voxels without background within the ellipsoid, dilation adds
+	 * the voxels with foreground within the ellipsoid. Scaling the voxel spacing by the inverse
+	 * radii turns the ellipsoid into the unit sphere of the distance transform.
+	 */
+	private static void binaryFilter(HostImage source, HostImage destination, double[] radius, boolean maximum, final float foreground) {
+
+		final int width = source.getWidth();
+		final int height = source.getHeight();
+		final int depth = source.getDepth();
+
+		double[] spacing = new double[3];
+		for (int a = 0; a < 3; a++) {
+			//axes without extent get a spacing beyond the unit distance
+			spacing[a] = radius[a] >= 1 ? 1.0 / radius[a] : 2.0;
+		}
+
+		HostImage objects = source;
+		if (maximum) {
+			objects = new HostImage(width, height, depth, 8);
+			final float[][] input = source.getSlices();
+			final float[][] inverted = objects.getSlices();
+			CPUThreads.parallelFor(0, depth, z -> {
+				for (int i = 0; i < inverted[z].length; i++) {
+					inverted[z][i] = input[z][i] > 0 ? 0 : 1;
+				}
+			});
+		}
+
+		HostImage distances = new HostImage(width, height, depth, 32);
+		DistanceTransform.distanceMap(objects, distances, spacing);
+
+		final float[][] distanceSlices = distances.getSlices();
+		final float[][] output = destination.getSlices();
+		final double limit = 1 + TOLERANCE;
+		CPUThreads.parallelFor(0, depth, z -> {
+			float[] distance = distanceSlices[z];
+			float[] slice = output[z];
+			for (int i = 0; i < slice.length; i++) {
+				boolean inside = distance[i] <= limit;
+				slice[i] = (maximum ? inside : !inside) ? foreground : 0;
+			}
+		});
+	}
+
+
+	/**
+	 * Exact chords for small neighborhoods, otherwise the lattice decomposition if it fits the
+	 * ellipsoid and the union of planar filters of the slices within the z radius if not.
+	 */
+	private static void grayFilter(float[][] input, float[][] output, int width, int height, double[] radius, boolean maximum) {
+
+		int[][] chords = MedianFilter.getChords(radius[0], radius[1], radius[2], false);
+		if (chords.length <= EXACT_CHORDS) {
+			chordFilter(input, output, width, chords, maximum);
+		} else if (radius[2] < 1) {
+			planarFilter(input, output, width, radius[0], radius[1], maximum);
+		} else {
+			Decomposition decomposition = new Decomposition(radius);
+			if (decomposition.deviation <= MAXIMUM_DEVIATION) {
+				copy(input, output);
+				decomposition.apply(output, width, height, maximum);
+			} else {
+				sliceUnionFilter(input, output, width, radius, maximum);
+			}
+		}
+	}
+
+
+	/**
+	 * Filters each slice with an ellipse
+	 */
+	private static void planarFilter(float[][] input, float[][] output, int width, double radiusX, double radiusY, boolean maximum) {
+
+		int[][] chords = MedianFilter.getChords(radiusX, radiusY, 0, false);
+		if (chords.length <= EXACT_CHORDS) {
+			chordFilter(input, output, width, chords, maximum);
+		} else {
+			copy(input, output);
+			new Decomposition(new double[] { radiusX, radiusY, 0 }).apply(output, width, input[0].length / width, maximum);
+		}
+	}
+
+
+	/**
+	 * The ellipsoid is the union of the ellipses in the slices dz with the radii scaled by sqrt(1 - (dz/radiusZ)^2).
+	 * Flat ellipsoids are not well approximated by the lattice decomposition, but have few slices.
+	 */
+	private static void sliceUnionFilter(final float[][] input, final float[][] output, int width, double[] radius, final boolean maximum) {
+
+		final int depth = input.length;
+		final float[][] planar = new float[depth][input[0].length];
+		final float identity = maximum ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+		CPUThreads.parallelFor(0, depth, z -> Arrays.fill(output[z], identity));
+
+		int extentZ = (int) Math.floor(radius[2]);
+		for (int offset = 0; offset <= extentZ; offset++) {
+			final int dz = offset;
+			double scale = Math.sqrt(Math.max(0, 1 - (dz / radius[2]) * (dz / radius[2])));
+			planarFilter(input, planar, width, radius[0] * scale, radius[1] * scale, maximum);
+
+			CPUThreads.parallelFor(0, depth, z -> {
+				float[] slice = output[z];
+				for (int source = z - dz; source <= z + dz; source += Math.max(1, 2 * dz)) {
+					if (source < 0 || source >= depth) {
+						continue;
+					}
+					float[] values = planar[source];
+					if (maximum) {
+						for (int i = 0; i < slice.length; i++) {
+							slice[i] = Math.max(slice[i], values[i]);
+						}
+					} else {
+						for (int i = 0; i < slice.length; i++) {
+							slice[i] = Math.min(slice[i], values[i]);
+						}
+					}
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * Minimum (maximum) over the chords of each output row, each chord filtered as a line of its half width
+	 *
+	 * @param input		needs to be different from the output
+	 */
+	private static void chordFilter(final float[][] input, final float[][] output, final int width, final int[][] chords, final boolean maximum) {
+
+		final int depth = input.length;
+		final int height = input[0].length / width;
+		final float identity = maximum ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+
+		int largestHalfWidth = 0;
+		for (int[] chord : chords) {
+			largestHalfWidth = Math.max(largestHalfWidth, chord[2]);
+		}
+		final int halfWidths = largestHalfWidth + 1;
+
+		final int rows = height * depth;
+		final int chunkCount = Math.max(1, Math.min(rows, CPUThreads.getThreadCount() * 4));
+
+		CPUThreads.parallelFor(0, chunkCount, c -> {
+			int rowStart = (int) ((long) rows * c / chunkCount);
+			int rowEnd = (int) ((long) rows * (c + 1) / chunkCount);
+			MinMaxFilter.LineBuffer[] lines = new MinMaxFilter.LineBuffer[halfWidths];
+			for (int[] chord : chords) {
+				if (chord[2] > 0 && lines[chord[2]] == null) {
+					lines[chord[2]] = new MinMaxFilter.LineBuffer(width, chord[2], 1, maximum);
+				}
+			}
+			float[] result = new float[width];
+
+			for (int row = rowStart; row < rowEnd; row++) {
+				int y = row % height;
+				int z = row / height;
+				Arrays.fill(result, identity);
+
+				for (int[] chord : chords) {
+					int chordY = Math.min(height - 1, Math.max(0, y + chord[0]));
+					int chordZ = Math.min(depth - 1, Math.max(0, z + chord[1]));
+					float[] values = input[chordZ];
+					int offset = chordY * width;
+					int halfWidth = chord[2];
+					if (halfWidth > 0) {
+						MinMaxFilter.LineBuffer line = lines[halfWidth];
+						System.arraycopy(values, offset, line.values, halfWidth, width);
+						line.filter(width, halfWidth, 1);
+						values = line.values;
+						offset = 0;
+					}
+					if (maximum) {
+						for (int x = 0; x < width; x++) {
+							result[x] = Math.max(result[x], values[offset + x]);
+						}
+					} else {
+						for (int x = 0; x < width; x++) {
+							result[x] = Math.min(result[x], values[offset + x]);
+						}
+					}
+				}
+
+				System.arraycopy(result, 0, output[z], y * width, width);
+			}
+		});
+	}
+
+
+	/**
+	 * Line segments along the {@link SphereMinMaxFilter#DIRECTIONS}, whose number of steps is fitted so
+	 * that the support function of the resulting polyhedron (its extent perpendicular to each normal)
+	 * matches the one of the ellipsoid. Directions along axes without extent are not used.
+	 */
+	static class Decomposition {
+
+		/**
+		 * Steps in both directions along each of the {@link SphereMinMaxFilter#DIRECTIONS}
+		 */
+		final int[] steps;
+
+		/**
+		 * Largest relative deviation of the polyhedron from the ellipsoid
+		 */
+		final double deviation;
+
+
+		Decomposition(double[] radius) {
+
+			final int directionCount = DIRECTIONS.length;
+			boolean[] used = new boolean[directionCount];
+			for (int d = 0; d < directionCount; d++) {
+				used[d] = true;
+				for (int a = 0; a < 3; a++) {
+					used[d] &= DIRECTIONS[d][a] == 0 || radius[a] >= 1;
+				}
+			}
+
+			//normals evenly distributed on the sphere, restricted to the axes with extent
+			double[][] features = new double[SAMPLES][directionCount];
+			double[] target = new double[SAMPLES];
+			int sampleCount = 0;
+			for (int s = 0; s < SAMPLES; s++) {
+				double nz = 1 - (2.0 * s + 1) / SAMPLES;
+				double planar = Math.sqrt(1 - nz * nz);
+				double angle = s * Math.PI * (3 - Math.sqrt(5));
+				double[] normal = { planar * Math.cos(angle), planar * Math.sin(angle), nz };
+				double length = 0;
+				for (int a = 0; a < 3; a++) {
+					normal[a] = radius[a] >= 1 ? normal[a] : 0;
+					length += normal[a] * normal[a];
+				}
+				if (length < 1e-6) {
+					continue;
+				}
+				double support = 0;
+				for (int a = 0; a < 3; a++) {
+					normal[a] /= Math.sqrt(length);
+					support += radius[a] * radius[a] * normal[a] * normal[a];
+				}
+				for (int d = 0; d < directionCount; d++) {
+					double projection = 0;
+					for (int a = 0; a < 3; a++) {
+						projection += DIRECTIONS[d][a] * normal[a];
+					}
+					features[sampleCount][d] = used[d] ? Math.abs(projection) / Math.sqrt(support) : 0;
+				}
+				target[sampleCount++] = 1;
+			}
+
+			//least squares start, rounded, followed by an integer descent on the largest deviation
+			double[] solution = leastSquares(features, target, sampleCount, used);
+			steps = new int[directionCount];
+			for (int d = 0; d < directionCount; d++) {
+				steps[d] = used[d] ? (int) Math.max(0, Math.round(solution[d])) : 0;
+			}
+
+			double error = getDeviation(features, sampleCount, steps);
+			boolean improved = true;
+			while (improved) {
+				improved = false;
+				for (int d = 0; d < directionCount; d++) {
+					for (int change = -1; change <= 1 && used[d]; change += 2) {
+						if (steps[d] + change < 0) {
+							continue;
+						}
+						steps[d] += change;
+						double changedError = getDeviation(features, sampleCount, steps);
+						if (changedError < error - 1e-12) {
+							error = changedError;
+							improved = true;
+						} else {
+							steps[d] -= change;
+						}
+					}
+				}
+			}
+			deviation = error;
+		}
+
+
+		/**
+		 * Successive line filters along the lattice directions in place, the axes in one separable pass
+		 */
+		void apply(float[][] data, int width, int height, boolean maximum) {
+
+			MinMaxFilter.filter(data, width, height, steps[0], steps[1], steps[2], maximum);
+
+			for (int d = 3; d < DIRECTIONS.length; d++) {
+				if (steps[d] > 0) {
+					lineFilter(data, width, height, DIRECTIONS[d], steps[d], maximum);
+				}
+			}
+		}
+
+
+		private static double getDeviation(double[][] features, int sampleCount, int[] steps) {
+			double deviation = 0;
+			for (int s = 0; s < sampleCount; s++) {
+				double support = 0;
+				for (int d = 0; d < steps.length; d++) {
+					support += steps[d] * features[s][d];
+				}
+				deviation = Math.max(deviation, Math.abs(support - 1));
+			}
+			return deviation;
+		}
+
+
+		/**
+		 * Solves the normal equations of the used directions by Gaussian elimination
+		 */
+		private static double[] leastSquares(double[][] features, double[] target, int sampleCount, boolean[] used) {
+
+			int n = used.length;
+			double[][] matrix = new double[n][n + 1];
+			for (int i = 0; i < n; i++) {
+				if (!used[i]) {
+					matrix[i][i] = 1;
+					continue;
+				}
+				for (int j = 0; j < n; j++) {
+					for (int s = 0; s < sampleCount; s++) {
+						matrix[i][j] += features[s][i] * features[s][j];
+					}
+				}
+				for (int s = 0; s < sampleCount; s++) {
+					matrix[i][n] += features[s][i] * target[s];
+				}
+			}
+
+			for (int column = 0; column < n; column++) {
+				int pivot = column;
+				for (int row = column + 1; row < n; row++) {
+					if (Math.abs(matrix[row][column]) > Math.abs(matrix[pivot][column])) {
+						pivot = row;
+					}
+				}
+				double[] swap = matrix[column];
+				matrix[column] = matrix[pivot];
+				matrix[pivot] = swap;
+				if (Math.abs(matrix[column][column]) < 1e-12) {
+					continue;
+				}
+				for (int row = 0; row < n; row++) {
+					if (row != column) {
+						double factor = matrix[row][column] / matrix[column][column];
+						for (int k = column; k <= n; k++) {
+							matrix[row][k] -= factor * matrix[column][k];
+						}
+					}
+				}
+			}
+
+			double[] solution = new double[n];
+			for (int i = 0; i < n; i++) {
+				solution[i] = Math.abs(matrix[i][i]) < 1e-12 ? 0 : matrix[i][n] / matrix[i][i];
+			}
+			return solution;
+		}
+	}
+
+
+	/**
+	 * Filters all lines along the direction with a segment of the given steps in both directions.
+	 * Each line starts at a voxel whose predecessor along the direction is outside of the image.
+	 */
+	private static void lineFilter(final float[][] data, final int width, final int height, final int[] direction, final int steps, final boolean maximum) {
+
+		final int depth = data.length;
+		final int[] size = { width, height, depth };
+
+		//start voxels on the entry faces, each counted once
+		int startCount = 0;
+		long[] starts = new long[0];
+		for (int pass = 0; pass < 2; pass++) {
+			int count = 0;
+			for (int z = 0; z < depth; z++) {
+				for (int y = 0; y < height; y++) {
+					boolean rowStart = isEntry(1, y, direction, size) || isEntry(2, z, direction, size);
+					if (rowStart) {
+						for (int x = 0; x < width; x++) {
+							if (pass == 1) {
+								starts[count] = ((long) z * height + y) * width + x;
+							}
+							count++;
+						}
+					} else if (direction[0] != 0) {
+						if (pass == 1) {
+							starts[count] = ((long) z * height + y) * width + (direction[0] > 0 ? 0 : width - 1);
+						}
+						count++;
+					}
+				}
+			}
+			startCount = count;
+			starts = pass == 0 ? new long[startCount] : starts;
+		}
+
+		final long[] lineStarts = starts;
+		final int lineCount = startCount;
+		final int maximumLength = Math.max(width, Math.max(height, depth));
+		final int chunkCount = Math.max(1, Math.min(lineCount, CPUThreads.getThreadCount() * 4));
+
+		CPUThreads.parallelFor(0, chunkCount, c -> {
+			int lineStart = (int) ((long) lineCount * c / chunkCount);
+			int lineEnd = (int) ((long) lineCount * (c + 1) / chunkCount);
+			MinMaxFilter.LineBuffer line = new MinMaxFilter.LineBuffer(maximumLength, steps, 1, maximum);
+			int[] offsets = new int[maximumLength];
+			int[] slices = new int[maximumLength];
+
+			for (int l = lineStart; l < lineEnd; l++) {
+				long start = lineStarts[l];
+				int x = (int) (start % width);
+				int y = (int) ((start / width) % height);
+				int z = (int) (start / ((long) width * height));
+
+				int length = 0;
+				while (x >= 0 && x < width && y >= 0 && y < height && z >= 0 && z < depth) {
+					offsets[length] = y * width + x;
+					slices[length] = z;
+					line.values[steps + length] = data[z][y * width + x];
+					length++;
+					x += direction[0];
+					y += direction[1];
+					z += direction[2];
+				}
+
+				line.filter(length, steps, 1);
+				for (int i = 0; i < length; i++) {
+					data[slices[i]][offsets[i]] = line.values[i];
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * @return true if the predecessor along the direction is outside of the image on this axis
+	 */
+	private static boolean isEntry(int axis, int position, int[] direction, int[] size) {
+		return (direction[axis] > 0 && position == 0) || (direction[axis] < 0 && position == size[axis] - 1);
+	}
+
+
+	private static void copy(final float[][] input, final float[][] output) {
+		CPUThreads.parallelFor(0, input.length, z -> System.arraycopy(input[z], 0, output[z], 0, input[z].length));
+	}
+
+
+	private static float[][] copySlices(HostImage image) {
+		final float[][] slices = image.getSlices();
+		final float[][] copy = new float[slices.length][];
+		CPUThreads.parallelFor(0, slices.length, z -> copy[z] = slices[z].clone());
+		return copy;
+	}
+
+}
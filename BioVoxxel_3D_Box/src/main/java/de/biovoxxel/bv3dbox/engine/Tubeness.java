@@ -0,0 +1,161 @@
+package de.biovoxxel.bv3dbox.engine;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Tubeness after Sato et al. (1998) as in the ImageJ Tubeness plugin, the counterpart
+ * of the ImageJ2 tubeness used with CLIJ2. Bright tubes have two strongly negative
+ * eigenvalues of the Hessian matrix across the tube and one close to 0 along it.
+ *
+ * The Hessian matrix is computed with central differences on the image blurred with
+ * sigma (see {@link CPUEngine}) and multiplied by the square of sigma to be comparable between scales.
+ * With the eigenvalues sorted by their absolute value, the tubeness is sqrt(e2 * e3)
+ * if both are negative (3D) and -e2 if it is negative (2D), 0 otherwise.
+ * Rows are distributed over the {@link CPUThreads}.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class Tubeness {
+
+	/**
+	 *
+	 * @param source
+	 * @param destination	same size as source, can be the same image
+	 * @param sigma			in pixels along all axes
+	 */
+	public static void tubeness(HostImage source, HostImage destination, double sigma) {
+
+		final int width = source.getWidth();
+		final int height = source.getHeight();
+		final int depth = source.getDepth();
+
+		if (destination.getWidth() != width || destination.getHeight() != height || destination.getDepth() != depth) {
+			throw new IllegalArgumentException("Source and destination need to have the same size");
+		}
+
+		final float[][] blurred = new float[depth][];
+		CPUThreads.parallelFor(0, depth, z -> {
+			float[] buffer = new float[width * height];
+			float[] slice = source.readSlice(z, buffer);
+			blurred[z] = slice == buffer ? buffer : slice.clone();
+		});
+		CPUEngine.gaussianBlur(blurred, width, height, sigma, sigma, depth > 1 ? sigma : 0);
+
+		final double scale = sigma * sigma;
+		final float[][] output = destination.getSlices();
+
+		CPUThreads.parallelFor(0, height * depth, row -> {
+			int y = row % height;
+			int z = row / height;
+			float[] slice = blurred[z];
+			float[] above = blurred[Math.max(0, z - 1)];
+			float[] below = blurred[Math.min(depth - 1, z + 1)];
+			int up = Math.max(0, y - 1) * width;
+			int down = Math.min(height - 1, y + 1) * width;
+			int center = y * width;
+			double[] eigenvalues = new double[3];
+
+			for (int x = 0; x < width; x++) {
+				int left = Math.max(0, x - 1);
+				int right = Math.min(width - 1, x + 1);
+				double value = slice[center + x];
+
+				double xx = slice[center + right] - 2 * value + slice[center + left];
+				double yy = slice[down + x] - 2 * value + slice[up + x];
+				double xy = (slice[down + right] - slice[down + left] - slice[up + right] + slice[up + left]) / 4;
+
+				double tubeness;
+				if (depth > 1) {
+					double zz = below[center + x] - 2 * value + above[center + x];
+					double xz = (below[center + right] - below[center + left] - above[center + right] + above[center + left]) / 4;
+					double yz = (below[down + x] - below[up + x] - above[down + x] + above[up + x]) / 4;
+					symmetricEigenvalues(xx, yy, zz, xy, xz, yz, eigenvalues);
+					double e2 = eigenvalues[1];
+					double e3 = eigenvalues[2];
+					tubeness = e2 < 0 && e3 < 0 ? Math.sqrt(e2 * e3) : 0;
+				} else {
+					double mean = (xx + yy) / 2;
+					double root = Math.sqrt((xx - yy) * (xx - yy) / 4 + xy * xy);
+					double e2 = Math.abs(mean + root) > Math.abs(mean - root) ? mean + root : mean - root;
+					tubeness = e2 < 0 ? -e2 : 0;
+				}
+				output[z][center + x] = (float) (scale * tubeness);
+			}
+		});
+
+		destination.convertToBitDepth();
+	}
+
+
+	/**
+	 * Eigenvalues of a symmetric 3x3 matrix after Smith (1961), sorted by their absolute value
+	 */
+	static void symmetricEigenvalues(double xx, double yy, double zz, double xy, double xz, double yz, double[] eigenvalues) {
+
+		double offDiagonal = xy * xy + xz * xz + yz * yz;
+		if (offDiagonal == 0) {
+			eigenvalues[0] = xx;
+			eigenvalues[1] = yy;
+			eigenvalues[2] = zz;
+		} else {
+			double q = (xx + yy + zz) / 3;
+			double p = Math.sqrt(((xx - q) * (xx - q) + (yy - q) * (yy - q) + (zz - q) * (zz - q) + 2 * offDiagonal) / 6);
+			double bxx = (xx - q) / p;
+			double byy = (yy - q) / p;
+			double bzz = (zz - q) / p;
+			double bxy = xy / p;
+			double bxz = xz / p;
+			double byz = yz / p;
+			double r = (bxx * (byy * bzz - byz * byz) - bxy * (bxy * bzz - byz * bxz) + bxz * (bxy * byz - byy * bxz)) / 2;
+			double phi = Math.acos(Math.max(-1, Math.min(1, r))) / 3;
+			eigenvalues[0] = q + 2 * p * Math.cos(phi);
+			eigenvalues[2] = q + 2 * p * Math.cos(phi + 2 * Math.PI / 3);
+			eigenvalues[1] = 3 * q - eigenvalues[0] - eigenvalues[2];
+		}
+
+		//insertion sort by absolute value
+		for (int i = 1; i < 3; i++) {
+			double e = eigenvalues[i];
+			int j = i - 1;
+			while (j >= 0 && Math.abs(eigenvalues[j]) > Math.abs(e)) {
+				eigenvalues[j + 1] = eigenvalues[j];
+				j--;
+			}
+			eigenvalues[j + 1] = e;
+		}
+	}
+
+}
@@ -9,9 +9,13 @@ import org.scijava.plugin.Plugin;
 import org.scijava.widget.Button;
 import org.scijava.widget.NumberWidget;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.plugins.BV_ConvolutedBackgroundSubtraction;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.utilities.PreviewExecutor;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.WindowManager;
@@ -20,14 +24,14 @@ import ij.plugin.Filters3D;
 import ij.plugin.ImageCalculator;
 import ij.plugin.filter.RankFilters;
 import ij.process.ImageProcessor;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 @Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Filtering>Convoluted Background Subtraction (2D/3D)")
 public class BV_ConvolutedBackgroundSubtractionGUI extends DynamicCommand {
 	
 	BV_ConvolutedBackgroundSubtraction bvcbs;
-	CLIJ2 clij2;
+	ComputeEngine engine;
+	
+	private final PreviewExecutor previewExecutor = new PreviewExecutor();
 	
 	@Parameter(required = true, label = "Image", description = "", initializer = "setup")
 	ImagePlus currentImagePlus;
@@ -50,11 +54,14 @@ public class BV_ConvolutedBackgroundSubtractionGUI extends DynamicCommand {
 	@Parameter(label = "On the fly mode", required = false)
 	private Boolean processOnTheFly = false;
 	
-	@Parameter(label = "Preview", callback = "processImage", required = false)
+	@Parameter(label = "Preview", callback = "previewImage", required = false)
 	private Button previewButton;
 	
 	
 	public void run() {
+		
+		previewExecutor.awaitLatest();
+		previewExecutor.shutdown();
 						
 		if (getOutputImage() == null) {
 			processImage();				
@@ -69,42 +76,52 @@ public class BV_ConvolutedBackgroundSubtractionGUI extends DynamicCommand {
 	private void setup() {
 		
 		bvcbs = new BV_ConvolutedBackgroundSubtraction(currentImagePlus);
-		clij2 = bvcbs.getCLIJ2Instance();
+		engine = bvcbs.getComputeEngine();
 	}
 	
 	@SuppressWarnings("unused")
 	private void processImageOnTheFly() {
 		if (processOnTheFly) {
-			processImage();
+			previewImage();
 		}
 	}
 	
 	
+	private void previewImage() {
+		previewExecutor.submit(this::processImage);
+	}
+	
+	
 	private void processImage() {
 		
 		adaptFilter();
 		
 		ImagePlus tempOutputImagePlus = null;
 		
-		if (filterMethod.equals("Median") && filterRadius > 15) {
+		//the CPU engine has no radius limit for the median
+		if (filterMethod.equals("Median") && filterRadius > 15 && !ComputeEngineFactory.isCPUEngineSelected()) {
 			System.out.println("using ImageJ");
 			tempOutputImagePlus = imagejMedianFilter();
 			
 		} else {
-			System.out.println("using clij2");
+			System.out.println("using " + engine.getName());
 			
-			ClearCLBuffer input_image = bvcbs.getInputBuffer();
+			EngineImage input_image = bvcbs.getInputImage();
 			
-			ClearCLBuffer filtered_image = bvcbs.filterImage(input_image, filterMethod, filterRadius, force2DFiltering);
+			EngineImage filtered_image = bvcbs.filterImage(input_image, filterMethod, filterRadius, force2DFiltering);
 			
-			//BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, filtered_image, true, LutNames.GRAY);
+			EngineImage output_image = bvcbs.subtractBackground(input_image, filtered_image);
+			filtered_image.close();
 			
-			ClearCLBuffer output_image = bvcbs.subtractBackground(input_image, filtered_image);
-			
-			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, output_image, false, LutNames.GRAY);
+			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, output_image, false, LutNames.GRAY);
+			output_image.close();
 			
 		}
 		
+		if (previewExecutor.isCanceled()) {
+			return;
+		}
+		
 		String outputImageName = "BVCBS_" + currentImagePlus.getTitle();
 		ImagePlus outputImagePlus = WindowManager.getImage("BVCBS_" + currentImagePlus.getTitle());			
 		
@@ -126,7 +143,7 @@ public class BV_ConvolutedBackgroundSubtractionGUI extends DynamicCommand {
 		
 		final MutableModuleItem<Float> mutableFilterRadius = getInfo().getMutableInput("filterRadius", Float.class);
 			
-		if (filterMethod.equals("Median")) {
+		if (filterMethod.equals("Median") && !ComputeEngineFactory.isCPUEngineSelected()) {
 			
 			if (filterRadius > 100) {
 				mutableFilterRadius.setValue(this, 100f);
@@ -183,11 +200,13 @@ public class BV_ConvolutedBackgroundSubtractionGUI extends DynamicCommand {
 	
 	public void cancel(String reason) {
 		
+		previewExecutor.shutdown();
+		
 		ImagePlus outputImagePlus = getOutputImage();
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
-		clij2.close();
+		engine.close();
 		
 	}
 	
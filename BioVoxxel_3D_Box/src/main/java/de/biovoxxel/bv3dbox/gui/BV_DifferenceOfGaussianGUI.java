@@ -5,13 +5,13 @@ import org.scijava.command.DynamicCommand;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.plugins.BV_DifferenceOfGaussian;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.ImagePlus;
 import ij.WindowManager;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.imagej.updater.UpdateService;
 
 @Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Filtering>Difference of Gaussian (2D/3D)")
@@ -37,22 +37,22 @@ public class BV_DifferenceOfGaussianGUI extends DynamicCommand {
 		
 		BV_DifferenceOfGaussian bvdog = new BV_DifferenceOfGaussian(current_image_plus);
 		
-		CLIJ2 clij2 = bvdog.getCurrentCLIJ2Instance();
+		ComputeEngine engine = bvdog.getComputeEngine();
 		
-		ClearCLBuffer dog_output_image = bvdog.runDoGFilter(x_radius, y_radius, filter2DOnly);
+		EngineImage dog_output_image = bvdog.runDoGFilter(x_radius, y_radius, filter2DOnly);
 		
-		ImagePlus outputImage = BV3DBoxUtilities.pullImageFromGPU(clij2, dog_output_image, false, LutNames.GRAY);
+		ImagePlus outputImage = BV3DBoxUtilities.pullImageFromEngine(engine, dog_output_image, false, LutNames.GRAY);
 		
 		outputImage.setCalibration(current_image_plus.getCalibration());
 		outputImage.setTitle(WindowManager.getUniqueName("DoG_" + current_image_plus.getTitle()));
 		
 		outputImage.show();
 		outputImage.setLut(current_image_plus.getProcessor().getLut());
-		outputImage.getProcessor().setMinAndMax(clij2.getMinimumOfAllPixels(dog_output_image), clij2.getMaximumOfAllPixels(dog_output_image));
+		outputImage.getProcessor().setMinAndMax(engine.minimumOfAllPixels(dog_output_image), engine.maximumOfAllPixels(dog_output_image));
 		outputImage.updateAndDraw();
 		
 		
-		clij2.close();
+		engine.close();
 	}
 	
 	
@@ -11,13 +11,15 @@ import org.scijava.plugin.Plugin;
 import org.scijava.widget.Button;
 import org.scijava.widget.NumberWidget;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.plugins.BV_LabelSplitter;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.utilities.PreviewExecutor;
 import ij.ImagePlus;
 import ij.WindowManager;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.imagej.updater.UpdateService;
 
 /*
@@ -79,26 +81,31 @@ public class BV_LabelSplitterGUI extends DynamicCommand {
 	@Parameter(label = "On the fly mode", required = false)
 	private Boolean processOnTheFly = false;
 	
-	@Parameter(label = "Preview", callback = "processImage", required = false)
+	@Parameter(label = "Preview", callback = "previewImage", required = false)
 	private Button refreshButton;
 	
 	
 	
-	private CLIJ2 clij2 = CLIJ2.getInstance();
+	private ComputeEngine engine = ComputeEngineFactory.getEngine();
 		private BV_LabelSplitter labelSplitter;
 	
-	private ClearCLBuffer input_image;
+	private EngineImage input_image;
 	private String outputImageName = null;
 	
+	private final PreviewExecutor previewExecutor = new PreviewExecutor();
+	
 	
 	public void run() {
 		
+		previewExecutor.awaitLatest();
+		previewExecutor.shutdown();
+		
 		if (WindowManager.getImage(outputImageName) == null) {
 			
 			setupImage();
-			ClearCLBuffer splitted_label_image = labelSplitter.splitLabels(input_image, separationMethod, spotSigma, maximaRadius);
+			EngineImage splitted_label_image = labelSplitter.splitLabels(input_image, separationMethod, spotSigma, maximaRadius);
 			
-			ImagePlus outputImagePlus = BV3DBoxUtilities.pullImageFromGPU(labelSplitter.getCurrentCLIJ2Instance(), splitted_label_image, false, LutNames.GLASBEY_LUT);
+			ImagePlus outputImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, splitted_label_image, false, LutNames.GLASBEY_LUT);
 			splitted_label_image.close();
 			
 			outputImagePlus.setTitle(outputImageName);
@@ -109,8 +116,11 @@ public class BV_LabelSplitterGUI extends DynamicCommand {
 		}
 		
 		
-		if (clij2 != null) {
-			clij2.clear();			
+		if (labelSplitter != null) {
+			labelSplitter.getBufferPool().close();
+		}
+		if (engine != null) {
+			engine.clear();			
 		}
 		
 	}
@@ -121,11 +131,12 @@ public class BV_LabelSplitterGUI extends DynamicCommand {
 		
 		BV3DBoxUtilities.displayMissingDependencyWarning(getContext().service(UpdateService.class), "clij,clij2,clijx-assistant,clijx-assistant-extensions,3D ImageJ Suite");
 		
-		input_image = clij2.push(inputImagePlus);
+		input_image = engine.push(inputImagePlus);
 		System.out.println(input_image);
 		
-		labelSplitter = new BV_LabelSplitter(clij2);
+		labelSplitter = new BV_LabelSplitter(engine);
 		labelSplitter.setVoxelRatios(inputImagePlus);
+		labelSplitter.setCancelable(previewExecutor);
 		
 		outputImageName = WindowManager.getUniqueName("BVLS_" + inputImagePlus.getTitle());
 		System.out.println(outputImageName);
@@ -148,18 +159,29 @@ public class BV_LabelSplitterGUI extends DynamicCommand {
 	@SuppressWarnings("unused")
 	private void processImageOnTheFly() {
 		if (processOnTheFly) {
-			processImage();
+			previewImage();
 		}
 	}
 	
+	
+	private void previewImage() {
+		previewExecutor.submit(this::processImage);
+	}
+	
 	public void processImage() {
 		
-		ClearCLBuffer splitted_label_image = labelSplitter.splitLabels(input_image, separationMethod, spotSigma, maximaRadius);
+		EngineImage splitted_label_image = labelSplitter.splitLabels(input_image, separationMethod, spotSigma, maximaRadius);
 		
-		ImagePlus outputImagePlus = BV3DBoxUtilities.pullImageFromGPU(labelSplitter.getCurrentCLIJ2Instance(), splitted_label_image, true, LutNames.GLASBEY_LUT);
+		if (splitted_label_image == null) {
+			return;
+		}
+		
+		previewExecutor.publish(() -> {
+			ImagePlus outputImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, splitted_label_image, true, LutNames.GLASBEY_LUT);
+			BV3DBoxUtilities.updateOutputImagePlus(outputImagePlus, outputImageName);
+		});
 		splitted_label_image.close();
 		
-		BV3DBoxUtilities.updateOutputImagePlus(outputImagePlus, outputImageName);
 		//BV3DBoxUtilities.adaptImageDisplay(inputImagePlus, outputImagePlus);	//not working ???
 	}
 	
@@ -177,13 +199,15 @@ public class BV_LabelSplitterGUI extends DynamicCommand {
 	
 	public void cancel() {
 		
+		previewExecutor.shutdown();
+		
 		ImagePlus outputImagePlus = WindowManager.getImage(outputImageName);
 		
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
 		if (labelSplitter != null) {
-			labelSplitter.getCurrentCLIJ2Instance().close();			
+			labelSplitter.getComputeEngine().close();			
 		}
 	}
 	
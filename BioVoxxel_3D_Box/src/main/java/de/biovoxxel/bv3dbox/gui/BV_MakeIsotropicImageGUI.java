@@ -6,6 +6,9 @@ import org.scijava.command.Command;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.plugins.BV_MakeIsotropicImage;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
@@ -15,8 +18,6 @@ import ij.measure.Calibration;
 import ij.plugin.ChannelSplitter;
 import ij.plugin.RGBStackMerge;
 import ij.process.LUT;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 @Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Segmentation>Make 3D Image Isotropic")
 public class BV_MakeIsotropicImageGUI implements Command {
@@ -34,8 +35,8 @@ public class BV_MakeIsotropicImageGUI implements Command {
 			
 		} else if (inputImagePlus.hasImageStack()) {
 						
-			CLIJ2 clij2 = CLIJ2.getInstance();
-			clij2.clear();
+			ComputeEngine engine = ComputeEngineFactory.getEngine();
+			engine.clear();
 			
 			ImagePlus isotropicImagePlus = null;
 			
@@ -65,10 +66,10 @@ public class BV_MakeIsotropicImageGUI implements Command {
 					
 					//currentChannel.show();	//test
 					
-					BV_MakeIsotropicImage bvmii = new BV_MakeIsotropicImage(clij2, currentChannel);
-					ClearCLBuffer isotropic_image = bvmii.makeIsotropic(clij2, currentChannel);
+					BV_MakeIsotropicImage bvmii = new BV_MakeIsotropicImage(engine, currentChannel);
+					EngineImage isotropic_image = bvmii.makeIsotropic(engine, currentChannel);
 					
-					channelImps[c-1] = BV3DBoxUtilities.pullImageFromGPU(clij2, isotropic_image, true, LutNames.GRAY);
+					channelImps[c-1] = BV3DBoxUtilities.pullImageFromEngine(engine, isotropic_image, true, LutNames.GRAY);
 					
 					isotropic_image.close();
 					
@@ -94,12 +95,12 @@ public class BV_MakeIsotropicImageGUI implements Command {
 				
 			} else {
 				
-				BV_MakeIsotropicImage bvmii = new BV_MakeIsotropicImage(clij2, inputImagePlus);
-				ClearCLBuffer isotropic_image = bvmii.makeIsotropic(clij2, inputImagePlus);
+				BV_MakeIsotropicImage bvmii = new BV_MakeIsotropicImage(engine, inputImagePlus);
+				EngineImage isotropic_image = bvmii.makeIsotropic(engine, inputImagePlus);
 				
 //				double pixelSize = inputImagePlus.getCalibration().pixelWidth;
 				
-				isotropicImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, isotropic_image, true, LutNames.GRAY);
+				isotropicImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, isotropic_image, true, LutNames.GRAY);
 				isotropic_image.close();
 				
 				isotropicImagePlus.setTitle("iso_" + WindowManager.getUniqueName(inputImagePlus.getTitle()));
@@ -117,7 +118,7 @@ public class BV_MakeIsotropicImageGUI implements Command {
 			
 			//BV3DBoxUtilities.addImagePlusToBatchModeImages(isotropicImagePlus);	//not solving the issue that in batch mode macros the output image is not displayed
 						
-			clij2.clear();
+			engine.clear();
 			
 		} else {
 			JOptionPane.showMessageDialog(null, "Works only on stacks", "Stack required", JOptionPane.WARNING_MESSAGE);
@@ -4,13 +4,13 @@ import org.scijava.command.Command;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.plugins.BV_NeighborAnalysis;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.ImagePlus;
 import ij.WindowManager;
 import ij.gui.Plot;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
 
 /*
  * BSD 3-Clause License
@@ -76,9 +76,9 @@ public class BV_NeighborAnalysisGUI implements Command {
 	public void run() {
 		BV_NeighborAnalysis neighborAnalysis = new BV_NeighborAnalysis(inputImagePlus);
 				
-		ClearCLBuffer neighbor_image = neighborAnalysis.getNeighborCountMap(neighborAnalysis.getConnectedComponentInput(), neighborDetectionMethod.toLowerCase(), sizeRange, distanceRange, excudeEdgeObjectsFromVisualization);
+		EngineImage neighbor_image = neighborAnalysis.getNeighborCountMap(neighborAnalysis.getConnectedComponentInput(), neighborDetectionMethod.toLowerCase(), sizeRange, distanceRange, excudeEdgeObjectsFromVisualization);
 		
-		ImagePlus neighborCountMapImp = BV3DBoxUtilities.pullImageFromGPU(neighborAnalysis.getCurrentCLIJ2Instance(), neighbor_image, false, LutNames.GEEN_FIRE_BLUE_LUT);
+		ImagePlus neighborCountMapImp = BV3DBoxUtilities.pullImageFromEngine(neighborAnalysis.getComputeEngine(), neighbor_image, false, LutNames.GEEN_FIRE_BLUE_LUT);
 		neighborCountMapImp.setTitle(WindowManager.getUniqueName("NeighborCount_" + inputImagePlus.getTitle()));
 		System.out.println("Calibration = " + inputImagePlus.getCalibration());
 		neighborCountMapImp.setCalibration(inputImagePlus.getCalibration());
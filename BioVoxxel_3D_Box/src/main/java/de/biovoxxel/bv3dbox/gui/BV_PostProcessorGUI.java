@@ -7,13 +7,13 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.widget.NumberWidget;
 
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.plugins.BV_PostProcessor;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.utilities.PreviewExecutor;
 import ij.ImagePlus;
 import ij.WindowManager;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.imagej.updater.UpdateService;
 
 /*
@@ -57,12 +57,15 @@ public class BV_PostProcessorGUI extends DynamicCommand {
 	@Parameter(required = true, initializer = "setupImage")
 	ImagePlus inputImagePlus;
 	
-	@Parameter(label = "Processing method", choices = {"Erode Label", "Dilate Label", "Open Label", "Minimum (sphere)", "Minimum (box)", "Maximum (sphere)", "Maximum (box)", "Open (sphere)", "Open (box)", "Close (sphere)", "Close (box)", "Fill holes", "Median (sphere, max r=15)", "Median (box, max r=15)"}, callback = "processImage")
+	@Parameter(label = "Processing method", choices = {"Erode Label", "Dilate Label", "Open Label", "Minimum (sphere)", "Minimum (box)", "Maximum (sphere)", "Maximum (box)", "Open (sphere)", "Open (box)", "Close (sphere)", "Close (box)", "Fill holes", "Median (sphere, max r=15)", "Median (box, max r=15)"}, callback = "previewImage")
 	String method = "Erode";
 	
-	@Parameter(label = "Iterations", min = "0", stepSize = "1", callback = "processImage")
+	@Parameter(label = "Iterations", min = "0", stepSize = "1", callback = "previewImage")
 	Integer iterations = 1;
 	
+	@Parameter(label = "Calibrated label morphology (CPU)", description = "Erode and dilate labels by the same calibrated distance along all axes", callback = "previewImage")
+	Boolean anisotropic = false;
+	
 	@Parameter(label = "Stack slice", initializer = "imageSetup", style = NumberWidget.SLIDER_STYLE, min = "1", callback = "slideSlices")
 	Integer stackSlice;
 	
@@ -71,17 +74,21 @@ public class BV_PostProcessorGUI extends DynamicCommand {
 	private ImagePlus outputImagePlus = null;
 	private String outputImageName = null;
 	
+	private final PreviewExecutor previewExecutor = new PreviewExecutor();
+	
 	public void run() {
 		
+		previewExecutor.awaitLatest();
+		previewExecutor.shutdown();
+		
 		if (WindowManager.getImage(outputImageName) == null) {
 			setupImage();
 			processImage();
 		}
 		
 		outputImagePlus.setTitle(WindowManager.getUniqueName(outputImagePlus.getTitle()));
-		bvpp.getInputBuffer().close();
-		CLIJ2 clij2 = bvpp.getCLIJ2Instance();
-		clij2.clear();
+		bvpp.getInputImage().close();
+		bvpp.getComputeEngine().clear();
 	}
 
 	
@@ -91,6 +98,7 @@ public class BV_PostProcessorGUI extends DynamicCommand {
 		BV3DBoxUtilities.displayMissingDependencyWarning(getContext().service(UpdateService.class), "clij,clij2,clijx-assistant,clijx-assistant-extensions,3D ImageJ Suite");
 				
 		bvpp = new BV_PostProcessor(inputImagePlus);
+		bvpp.setPreviewCancelable(previewExecutor);
 		
 		outputImageName = "BVPP_" + inputImagePlus.getTitle();
 		
@@ -107,25 +115,36 @@ public class BV_PostProcessorGUI extends DynamicCommand {
 		}
 	}
 	
+	@SuppressWarnings("unused")
+	private void previewImage() {
+		previewExecutor.submit(this::processImage);
+	}
+	
 	public void processImage() {
 		
-		ClearCLBuffer outputBuffer = bvpp.postProcessor(method, iterations);
-		
-		ImagePlus tempImagePlus = BV3DBoxUtilities.pullImageFromGPU(bvpp.getCLIJ2Instance(), outputBuffer, true, LutNames.GLASBEY_LUT);
-		outputBuffer.close();
+		EngineImage outputBuffer = bvpp.postProcessor(method, iterations, anisotropic);
 		
-		outputImagePlus = WindowManager.getImage(outputImageName);
-		
-		if (outputImagePlus == null) {
-			outputImagePlus = new ImagePlus();
+		if (outputBuffer == null) {
+			return;
 		}
-		outputImagePlus.setImage(tempImagePlus);
-		outputImagePlus.setCalibration(inputImagePlus.getCalibration());
-		outputImagePlus.setTitle("BVPP_" + inputImagePlus.getTitle());
-		outputImagePlus.getProcessor().resetMinAndMax();
-		outputImagePlus.show();
 		
-		BV3DBoxUtilities.adaptImageDisplay(inputImagePlus, outputImagePlus);
+		previewExecutor.publish(() -> {
+			ImagePlus tempImagePlus = BV3DBoxUtilities.pullImageFromEngine(bvpp.getComputeEngine(), outputBuffer, true, LutNames.GLASBEY_LUT);
+			
+			outputImagePlus = WindowManager.getImage(outputImageName);
+			
+			if (outputImagePlus == null) {
+				outputImagePlus = new ImagePlus();
+			}
+			outputImagePlus.setImage(tempImagePlus);
+			outputImagePlus.setCalibration(inputImagePlus.getCalibration());
+			outputImagePlus.setTitle("BVPP_" + inputImagePlus.getTitle());
+			outputImagePlus.getProcessor().resetMinAndMax();
+			outputImagePlus.show();
+			
+			BV3DBoxUtilities.adaptImageDisplay(inputImagePlus, outputImagePlus);
+		});
+		outputBuffer.close();
 	}
 	
 	@SuppressWarnings("unused")
@@ -142,12 +161,14 @@ public class BV_PostProcessorGUI extends DynamicCommand {
 	}
 	
 	public void cancel() {
+		
+		previewExecutor.shutdown();
+		
 		ImagePlus outputImagePlus = WindowManager.getImage(outputImageName);
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
-		CLIJ2 clij2 = bvpp.getCLIJ2Instance();
-		clij2.clear();
+		bvpp.getComputeEngine().clear();
 	}
 	
 }
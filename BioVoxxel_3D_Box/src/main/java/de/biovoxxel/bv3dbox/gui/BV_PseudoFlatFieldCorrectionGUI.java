@@ -10,6 +10,7 @@ import org.scijava.widget.NumberWidget;
 
 import de.biovoxxel.bv3dbox.plugins.BV_PseudoFlatFieldCorrection;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
+import de.biovoxxel.bv3dbox.utilities.PreviewExecutor;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.WindowManager;
@@ -55,16 +56,16 @@ public class BV_PseudoFlatFieldCorrectionGUI extends DynamicCommand {
 	@Parameter(required = true, initializer = "setupImage")
 	ImagePlus inputImagePlus;
 	
-	@Parameter(persist = false, label = "Blurring radius (sigma)", min = "0f", callback = "run")
+	@Parameter(persist = false, label = "Blurring radius (sigma)", min = "0f", callback = "previewImage")
 	private Float flatFieldRadius = 0.0f;
 	
 	@Parameter(label = "Force 2D filter (e.g. time series)")
 	Boolean force2DFilter = true;
 	
-	@Parameter(label = "Active channel only", callback = "run")
+	@Parameter(label = "Active channel only", callback = "previewImage")
 	Boolean activeChannelOnly = false;
 	
-	@Parameter(label = "Show background image", callback = "run")
+	@Parameter(label = "Show background image", callback = "previewImage")
 	Boolean showBackgroundImage = true;
 	
 	@Parameter(persist = false, label = "Stack slice", initializer = "imageSetup", style = NumberWidget.SLIDER_STYLE, min = "1", callback = "slideSlices")
@@ -73,8 +74,25 @@ public class BV_PseudoFlatFieldCorrectionGUI extends DynamicCommand {
 	
 	BV_PseudoFlatFieldCorrection bvpffc;
 	
+	private final PreviewExecutor previewExecutor = new PreviewExecutor();
+	
 
 	public void run() {
+		
+		previewExecutor.cancelAndWait();
+		processImage();
+		previewExecutor.shutdown();
+		
+	}
+	
+	
+	@SuppressWarnings("unused")
+	private void previewImage() {
+		previewExecutor.submit(this::processImage);
+	}
+	
+	
+	private void processImage() {
 						
 		if (activeChannelOnly && inputImagePlus.getNChannels() > 1) {
 			
@@ -84,11 +102,14 @@ public class BV_PseudoFlatFieldCorrectionGUI extends DynamicCommand {
 			
 			bvpffc.setInputImage(inputImagePlus, 0);
 		}
-		ImagePlus correctedImage = bvpffc.runCorrection(flatFieldRadius, force2DFilter, showBackgroundImage);
+		final ImagePlus correctedImage = bvpffc.runCorrection(flatFieldRadius, force2DFilter, showBackgroundImage);
+		if (correctedImage == null) {
+			return;
+		}
 		if (!showBackgroundImage) {
 			correctedImage.setLut(inputImagePlus.getProcessor().getLut());
 		}
-		bvpffc.displayCorrectedImage(correctedImage);
+		previewExecutor.publish(() -> bvpffc.displayCorrectedImage(correctedImage));
 		
 	}
 	
@@ -107,6 +128,7 @@ public class BV_PseudoFlatFieldCorrectionGUI extends DynamicCommand {
 		}
 		
 		bvpffc = new BV_PseudoFlatFieldCorrection(inputImagePlus);
+		bvpffc.setCancelable(previewExecutor);
 				
 		final MutableModuleItem<Integer> stackSlice = getInfo().getMutableInput("stackSlice", Integer.class);
 		if(inputImagePlus.isStack()) {
@@ -132,7 +154,7 @@ public class BV_PseudoFlatFieldCorrectionGUI extends DynamicCommand {
 		}	
 		
 		if (activeChannelOnly && inputImagePlus.isStack()) {
-			run();
+			previewImage();
 		}
 		
 	}
@@ -140,6 +162,8 @@ public class BV_PseudoFlatFieldCorrectionGUI extends DynamicCommand {
 	@Override
 	public void cancel() {
 		
+		previewExecutor.shutdown();
+		
 		ImagePlus outputImagePlus = WindowManager.getImage(bvpffc.getOutputImageName());
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
@@ -0,0 +1,84 @@
+package de.biovoxxel.bv3dbox.gui;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.widget.FileWidget;
+
+import de.biovoxxel.bv3dbox.plugins.BV_VoronoiThresholdLabelingBatch;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Runs the Voronoi Threshold Labeling on all images of a folder, also headless, e.g. with
+ * ImageJ --headless --run "Voronoi Threshold Labler Batch" "parameterFile='...',inputFolder='...',outputFolder='...'"
+ * 
+ * @author BioVoxxel
+ *
+ */
+@Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Segmentation>Voronoi Threshold Labler Batch", headless = true)
+public class BV_VoronoiThresholdLabelingBatchGUI implements Command {
+	
+	@Parameter
+	LogService log;
+	
+	@Parameter(label = "Parameter file", description = "Properties file with the parameters of the Voronoi Threshold Labler, e.g. filterMethod=Gaussian", style = FileWidget.OPEN_STYLE)
+	private File parameterFile;
+	
+	@Parameter(label = "Input folder", style = FileWidget.DIRECTORY_STYLE)
+	private File inputFolder;
+	
+	@Parameter(label = "Output folder", style = FileWidget.DIRECTORY_STYLE)
+	private File outputFolder;
+	
+	
+	@Override
+	public void run() {
+		
+		try {
+			int failedImages = new BV_VoronoiThresholdLabelingBatch(parameterFile, inputFolder, outputFolder).run();
+			if (failedImages > 0) {
+				log.warn(failedImages + " images could not be processed, see log for details");
+			}
+		} catch (IOException e) {
+			log.error("Parameter file " + parameterFile + " cannot be read", e);
+		}
+	}
+
+}
@@ -12,15 +12,17 @@ import org.scijava.widget.Button;
 import org.scijava.widget.ChoiceWidget;
 import org.scijava.widget.NumberWidget;
 
-import de.biovoxxel.bv3dbox.plugins.BV_LabelSplitter;
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.plugins.BV_VoronoiThresholdLabeling;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
+import de.biovoxxel.bv3dbox.utilities.PreviewExecutor;
+import de.biovoxxel.bv3dbox.utilities.StageCache;
+import de.biovoxxel.bv3dbox.utilities.StreamingHistogram;
 import ij.ImagePlus;
 import ij.WindowManager;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.haesleinhuepf.clij2.plugins.AutoThresholderImageJ1;
-import net.haesleinhuepf.clijx.plugins.BinaryFillHolesSliceBySlice;
 import net.imagej.updater.UpdateService;
 
 /*
@@ -99,49 +101,81 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 	@Parameter(label = "Exclude on edges", callback = "processImageOnTheFly")
 	private Boolean excludeOnEdges = false;
 
-	@Parameter(label = "Output type", choices = {"Labels", "Binary", "Outlines"}, style = ChoiceWidget.RADIO_BUTTON_HORIZONTAL_STYLE, callback = "processImage")
+	@Parameter(label = "Output type", choices = {"Labels", "Binary", "Outlines"}, style = ChoiceWidget.RADIO_BUTTON_HORIZONTAL_STYLE, callback = "previewImage")
 	private String outputType = "Labels";
 	
 	@Parameter(label = "Stack slice", initializer = "imageSetup", style = NumberWidget.SLIDER_STYLE, min = "1", callback = "slideSlices", required = false)
 	private Integer stackSlice = 1;
 	
+	@Parameter(label = "Preview region", choices = {"Complete image", "Current slice"}, style = ChoiceWidget.RADIO_BUTTON_HORIZONTAL_STYLE, callback = "processImageOnTheFly", description = "Current slice processes only the slice and its z-neighborhood reached by the filters, the threshold is determined from these slices until the histogram of the complete stack is collected in the background")
+	private String previewRegion = "Complete image";
+	
 	@Parameter(label = "Apply on complete image")
 	private Boolean applyOnCompleteImage = false;
 	
+	@Parameter(label = "Tiled processing (large stacks)", required = false)
+	private Boolean tiledProcessing = false;
+	
 	@Parameter(label = "On the fly mode", required = false)
 	private Boolean processOnTheFly = false;
 	
-	@Parameter(label = "Preview", callback = "processImage", required = false)
+	@Parameter(label = "Preview", callback = "previewImage", required = false)
 	private Button previewButton = null;
 	
 	
 	BV_VoronoiThresholdLabeling bvvtl = new BV_VoronoiThresholdLabeling();
-	BV_LabelSplitter labelSplitter;
 	
-	private CLIJ2 clij2;
+	private ComputeEngine engine;
+	
+	private StageCache stageCache;
 	
-	private ClearCLBuffer input_image;
+	private final PreviewExecutor previewExecutor = new PreviewExecutor();
 	
 //	private String priorFilterMethod;
 //	private String priorBackgroundMethod;
 	
 	private int[] stackHistogram;
 	
+	//histogram of the complete stack for slice previews, collected after the previews as long as filter and background parameters are kept
+	private String volumeHistogramKey;
+	private StreamingHistogram volumeHistogram;
+	private int volumeHistogramSlices;
+	
 	
 	public void run() {
 		
-		if (inputImagePlus.getRoi() != null && applyOnCompleteImage) {
+		if (tiledProcessing) {
+			
+			previewExecutor.cancelAndWait();
+			if (bvvtl.getOutputImage() != null) {
+				bvvtl.getOutputImage().close();
+			}
+			if (applyOnCompleteImage) {
+				inputImagePlus.killRoi();
+			}
+			setupImage();
+			processImageTiled();
 			
+		} else if (inputImagePlus.getRoi() != null && applyOnCompleteImage) {
+			
+			previewExecutor.cancelAndWait();
 			bvvtl.getOutputImage().close();
 			inputImagePlus.killRoi();
 			setupImage();
-			processImage();
+			processImage(0);
+			
+		} else if (isSlicePreview()) {
+			
+			//the preview only covers the current slice
+			previewExecutor.cancelAndWait();
+			processImage(0);
 			
 		} else {
 			
+			previewExecutor.awaitLatest();
 			if (bvvtl.getOutputImage() == null) {
 				setupImage();
-				processImage();				
+				processImage(0);				
 			} else {
 				//just keep the output image open without further action
 			}
@@ -149,8 +183,10 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 		}
 		
 		BV3DBoxUtilities.showWindow("Log", true);
-		bvvtl.getInputImageAsClearClBuffer().close();
-		clij2.close();
+		previewExecutor.shutdown();
+		stageCache.clear();
+		bvvtl.closeInputImage();
+		engine.close();
 			
 	}
 	
@@ -160,12 +196,19 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 		
 		BV3DBoxUtilities.displayMissingDependencyWarning(getContext().service(UpdateService.class), "clij,clij2,clijx-assistant,clijx-assistant-extensions,3D ImageJ Suite");
 		
+		if (stageCache != null) {
+			stageCache.clear();
+		}
+		volumeHistogramKey = null;
+		volumeHistogram = null;
+		volumeHistogramSlices = 0;
+		
 		bvvtl.setupInputImage(inputImagePlus);
-		input_image = bvvtl.getInputImageAsClearClBuffer();
 		
-		clij2 = bvvtl.getCurrentCLIJ2Instance();
+		engine = bvvtl.getComputeEngine();
 		
-		labelSplitter = new BV_LabelSplitter(bvvtl.getCurrentCLIJ2Instance());
+		//intermediate results of the preview may use up to a quarter of the engine memory
+		stageCache = new StageCache(engine.getMemorySize() / 4);
 		
 		final MutableModuleItem<Integer> stackSlice = getInfo().getMutableInput("stackSlice", Integer.class);
 		
@@ -212,9 +255,12 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 //		}
 				
 		
-		if (filterMethod.equals("Median")) {
+		//the radius limit of the median only applies to CLIJ2
+		if (filterMethod.equals("Median") && !ComputeEngineFactory.isCPUEngineSelected()) {
 			
-			mutableFilterRadius.setValue(this, 1f);
+			if (filterRadius > 15) {
+				mutableFilterRadius.setValue(this, 15f);
+			}
 			mutableFilterRadius.setMaximumValue(15f);
 			
 		} else {
@@ -237,8 +283,10 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 //			priorBackgroundMethod = backgroundSubtractionMethod;
 //		}
 		
-		if (backgroundSubtractionMethod.equals("DoM")) {
-			mutableBackgroundRadius.setValue(this, 1f);
+		if (backgroundSubtractionMethod.equals("DoM") && !ComputeEngineFactory.isCPUEngineSelected()) {
+			if (backgroundRadius > 15) {
+				mutableBackgroundRadius.setValue(this, 15f);
+			}
 			mutableBackgroundRadius.setMaximumValue(15f);
 		} else {
 			mutableBackgroundRadius.setMaximumValue(1000f);
@@ -250,138 +298,161 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 	
 	private void processImageOnTheFly() {
 		if (processOnTheFly) {
-			processImage();
+			previewImage();
 		}
 	}
-		
-	private void processImage() {
 	
-		ClearCLBuffer filtered_image = bvvtl.filterImage(input_image, filterMethod, filterRadius);
-		ClearCLBuffer background_subtracted_image = bvvtl.backgroundSubtraction(filtered_image, backgroundSubtractionMethod, backgroundRadius);
-		filtered_image.close();
+	
+	private void previewImage() {
+		final int previewSlice = isSlicePreview() ? stackSlice : 0;
+		previewExecutor.submit(() -> processImage(previewSlice));
+	}
+	
+	
+	private boolean isSlicePreview() {
+		return previewRegion.equals("Current slice") && inputImagePlus.getStackSize() > 1;
+	}
+	
+	
+	/**
+	 * 
+	 * @param previewSlice	slice to process together with its z-neighborhood, 0 to process all slices
+	 */
+	private void processImage(int previewSlice) {
+	
+		bvvtl.setParameters(filterMethod, filterRadius, backgroundSubtractionMethod, backgroundRadius, thresholdMethod, separationMethod, spotSigma, maximaRadius, outputType);
+		
+		EngineImage input_image = bvvtl.getPreviewInputImage(previewSlice);
+		
+		//only stages with changed parameters or upstream results are recomputed
+		String inputKey = StageCache.key(null, "input", Arrays.toString(bvvtl.getPreviewBlock()));
+		String filterKey = StageCache.key(inputKey, "filter", filterMethod, filterRadius);
+		EngineImage filtered_image = stageCache.get(filterKey);
+		if (filtered_image == null) {
+			filtered_image = bvvtl.filterImage(input_image, filterMethod, filterRadius);
+			stageCache.put(filterKey, filtered_image);
+		}
+		if (previewExecutor.isCanceled()) {
+			return;
+		}
+		
+		String backgroundKey = StageCache.key(filterKey, "background", backgroundSubtractionMethod, backgroundRadius);
+		EngineImage background_subtracted_image = stageCache.get(backgroundKey);
+		if (background_subtracted_image == null) {
+			background_subtracted_image = bvvtl.backgroundSubtraction(filtered_image, backgroundSubtractionMethod, backgroundRadius);
+			stageCache.put(backgroundKey, background_subtracted_image);
+		}
+		if (previewExecutor.isCanceled()) {
+			return;
+		}
 		
 		double thresholdValue = 0.0;
 		
-		if (inputImagePlus.getRoi() == null) {
+		if (inputImagePlus.getRoi() == null && previewSlice > 0 && isVolumeHistogramComplete()) {
 			
-			thresholdValue = BV3DBoxUtilities.getThresholdValue(clij2, thresholdMethod, background_subtracted_image, histogramUsage);
-			
-		} else {
+			thresholdValue = volumeHistogram.getThresholdValue(thresholdMethod, histogramUsage);
 			
-			int[] finalHistogram = stackHistogram.clone();
-			//System.out.println("initial stackHistogram extremes =" + finalHistogram[0] + " / " + finalHistogram[stackHistogram.length-1]);
+		} else if (inputImagePlus.getRoi() == null) {
 			
-			switch(histogramUsage) {
+			thresholdValue = bvvtl.getThresholdValue(background_subtracted_image, thresholdMethod, histogramUsage);
 			
-			case "ignore black":
-				finalHistogram[0] = 0;
-				break;
-				
-			case "ignore white":
-				finalHistogram[stackHistogram.length-1] = 0;
-				break;
-				
-			case "ignore both":
-				finalHistogram[0] = 0;
-				finalHistogram[stackHistogram.length-1] = 0;
-				break;
-				
-			default:
-				break;
-			}
-			//System.out.println("final stackHistogram extremes =" + finalHistogram[0] + " / " + finalHistogram[stackHistogram.length-1]);
+		} else {
 			
-			thresholdValue = BV3DBoxUtilities.getThresholdValue(thresholdMethod, finalHistogram);
+			thresholdValue = BV3DBoxUtilities.getThresholdValue(thresholdMethod, stackHistogram, histogramUsage);
 						
 		}
 				
 		BV3DBoxUtilities.showWindow("Log", false);
 		
-		ClearCLBuffer thresholded_image = BV3DBoxUtilities.thresholdImage(clij2, background_subtracted_image, thresholdValue);		
-		background_subtracted_image.close();
-				
-		
-		switch (fillHoles) {
-		
-		case "2D":			
-			ClearCLBuffer temp_fill_slice_holes_image = clij2.create(thresholded_image);
-			clij2.copy(thresholded_image, temp_fill_slice_holes_image);
-			BinaryFillHolesSliceBySlice.binaryFillHolesSliceBySlice(clij2, temp_fill_slice_holes_image, thresholded_image);
-			temp_fill_slice_holes_image.close();
-			
-			break;
-			
-		case "3D":
-			ClearCLBuffer temp_fill_holes_image = clij2.create(thresholded_image);
-			clij2.copy(thresholded_image, temp_fill_holes_image);
-			clij2.binaryFillHoles(temp_fill_holes_image, thresholded_image);
-			temp_fill_holes_image.close();
-			break;
-			
-		default:
-			break;
+		String binaryKey = StageCache.key(backgroundKey, "binary", thresholdValue, fillHoles);
+		EngineImage thresholded_image = stageCache.get(binaryKey);
+		if (thresholded_image == null) {
+			thresholded_image = bvvtl.createBinaryImage(background_subtracted_image, thresholdValue, fillHoles);
+			stageCache.put(binaryKey, thresholded_image);
 		}
-		
-		
-		
-		ClearCLBuffer seed_image;
-		
-		switch (separationMethod) {
-		
-		case "None":
-			seed_image = thresholded_image;
-			break;
-		case "Maxima":
-			seed_image = labelSplitter.detectMaxima(input_image, spotSigma, maximaRadius);
-			break;
-		case "Eroded Maxima":
-			seed_image = labelSplitter.detectErodedMaxima(input_image, Math.round(spotSigma), maximaRadius);
-			break;
-		case "EDM Maxima":
-			seed_image = labelSplitter.detectDistanceMapMaxima(thresholded_image, maximaRadius);
-			break;
-		case "Maxima Spheres":
-			seed_image = labelSplitter.createMaximaSpheres(thresholded_image, spotSigma, maximaRadius);
-			break;
-		case "DoG Seeds":
-			
-			ClearCLBuffer binary_8_bit_image = clij2.create(thresholded_image);
-			clij2.replaceIntensity(thresholded_image, binary_8_bit_image, 1, 255);
-			seed_image = labelSplitter.detectDoGSeeds(binary_8_bit_image, spotSigma, maximaRadius);
-			binary_8_bit_image.close();
-			break;
-		default:
-			seed_image = labelSplitter.createErodedSeeds(thresholded_image, Math.round(spotSigma), separationMethod);
-			break;
+		if (previewExecutor.isCanceled()) {
+			return;
 		}
 		
+		String labelKey = StageCache.key(binaryKey, "labels", separationMethod, spotSigma, maximaRadius);
+		EngineImage label_image = stageCache.get(labelKey);
+		if (label_image == null) {
+			label_image = bvvtl.createLabelImage(input_image, thresholded_image);
+			stageCache.put(labelKey, label_image);
+		}
+		if (previewExecutor.isCanceled()) {
+			return;
+		}
 		
-		ClearCLBuffer output_image = labelSplitter.createLabels(seed_image, thresholded_image);
+		EngineImage output_image = engine.create(label_image);
+		engine.copy(label_image, output_image);
 		
 		if (!volumeRange.equalsIgnoreCase("0-infinity")) {
 			
-			ClearCLBuffer size_limited_temp_image = clij2.create(output_image);
-			clij2.copy(output_image, size_limited_temp_image);
+			EngineImage size_limited_temp_image = engine.create(output_image);
+			engine.copy(output_image, size_limited_temp_image);
 
 			
 			float minVolume = BV3DBoxUtilities.getMinFromRange(volumeRange);
 			float maxVolume = BV3DBoxUtilities.getMaxFromRange(volumeRange);
 			
-			clij2.excludeLabelsOutsideSizeRange(size_limited_temp_image, output_image, minVolume, maxVolume); 
+			engine.excludeLabelsOutsideSizeRange(size_limited_temp_image, output_image, minVolume, maxVolume); 
 			size_limited_temp_image.close();
 		}
 		
 		if (excludeOnEdges) {
-			ClearCLBuffer excluded_on_edges_image = clij2.create(output_image);
-			clij2.copy(output_image, excluded_on_edges_image);
-			clij2.excludeLabelsOnEdges(excluded_on_edges_image, output_image);
+			EngineImage excluded_on_edges_image = engine.create(output_image);
+			engine.copy(output_image, excluded_on_edges_image);
+			engine.excludeLabelsOnEdges(excluded_on_edges_image, output_image);
 			excluded_on_edges_image.close();
 		}
 		
-		thresholded_image.close();
-		seed_image.close();
-		bvvtl.createOutputImage(output_image, outputType);
+		previewExecutor.publish(() -> bvvtl.createPreviewOutputImage(output_image, outputType));
 		output_image.close();
+		
+		if (inputImagePlus.getRoi() == null && previewSlice > 0 && !isVolumeHistogramComplete()) {
+			collectVolumeHistogram(previewSlice);
+		}
+	}
+	
+	
+	private boolean isVolumeHistogramComplete() {
+		String histogramKey = StageCache.key(null, "histogram", filterMethod, filterRadius, backgroundSubtractionMethod, backgroundRadius);
+		return histogramKey.equals(volumeHistogramKey) && volumeHistogramSlices == inputImagePlus.getStackSize();
+	}
+	
+	
+	/**
+	 * Continues the histogram of the complete stack after a slice preview in blocks of about the preview size,
+	 * so that a new preview only waits for the current block. The slice block alone gives a different threshold
+	 * than the complete stack, the preview is therefore repeated once the histogram is complete.
+	 * 
+	 * @param previewSlice
+	 */
+	private void collectVolumeHistogram(int previewSlice) {
+		
+		String histogramKey = StageCache.key(null, "histogram", filterMethod, filterRadius, backgroundSubtractionMethod, backgroundRadius);
+		if (!histogramKey.equals(volumeHistogramKey)) {
+			volumeHistogramKey = histogramKey;
+			volumeHistogram = new StreamingHistogram(256, 0, 256);
+			volumeHistogramSlices = 0;
+		}
+		
+		int[] previewBlock = bvvtl.getPreviewBlock();
+		int blockSlices = previewBlock != null ? previewBlock[5] : 1;
+		volumeHistogramSlices = bvvtl.addBackgroundSubtractedSlices(volumeHistogram, volumeHistogramSlices, blockSlices, previewExecutor);
+		
+		if (isVolumeHistogramComplete() && !previewExecutor.isCanceled()) {
+			processImage(previewSlice);
+		}
+	}
+	
+	
+	private void processImageTiled() {
+		
+		bvvtl.setParameters(filterMethod, filterRadius, backgroundSubtractionMethod, backgroundRadius, thresholdMethod, separationMethod, spotSigma, maximaRadius, outputType);
+		bvvtl.processImageTiled(histogramUsage, fillHoles, volumeRange, excludeOnEdges);
+		
 	}
 	
 	
@@ -395,20 +466,29 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 			
 			outputImagePlus.setSlice(stackSlice);
 			
-		}	
+		}
+		
+		if (isSlicePreview()) {
+			processImageOnTheFly();
+		}
 	}
 	
 	@Override
 	public void cancel() {
 		
+		previewExecutor.shutdown();
+		
 		ImagePlus outputImagePlus = WindowManager.getImage(bvvtl.getOutputImageName());
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
 		
 		BV3DBoxUtilities.showWindow("Log", true);
-		clij2.close();
+		if (stageCache != null) {
+			stageCache.clear();
+		}
+		engine.close();
 		
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,60 +1,64 @@
 package de.biovoxxel.bv3dbox.plugins;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import ij.ImagePlus;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 public class BV_ConvolutedBackgroundSubtraction {
 	
 	
-	private CLIJ2 clij2;
+	private ComputeEngine engine;
 	private ImagePlus inputImagePlus;
-	private ClearCLBuffer input_image;
+	private EngineImage input_image;
 	
 	
 	public BV_ConvolutedBackgroundSubtraction() {
-		this.clij2 = CLIJ2.getInstance();
+		this.engine = ComputeEngineFactory.getEngine();
 	}
 	
 	
 	public BV_ConvolutedBackgroundSubtraction(ImagePlus inputImagePlus) {
 		this.inputImagePlus = inputImagePlus;
-		this.clij2 = CLIJ2.getInstance();
-		clij2.clear();
-		this.input_image = clij2.push(inputImagePlus);
+		this.engine = ComputeEngineFactory.getEngine();
+		engine.clear();
+		this.input_image = engine.push(inputImagePlus);
 	}
 	
 	public void setInputImagePlus(ImagePlus inputImagePlus) {
 		this.inputImagePlus = inputImagePlus;
-		this.input_image = clij2.push(inputImagePlus);
+		if (input_image != null) {
+			input_image.close();
+		}
+		this.input_image = engine.push(inputImagePlus);
 	}
 	
-	public CLIJ2 getCLIJ2Instance() {
-		return clij2;
+	public ComputeEngine getComputeEngine() {
+		return engine;
 	}
 	
 	public ImagePlus getInputImagePlus() {
 		return inputImagePlus;
 	}
 	
-	public ClearCLBuffer getInputBuffer() {
+	public EngineImage getInputImage() {
 		return input_image;
 	}
 	
-	public ClearCLBuffer subtractBackground(ClearCLBuffer originalBuffer, ClearCLBuffer backgroundBuffer) {
+	public EngineImage subtractBackground(EngineImage originalImage, EngineImage backgroundImage) {
 		
-		ClearCLBuffer backgroundSubtractedOutputImage = clij2.create(originalBuffer);
+		EngineImage backgroundSubtractedOutputImage = engine.create(originalImage);
 
-		clij2.subtractImages(originalBuffer, backgroundBuffer, backgroundSubtractedOutputImage);
+		engine.subtractImages(originalImage, backgroundImage, backgroundSubtractedOutputImage);
 		
 		return backgroundSubtractedOutputImage;
 	}
 	
 	
-	public ClearCLBuffer filterImage(ClearCLBuffer originalBuffer, String filterMethod, float filterRadius, boolean force2D) {
+	public EngineImage filterImage(EngineImage originalImage, String filterMethod, float filterRadius, boolean force2D) {
 		
-		long zSlices = originalBuffer.getDepth();
+		long zSlices = originalImage.getDepth();
 		
 		double[] calibration = BV3DBoxUtilities.readCalibration(inputImagePlus);
 		
@@ -68,7 +72,7 @@ public class BV_ConvolutedBackgroundSubtraction {
 		
 		//System.out.println("z_filter_radius = " + z_filter_radius);
 		
-		ClearCLBuffer filteredImage = clij2.create(originalBuffer);
+		EngineImage filteredImage = engine.create(originalImage);
 		
 		if (filterMethod == "Open") {
 			filterMethod = "TopHat (Open)";
@@ -76,34 +80,18 @@ public class BV_ConvolutedBackgroundSubtraction {
 		
 		switch (filterMethod) {
 		case "Gaussian":
-			clij2.gaussianBlur3D(originalBuffer, filteredImage, filterRadius, y_filter_radius, z_filter_radius);
+			engine.gaussianBlur(originalImage, filteredImage, filterRadius, y_filter_radius, z_filter_radius);
 			break;
 		case "Median":
-			if (zSlices > 1) {
-				
-				clij2.median3DSliceBySliceSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius);
-				
-			} else {
-				
-				clij2.median2DSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius);
-				
-			}
+			engine.median(originalImage, filteredImage, filterRadius, y_filter_radius, 0, false);
 			break;
 
 		case "Mean":
-			if (zSlices > 1) {
-				
-				clij2.mean3DSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius, z_filter_radius);	
-			
-			} else {
-				
-				clij2.mean2DSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius);	
-				
-			}
+			engine.mean(originalImage, filteredImage, filterRadius, y_filter_radius, z_filter_radius, false);
 			break;
 			
 		case "TopHat (Open)":
-			clij2.greyscaleOpeningSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius, z_filter_radius);
+			engine.opening(originalImage, filteredImage, filterRadius, y_filter_radius, z_filter_radius, false, false);
 			break;
 
 //		case "Close":
@@ -114,15 +102,9 @@ public class BV_ConvolutedBackgroundSubtraction {
 			break;
 		}
 		
-		ClearCLBuffer borderCorrectedImage = clij2.create(originalBuffer);
-		if (zSlices > 1) {
-			
-			clij2.maximum3DSliceBySliceSphere(filteredImage, borderCorrectedImage, Math.floor(filterRadius/5), Math.floor(y_filter_radius/5));
-			
-		} else {
-			
-			clij2.maximum2DSphere(filteredImage, borderCorrectedImage, Math.floor(filterRadius/5), Math.floor(y_filter_radius/5));
-		}
+		EngineImage borderCorrectedImage = engine.create(originalImage);
+		engine.maximum(filteredImage, borderCorrectedImage, Math.floor(filterRadius/5), Math.floor(y_filter_radius/5), 0, false);
+		filteredImage.close();
 		
 		return borderCorrectedImage;
 		
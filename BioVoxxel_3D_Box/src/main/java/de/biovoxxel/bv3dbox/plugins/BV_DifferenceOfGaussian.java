@@ -1,22 +1,21 @@
 package de.biovoxxel.bv3dbox.plugins;
 
-import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
-import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import ij.ImagePlus;
 import ij.measure.Calibration;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 public class BV_DifferenceOfGaussian {
 
 	ImagePlus inputImagePlus;
-	private ClearCLBuffer input_image;
+	private EngineImage input_image;
 	private Calibration cal;
 	
 	int finalIteration = 0;
 	double lastDifference = Double.NEGATIVE_INFINITY;
 	
-	private CLIJ2 clij2;
+	private ComputeEngine engine;
 	private double x_y_ratio;
 	private double z_x_ratio;
 	//private double z_y_ratio;
@@ -31,8 +30,8 @@ public class BV_DifferenceOfGaussian {
 	private void setupImage(ImagePlus image) {
 		this.inputImagePlus = image;
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		engine = ComputeEngineFactory.getEngine();
+		engine.clear();
 		
 		cal = inputImagePlus.getCalibration();
 		x_y_ratio = cal.pixelWidth / cal.pixelHeight;
@@ -42,26 +41,21 @@ public class BV_DifferenceOfGaussian {
 		z_slices = inputImagePlus.getNSlices();
 		
 		if (inputImagePlus.getRoi() != null) {
-			input_image = clij2.pushCurrentSelection(inputImagePlus);
+			input_image = engine.pushCurrentSelection(inputImagePlus);
 		} else {
-			input_image = clij2.push(inputImagePlus);
+			input_image = engine.push(inputImagePlus);
 		}
 		
 	}
 	
 	
-	public ClearCLBuffer runDoGFilter(double radius_1, double radius_2, boolean limitTo2D) {
+	public EngineImage runDoGFilter(double radius_1, double radius_2, boolean limitTo2D) {
 		
-		ClearCLBuffer output_image = clij2.create(input_image);
-		if (z_slices == 1) {
-			clij2.differenceOfGaussian2D(input_image, output_image, radius_1, radius_1 * x_y_ratio, radius_2, radius_2 * x_y_ratio);			
+		EngineImage output_image = engine.create(input_image);
+		if (z_slices == 1 || limitTo2D) {
+			engine.differenceOfGaussian(input_image, output_image, radius_1, radius_1 * x_y_ratio, 0.0, radius_2, radius_2 * x_y_ratio, 0.0);			
 		} else {
-			if (limitTo2D) {
-				clij2.differenceOfGaussian3D(input_image, output_image, radius_1, radius_1 * x_y_ratio, 0.0, radius_2, radius_2 * x_y_ratio, 0.0);			
-				
-			} else {
-				clij2.differenceOfGaussian3D(input_image, output_image, radius_1, radius_1 * x_y_ratio, radius_1 / z_x_ratio, radius_2, radius_2 * x_y_ratio, radius_2 / z_x_ratio);			
-			}
+			engine.differenceOfGaussian(input_image, output_image, radius_1, radius_1 * x_y_ratio, radius_1 / z_x_ratio, radius_2, radius_2 * x_y_ratio, radius_2 / z_x_ratio);			
 		}
 		
 		return output_image;
@@ -69,8 +63,8 @@ public class BV_DifferenceOfGaussian {
 	}
 	
 	
-	public CLIJ2 getCurrentCLIJ2Instance() {
-		return clij2;
+	public ComputeEngine getComputeEngine() {
+		return engine;
 		
 	}
 	
@@ -8,12 +8,13 @@ import org.scijava.plugin.Parameter;
 import org.scijava.prefs.PrefService;
 import org.scijava.widget.NumberWidget;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import ij.ImagePlus;
 import ij.WindowManager;
 import ij.measure.Calibration;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 /*
  * BSD 3-Clause License
@@ -72,8 +73,8 @@ public class BV_FilterCheck extends DynamicCommand {
 	Integer stackSlice;
 	
 	
-	CLIJ2 clij2;
-	ClearCLBuffer inputImage;
+	ComputeEngine engine;
+	EngineImage inputImage;
 	
 	private ImagePlus outputImagePlus;
 	@SuppressWarnings("unused")
@@ -100,15 +101,15 @@ public class BV_FilterCheck extends DynamicCommand {
 		
 		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		engine = ComputeEngineFactory.getEngine();
+		engine.clear();
 		
 		readCalibration();
 		
 		if (inputImagePlus.getRoi() != null) {
-			inputImage = clij2.pushCurrentSelection(inputImagePlus);
+			inputImage = engine.pushCurrentSelection(inputImagePlus);
 		} else {
-			inputImage = clij2.push(inputImagePlus);			
+			inputImage = engine.push(inputImagePlus);			
 		}
 		
 		final MutableModuleItem<Integer> stackSlice = getInfo().getMutableInput("stackSlice", Integer.class);
@@ -160,7 +161,7 @@ public class BV_FilterCheck extends DynamicCommand {
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
-		clij2.clear();
+		engine.clear();
 	}
 	
 	
@@ -8,15 +8,15 @@ import org.scijava.log.StderrLogService;
 import org.scijava.prefs.DefaultPrefService;
 import org.scijava.prefs.PrefService;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.ImagePlus;
 import ij.WindowManager;
 import ij.process.ImageConverter;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 
 /*
@@ -60,24 +60,38 @@ public class BV_FlatFieldCorrection {
 
 	LogService log = new StderrLogService();
 	
-	private CLIJ2 clij2;
+	private ComputeEngine engine;
 	
 	private ImagePlus originalImagePlus = null;
 		
-	private ClearCLBuffer original_image = null;
-	private ClearCLBuffer flat_field_image = null;
-	private ClearCLBuffer dark_field_image = null;
+	private EngineImage original_image = null;
+	private EngineImage flat_field_image = null;
+	private EngineImage dark_field_image = null;
 	
 	//private final int WIDTH = 0;
 	//private final int HEIGHT = 1;
 	private final int DEPTH = 2;
 	
 	public BV_FlatFieldCorrection() {
+		this(null);
+	}
+	
+	
+	/**
+	 * 
+	 * @param engine	used instead of the compute engine chosen in the settings, e.g. to compare engines
+	 */
+	public BV_FlatFieldCorrection(ComputeEngine engine) {
 		
 		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		this.engine = engine != null ? engine : ComputeEngineFactory.getEngine();
+		this.engine.clear();
+	}
+	
+	
+	public ComputeEngine getComputeEngine() {
+		return engine;
 	}
 	
 
@@ -112,15 +126,13 @@ public class BV_FlatFieldCorrection {
 				
 				originalDimensions = new long[]{(long)originalBrightnessImagePlus.getWidth(), (long)originalBrightnessImagePlus.getHeight(), (long)originalBrightnessImagePlus.getStackSize()};
 				
-				original_image = clij2.create(originalDimensions, NativeTypeEnum.Float);
-				original_image = clij2.push(originalBrightnessImagePlus);
+				original_image = engine.push(originalBrightnessImagePlus);
 				
 			} else {
 				
 				originalDimensions = new long[]{(long)originalImagePlus.getWidth(), (long)originalImagePlus.getHeight(), (long)originalImagePlus.getStackSize()};
 				
-				original_image = clij2.create(originalDimensions, NativeTypeEnum.Float);
-				original_image = clij2.push(originalImagePlus);
+				original_image = engine.push(originalImagePlus);
 			
 			}
 		}
@@ -141,24 +153,23 @@ public class BV_FlatFieldCorrection {
 				
 				flatFieldDimensions = new long[]{(long)flatFieldBrightnessImagePlus.getWidth(), (long)flatFieldBrightnessImagePlus.getHeight(), (long)flatFieldBrightnessImagePlus.getStackSize()};
 				
-				flat_field_image = clij2.create(flatFieldDimensions, NativeTypeEnum.Float);
-				flat_field_image = clij2.push(flatFieldBrightnessImagePlus);
+				flat_field_image = engine.push(flatFieldBrightnessImagePlus);
 				
 			} else {
 				
 				flatFieldDimensions = new long[]{(long)flatFieldImagePlus.getWidth(), (long)flatFieldImagePlus.getHeight(), (long)flatFieldImagePlus.getStackSize()};
 				
-				flat_field_image = clij2.create(flatFieldDimensions, NativeTypeEnum.Float);
-				
-				
 				if (originalDimensions[DEPTH] > 1 && flatFieldDimensions[DEPTH] == 1) {
 					
-					ClearCLBuffer temp_flat_field = clij2.push(flatFieldImagePlus);
+					flat_field_image = engine.create(originalDimensions);
+					
+					EngineImage temp_flat_field = engine.push(flatFieldImagePlus);
 					
-					clij2.imageToStack(temp_flat_field, flat_field_image, originalDimensions[DEPTH]);
+					engine.imageToStack(temp_flat_field, flat_field_image);
+					temp_flat_field.close();
 					
 				} else {
-					flat_field_image = clij2.push(flatFieldImagePlus);				
+					flat_field_image = engine.push(flatFieldImagePlus);				
 				}
 				
 			}
@@ -178,23 +189,23 @@ public class BV_FlatFieldCorrection {
 				
 				darkFieldDimensions = new long[]{(long)darkFieldBrightnessImagePlus.getWidth(), (long)darkFieldBrightnessImagePlus.getHeight(), (long)darkFieldBrightnessImagePlus.getStackSize()};
 				
-				dark_field_image = clij2.create(darkFieldDimensions, NativeTypeEnum.Float);
-				dark_field_image = clij2.push(darkFieldBrightnessImagePlus);
+				dark_field_image = engine.push(darkFieldBrightnessImagePlus);
 				
 			} else {
 				
 				darkFieldDimensions = new long[]{(long)darkFieldImagePlus.getWidth(), (long)darkFieldImagePlus.getHeight(), (long)darkFieldImagePlus.getStackSize()};
 				
-				dark_field_image = clij2.create(originalDimensions, NativeTypeEnum.Float);
-				
 				if (originalDimensions[DEPTH] > 1 && darkFieldDimensions[DEPTH] == 1) {
 					
-					ClearCLBuffer temp_dark_field = clij2.push(darkFieldImagePlus);
+					dark_field_image = engine.create(originalDimensions);
+					
+					EngineImage temp_dark_field = engine.push(darkFieldImagePlus);
 					
-					clij2.imageToStack(temp_dark_field, dark_field_image, originalDimensions[DEPTH]);
+					engine.imageToStack(temp_dark_field, dark_field_image);
+					temp_dark_field.close();
 					
 				} else {
-					dark_field_image = clij2.push(darkFieldImagePlus);				
+					dark_field_image = engine.push(darkFieldImagePlus);				
 				}	
 			}
 		}	
@@ -224,38 +235,58 @@ public class BV_FlatFieldCorrection {
 	
 	
 	
+	/**
+	 * Corrects the original image and displays the result
+	 */
 	public void flatFieldCorrection() {
 		
-		ClearCLBuffer original_minus_dark_field;
-		ClearCLBuffer flat_field_minus_dark_field;
-		ClearCLBuffer corrected_image = clij2.create(original_image.getDimensions(), NativeTypeEnum.Float);
+		ImagePlus correctedImagePlus = correctImage();
+		
+		correctedImagePlus.setTitle(WindowManager.getUniqueName(correctedImagePlus.getTitle()));
+		correctedImagePlus.show();
+		correctedImagePlus.updateAndDraw();
+	}
+	
+	
+	
+	/**
+	 * Corrects the original image with the flat field and, if given, the dark field image without displaying it.
+	 * RGB images are corrected in their brightness channel.
+	 * 
+	 * @return the corrected image with the calibration and LUT of the original image
+	 */
+	public ImagePlus correctImage() {
+		
+		EngineImage original_minus_dark_field;
+		EngineImage flat_field_minus_dark_field;
+		EngineImage corrected_image = engine.create(original_image.getDimensions());
 		
 		if (dark_field_image != null) {
-			original_minus_dark_field = clij2.create(original_image.getDimensions(), NativeTypeEnum.Float);
-			flat_field_minus_dark_field = clij2.create(original_image.getDimensions(), NativeTypeEnum.Float);
+			original_minus_dark_field = engine.create(original_image.getDimensions());
+			flat_field_minus_dark_field = engine.create(original_image.getDimensions());
 		
 			
-			clij2.subtractImages(original_image, dark_field_image, original_minus_dark_field);
-			clij2.subtractImages(flat_field_image, dark_field_image, flat_field_minus_dark_field);
+			engine.subtractImages(original_image, dark_field_image, original_minus_dark_field);
+			engine.subtractImages(flat_field_image, dark_field_image, flat_field_minus_dark_field);
 
-			double meanOfFlatField = clij2.getMeanOfAllPixels(flat_field_minus_dark_field);
+			double meanOfFlatField = engine.meanOfAllPixels(flat_field_minus_dark_field);
 			
-			ClearCLBuffer divided_image = clij2.create(original_minus_dark_field);
-			clij2.divideImages(original_minus_dark_field, flat_field_minus_dark_field, divided_image);
+			EngineImage divided_image = engine.create(original_minus_dark_field);
+			engine.divideImages(original_minus_dark_field, flat_field_minus_dark_field, divided_image);
 			original_minus_dark_field.close();
 			flat_field_minus_dark_field.close();
 			
-			clij2.multiplyImageAndScalar(divided_image, corrected_image, meanOfFlatField);
+			engine.multiplyImageAndScalar(divided_image, corrected_image, meanOfFlatField);
 			divided_image.close();
 			
 		} else {
-			ClearCLBuffer divided_image = clij2.create(original_image.getDimensions(), NativeTypeEnum.Float);
-			clij2.divideImages(original_image, flat_field_image, divided_image);
+			EngineImage divided_image = engine.create(original_image.getDimensions());
+			engine.divideImages(original_image, flat_field_image, divided_image);
 			
-			double meanOfFlatField = clij2.getMeanOfAllPixels(flat_field_image);
+			double meanOfFlatField = engine.meanOfAllPixels(flat_field_image);
 			log.debug("meanOfFlatField = " + meanOfFlatField);
 			
-			clij2.multiplyImageAndScalar(divided_image, corrected_image, meanOfFlatField);
+			engine.multiplyImageAndScalar(divided_image, corrected_image, meanOfFlatField);
 			divided_image.close();
 		}
 		
@@ -264,11 +295,13 @@ public class BV_FlatFieldCorrection {
 		
 		if (originalImagePlus.getBitDepth() == 24 && !originalImagePlus.hasImageStack()) {
 			
-			ImagePlus correctedLightnessImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, corrected_image, true, LutNames.GRAY);
+			ImagePlus correctedLightnessImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, corrected_image, true, LutNames.GRAY);
 			
 			if (showDebugImages) {
 				
-				BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, corrected_image, false, LutNames.GRAY, originalImagePlus.getCalibration());
+				ImagePlus debugImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, corrected_image, false, LutNames.GRAY);
+				debugImagePlus.setCalibration(originalImagePlus.getCalibration());
+				debugImagePlus.show();
 				
 			}
 			
@@ -282,18 +315,18 @@ public class BV_FlatFieldCorrection {
 			
 		} else {
 			
-			correctedImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, corrected_image, false, LutNames.GRAY);
+			correctedImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, corrected_image, false, LutNames.GRAY);
 			
 					
 		}
 		corrected_image.close();
 		
-		correctedImagePlus.setTitle(WindowManager.getUniqueName("FFCorr_" + originalImagePlus.getTitle()));
+		correctedImagePlus.setTitle("FFCorr_" + originalImagePlus.getTitle());
 		correctedImagePlus.setCalibration(originalImagePlus.getCalibration());
-		correctedImagePlus.show();
 		correctedImagePlus.setLut(originalImagePlus.getProcessor().getLut());
 		correctedImagePlus.resetDisplayRange();
-		correctedImagePlus.updateAndDraw();
+		
+		return correctedImagePlus;
 	}
 
 }
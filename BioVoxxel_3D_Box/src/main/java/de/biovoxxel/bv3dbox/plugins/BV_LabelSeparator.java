@@ -7,12 +7,13 @@ import org.scijava.command.Command;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.ImagePlus;
 import ij.WindowManager;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 /**
  * @author Admin
@@ -26,27 +27,27 @@ public class BV_LabelSeparator implements Command {
 	ImagePlus inputImagePlus;
 
 	
-	private CLIJ2 clij2;
+	private ComputeEngine engine;
 	
 	@Override
 	public void run() {
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		engine = ComputeEngineFactory.getEngine();
+		engine.clear();
 		
-		ClearCLBuffer input_image = clij2.push(inputImagePlus);
-		ClearCLBuffer splitted_label_image = clij2.create(input_image);
+		EngineImage input_image = engine.push(inputImagePlus);
+		EngineImage splitted_label_image = engine.create(input_image);
 		
-		splitLabels(clij2, input_image, splitted_label_image);
+		splitLabels(engine, input_image, splitted_label_image);
 		input_image.close();
 		
-		ImagePlus outputImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, splitted_label_image, true, LutNames.GLASBEY_LUT);
+		ImagePlus outputImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, splitted_label_image, true, LutNames.GLASBEY_LUT);
 		
 		outputImagePlus.setTitle(WindowManager.getUniqueName("BVSL_" + inputImagePlus.getTitle()));
 		
 		outputImagePlus.show();
 		
-		clij2.clear();
+		engine.clear();
 	}
 	
 	
@@ -54,25 +55,9 @@ public class BV_LabelSeparator implements Command {
 		
 	}
 	
-	public void splitLabels(CLIJ2 clij2, ClearCLBuffer label_image, ClearCLBuffer splitted_label_image) {
+	public void splitLabels(ComputeEngine engine, EngineImage label_image, EngineImage splitted_label_image) {
 		
-//		boolean is3D = label_image.getDimension() > 2 ? true : false;
-		
-		ClearCLBuffer dilated_image = clij2.create(label_image);
-		
-		clij2.dilateLabels(label_image, dilated_image, 1);
-		
-//		if (is3D) {
-//			clij2.maximum3DSphere(label_image, dilated_image, 1, 1, 1);
-//		} else {
-//			clij2.maximum2DSphere(label_image, dilated_image, 1, 1);
-//		}
-						
-		ClearCLBuffer edge_image = clij2.create(dilated_image);
-		clij2.reduceLabelsToLabelEdges(dilated_image, edge_image);
-		
-		clij2.subtractImages(dilated_image, edge_image, splitted_label_image);
-		edge_image.close();
+		engine.separateLabels(label_image, splitted_label_image);
 	
 	}
 	
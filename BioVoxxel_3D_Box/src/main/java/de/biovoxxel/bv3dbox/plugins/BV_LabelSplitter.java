@@ -4,18 +4,21 @@
 package de.biovoxxel.bv3dbox.plugins;
 
 import org.joml.Math;
+import org.scijava.Cancelable;
 import org.scijava.prefs.DefaultPrefService;
 
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.utilities.BufferPool;
+import de.biovoxxel.bv3dbox.utilities.BufferPool.Lease;
 import ij.ImagePlus;
 import ij.WindowManager;
 import ij.measure.ResultsTable;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 
 /*
@@ -60,24 +63,36 @@ import net.haesleinhuepf.clij2.CLIJ2;
 public class BV_LabelSplitter {
 
 	private boolean showDebugImages = new DefaultPrefService().getBoolean(BV3DBoxSettings.class, "bv_3d_box_settings_display_debug_images", false);
-	private CLIJ2 clij2;
-	private BV_LabelSeparator labelSeparator = new BV_LabelSeparator();
+	private ComputeEngine engine;
+	private BufferPool bufferPool;
+	private Cancelable cancelable = null;
 	
 	private double[] voxelRatios = {1.0, 1.0};
 		
 	
 	
 	public BV_LabelSplitter() {
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		engine = ComputeEngineFactory.getEngine();
+		engine.clear();
+		bufferPool = new BufferPool(engine, "Label Splitter");
 	}
 	
 	/**
 	 * 
-	 * @param clij2
+	 * @param engine
 	 */
-	public BV_LabelSplitter(CLIJ2 clij2) {
-		this.clij2 = clij2;
+	public BV_LabelSplitter(ComputeEngine engine) {
+		this(engine, new BufferPool(engine, "Label Splitter"));
+	}
+	
+	/**
+	 * 
+	 * @param engine
+	 * @param bufferPool	pool for the intermediate buffers, e.g. shared with the calling plugin
+	 */
+	public BV_LabelSplitter(ComputeEngine engine, BufferPool bufferPool) {
+		this.engine = engine;
+		this.bufferPool = bufferPool;
 	}
 	
 	/**
@@ -86,8 +101,9 @@ public class BV_LabelSplitter {
 	 */
 	public BV_LabelSplitter(ImagePlus inputImagePlus) {
 
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		engine = ComputeEngineFactory.getEngine();
+		engine.clear();
+		bufferPool = new BufferPool(engine, "Label Splitter");
 		
 		voxelRatios = BV3DBoxUtilities.getVoxelRatios(inputImagePlus);
 				
@@ -98,15 +114,25 @@ public class BV_LabelSplitter {
 	 * @param separationMethod
 	 * @param spotSigma
 	 * @param maximaRadius
-	 * @return
+	 * @return the split labels, null if canceled (see {@link #setCancelable(Cancelable)})
 	 */
-	public ClearCLBuffer splitLabels(ClearCLBuffer input_image, String separationMethod, Float spotSigma, Float maximaRadius) {
+	public EngineImage splitLabels(EngineImage input_image, String separationMethod, Float spotSigma, Float maximaRadius) {
 		
-		ClearCLBuffer seedImage = clij2.create(input_image);
+		try (Lease thresholdedLease = bufferPool.lease(input_image)) {
+			return splitLabels(input_image, thresholdedLease.get(), separationMethod, spotSigma, maximaRadius);
+		}
+	}
+	
+	
+	private EngineImage splitLabels(EngineImage input_image, EngineImage thresholdedImage, String separationMethod, Float spotSigma, Float maximaRadius) {
 		
-		ClearCLBuffer thresholdedImage = clij2.create(input_image);
+		EngineImage seedImage = null;
 				
-		clij2.threshold(input_image, thresholdedImage, 1);
+		engine.threshold(input_image, thresholdedImage, 1);
+		
+		if (isCanceled()) {
+			return null;
+		}
 						
 		switch (separationMethod) {
 		
@@ -131,10 +157,10 @@ public class BV_LabelSplitter {
 			break;
 			
 		case "DoG Seeds":
-			ClearCLBuffer binary_8_bit_image = clij2.create(thresholdedImage);
-			clij2.replaceIntensity(thresholdedImage, binary_8_bit_image, 1, 255);
-			seedImage = detectDoGSeeds(binary_8_bit_image, spotSigma, maximaRadius);
-			binary_8_bit_image.close();
+			try (Lease binary_8_bit_image = bufferPool.lease(thresholdedImage)) {
+				engine.multiplyImageAndScalar(thresholdedImage, binary_8_bit_image.get(), 255);
+				seedImage = detectDoGSeeds(binary_8_bit_image.get(), spotSigma, maximaRadius);
+			}
 			break;
 			
 		default:
@@ -142,10 +168,11 @@ public class BV_LabelSplitter {
 			break;
 		}
 		
-		ClearCLBuffer label_image = createLabels(seedImage, thresholdedImage);
+		EngineImage label_image = isCanceled() ? null : createLabels(seedImage, thresholdedImage);
 		
-		seedImage.close();
-		thresholdedImage.close();
+		if (seedImage != thresholdedImage) {
+			seedImage.close();
+		}
 		
 		return label_image;
 	}
@@ -158,21 +185,20 @@ public class BV_LabelSplitter {
 	 * @param maximaRadius
 	 * @return
 	 */
-	public ClearCLBuffer detectMaxima(ClearCLBuffer input_image, Float spotSigma, Float maximaRadius) {
+	public EngineImage detectMaxima(EngineImage input_image, Float spotSigma, Float maximaRadius) {
 			
 		double y_filter_sigma = spotSigma * voxelRatios[0];
 		double z_filter_sigma = spotSigma / voxelRatios[1];
 			
-		ClearCLBuffer temp = clij2.create(input_image);
-		clij2.gaussianBlur3D(input_image, temp, spotSigma, y_filter_sigma, z_filter_sigma);
-		
-		
 		double y_maxima_radius = maximaRadius * voxelRatios[0];
 		double z_maxima_radius = maximaRadius / voxelRatios[1];
 		
-		ClearCLBuffer maxima_image = clij2.create(input_image);
-		clij2.detectMaxima3DBox(temp, maxima_image, maximaRadius, y_maxima_radius, z_maxima_radius);
-		temp.close();
+		EngineImage maxima_image = engine.create(input_image);
+		
+		try (Lease temp = bufferPool.lease(input_image)) {
+			engine.gaussianBlur(input_image, temp.get(), spotSigma, y_filter_sigma, z_filter_sigma);
+			engine.detectMaxima(temp.get(), maxima_image, maximaRadius, y_maxima_radius, z_maxima_radius);
+		}
 		
 		return maxima_image;
 	}
@@ -184,11 +210,11 @@ public class BV_LabelSplitter {
 	 * @param maximaRadius
 	 * @return
 	 */
-	public ClearCLBuffer detectErodedMaxima(ClearCLBuffer input_image, Integer erode_iteration, Float maximaRadius) {
+	public EngineImage detectErodedMaxima(EngineImage input_image, Integer erode_iteration, Float maximaRadius) {
 		
-		ClearCLBuffer eroded_seeds = createErodedSeeds(input_image, erode_iteration, "Eroded sphere");
+		EngineImage eroded_seeds = createErodedSeeds(input_image, erode_iteration, "Eroded sphere");
 		
-		ClearCLBuffer eroded_maxima = detectMaxima(eroded_seeds, 0f, maximaRadius);
+		EngineImage eroded_maxima = detectMaxima(eroded_seeds, 0f, maximaRadius);
 		
 		eroded_seeds.close();
 		
@@ -197,20 +223,29 @@ public class BV_LabelSplitter {
 	
 	
 	
-	public ClearCLBuffer detectDistanceMapMaxima(ClearCLBuffer binary_image, Float maximaRadius) {
+	/**
+	 * Spacing for the exact Euclidean distance map and the Voronoi labeling considering the voxel ratios, in pixels along x.
+	 */
+	private double[] getVoxelSpacing() {
+		double y_spacing = voxelRatios[0] > 0 ? 1.0 / voxelRatios[0] : 1.0;
+		double z_spacing = voxelRatios[1] > 0 ? voxelRatios[1] : 1.0;
+		return new double[] { 1.0, y_spacing, z_spacing };
+	}
+	
+	
+	public EngineImage detectDistanceMapMaxima(EngineImage binary_image, Float maximaRadius) {
 		
 		double y_maxima_radius = maximaRadius * voxelRatios[0];
 		double z_maxima_radius = maximaRadius / voxelRatios[1];
 		
-		ClearCLBuffer distance_map = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		
-		clij2.distanceMap(binary_image, distance_map);
-		
-		ClearCLBuffer maxima_image = clij2.create(binary_image);
-		
-		clij2.detectMaxima3DBox(distance_map, maxima_image, maximaRadius, y_maxima_radius, z_maxima_radius);
+		EngineImage maxima_image = engine.create(binary_image);
 		
-		distance_map.close();
+		try (Lease distance_map = bufferPool.lease(binary_image.getDimensions())) {
+			
+			engine.distanceMap(binary_image, distance_map.get(), getVoxelSpacing());
+			
+			engine.detectMaxima(distance_map.get(), maxima_image, maximaRadius, y_maxima_radius, z_maxima_radius);
+		}
 		
 		return maxima_image;
 	}
@@ -223,31 +258,28 @@ public class BV_LabelSplitter {
 	 * @param maximaRadius
 	 * @return
 	 */
-	public ClearCLBuffer createMaximaSpheres(ClearCLBuffer binary_image, Float spotSigma, Float maximaRadius) {
+	public EngineImage createMaximaSpheres(EngineImage binary_image, Float spotSigma, Float maximaRadius) {
 		
 		double y_maxima_radius = maximaRadius * voxelRatios[0];
 		double z_maxima_radius = maximaRadius / voxelRatios[1] == Double.POSITIVE_INFINITY ? 0.0 : maximaRadius / voxelRatios[1];
 			
 		System.out.println(maximaRadius / voxelRatios[1]);
 		
-		ClearCLBuffer distance_map = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		clij2.distanceMap(binary_image, distance_map);
-		
-		ClearCLBuffer gaussian_distance_map = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		clij2.gaussianBlur3D(distance_map, gaussian_distance_map, spotSigma, y_maxima_radius, z_maxima_radius);
+		long[] dimensions = binary_image.getDimensions();
+		ResultsTable resultsTable;
 		
-		ClearCLBuffer maxima_image = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		clij2.detectMaxima3DBox(gaussian_distance_map, maxima_image, maximaRadius, y_maxima_radius, z_maxima_radius);
-		gaussian_distance_map.close();
-		
-		ClearCLBuffer maxima_labels = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		clij2.connectedComponentsLabelingDiamond(maxima_image, maxima_labels);
-		maxima_image.close();
-				
-		ResultsTable resultsTable = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(distance_map, maxima_labels, resultsTable);
-		distance_map.close();
-		maxima_labels.close();
+		try (Lease distance_map = bufferPool.lease(dimensions); Lease maxima_labels = bufferPool.lease(dimensions)) {
+			
+			engine.distanceMap(binary_image, distance_map.get(), getVoxelSpacing());
+			
+			try (Lease gaussian_distance_map = bufferPool.lease(dimensions); Lease maxima_image = bufferPool.lease(dimensions)) {
+				engine.gaussianBlur(distance_map.get(), gaussian_distance_map.get(), spotSigma, y_maxima_radius, z_maxima_radius);
+				engine.detectMaxima(gaussian_distance_map.get(), maxima_image.get(), maximaRadius, y_maxima_radius, z_maxima_radius);
+				engine.connectedComponentsLabeling(maxima_image.get(), maxima_labels.get(), true);
+			}
+			
+			resultsTable = engine.statisticsOfLabelledPixels(distance_map.get(), maxima_labels.get());
+		}
 		
 		int minIntIndex = resultsTable.getColumnIndex("MINIMUM_INTENSITY");
 		int x_index = resultsTable.getColumnIndex("CENTROID_X");
@@ -265,31 +297,32 @@ public class BV_LabelSplitter {
 		System.out.println(y);
 		System.out.println(z);
 		
-		ClearCLBuffer sphere_image = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		clij2.set(sphere_image, 0);
+		EngineImage separated_sphere_image = engine.create(dimensions);
 		
-		for (int i = 0; i < maxima_intensity.length; i++) {
+		try (Lease sphere_image = bufferPool.lease(dimensions)) {
+			engine.set(sphere_image.get(), 0);
 			
-			double x_radius = maxima_intensity[i];
-			double y_radius = maxima_intensity[i] * voxelRatios[0];
-			double z_radius = maxima_intensity[i] / voxelRatios[1] == Double.POSITIVE_INFINITY ? 1.0 : maxima_intensity[i] / voxelRatios[1];
-						
-			clij2.drawSphere(sphere_image, x[i], y[i], z[i], x_radius, y_radius, z_radius, i+1);
+			for (int i = 0; i < maxima_intensity.length; i++) {
+				
+				double x_radius = maxima_intensity[i];
+				double y_radius = maxima_intensity[i] * voxelRatios[0];
+				double z_radius = maxima_intensity[i] / voxelRatios[1] == Double.POSITIVE_INFINITY ? 1.0 : maxima_intensity[i] / voxelRatios[1];
+							
+				engine.drawSphere(sphere_image.get(), x[i], y[i], z[i], x_radius, y_radius, z_radius, i+1);
+			}
+			
+			engine.separateLabels(sphere_image.get(), separated_sphere_image);
 		}
 		
-		ClearCLBuffer separated_sphere_image = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		labelSeparator.splitLabels(clij2, sphere_image, separated_sphere_image);
-		sphere_image.close();
-		
 		if (showDebugImages) {
 			
 			ImagePlus sphereImagePlus = WindowManager.getImage("debug_sphere_image");
 			if (sphereImagePlus == null) {
-				sphereImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, separated_sphere_image, true, LutNames.GLASBEY_LUT);
+				sphereImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, separated_sphere_image, true, LutNames.GLASBEY_LUT);
 				sphereImagePlus.setTitle("debug_sphere_image");
 				sphereImagePlus.show();		
 			} else {
-				sphereImagePlus.setImage(BV3DBoxUtilities.pullImageFromGPU(clij2, separated_sphere_image, true, LutNames.GLASBEY_LUT));
+				sphereImagePlus.setImage(BV3DBoxUtilities.pullImageFromEngine(engine, separated_sphere_image, true, LutNames.GLASBEY_LUT));
 				sphereImagePlus.setTitle("debug_sphere_image");
 			}	
 		}
@@ -306,29 +339,20 @@ public class BV_LabelSplitter {
 	 * @param threshold
 	 * @return
 	 */
-	public ClearCLBuffer detectDoGSeeds(ClearCLBuffer input_image, Float sigma, Float threshold) {
-		
-		ClearCLBuffer dog_image = clij2.create(input_image);
-		boolean is3D = input_image.getDimension() > 2 ? true : false;
+	public EngineImage detectDoGSeeds(EngineImage input_image, Float sigma, Float threshold) {
 		
 		double y_filter_sigma = sigma * voxelRatios[0];
-		double z_filter_sigma = sigma / voxelRatios[1];
+		double z_filter_sigma = input_image.getDepth() > 1 ? sigma / voxelRatios[1] : 0;
 		
-		if (is3D) {
-			
-			clij2.differenceOfGaussian3D(input_image, dog_image, 0, 0, 0, sigma, y_filter_sigma, z_filter_sigma);
-			
-		} else {
-			
-			clij2.differenceOfGaussian2D(input_image, dog_image, 0, 0, sigma, y_filter_sigma);
+		EngineImage dog_seed_image = engine.create(input_image);
+		
+		try (Lease dog_image = bufferPool.lease(input_image)) {
 			
+			engine.differenceOfGaussian(input_image, dog_image.get(), 0, 0, 0, sigma, y_filter_sigma, z_filter_sigma);
+				
+			engine.different(input_image, dog_image.get(), dog_seed_image, 255f - threshold);
 		}
 		
-		ClearCLBuffer dog_seed_image = clij2.create(dog_image);
-		clij2.different(input_image, dog_image, dog_seed_image, 255f - threshold);
-		
-		dog_image.close();
-		
 		return dog_seed_image;
 	}
 	
@@ -340,28 +364,20 @@ public class BV_LabelSplitter {
 	 * @param erosion_method
 	 * @return
 	 */
-	public ClearCLBuffer createErodedSeeds(ClearCLBuffer input_image, Integer erode_iteration, String erosion_method) {
+	public EngineImage createErodedSeeds(EngineImage input_image, Integer erode_iteration, String erosion_method) {
 		
-		boolean is3D = input_image.getDimension() > 2 ? true : false;
+		boolean is3D = input_image.getDepth() > 1 ? true : false;
 		
-		ClearCLBuffer eroded_image = clij2.create(input_image);
+		int z_erode_iteration = is3D ? erode_iteration : 0;
 		
-		if (is3D) {
-			if (erosion_method.equals("Eroded box")) {
-				clij2.minimum3DBox(input_image, eroded_image, erode_iteration, erode_iteration, erode_iteration);
-			}
+		EngineImage eroded_image = engine.create(input_image);
 			
-			if (erosion_method.equals("Eroded sphere")) {
-				clij2.minimum3DSphere(input_image, eroded_image, erode_iteration, erode_iteration, erode_iteration);
-			}
-		} else {
-			if (erosion_method.equals("Eroded box")) {
-				clij2.minimum2DBox(input_image, eroded_image, erode_iteration, erode_iteration);
-			}
+		if (erosion_method.equals("Eroded box")) {
+			engine.minimum(input_image, eroded_image, erode_iteration, erode_iteration, z_erode_iteration, true);
+		}
 			
-			if (erosion_method.equals("Eroded sphere")) {
-				clij2.minimum2DSphere(input_image, eroded_image, erode_iteration, erode_iteration);
-			}
+		if (erosion_method.equals("Eroded sphere")) {
+			engine.minimum(input_image, eroded_image, erode_iteration, erode_iteration, z_erode_iteration, false);
 		}
 		
 		return eroded_image;
@@ -387,27 +403,43 @@ public class BV_LabelSplitter {
 //	}
 	
 	/**
+	 * With the CPU engine the seeds are grown along the anisotropic path length inside the mask.
 	 * 
 	 * @param seed_image
 	 * @param thresholded_image
 	 * @return
 	 */
-	public ClearCLBuffer createLabels(ClearCLBuffer seed_image, ClearCLBuffer thresholded_image) {
-		// mask spots
-		ClearCLBuffer masked_spots = clij2.create(seed_image);
-		clij2.mask(seed_image, thresholded_image, masked_spots);
-		//clij2.binaryAnd(seed_image, thresholded_image, masked_spots);	//old before version 1.9.0
+	public EngineImage createLabels(EngineImage seed_image, EngineImage thresholded_image) {
 		
-		ClearCLBuffer output_image = clij2.create(seed_image.getDimensions(), NativeTypeEnum.Float);
-		clij2.maskedVoronoiLabeling(masked_spots, thresholded_image, output_image);
-		masked_spots.close();
+		EngineImage output_image = engine.create(seed_image.getDimensions());
+			
+		engine.maskedVoronoiLabeling(seed_image, thresholded_image, output_image, getVoxelSpacing());
 		
 		return output_image;
 	}
 	
 	
-	public CLIJ2 getCurrentCLIJ2Instance() {
-		return clij2;
+	public ComputeEngine getComputeEngine() {
+		return engine;
+	}
+	
+	
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+	
+	
+	/**
+	 * 
+	 * @param cancelable	checked between the processing stages, e.g. the PreviewExecutor of a GUI
+	 */
+	public void setCancelable(Cancelable cancelable) {
+		this.cancelable = cancelable;
+	}
+	
+	
+	private boolean isCanceled() {
+		return cancelable != null && cancelable.isCanceled();
 	}
 	
 	
@@ -1,32 +1,33 @@
 package de.biovoxxel.bv3dbox.plugins;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import ij.ImagePlus;
 import ij.measure.Calibration;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 public class BV_MakeIsotropicVoxel {
 	
 	ImagePlus inputImagePlus;
-	ClearCLBuffer input_image;
+	EngineImage input_image;
 	float[] calibration = new float[3];
-	CLIJ2 clij2;
+	ComputeEngine engine;
 	
-	public BV_MakeIsotropicVoxel(CLIJ2 clij2, ImagePlus inputImagePlus) {
+	public BV_MakeIsotropicVoxel(ComputeEngine engine, ImagePlus inputImagePlus) {
 		
-		if (clij2 == null) {
-			clij2 = CLIJ2.getInstance();
+		if (engine == null) {
+			this.engine = ComputeEngineFactory.getEngine();
 		} else {
-			this.clij2 = clij2;
+			this.engine = engine;
 		}
-		clij2.clear();
+		this.engine.clear();
 		
 		this.inputImagePlus = inputImagePlus;
-		input_image = clij2.push(inputImagePlus);
+		input_image = this.engine.push(inputImagePlus);
 	}
 	
 	
-	public ClearCLBuffer makeIsotropic(CLIJ2 clij2, ImagePlus image, float finalVoxelSize) {
+	public EngineImage makeIsotropic(ComputeEngine engine, ImagePlus image, float finalVoxelSize) {
 				
 		Calibration cal = image.getCalibration();
 		
@@ -35,14 +36,14 @@ public class BV_MakeIsotropicVoxel {
 		calibration[2] = (float) cal.pixelDepth;
 		
 		
-		return makeIsotropic(clij2, input_image, calibration, finalVoxelSize);
+		return makeIsotropic(engine, input_image, calibration, finalVoxelSize);
 		
 	}
 	
-	public ClearCLBuffer makeIsotropic(CLIJ2 clij2, ClearCLBuffer input_image, float[] calibration, float finalVoxelSize) {
+	public EngineImage makeIsotropic(ComputeEngine engine, EngineImage input_image, float[] calibration, float finalVoxelSize) {
 		
-		ClearCLBuffer output_image = createOutputBufferFromSource(input_image, finalVoxelSize);
-		clij2.makeIsotropic(input_image, output_image, calibration[0], calibration[1], calibration[2], finalVoxelSize);
+		EngineImage output_image = createOutputBufferFromSource(input_image, finalVoxelSize);
+		engine.makeIsotropic(input_image, output_image, calibration[0], calibration[1], calibration[2], finalVoxelSize);
 		
 		input_image.close();
 		
@@ -51,16 +52,16 @@ public class BV_MakeIsotropicVoxel {
 	
 	
 	
-	public ClearCLBuffer createOutputBufferFromSource(ClearCLBuffer input, float finalVoxelSize) {
+	public EngineImage createOutputBufferFromSource(EngineImage input, float finalVoxelSize) {
 
         float scale1X = (float) (calibration[0] / finalVoxelSize);
         float scale1Y = (float) (calibration[1] / finalVoxelSize);
         float scale1Z = (float) (calibration[2] / finalVoxelSize);
 
-        return clij2.create(
+        return engine.create(new long[] {
                 (long) (input.getWidth() * scale1X),
                 (long) (input.getHeight() * scale1Y),
-                (long) (input.getDepth() * scale1Z));
+                (long) (input.getDepth() * scale1Z) });
 	}
 	
 }
@@ -1,22 +1,15 @@
 package de.biovoxxel.bv3dbox.plugins;
 
-import org.scijava.log.LogLevel;
-import org.scijava.log.LogService;
-import org.scijava.log.StderrLogService;
-import org.scijava.prefs.DefaultPrefService;
-import org.scijava.prefs.PrefService;
-
-import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxLogger;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.WindowManager;
 import ij.gui.Plot;
-import ij.measure.ResultsTable;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels;
 
 /*
@@ -55,25 +48,32 @@ import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels;
 
 public class BV_NeighborAnalysis {
 
-	private LogService log = new StderrLogService();
-	private PrefService prefs = new DefaultPrefService();
+	private BV3DBoxLogger log = new BV3DBoxLogger();
 //	private Boolean displayDebugImages = prefs.getBoolean(BV3DBoxSettings.class, "bv_3d_box_settings_display_debug_images", false);
 	private Boolean displayDebugImages = false;
-	private CLIJ2 clij2;
-	private ClearCLBuffer connectedComponentLabels;
+	private ComputeEngine engine;
+	private EngineImage connectedComponentLabels;
 	
 	
 	
 	public BV_NeighborAnalysis(ImagePlus inputImage) {
 		
-		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
+		this(ComputeEngineFactory.getEngine(), inputImage);
+	}
+	
+	/**
+	 * 
+	 * @param engine		used instead of the engine selected in the settings
+	 * @param inputImage
+	 */
+	public BV_NeighborAnalysis(ComputeEngine engine, ImagePlus inputImage) {
 		
-		this.clij2 = CLIJ2.getInstance();
+		this.engine = engine;
 		setupImage(inputImage);
 	}
 
-	public CLIJ2 getCurrentCLIJ2Instance() {
-		return clij2;
+	public ComputeEngine getComputeEngine() {
+		return engine;
 	}
 	
 	
@@ -81,31 +81,28 @@ public class BV_NeighborAnalysis {
 		
 		if (inputImage.getProcessor().isBinary()) {
 			
-			ClearCLBuffer temp_input_image = clij2.push(inputImage);
-			connectedComponentLabels = clij2.create(temp_input_image.getDimensions(), NativeTypeEnum.Float);
-			clij2.connectedComponentsLabelingDiamond(temp_input_image, connectedComponentLabels);
-			temp_input_image.close();
+			connectedComponentLabels = BV3DBoxUtilities.labelBinaryImage(engine, inputImage, true);
 			
 		} else {
 			
-			connectedComponentLabels = clij2.push(inputImage);
+			connectedComponentLabels = engine.push(inputImage);
 			
 		}
 		connectedComponentLabels.setName(inputImage.getTitle());
 	}
 
 	
-	public ClearCLBuffer getConnectedComponentInput() {
+	public EngineImage getConnectedComponentInput() {
 		return connectedComponentLabels;
 	}
 	
 	/**
 	 * 
-	 * @param input_image - connected component labels image as ClearCLBuffer expected
+	 * @param input_image - connected component labels image as EngineImage expected
 	 * @param method - NeighborMethods enum type expected
-	 * @return ClearCLBuffer
+	 * @return EngineImage
 	 */
-	public ClearCLBuffer getNeighborCountMap(ClearCLBuffer input_image, String method, String sizeRange, String distanceRange, Boolean excludeFinalEdgeObjects) {
+	public EngineImage getNeighborCountMap(EngineImage input_image, String method, String sizeRange, String distanceRange, Boolean excludeFinalEdgeObjects) {
 		
 		log.debug("input_image = " + input_image);
 		log.debug("method = " + method);
@@ -116,50 +113,50 @@ public class BV_NeighborAnalysis {
 			
 			log.debug("Running size exclusion with range = " + sizeRange);
 			
-			ClearCLBuffer size_limited_label_image = clij2.create(input_image.getDimensions(), NativeTypeEnum.Float);
+			EngineImage size_limited_label_image = engine.create(input_image.getDimensions());
 			
-			clij2.copy(input_image, size_limited_label_image);
+			engine.copy(input_image, size_limited_label_image);
 			
 			double minSize = (double) BV3DBoxUtilities.getMinFromRange(sizeRange);
 			log.debug("minSize = " + minSize);
 			double maxSize = (double) BV3DBoxUtilities.getMaxFromRange(sizeRange);
 			log.debug("maxSize = " + maxSize);
 			
-			clij2.excludeLabelsOutsideSizeRange(size_limited_label_image, input_image, minSize, maxSize);
+			engine.excludeLabelsOutsideSizeRange(size_limited_label_image, input_image, minSize, maxSize);
 			
-			if(displayDebugImages) { BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, input_image, true, LutNames.GLASBEY_LUT, null); }
+			if(displayDebugImages) { BV3DBoxUtilities.pullImageFromEngine(engine, input_image, true, LutNames.GLASBEY_LUT).show(); }
 			
 			size_limited_label_image.close();
 		} 
 		
 		
-		ClearCLBuffer voronoi_image = clij2.create(input_image.getDimensions(), NativeTypeEnum.Float);	
-		ClearCLBuffer neighbor_count_map = clij2.create(voronoi_image);
+		EngineImage voronoi_image = engine.create(input_image.getDimensions());	
+		EngineImage neighbor_count_map = engine.create(voronoi_image);
 		neighbor_count_map.setName("NCM_" + input_image.getName());
 		
-		clij2.extendLabelingViaVoronoi(input_image, voronoi_image);
+		engine.extendLabelingViaVoronoi(input_image, voronoi_image);
 		
-		if (displayDebugImages) { BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, voronoi_image, false, LutNames.GLASBEY_LUT, null); }
+		if (displayDebugImages) { BV3DBoxUtilities.pullImageFromEngine(engine, voronoi_image, false, LutNames.GLASBEY_LUT).show(); }
 		
 		if (method.equals(NeighborMethods.OBJECTS.method)) {
 								
-			ClearCLBuffer touching_voronoi_neighbor_map = clij2.create(voronoi_image);
-			clij2.touchingNeighborCountMap(voronoi_image, touching_voronoi_neighbor_map);
+			EngineImage touching_voronoi_neighbor_map = engine.create(voronoi_image);
+			engine.touchingNeighborCountMap(voronoi_image, touching_voronoi_neighbor_map);
 			
 			if (excludeFinalEdgeObjects) {
 				
-				ClearCLBuffer no_edge_voronoi_image = clij2.create(voronoi_image);
-				clij2.excludeLabelsOnEdges(voronoi_image, no_edge_voronoi_image);
+				EngineImage no_edge_voronoi_image = engine.create(voronoi_image);
+				engine.excludeLabelsOnEdges(voronoi_image, no_edge_voronoi_image);
 				
-				ClearCLBuffer no_edge_voronoi_neighbor_map = clij2.create(voronoi_image);
-				clij2.mask(touching_voronoi_neighbor_map, no_edge_voronoi_image, no_edge_voronoi_neighbor_map);
+				EngineImage no_edge_voronoi_neighbor_map = engine.create(voronoi_image);
+				engine.mask(touching_voronoi_neighbor_map, no_edge_voronoi_image, no_edge_voronoi_neighbor_map);
 				no_edge_voronoi_image.close();
 				
-				clij2.mask(no_edge_voronoi_neighbor_map, input_image, neighbor_count_map);
+				engine.mask(no_edge_voronoi_neighbor_map, input_image, neighbor_count_map);
 				
 			} else {
 				
-				clij2.mask(touching_voronoi_neighbor_map, input_image, neighbor_count_map);
+				engine.mask(touching_voronoi_neighbor_map, input_image, neighbor_count_map);
 				
 			}
 			
@@ -170,21 +167,21 @@ public class BV_NeighborAnalysis {
 			float minDistance = BV3DBoxUtilities.getMinFromRange(distanceRange);
 			float maxDistance = BV3DBoxUtilities.getMaxFromRange(distanceRange);
 			
-			ClearCLBuffer proximal_neighbor_map = clij2.create(voronoi_image);
-			clij2.proximalNeighborCountMap(input_image, proximal_neighbor_map, minDistance, maxDistance);
+			EngineImage proximal_neighbor_map = engine.create(voronoi_image);
+			engine.proximalNeighborCountMap(input_image, proximal_neighbor_map, minDistance, maxDistance);
 			
 			if (excludeFinalEdgeObjects) {
 				
-				ClearCLBuffer no_edge_voronoi = clij2.create(voronoi_image);
-				clij2.excludeLabelsOnEdges(voronoi_image, no_edge_voronoi);
-				clij2.mask(proximal_neighbor_map, no_edge_voronoi, neighbor_count_map);
+				EngineImage no_edge_voronoi = engine.create(voronoi_image);
+				engine.excludeLabelsOnEdges(voronoi_image, no_edge_voronoi);
+				engine.mask(proximal_neighbor_map, no_edge_voronoi, neighbor_count_map);
 				
 				
 				no_edge_voronoi.close();
 				
 			} else {
 				
-				clij2.copy(proximal_neighbor_map, neighbor_count_map);
+				engine.copy(proximal_neighbor_map, neighbor_count_map);
 				
 			}
 			
@@ -214,16 +211,13 @@ public class BV_NeighborAnalysis {
 	}
 	
 	
-	public double[] getNeighborCounts(ClearCLBuffer neighbor_count_map) {
+	public double[] getNeighborCounts(EngineImage neighbor_count_map) {
 		
-		ResultsTable table = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(neighbor_count_map, connectedComponentLabels, table);
-		
-		return table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.value);
+		return engine.statisticsOfLabelledPixels(neighbor_count_map, connectedComponentLabels).getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.value);
 
 	}
 	
-	public Plot getNeighborPlotFromCountMap(ClearCLBuffer neighbor_count_map) {
+	public Plot getNeighborPlotFromCountMap(EngineImage neighbor_count_map) {
 		
 		return getNeighborPlotFromHistogram(getNeighborCounts(neighbor_count_map));
 	
@@ -240,17 +234,20 @@ public class BV_NeighborAnalysis {
 	}
 	
 	
-	public Plot getNeighborDistribution(ClearCLBuffer neighbor_count_map) {
+	public Plot getNeighborDistribution(EngineImage neighbor_count_map) {
 		
-		int maxNeighborCount = (int) clij2.getMaximumOfAllPixels(neighbor_count_map);
+		int maxNeighborCount = (int) engine.maximumOfAllPixels(neighbor_count_map);
 		log.debug("maxNeighborCount = " + maxNeighborCount);
 		double[] distribution = new double[maxNeighborCount + 1];
 		
 		double[] neighborCounts = getNeighborCounts(neighbor_count_map);
 		log.debug("neighborCounts.length = " + neighborCounts.length);
 		
+		final boolean debug = log.isDebug();
 		for (int n = 0; n < neighborCounts.length; n++) {
-			log.debug("neighbor " + (n+1) + " ---> neighbor count = " + (int)neighborCounts[n]);
+			if (debug) {
+				log.debug("neighbor " + (n+1) + " ---> neighbor count = " + (int)neighborCounts[n]);
+			}
 			distribution[(int)neighborCounts[n]] += 1;
 		}
 		
@@ -286,9 +283,9 @@ public class BV_NeighborAnalysis {
 		
 		BV_NeighborAnalysis neighborAnalysis = new BV_NeighborAnalysis(inputImagePlus);
 		
-		ClearCLBuffer neighbor_image = neighborAnalysis.getNeighborCountMap(neighborAnalysis.getConnectedComponentInput(), "objects", "200-infinity", "1-infinity", false);
+		EngineImage neighbor_image = neighborAnalysis.getNeighborCountMap(neighborAnalysis.getConnectedComponentInput(), "objects", "200-infinity", "1-infinity", false);
 		
-		ImagePlus neighborCountMapImp = BV3DBoxUtilities.pullImageFromGPU(neighborAnalysis.getCurrentCLIJ2Instance(), neighbor_image, false, LutNames.GEEN_FIRE_BLUE_LUT);
+		ImagePlus neighborCountMapImp = BV3DBoxUtilities.pullImageFromEngine(neighborAnalysis.getComputeEngine(), neighbor_image, false, LutNames.GEEN_FIRE_BLUE_LUT);
 		neighborCountMapImp.setTitle(WindowManager.getUniqueName("NeighborCount_" + inputImagePlus.getTitle()));
 		neighborCountMapImp.setCalibration(inputImagePlus.getCalibration());
 		neighborCountMapImp.show();
@@ -1,31 +1,34 @@
 package de.biovoxxel.bv3dbox.plugins;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.swing.JOptionPane;
 
 import org.scijava.Cancelable;
-import org.scijava.log.LogLevel;
-import org.scijava.log.LogService;
-import org.scijava.log.StderrLogService;
-import org.scijava.prefs.DefaultPrefService;
-import org.scijava.prefs.PrefService;
 
-import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
+import de.biovoxxel.bv3dbox.engine.HostImage;
+import de.biovoxxel.bv3dbox.engine.LabelDistances;
+import de.biovoxxel.bv3dbox.engine.LabelFilter;
+import de.biovoxxel.bv3dbox.engine.LabelOverlap;
+import de.biovoxxel.bv3dbox.engine.LabelStatistics;
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxLogger;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResults;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.WindowManager;
-import ij.macro.Variable;
 import ij.measure.Calibration;
 import ij.measure.ResultsTable;
 import ij.process.ImageProcessor;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels;
-import net.haesleinhuepf.clijx.CLIJx;
-import net.haesleinhuepf.clijx.morpholibj.MorphoLibJDistanceToLabelBorderMap;
 
 /*
  * BSD 3-Clause License
@@ -69,14 +72,12 @@ import net.haesleinhuepf.clijx.morpholibj.MorphoLibJDistanceToLabelBorderMap;
 public class BV_ObjectInspector implements Cancelable {
 	
 	
-	PrefService prefs = new DefaultPrefService();
-
-	LogService log = new StderrLogService();
+	BV3DBoxLogger log = new BV3DBoxLogger();
 
 	private ImagePlus primary_ImagePlus;
 	private ImagePlus secondary_ImagePlus;
-	private String original_1_title;
-	private String original_2_title;
+	private ImagePlus original_1_ImagePlus = null;
+	private ImagePlus original_2_ImagePlus = null;
 	private String primary_volume_range = "0-Infinity";
 	private String primary_MMER_range = "0.00-1.00";
 	private String secondary_volume_range = "0-Infinity";
@@ -87,19 +88,27 @@ public class BV_ObjectInspector implements Cancelable {
 	private Boolean display_analyzed_label_maps = false;
 	private Boolean show_count_map = false;
 	
-	CLIJ2 clij2;
-	CLIJx clijx;
+	ComputeEngine engine;
 	
-	ClearCLBuffer labels_1_gpu = null;
-	ClearCLBuffer labels_2_gpu = null;
-	ClearCLBuffer original_1_gpu = null;
-	ClearCLBuffer original_2_gpu = null;
+	EngineImage labels_1_gpu = null;
+	EngineImage labels_2_gpu = null;
 	
 	String PRIMARY_RESULTS_TABLE_NAME = "Primary_Results";
 	String SECONDARY_RESULTS_TABLE_NAME = "Secondary_Results";
 	
-	ResultsTable final_primary_results_table = new ResultsTable();
-	ResultsTable final_secondary_results_table = new ResultsTable();
+	ColumnarResults final_primary_results_table = new ColumnarResults();
+	ColumnarResults final_secondary_results_table = new ColumnarResults();
+	
+	private ImagePlus count_map_ImagePlus = null;
+	private ImagePlus final_labels_1_ImagePlus = null;
+	private ImagePlus final_labels_2_ImagePlus = null;
+	private List<ImagePlus> debugImages = new ArrayList<ImagePlus>();
+	
+	//label and distance maps on the host per label buffer, reused by the exclusion and the measurements
+	private Map<EngineImage, LabelDistances> label_distance_cache = new IdentityHashMap<EngineImage, LabelDistances>();
+	private double[] voxel_spacing = { 1.0, 1.0, 1.0 };
+	
+	private String cancelReason = null;
 	
 	String GLASBEY_LUT = "glasbey_on_dark";
 	String GEEN_FIRE_BLUE_LUT = "Green Fire Blue";
@@ -116,15 +125,36 @@ public class BV_ObjectInspector implements Cancelable {
 		this.secondary_ImagePlus = secondary_ImagePlus;
 	}
 	
+	/**
+	 * 
+	 * @param engine				used instead of the engine selected in the settings
+	 * @param primary_ImagePlus
+	 * @param secondary_ImagePlus
+	 */
+	public BV_ObjectInspector(ComputeEngine engine, ImagePlus primary_ImagePlus, ImagePlus secondary_ImagePlus) {
+		this(primary_ImagePlus, secondary_ImagePlus);
+		this.engine = engine;
+	}
+	
 	/**
 	 * Original images (one or both, can also be the same) need to be set if the analysis should also read out pixel intensity-based data. 
 	 *  
-	 * @param original_1_title
-	 * @param original_2_title
+	 * @param original_1_title	title of an open image
+	 * @param original_2_title	title of an open image
 	 */
 	public void setOriginalImages(String original_1_title, String original_2_title) {
-		this.original_1_title = original_1_title;
-		this.original_2_title = original_2_title;
+		setOriginalImages(WindowManager.getImage(original_1_title), WindowManager.getImage(original_2_title));
+	}
+	
+	/**
+	 * Original images (one or both, can also be the same) need to be set if the analysis should also read out pixel intensity-based data. 
+	 *  
+	 * @param original_1_ImagePlus	null if not available
+	 * @param original_2_ImagePlus	null if not available
+	 */
+	public void setOriginalImages(ImagePlus original_1_ImagePlus, ImagePlus original_2_ImagePlus) {
+		this.original_1_ImagePlus = original_1_ImagePlus;
+		this.original_2_ImagePlus = original_2_ImagePlus;
 	}
 	
 	/**
@@ -193,8 +223,9 @@ public class BV_ObjectInspector implements Cancelable {
 	}
 	
 	/**
-	 * Defines which output images will be displayed
+	 * Defines which output images will be created and displayed
 	 * 
+	 * @param display_results_tables
 	 * @param display_analyzed_label_maps
 	 * @param show_count_map
 	 */
@@ -205,23 +236,42 @@ public class BV_ObjectInspector implements Cancelable {
 	}
 	
 		
+	/**
+	 * Analyzes the images and displays the results according to the output flags
+	 */
 	public void inspect() {
 		
-		int logLevel = prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO);
+		analyze();
+		
+		if (isCanceled()) {
+			JOptionPane.showMessageDialog(null, cancelReason, "Object Inspector", JOptionPane.WARNING_MESSAGE);
+			return;
+		}
 		
-		log.setLevel(logLevel);
+		showResults();
+	}
+	
+	
+	/**
+	 * Analyzes the images without displaying anything. The results are available via
+	 * {@link #getPrimaryResults()} and {@link #getSecondaryResults()} and the output images
+	 * requested by the output flags via {@link #getCountMap()} and {@link #getAnalyzedLabelMaps()}.
+	 * If the input is not valid the analysis is canceled (see {@link #getCancelReason()}).
+	 */
+	public void analyze() {
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		log = new BV3DBoxLogger();
 		
-		clijx = CLIJx.getInstance();
-		clijx.clear();
+		if (engine == null) {
+			engine = ComputeEngineFactory.getEngine();
+		}
+		engine.clear();
 		
 		log.debug("------------------------------------------------------");
 		log.debug("labels_1_ImagePlus = " + primary_ImagePlus);
 		log.debug("labels_2_ImagePlus = " + secondary_ImagePlus);
-		log.debug("original_1_title = " + original_1_title);
-		log.debug("original_2_title = " + original_2_title);
+		log.debug("original_1_ImagePlus = " + original_1_ImagePlus);
+		log.debug("original_2_ImagePlus = " + original_2_ImagePlus);
 		log.debug("primary_volume_range = " + primary_volume_range);
 		log.debug("primary_MMDTCR_range = " + primary_MMER_range);
 		log.debug("secondary_volume_range = " + secondary_volume_range);
@@ -234,7 +284,14 @@ public class BV_ObjectInspector implements Cancelable {
 		log.debug("------------------------------------------------------");
 		
 		
-		clij2.clear();
+		engine.clear();
+		
+		cancelReason = null;
+		count_map_ImagePlus = null;
+		final_labels_1_ImagePlus = null;
+		final_labels_2_ImagePlus = null;
+		debugImages.clear();
+		clearLabelDistanceCache();
 
 		if (primary_ImagePlus == secondary_ImagePlus) {
 			cancel("Primary and secondary label image need to be different");
@@ -258,9 +315,6 @@ public class BV_ObjectInspector implements Cancelable {
 			cancel("Does not work on hyperstacks");
 		}
 		
-		ImagePlus original_1_ImagePlus = WindowManager.getImage(original_1_title);
-		ImagePlus original_2_ImagePlus = WindowManager.getImage(original_2_title);
-
 		if (original_1_ImagePlus != null) {
 			
 			if (original_1_ImagePlus.getNDimensions() > 3) {
@@ -293,6 +347,10 @@ public class BV_ObjectInspector implements Cancelable {
 			
 		}
 		
+		if (isCanceled()) {
+			return;
+		}
+		
 		
 		Calibration voxel_calibration = primary_ImagePlus.getCalibration();
 		String calibrated_units = voxel_calibration.getUnit();
@@ -305,6 +363,8 @@ public class BV_ObjectInspector implements Cancelable {
 		double voxel_depth = voxel_calibration.pixelDepth;
 		
 		double voxel_volume = voxel_width * voxel_height * voxel_depth;
+		//all distances use the same calibration as the volumes
+		voxel_spacing = BV3DBoxUtilities.getVoxelSpacing(voxel_calibration);
 		
 	
 		if (exclude_primary_objects_on_edges && pad_stack_tops) {
@@ -317,20 +377,17 @@ public class BV_ObjectInspector implements Cancelable {
 		if (primary_ImagePlus.getProcessor().isBinary()) {
 			
 			log.debug("Start convert " + primary_ImagePlus.getTitle() + " to connected components");
-			ClearCLBuffer binaryInput_1 = clij2.push(primary_ImagePlus);
-			labels_1_gpu = clij2.create(binaryInput_1.getDimensions(), NativeTypeEnum.Float);
-			clij2.connectedComponentsLabelingBox(binaryInput_1, labels_1_gpu);
-			binaryInput_1.close();
+			labels_1_gpu = BV3DBoxUtilities.labelBinaryImage(engine, primary_ImagePlus, false);
 			log.debug("End convert " + primary_ImagePlus.getTitle() + " to connected components");
 			
 		} else if (primary_ImagePlus.getBitDepth() != 24) {
 			
-			labels_1_gpu = clij2.push(primary_ImagePlus);
-			log.debug("Pushed to GPU = " + labels_1_gpu);
+			labels_1_gpu = engine.push(primary_ImagePlus);
+			log.debug("Pushed to " + engine.getName() + " = " + labels_1_gpu);
 			
 		} else {
 			
-			JOptionPane.showMessageDialog(null, "Wrong input image format\nNeeds to be of type gray-scale label mask or 8-bit binary", "Wrong image type", JOptionPane.WARNING_MESSAGE);
+			cancel("Wrong input image format\nNeeds to be of type gray-scale label mask or 8-bit binary");
 			return;
 			
 		}
@@ -342,20 +399,17 @@ public class BV_ObjectInspector implements Cancelable {
 		if (secondary_ImagePlus.getProcessor().isBinary()) {
 			
 			log.debug("Start convert " + secondary_ImagePlus.getTitle() + " to connected components");
-			ClearCLBuffer binaryInput_2 = clij2.push(secondary_ImagePlus);
-			labels_2_gpu = clij2.create(binaryInput_2.getDimensions(), NativeTypeEnum.Float);
-			clij2.connectedComponentsLabelingBox(binaryInput_2, labels_2_gpu);
-			binaryInput_2.close();
+			labels_2_gpu = BV3DBoxUtilities.labelBinaryImage(engine, secondary_ImagePlus, false);
 			log.debug("End convert " + secondary_ImagePlus.getTitle() + " to connected components");
 			
 		} else if (secondary_ImagePlus.getBitDepth() != 24) {
 			
-			labels_2_gpu = clij2.push(secondary_ImagePlus);
-			log.debug("Pushed to GPU = " + labels_2_gpu);
+			labels_2_gpu = engine.push(secondary_ImagePlus);
+			log.debug("Pushed to " + engine.getName() + " = " + labels_2_gpu);
 			
 		} else {
 			
-			JOptionPane.showMessageDialog(null, "Wrong input image format\nNeeds to be of type gray-scale label mask or 8-bit binary", "Wrong image type", JOptionPane.WARNING_MESSAGE);
+			cancel("Wrong input image format\nNeeds to be of type gray-scale label mask or 8-bit binary");
 			return;
 			
 		}
@@ -365,44 +419,27 @@ public class BV_ObjectInspector implements Cancelable {
 		
 		
 		
-		if (original_1_ImagePlus != null) {
-			original_1_gpu = clij2.push(original_1_ImagePlus);
-			original_1_gpu.setName("gpu_" + original_1_ImagePlus.getTitle());
-			
-			log.debug("Pushed to GPU = " + original_1_ImagePlus);
-		}
-	
-		
-		
-		if (original_2_ImagePlus != null) {
-			original_2_gpu = clij2.push(original_2_ImagePlus);
-			original_2_gpu.setName("gpu_" + original_2_ImagePlus.getTitle());
-			
-			log.debug("Pushed to GPU = " + original_2_ImagePlus);
-		}
-		
-		
 		if (exclude_primary_objects_on_edges) {
 						
-			ClearCLBuffer temp_input_to_exclude_edge_objects = clij2.create(labels_1_gpu);
-			clij2.copy(labels_1_gpu, temp_input_to_exclude_edge_objects);
+			EngineImage temp_input_to_exclude_edge_objects = engine.create(labels_1_gpu);
+			engine.copy(labels_1_gpu, temp_input_to_exclude_edge_objects);
 			
 			if (pad_stack_tops) {
-				ClearCLBuffer temp_output_to_exclude_edge_objects = clij2.create(labels_1_gpu);
+				EngineImage temp_output_to_exclude_edge_objects = engine.create(labels_1_gpu);
 				labels_1_gpu.close();
 				
 				long width = temp_input_to_exclude_edge_objects.getWidth();
 				long height = temp_input_to_exclude_edge_objects.getHeight();
 				long depth = temp_input_to_exclude_edge_objects.getDepth() - 2;
 				
-				clij2.excludeLabelsOnEdges(temp_input_to_exclude_edge_objects, temp_output_to_exclude_edge_objects);
+				engine.excludeLabelsOnEdges(temp_input_to_exclude_edge_objects, temp_output_to_exclude_edge_objects);
 				
-				labels_1_gpu = clij2.create(width, height, depth);
+				labels_1_gpu = engine.create(new long[] { width, height, depth });
 				removePaddedSlices(temp_output_to_exclude_edge_objects, labels_1_gpu);
 				temp_output_to_exclude_edge_objects.close();
 				
 			} else {
-				clij2.excludeLabelsOnEdges(temp_input_to_exclude_edge_objects, labels_1_gpu);
+				engine.excludeLabelsOnEdges(temp_input_to_exclude_edge_objects, labels_1_gpu);
 			}
 			
 			temp_input_to_exclude_edge_objects.close();
@@ -412,11 +449,11 @@ public class BV_ObjectInspector implements Cancelable {
 		
 		
 		//exclude primary labels according to input limiters
-		ClearCLBuffer finalLabels_1 = clij2.create(labels_1_gpu);
+		EngineImage finalLabels_1 = engine.create(labels_1_gpu);
 		finalLabels_1.setName("final_" + primary_ImagePlus.getTitle());
 		
 		
-		ResultsTable final_edge_analysis_table_1 = new ResultsTable();
+		ColumnarResults final_edge_analysis_table_1 = new ColumnarResults();
 		
 		//TODO: test if min_max- or mean_max
 		labelExclusion(labels_1_gpu, primary_volume_range, primary_MMER_range, final_edge_analysis_table_1, finalLabels_1);
@@ -426,14 +463,14 @@ public class BV_ObjectInspector implements Cancelable {
 		
 		
 		//Masking secondary labels with primary labels
-		ClearCLBuffer tempMaskedLabels_2 = clij2.create(labels_2_gpu);
-		log.debug("Secondary label number before masking = " + clij2.maximumOfAllPixels(labels_2_gpu));
+		EngineImage tempMaskedLabels_2 = engine.create(labels_2_gpu);
+		log.debug("Secondary label number before masking = " + engine.maximumOfAllPixels(labels_2_gpu));
 		
-		ClearCLBuffer maskedLabels_2 = clij2.create(labels_2_gpu);
+		EngineImage maskedLabels_2 = engine.create(labels_2_gpu);
 		maskedLabels_2.setName("masked_" + labels_2_gpu.getName());
 		
-		clij2.mask(labels_2_gpu, finalLabels_1, tempMaskedLabels_2);
-		clij2.closeIndexGapsInLabelMap(tempMaskedLabels_2, maskedLabels_2);
+		engine.mask(labels_2_gpu, finalLabels_1, tempMaskedLabels_2);
+		engine.closeIndexGaps(tempMaskedLabels_2, maskedLabels_2);
 		
 		tempMaskedLabels_2.close();
 		labels_2_gpu.close();
@@ -443,136 +480,102 @@ public class BV_ObjectInspector implements Cancelable {
 		
 		
 		//exclude secondary labels according to input limiters
-		ClearCLBuffer finalLabels_2 = clij2.create(maskedLabels_2);
+		EngineImage finalLabels_2 = engine.create(maskedLabels_2);
 		finalLabels_2.setName("final_" + secondary_ImagePlus.getTitle());
 		
-		ResultsTable final_edge_analysis_table_2 = new ResultsTable();
+		ColumnarResults final_edge_analysis_table_2 = new ColumnarResults();
 		
 		//TODO: test if min_max- or mean_max
 		labelExclusion(maskedLabels_2, secondary_volume_range, secondary_MMER_range, final_edge_analysis_table_2, finalLabels_2);
 
 		maskedLabels_2.close();
-				
-		//create overlap count mask		
-		ClearCLBuffer overlapCountMap = clij2.create(finalLabels_1);
-		overlapCountMap.setName("CountMap_" + primary_ImagePlus.getTitle());
-		boolean label_overlap_count_map_created = clij2.labelOverlapCountMap(finalLabels_1, finalLabels_2, overlapCountMap);
-		log.debug("LabelOverlapCountMap finished = " + label_overlap_count_map_created);
-				
-		ResultsTable primary_original_measurements_table = new ResultsTable();
 		
-						
-		if (original_1_gpu == null) {
-			
-			clij2.statisticsOfLabelledPixels(finalLabels_1, finalLabels_1, primary_original_measurements_table);
-	
+		
+		//overlap counts, area fractions and origins of all label pairs in one pass over both label maps
+		LabelDistances primary_distances = getLabelDistances(finalLabels_1);
+		HostImage primary_labels = primary_distances.getLabels();
+		HostImage secondary_labels = getLabelDistances(finalLabels_2).getLabels();
+		LabelOverlap label_overlap = LabelOverlap.measure(primary_labels, secondary_labels);
+		log.debug(() -> "Label overlap measured for " + label_overlap.getPairCount() + " label pairs");
+		
+		
+		//measure all primary channels in one pass over the primary labels
+		HostImage[] primary_channels;
+		if (original_1_ImagePlus == null) {
+			primary_channels = new HostImage[0];
 		} else {
-			
-			clij2.statisticsOfLabelledPixels(original_1_gpu, finalLabels_1, primary_original_measurements_table);
-
+			primary_channels = new HostImage[] { HostImage.fromImagePlus(original_1_ImagePlus, null) };
 		}
 		
-//		read primary identifier add to final table
-		Variable[] primary_label_identifier = primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.name());
-		final_primary_results_table.setColumn("PRIM_OBJ_ID", primary_label_identifier);
-		
+		LabelStatistics primary_statistics = LabelStatistics.measure(primary_labels, primary_channels, true, voxel_spacing);
+		log.debug("Primary label statistics measured for " + primary_statistics.getLabelCount() + " labels");
 		
-//		get secondary object count and display count map if desired
-		ResultsTable overlapCountTable = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(overlapCountMap, finalLabels_1, overlapCountTable);
-		Variable[] secondaryObjectCountArray = overlapCountTable.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name());
-//		secondaryObjectCountArray[0] = new Variable("Background");
-		final_primary_results_table.setColumn("SEC_OBJECT_COUNT", secondaryObjectCountArray);
+		double[] secondary_count = label_overlap.getSecondaryLabelCountPerPrimary();
 		
 		if (show_count_map) {
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, overlapCountMap, true, LutNames.GEEN_FIRE_BLUE_LUT, voxel_calibration);	//test output			
+			EngineImage overlapCountMap = engine.create(finalLabels_1);
+			overlapCountMap.setName("CountMap_" + primary_ImagePlus.getTitle());
+			engine.generateParametricImage(finalLabels_1, secondary_count, overlapCountMap);
+			count_map_ImagePlus = pullImage(overlapCountMap, true, LutNames.GEEN_FIRE_BLUE_LUT, voxel_calibration);
+			overlapCountMap.close();
 		}
-		overlapCountMap.close();
-				
-		//Calculate primary scaled volumes
-		double[] primary_volume_in_pixels = primary_original_measurements_table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.value);
 		
-		Variable[] primary_volume_in_units = new Variable[primary_volume_in_pixels.length];
+		
+		final_primary_results_table.setColumn("PRIM_OBJ_ID", primary_statistics.getIdentifier());
+		final_primary_results_table.setColumn("SEC_OBJECT_COUNT", secondary_count);
+		
+		//Calculate primary scaled volumes
+		double[] primary_volume_in_pixels = primary_statistics.getPixelCount();
+		double[] primary_volume_in_units = new double[primary_volume_in_pixels.length];
 		for (int cal = 0; cal < primary_volume_in_pixels.length; cal++) {
-			primary_volume_in_units[cal] = new Variable(primary_volume_in_pixels[cal] * voxel_volume);
+			primary_volume_in_units[cal] = primary_volume_in_pixels[cal] * voxel_volume;
 		}
 		final_primary_results_table.setColumn("VOLUME ("+calibrated_units+"^3)", primary_volume_in_units);
+		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name(), primary_volume_in_pixels);
 		
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name()));
-		
-		if (original_1_gpu != null) {
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name()));
-			
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name()));
-					
+		if (original_1_ImagePlus != null) {
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name(), primary_statistics.getMean(0));
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name(), primary_statistics.getMaximum(0));
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name(), primary_statistics.getMinimum(0));
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name(), primary_statistics.getStandardDeviation(0));
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name(), primary_statistics.getSum(0));
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name(), primary_statistics.getMassCenter(0, 0));
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name(), primary_statistics.getMassCenter(0, 1));
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name(), primary_statistics.getMassCenter(0, 2));
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name(), primary_statistics.getMaxDistanceToMassCenter());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name(), primary_statistics.getMeanDistanceToMassCenter());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name(), primary_statistics.getMaxMeanDistanceToMassCenterRatio());
 		} else {
 			//skip intensity based measurements if original input image not available
 		}
 		
-		//create binary secondary labels to calculate %area
-		ClearCLBuffer binary_finalLabels_2 = clij2.create(finalLabels_1);
-		clij2.binaryAnd(finalLabels_1, finalLabels_2, binary_finalLabels_2);
-		
-		ResultsTable area_fraction_table = new ResultsTable();
-		
-		clij2.statisticsOfLabelledPixels(binary_finalLabels_2, finalLabels_1, area_fraction_table);
-		
-		Variable[] sum_int = area_fraction_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name());
-		Variable[] pixel_count = area_fraction_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name());
-		
-		System.out.println("size=" + sum_int.length);
+		final_primary_results_table.setColumn("AREA_FRACTION_%", label_overlap.getOverlapPercent());
 		
-		Variable[] area_fraction = new Variable[sum_int.length];
-		for (int af = 0; af < sum_int.length; af++) {
-			
-			area_fraction[af] = new Variable( (100 / pixel_count[af].getValue()) * sum_int[af].getValue() );
-			
-		}
-		final_primary_results_table.setColumn("AREA_FRACTION_%", area_fraction);
-		binary_finalLabels_2.close();
-		area_fraction_table = null;
-		
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name()));
+		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name(), primary_statistics.getCentroid(0));
+		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name(), primary_statistics.getCentroid(1));
+		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name(), primary_statistics.getCentroid(2));
+		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name(), primary_statistics.getMaxDistanceToCentroid());
+		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name(), primary_statistics.getMeanDistanceToCentroid());
+		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name(), primary_statistics.getMaxMeanDistanceToCentroidRatio());
 		
 		//final_edge_analysis_table_1.show("final_edge_analysis_table_1");
-	
-		final_primary_results_table.setColumn("MIN_MAX_EXTENSION_RATIO", final_edge_analysis_table_1.getColumnAsVariables("MIN_MAX_EXTENSION_RATIO"));
-		final_primary_results_table.setColumn("MEAN_MAX_EXTENSION_RATIO", final_edge_analysis_table_1.getColumnAsVariables("MEAN_MAX_EXTENSION_RATIO"));
-		final_primary_results_table.setColumn("MIN_EXTENSION", final_edge_analysis_table_1.getColumnAsVariables("MIN_EXTENSION"));
-		final_primary_results_table.setColumn("MAX_EXTENSION", final_edge_analysis_table_1.getColumnAsVariables("MAX_EXTENSION"));
-		final_primary_results_table.setColumn("MEAN_EXTENSION", final_edge_analysis_table_1.getColumnAsVariables("MEAN_EXTENSION"));
-		final_primary_results_table.setColumn("STD_DEV_EXTENSION", final_edge_analysis_table_1.getColumnAsVariables("STD_DEV_EXTENSION"));
-		
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name()));
-		
-		
-		Variable[] primary_bounding_box_width = primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name());
-		Variable[] primary_bounding_box_height = primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name());
-		Variable[] primary_bounding_box_depth = primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name());
-		Variable[] primary_bounding_box_extent = new Variable[primary_bounding_box_width.length];
-		for (int e = 0; e < primary_bounding_box_extent.length; e++) {
-			primary_bounding_box_extent[e] = new Variable( (primary_volume_in_pixels[e] / (primary_bounding_box_width[e].getValue() * primary_bounding_box_height[e].getValue() * primary_bounding_box_depth[e].getValue())) );
+		final_primary_results_table.setColumn("MIN_MAX_EXTENSION_RATIO", final_edge_analysis_table_1.getColumn("MIN_MAX_EXTENSION_RATIO"));
+		final_primary_results_table.setColumn("MEAN_MAX_EXTENSION_RATIO", final_edge_analysis_table_1.getColumn("MEAN_MAX_EXTENSION_RATIO"));
+		final_primary_results_table.setColumn("MIN_EXTENSION", final_edge_analysis_table_1.getColumn("MIN_EXTENSION"));
+		final_primary_results_table.setColumn("MAX_EXTENSION", final_edge_analysis_table_1.getColumn("MAX_EXTENSION"));
+		final_primary_results_table.setColumn("MEAN_EXTENSION", final_edge_analysis_table_1.getColumn("MEAN_EXTENSION"));
+		final_primary_results_table.setColumn("STD_DEV_EXTENSION", final_edge_analysis_table_1.getColumn("STD_DEV_EXTENSION"));
+		
+		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name(), primary_statistics.getBoundingBoxSize(0));
+		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name(), primary_statistics.getBoundingBoxSize(1));
+		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name(), primary_statistics.getBoundingBoxSize(2));
+		final_primary_results_table.setColumn("BOUNDING_BOX_EXTENT", primary_statistics.getBoundingBoxExtent());
+		
+		for (HostImage channel : primary_channels) {
+			channel.close();
 		}
-		final_primary_results_table.setColumn("BOUNDING_BOX_EXTENT", primary_bounding_box_extent);
 		
-		primary_original_measurements_table = null;
-
+		
 //TODO: separate output for overall statistics 
 //		double primary_image_volume = (double) labels_1_gpu.getVolume();
 //		double total_pixel_count_of_all_primary_objects =  primary_image_volume - primary_volume_in_pixels[0]; //image volume - background volume
@@ -581,163 +584,192 @@ public class BV_ObjectInspector implements Cancelable {
 //		log.info("volume_fraction_of_primary_objects = " + volume_fraction_of_primary_objects);
 	
 		
-		//calculate secondary distances
-		ClearCLBuffer center_distance_map = clij2.create(finalLabels_1);
-		center_distance_map.setName("centroid_dist_" + finalLabels_1.getName());
-		clij2.euclideanDistanceFromLabelCentroidMap(finalLabels_1, center_distance_map);
+		//secondary distances to the centroid and border of the primary labels, measured together with the primary edge extensions
+		HostImage center_distance_map = primary_distances.getCentroidDistanceMap();
+		HostImage border_distance_map = primary_distances.getBorderDistanceMap();
 		
-		if (logLevel == LogLevel.DEBUG) {
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, center_distance_map, true, LutNames.GRAY, null);			
+		if (log.isDebug()) {
+			for (HostImage distance_map : new HostImage[] { center_distance_map, border_distance_map }) {
+				ImagePlus distance_ImagePlus = distance_map.toImagePlus();
+				distance_ImagePlus.resetDisplayRange();
+				debugImages.add(distance_ImagePlus);
+			}
 		}
-		
-		log.debug("EuclideanDistanceFromLabelCentroidMap created");
-		
-						
-		ClearCLBuffer border_distance_map = clij2.create(finalLabels_1);
-		border_distance_map.setName("border_dist_" + finalLabels_1.getName());
-		//clij2.distanceMap(finalLabels_1, border_distance_map);	//inaccurate distance map, removed 1.24.6
-		MorphoLibJDistanceToLabelBorderMap.morphoLibJRemoveLargestRegion(clij2, finalLabels_1, border_distance_map);
-		if (logLevel == LogLevel.DEBUG) {
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, border_distance_map, true, LutNames.GRAY, null);		
-		}
-		log.debug("MorphoLibJDistanceToLabelBorderMap created");
 
 		
-		double max_primary_label_count = clij2.maximumOfAllPixels(finalLabels_1);
-		log.debug("max_primary_label_count = " + max_primary_label_count);
+		log.debug("max_primary_label_count = " + primary_statistics.getLabelCount());
 		
-		ResultsTable secondary_original_measurements_table = new ResultsTable();
-		ResultsTable center_distance_table = new ResultsTable();
-		ResultsTable border_distance_table = new ResultsTable();
 		
-		ResultsTable primary_label_origin_of_secondary_label_table = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(finalLabels_1, finalLabels_2, primary_label_origin_of_secondary_label_table);
-					
-		if (original_2_gpu == null) {
-			
-			clij2.statisticsOfLabelledPixels(finalLabels_2, finalLabels_2, secondary_original_measurements_table);
-			
+		//measure all secondary channels in one pass over the secondary labels
+		HostImage[] secondary_channels;
+		if (original_2_ImagePlus == null) {
+			secondary_channels = new HostImage[] { center_distance_map, border_distance_map };
 		} else {
-			
-			clij2.statisticsOfLabelledPixels(original_2_gpu, finalLabels_2, secondary_original_measurements_table);
-			
+			secondary_channels = new HostImage[] { HostImage.fromImagePlus(original_2_ImagePlus, null), center_distance_map, border_distance_map };
 		}
-		clij2.statisticsOfLabelledPixels(center_distance_map, finalLabels_2, center_distance_table);
-		center_distance_map.close();
-		clij2.statisticsOfLabelledPixels(border_distance_map, finalLabels_2, border_distance_table);
-		border_distance_map.close();
+		int center_distance_channel = secondary_channels.length - 2;
+		int border_distance_channel = secondary_channels.length - 1;
+		
+		LabelStatistics secondary_statistics = LabelStatistics.measure(secondary_labels, secondary_channels, true, voxel_spacing);
+		log.debug("Secondary label statistics measured for " + secondary_statistics.getLabelCount() + " labels");
 		
 		
 		if (display_analyzed_label_maps) {
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, finalLabels_1, true, LutNames.GLASBEY_LUT, voxel_calibration);
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, finalLabels_2, true, LutNames.GLASBEY_LUT, voxel_calibration);
+			final_labels_1_ImagePlus = pullImage(finalLabels_1, true, LutNames.GLASBEY_LUT, voxel_calibration);
+			final_labels_2_ImagePlus = pullImage(finalLabels_2, true, LutNames.GLASBEY_LUT, voxel_calibration);
 		}
 		finalLabels_1.close();
 		finalLabels_2.close();
 		
 		
-		if (primary_label_origin_of_secondary_label_table.size() > 0) {
-			
-			Variable[] primary_label_origin_of_secondary_label = primary_label_origin_of_secondary_label_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name());
-			//primary_label_origin_of_secondary_label[0] = new Variable("Background");
-			final_secondary_results_table.setColumn("PRIMARY_LABEL", primary_label_origin_of_secondary_label);
-			primary_label_origin_of_secondary_label_table = null;
-		}
-		
-		if (secondary_original_measurements_table.size() > 0) {
+		if (secondary_statistics.getLabelCount() > 0) {
 			
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.name()));
+			final_secondary_results_table.setColumn("PRIMARY_LABEL", label_overlap.getPrimaryOrigin());
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.name(), secondary_statistics.getIdentifier());
 			
-			//Calculate primary scaled volumes
-			double[] secondary_volume_in_pixels = secondary_original_measurements_table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.value);
-			Variable[] secondary_volume_in_units = new Variable[secondary_volume_in_pixels.length];
+			//Calculate secondary scaled volumes
+			double[] secondary_volume_in_pixels = secondary_statistics.getPixelCount();
+			double[] secondary_volume_in_units = new double[secondary_volume_in_pixels.length];
 			for (int cal2 = 0; cal2 < secondary_volume_in_pixels.length; cal2++) {
-				secondary_volume_in_units[cal2] = new Variable(secondary_volume_in_pixels[cal2] * voxel_volume);
+				secondary_volume_in_units[cal2] = secondary_volume_in_pixels[cal2] * voxel_volume;
 			}
 			final_secondary_results_table.setColumn("VOLUME ("+calibrated_units+"^3)", secondary_volume_in_units);
-			
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name()));
-			
-			if (original_2_gpu != null) {
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name()));
-				
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name()));
-				
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name(), secondary_volume_in_pixels);
+			
+			if (original_2_ImagePlus != null) {
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name(), secondary_statistics.getMean(0));
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name(), secondary_statistics.getMaximum(0));
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name(), secondary_statistics.getMinimum(0));
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name(), secondary_statistics.getStandardDeviation(0));
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name(), secondary_statistics.getSum(0));
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name(), secondary_statistics.getMassCenter(0, 0));
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name(), secondary_statistics.getMassCenter(0, 1));
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name(), secondary_statistics.getMassCenter(0, 2));
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name(), secondary_statistics.getMaxDistanceToMassCenter());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name(), secondary_statistics.getMeanDistanceToMassCenter());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name(), secondary_statistics.getMaxMeanDistanceToMassCenterRatio());
 			} else {
 				//skip intensity based measurements if original input image not available
 			}
 			
 			//final_edge_analysis_table_2.show("final_edge_analysis_table_2");
-			
-			final_secondary_results_table.setColumn("MIN_MAX_EXTENSION_RATIO", final_edge_analysis_table_2.getColumnAsVariables("MIN_MAX_EXTENSION_RATIO"));
-			final_secondary_results_table.setColumn("MEAN_MAX_EXTENSION_RATIO", final_edge_analysis_table_2.getColumnAsVariables("MEAN_MAX_EXTENSION_RATIO"));
-			final_secondary_results_table.setColumn("MIN_EXTENSION", final_edge_analysis_table_2.getColumnAsVariables("MIN_EXTENSION"));
-			final_secondary_results_table.setColumn("MAX_EXTENSION", final_edge_analysis_table_2.getColumnAsVariables("MAX_EXTENSION"));
-			final_secondary_results_table.setColumn("MEAN_EXTENSION", final_edge_analysis_table_2.getColumnAsVariables("MEAN_EXTENSION"));
-			final_secondary_results_table.setColumn("STD_DEV_EXTENSION", final_edge_analysis_table_2.getColumnAsVariables("STD_DEV_EXTENSION"));
-			
-			
-			final_secondary_results_table.setColumn("AVER_CENTER_DIST", center_distance_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name()));
-			final_secondary_results_table.setColumn("SHORT_CENTER_DIST", center_distance_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name()));
-			final_secondary_results_table.setColumn("LONG_CENTER_DIST", center_distance_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name()));
-			
-			final_secondary_results_table.setColumn("AVER_BORDER_DIST", border_distance_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name()));
-			final_secondary_results_table.setColumn("SHORT_BORDER_DIST", border_distance_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name()));
-			final_secondary_results_table.setColumn("LONG_BORDER_DIST", border_distance_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name()));
-			
-			center_distance_table = null;
-			border_distance_table = null;
-			
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name()));
-			
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name()));
-			
-			
-			Variable[] secondary_bounding_box_width = secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name());
-			Variable[] secondary_bounding_box_height = secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name());
-			Variable[] secondary_bounding_box_depth = secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name());
-			Variable[] secondary_bounding_box_extent = new Variable[secondary_bounding_box_width.length];
-			for (int e = 0; e < secondary_bounding_box_extent.length; e++) {
-				secondary_bounding_box_extent[e] = new Variable( (secondary_volume_in_pixels[e] / (secondary_bounding_box_width[e].getValue() * secondary_bounding_box_height[e].getValue() * secondary_bounding_box_depth[e].getValue())) );
-			}
-			final_secondary_results_table.setColumn("BOUNDING_BOX_EXTENT", secondary_bounding_box_extent);
+			final_secondary_results_table.setColumn("MIN_MAX_EXTENSION_RATIO", final_edge_analysis_table_2.getColumn("MIN_MAX_EXTENSION_RATIO"));
+			final_secondary_results_table.setColumn("MEAN_MAX_EXTENSION_RATIO", final_edge_analysis_table_2.getColumn("MEAN_MAX_EXTENSION_RATIO"));
+			final_secondary_results_table.setColumn("MIN_EXTENSION", final_edge_analysis_table_2.getColumn("MIN_EXTENSION"));
+			final_secondary_results_table.setColumn("MAX_EXTENSION", final_edge_analysis_table_2.getColumn("MAX_EXTENSION"));
+			final_secondary_results_table.setColumn("MEAN_EXTENSION", final_edge_analysis_table_2.getColumn("MEAN_EXTENSION"));
+			final_secondary_results_table.setColumn("STD_DEV_EXTENSION", final_edge_analysis_table_2.getColumn("STD_DEV_EXTENSION"));
+			
+			final_secondary_results_table.setColumn("AVER_CENTER_DIST", secondary_statistics.getMean(center_distance_channel));
+			final_secondary_results_table.setColumn("SHORT_CENTER_DIST", secondary_statistics.getMinimum(center_distance_channel));
+			final_secondary_results_table.setColumn("LONG_CENTER_DIST", secondary_statistics.getMaximum(center_distance_channel));
+			final_secondary_results_table.setColumn("AVER_BORDER_DIST", secondary_statistics.getMean(border_distance_channel));
+			final_secondary_results_table.setColumn("SHORT_BORDER_DIST", secondary_statistics.getMinimum(border_distance_channel));
+			final_secondary_results_table.setColumn("LONG_BORDER_DIST", secondary_statistics.getMaximum(border_distance_channel));
+			
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name(), secondary_statistics.getCentroid(0));
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name(), secondary_statistics.getCentroid(1));
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name(), secondary_statistics.getCentroid(2));
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name(), secondary_statistics.getMaxDistanceToCentroid());
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name(), secondary_statistics.getMeanDistanceToCentroid());
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name(), secondary_statistics.getMaxMeanDistanceToCentroidRatio());
+			
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name(), secondary_statistics.getBoundingBoxSize(0));
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name(), secondary_statistics.getBoundingBoxSize(1));
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name(), secondary_statistics.getBoundingBoxSize(2));
+			final_secondary_results_table.setColumn("BOUNDING_BOX_EXTENT", secondary_statistics.getBoundingBoxExtent());
 			
 			final_secondary_results_table.sort("PRIMARY_LABEL");
-			
-			secondary_original_measurements_table = null;
-			
+		}
+		
+		secondary_statistics = null;
+		if (original_2_ImagePlus != null) {
+			secondary_channels[0].close();
+		}
+		clearLabelDistanceCache();
+		
+		engine.clear();
+	}
+	
+	
+	/**
+	 * Displays the results of {@link #analyze()} according to the output flags
+	 */
+	public void showResults() {
+		
+		for (ImagePlus debugImage : debugImages) {
+			debugImage.show();
+		}
+		
+		if (count_map_ImagePlus != null) {
+			count_map_ImagePlus.show();
+		}
+		
+		if (final_labels_1_ImagePlus != null) {
+			final_labels_1_ImagePlus.show();
+			final_labels_2_ImagePlus.show();
 		}
 		
 		if (display_results_tables) {
 			final_primary_results_table.show(PRIMARY_RESULTS_TABLE_NAME);	
 			final_secondary_results_table.show(SECONDARY_RESULTS_TABLE_NAME);			
 		}
+	}
+	
+	
+	private ImagePlus pullImage(EngineImage buffer, boolean autoContrast, LutNames lutName, Calibration calibration) {
 		
-		clij2.clear();
+		ImagePlus image = BV3DBoxUtilities.pullImageFromEngine(engine, buffer, autoContrast, lutName);
+		if (calibration != null) {
+			image.setCalibration(calibration);
+		}
+		return image;
+	}
+	
+	
+	/**
+	 * 
+	 * @return the overlap count map if requested via the output flags, otherwise null
+	 */
+	public ImagePlus getCountMap() {
+		return count_map_ImagePlus;
+	}
+	
+	
+	/**
+	 * 
+	 * @return the primary and secondary labels remaining after exclusion if requested via the output flags, otherwise null
+	 */
+	public ImagePlus[] getAnalyzedLabelMaps() {
+		return final_labels_1_ImagePlus == null ? null : new ImagePlus[] { final_labels_1_ImagePlus, final_labels_2_ImagePlus };
 	}
 	
 	
 	public ResultsTable getPrimaryTable() {
-		return final_primary_results_table;
+		return final_primary_results_table.toResultsTable();
 	}
 	
 	public ResultsTable getSecondaryTable() {
+		return final_secondary_results_table.toResultsTable();
+	}
+	
+	
+	/**
+	 * Primary results without conversion to a ResultsTable, e.g. for direct export.
+	 * 
+	 * @return
+	 */
+	public ColumnarResults getPrimaryResults() {
+		return final_primary_results_table;
+	}
+	
+	
+	/**
+	 * Secondary results without conversion to a ResultsTable, e.g. for direct export.
+	 * 
+	 * @return
+	 */
+	public ColumnarResults getSecondaryResults() {
 		return final_secondary_results_table;
 	}
 	
@@ -756,14 +788,13 @@ public class BV_ObjectInspector implements Cancelable {
 	}
 	
 	
-	public void removePaddedSlices(ClearCLBuffer input, ClearCLBuffer output) {
+	public void removePaddedSlices(EngineImage input, EngineImage output) {
 	
-		int depth = (int) input.getDepth();
-		clij2.subStack(input, output, 1, depth-1);
+		engine.crop(input, output, 0, 0, 1);
 	
 	}
 	
-	public void labelExclusion(ClearCLBuffer input, String volumeRange, String MMER_Range, ResultsTable final_edge_analysis_table, ClearCLBuffer output) throws NumberFormatException {
+	public void labelExclusion(EngineImage input, String volumeRange, String MMER_Range, ColumnarResults final_edge_analysis_table, EngineImage output) throws NumberFormatException {
 		
 		log.debug("Starting label exclusion for " + input.getName());
 		//get minimum volume limiter
@@ -783,122 +814,145 @@ public class BV_ObjectInspector implements Cancelable {
 		log.debug("Max MMDTCR = " + max_MMER);
 		
 			
-		ResultsTable inputStatisticsTable = new ResultsTable(); 
-		clij2.statisticsOfLabelledPixels(input, input, inputStatisticsTable);
-		//inputStatisticsTable.show("inputStatisticsTable_" + input.getName());	//test output
-		float[] volumeOfLabel = inputStatisticsTable.getColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.value);
-		if (volumeOfLabel != null) {
+		HostImage inputLabels = pullToHost(input);
+		LabelStatistics inputStatistics = LabelStatistics.measure(inputLabels, new HostImage[0], false);
+		LabelDistances inputDistances = LabelDistances.measure(inputLabels, inputStatistics, voxel_spacing);
+		double[] volumeOfLabel = inputStatistics.getPixelCount();
+		if (inputStatistics.getLabelCount() > 0) {
 			
 			log.debug("volumeOfLabel[] size = " + volumeOfLabel.length);
 			
-			int label_count = inputStatisticsTable.size();
+			int label_count = inputStatistics.getLabelCount();
 			log.debug("Object count = " + label_count);
 			
-			ResultsTable edge_analysis_table = getLabelEdgeAnalysisTable(input);
-			log.debug("Initial edge_analysis_table size = " + edge_analysis_table.size());
-			
-			float[] min_extension = edge_analysis_table.getColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.value);
-			float[] max_extension = edge_analysis_table.getColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.value);
-			float[] mean_extension = edge_analysis_table.getColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.value);
-			float[] std_extension = edge_analysis_table.getColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.value);
-			float[] min_max_extension_ratio = new float[min_extension.length];
-			float[] mean_max_extension_ratio = new float[min_extension.length];
-			
-			int[] label_exclusion_vector = new int[label_count + 1];
-			label_exclusion_vector[0] = 0;
-			int keptObjects = 0;
-			int excludedObjects = 0;
+			double[] min_extension = inputDistances.getMinimumEdgeExtension();
+			double[] max_extension = inputDistances.getMaximumEdgeExtension();
+			double[] mean_extension = inputDistances.getMeanEdgeExtension();
+			double[] std_extension = inputDistances.getEdgeExtensionStandardDeviation();
+			double[] min_max_extension_ratio = new double[min_extension.length];
+			double[] mean_max_extension_ratio = new double[min_extension.length];
 			
 			for (int object = 0; object < label_count; object++) {
 				min_max_extension_ratio[object] = (max_extension[object] == 0) ? 0 : min_extension[object] / max_extension[object];
-				log.debug("Object --> " + object + " Volume = " + volumeOfLabel[object] + "/ min-max-extension-ratio = " + min_max_extension_ratio[object]);
-				
 				mean_max_extension_ratio[object] = (max_extension[object] == 0) ? 0 : mean_extension[object] / max_extension[object];
-				log.debug("Object --> " + object + " --> mean-max-extension-ratio = " + mean_max_extension_ratio[object]);
-				
-				if (volumeOfLabel[object] >= minVolume && volumeOfLabel[object] <= maxVolume && mean_max_extension_ratio[object] >= min_MMER && mean_max_extension_ratio[object] <= max_MMER) {
-					
-					label_exclusion_vector[object + 1] = 0;	//keep label
-					keptObjects++;
-					final_edge_analysis_table.addRow();
-					final_edge_analysis_table.addValue("VOLUME_OF_LABEL", volumeOfLabel[object]);	//for test reasons
-					final_edge_analysis_table.addValue("MIN_MAX_EXTENSION_RATIO", min_max_extension_ratio[object]);
-					final_edge_analysis_table.addValue("MEAN_MAX_EXTENSION_RATIO", mean_max_extension_ratio[object]);
-					final_edge_analysis_table.addValue("MIN_EXTENSION", min_extension[object]);
-					final_edge_analysis_table.addValue("MAX_EXTENSION", max_extension[object]);
-					final_edge_analysis_table.addValue("MEAN_EXTENSION", mean_extension[object]);
-					final_edge_analysis_table.addValue("STD_DEV_EXTENSION", std_extension[object]);
-					
-				} else {
-					
-					label_exclusion_vector[object + 1] = 1;	//remove label
-					excludedObjects++;
-					
-				}
-				log.debug("label_exclusion_vector[0]["+object+"] = " + label_exclusion_vector[object + 1]);
-				
 			}
 			
-			log.debug("kept objects = " + keptObjects);
-			log.debug("excluded objects = " + excludedObjects);
-			log.debug("final edge_analysis_table size = " + edge_analysis_table.size());
+			LabelFilter labelFilter = new LabelFilter(label_count)
+					.keepInRange(volumeOfLabel, minVolume, maxVolume)
+					.keepInRange(mean_max_extension_ratio, min_MMER, max_MMER);
 			
-			ImagePlus exclusion_vector_ImagePlus = IJ.createImage("label_exclusion_vector " + input.getName(), label_count + 1, 1, 1, 8);
-			ImageProcessor exclusionVectorProcessor = exclusion_vector_ImagePlus.getProcessor();
+			int[] kept_object_index = labelFilter.getKeptIndices();
+			int keptObjects = kept_object_index.length;
+			int excludedObjects = label_count - keptObjects;
 			
-			for (int xPixel = 0; xPixel < label_exclusion_vector.length; xPixel++) {
-				exclusionVectorProcessor.putPixel(xPixel, 0, label_exclusion_vector[xPixel]);
+			if (log.isDebug()) {
+				float[] newLabels = labelFilter.getNewLabels();
+				for (int object = 0; object < label_count; object++) {
+					log.debug("Object --> " + object + " Volume = " + volumeOfLabel[object] + "/ min-max-extension-ratio = " + min_max_extension_ratio[object]);
+					log.debug("Object --> " + object + " --> mean-max-extension-ratio = " + mean_max_extension_ratio[object]);
+					log.debug("Object --> " + object + " --> new label = " + (int) newLabels[object + 1]);
+				}
 			}
 			
-			ClearCLBuffer exclusionVectorImage = clij2.push(exclusion_vector_ImagePlus);
+			final_edge_analysis_table.setColumn("VOLUME_OF_LABEL", selectRows(volumeOfLabel, kept_object_index, keptObjects));	//for test reasons
+			final_edge_analysis_table.setColumn("MIN_MAX_EXTENSION_RATIO", selectRows(min_max_extension_ratio, kept_object_index, keptObjects));
+			final_edge_analysis_table.setColumn("MEAN_MAX_EXTENSION_RATIO", selectRows(mean_max_extension_ratio, kept_object_index, keptObjects));
+			final_edge_analysis_table.setColumn("MIN_EXTENSION", selectRows(min_extension, kept_object_index, keptObjects));
+			final_edge_analysis_table.setColumn("MAX_EXTENSION", selectRows(max_extension, kept_object_index, keptObjects));
+			final_edge_analysis_table.setColumn("MEAN_EXTENSION", selectRows(mean_extension, kept_object_index, keptObjects));
+			final_edge_analysis_table.setColumn("STD_DEV_EXTENSION", selectRows(std_extension, kept_object_index, keptObjects));
+			
+			log.debug("kept objects = " + keptObjects);
+			log.debug("excluded objects = " + excludedObjects);
+			log.debug("final edge_analysis_table size = " + final_edge_analysis_table.size());
 			
-			clij2.excludeLabels(exclusionVectorImage, input, output);
+			labelFilter.apply(engine, input, output);
 			
-			//cleanup
-			exclusionVectorImage.close();
+			//the distances of the remaining labels do not change and are reused for the output
+			label_distance_cache.put(output, inputDistances.relabel(labelFilter));
+			inputDistances.close();
 			
 		} else {
 			
-			clij2.copy(input, output);
+			engine.copy(input, output);
+			label_distance_cache.put(output, inputDistances);
+			
+			for (String heading : new String[] {"VOLUME_OF_LABEL", "MIN_MAX_EXTENSION_RATIO", "MEAN_MAX_EXTENSION_RATIO", "MIN_EXTENSION", "MAX_EXTENSION", "MEAN_EXTENSION", "STD_DEV_EXTENSION"}) {
+				final_edge_analysis_table.setColumn(heading, new double[0]);
+			}
 		}
 		
 		log.debug("Finishing label exclusion for " + input.getName());
 	}
 	
 	
-	public ResultsTable getLabelEdgeAnalysisTable(ClearCLBuffer input) {
-		
-		ClearCLBuffer label_edges = clij2.create(input);
-		ClearCLBuffer distance_map = clij2.create(input);
-		clij2.reduceLabelsToLabelEdges(input, label_edges);
-		clij2.euclideanDistanceFromLabelCentroidMap(input, distance_map);
-		ResultsTable edge_agalysis_table = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(distance_map, label_edges, edge_agalysis_table);
-		label_edges.close();
-		distance_map.close();
-		return edge_agalysis_table;
+	private static double[] selectRows(double[] values, int[] rows, int count) {
+		double[] selection = new double[count];
+		for (int r = 0; r < count; r++) {
+			selection[r] = values[rows[r]];
+		}
+		return selection;
 	}
 	
 	
-			
+	/**
+	 * 
+	 * @param input
+	 * @return statistics of the distance to the label centroid measured on the label edges only
+	 */
+	public ResultsTable getLabelEdgeAnalysisTable(EngineImage input) {
+		return getLabelDistances(input).toResultsTable();
+	}
+	
+	
+	/**
+	 * Border and centroid distances of the labels, measured once per label buffer and reused
+	 * until the end of the analysis.
+	 * 
+	 * @param labels
+	 * @return
+	 */
+	public LabelDistances getLabelDistances(EngineImage labels) {
 		
-
+		LabelDistances distances = label_distance_cache.get(labels);
+		if (distances == null) {
+			HostImage labels_host = pullToHost(labels);
+			distances = LabelDistances.measure(labels_host, LabelStatistics.measure(labels_host, new HostImage[0], false), voxel_spacing);
+			label_distance_cache.put(labels, distances);
+		}
+		return distances;
+	}
+	
+	
+	private void clearLabelDistanceCache() {
+		for (LabelDistances distances : label_distance_cache.values()) {
+			distances.close();
+		}
+		label_distance_cache.clear();
+	}
+	
+	
+	private HostImage pullToHost(EngineImage buffer) {
+		return engine.pullHostImage(buffer);
+	}
+	
+	
 	@Override
 	public boolean isCanceled() {
-		// TODO Auto-generated method stub
-		return false;
+		return cancelReason != null;
 	}
 
 	@Override
 	public void cancel(String reason) {
-		// TODO Auto-generated method stub
-		
+		log.warn(reason);
+		if (cancelReason == null) {
+			cancelReason = reason;
+		}
 	}
 
 	@Override
 	public String getCancelReason() {
-		// TODO Auto-generated method stub
-		return null;
+		return cancelReason;
 	}
 	
 }
@@ -5,22 +5,17 @@ package de.biovoxxel.bv3dbox.plugins;
 
 import javax.swing.JOptionPane;
 
-import org.scijava.log.LogLevel;
-import org.scijava.log.LogService;
-import org.scijava.log.StderrLogService;
-import org.scijava.prefs.DefaultPrefService;
-import org.scijava.prefs.PrefService;
-
-import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
+import de.biovoxxel.bv3dbox.engine.HostImage;
+import de.biovoxxel.bv3dbox.engine.LabelFilter;
+import de.biovoxxel.bv3dbox.engine.LabelOverlap;
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxLogger;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
-import ij.IJ;
 import ij.ImagePlus;
 import ij.measure.ResultsTable;
-import ij.process.ImageProcessor;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels;
 
 /*
@@ -64,9 +59,9 @@ import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels;
 public class BV_OverlapExtractor {
 
 	
-	LogService log;
-	PrefService prefs;
+	BV3DBoxLogger log;
 	
+	private ComputeEngine engine = null;
 	private ImagePlus image_plus_1;
 	private ImagePlus image_plus_2;
 	private String volume_range = "0.0-100.0";
@@ -78,6 +73,18 @@ public class BV_OverlapExtractor {
 	private Boolean show_percent_volume_map = false;
 	private Boolean treat_binary_objects_as_one = false;
 	
+	private ResultsTable original_results = null;
+	private double[] label_id;
+	private double[] original_pixel_count;
+	private double[] comparison_1_2_overlap;
+	private double[] percent_volume;
+	private boolean[] kept_results;
+	private int max_primary_label_count = 0;
+	private double selector_count = 0;
+	private int kept_objects_count = 0;
+	private ImagePlus percent_volume_map_ImagePlus = null;
+	private ImagePlus extracted_objects_ImagePlus = null;
+	
 	
 	
 	/**
@@ -89,8 +96,18 @@ public class BV_OverlapExtractor {
 		this.image_plus_1 = image_plus_1;
 		this.image_plus_2 = image_plus_2;
 		
-		this.log = new StderrLogService();
-		this.prefs = new DefaultPrefService();
+		this.log = new BV3DBoxLogger();
+	}
+	
+	/**
+	 * 
+	 * @param engine			used instead of the engine selected in the settings
+	 * @param image_plus_1
+	 * @param image_plus_2
+	 */
+	public BV_OverlapExtractor(ComputeEngine engine, ImagePlus image_plus_1, ImagePlus image_plus_2) {
+		this(image_plus_1, image_plus_2);
+		this.engine = engine;
 	}
 	
 	/**
@@ -103,7 +120,7 @@ public class BV_OverlapExtractor {
 	}
 	
 	/**
-	 * Defines which analyses tables and output images will be displayed
+	 * Defines which analyses tables and output images will be created and displayed
 	 * 
 	 * @param exclude_edge_objects
 	 * @param show_original_primary_statistics
@@ -124,15 +141,39 @@ public class BV_OverlapExtractor {
 	}
 	
 	
+	/**
+	 * Extracts the objects and displays the results according to the output flags
+	 */
 	public void extract() {
 		
-		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
-				
 		if (image_plus_1 == image_plus_2) {
 			JOptionPane.showMessageDialog(null, "Images need to be different", "Same Image", JOptionPane.WARNING_MESSAGE);
 			return;
 		}
 		
+		analyze();
+		showResults();
+	}
+	
+	
+	/**
+	 * Extracts the primary objects overlapping with the secondary objects without displaying anything.
+	 * The statistics are available via {@link #getOriginalStatistics()}, {@link #getCountStatistics()} and
+	 * {@link #getVolumeStatistics()} and the output images requested by the output flags via
+	 * {@link #getPercentVolumeMap()} and {@link #getExtractedObjects()}.
+	 * 
+	 * @throws IllegalArgumentException	if both images are the same
+	 */
+	public void analyze() {
+		
+		log = new BV3DBoxLogger();
+				
+		if (image_plus_1 == image_plus_2) {
+			throw new IllegalArgumentException("Images need to be different");
+		}
+		
+		percent_volume_map_ImagePlus = null;
+		extracted_objects_ImagePlus = null;
 		
 		//get minimum volume limiter
 		float minVolume = BV3DBoxUtilities.getMinFromRange(volume_range);
@@ -140,153 +181,142 @@ public class BV_OverlapExtractor {
 		//get maximum volume limiter
 		float maxVolume = BV3DBoxUtilities.getMaxFromRange(volume_range);
 	
-		CLIJ2 clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		if (engine == null) {
+			engine = ComputeEngineFactory.getEngine();
+		}
+		engine.clear();
 		
-		ClearCLBuffer image_1_CCL;
+		EngineImage image_1_CCL;
 		if (image_plus_1.getProcessor().isBinary()) {
 			
-			ClearCLBuffer image_1_gpu = clij2.push(image_plus_1);
+			EngineImage image_1_gpu = engine.push(image_plus_1);
 			
-			image_1_CCL = clij2.create(image_1_gpu.getDimensions(), NativeTypeEnum.Float);
+			image_1_CCL = engine.create(image_1_gpu.getDimensions());
 			
 			if (treat_binary_objects_as_one) {
-				clij2.closeIndexGapsInLabelMap(image_1_gpu, image_1_CCL);
+				engine.closeIndexGaps(image_1_gpu, image_1_CCL);
 			} else {
-				clij2.connectedComponentsLabelingBox(image_1_gpu, image_1_CCL);	
+				engine.connectedComponentsLabeling(image_1_gpu, image_1_CCL, false);
 			}
 			
 			image_1_gpu.close();
 		} else {
-			image_1_CCL = clij2.push(image_plus_1);
+			image_1_CCL = engine.push(image_plus_1);
 		}
 		
 		if (exclude_edge_objects) {
-			ClearCLBuffer image_1_temp = clij2.create(image_1_CCL);
-			clij2.copy(image_1_CCL, image_1_temp);
-			clij2.excludeLabelsOnEdges(image_1_temp, image_1_CCL);
+			EngineImage image_1_temp = engine.create(image_1_CCL);
+			engine.copy(image_1_CCL, image_1_temp);
+			engine.excludeLabelsOnEdges(image_1_temp, image_1_CCL);
 			image_1_temp.close();
 		}
 
-		ClearCLBuffer image_2_CCL;
+		EngineImage image_2_CCL;
 		if (image_plus_2.getProcessor().isBinary()) {
 			
-			ClearCLBuffer image_2_gpu = clij2.push(image_plus_2);
-			image_2_CCL = clij2.create(image_2_gpu.getDimensions(), NativeTypeEnum.Float);
+			EngineImage image_2_gpu = engine.push(image_plus_2);
+			image_2_CCL = engine.create(image_2_gpu.getDimensions());
 			
 			if (treat_binary_objects_as_one) {
-				clij2.closeIndexGapsInLabelMap(image_2_gpu, image_2_CCL);
+				engine.closeIndexGaps(image_2_gpu, image_2_CCL);
 			} else {
-				clij2.connectedComponentsLabelingBox(image_2_gpu, image_2_CCL);
+				engine.connectedComponentsLabeling(image_2_gpu, image_2_CCL, false);
 			}
 			
 			image_2_gpu.close();
 		} else {
-			image_2_CCL = clij2.push(image_plus_2);
+			image_2_CCL = engine.push(image_plus_2);
 		}
 		
 		if (exclude_edge_objects) {
-			ClearCLBuffer image_2_temp = clij2.create(image_2_CCL);
-			clij2.copy(image_2_CCL, image_2_temp);
-			clij2.excludeLabelsOnEdges(image_2_temp, image_2_CCL);
+			EngineImage image_2_temp = engine.create(image_2_CCL);
+			engine.copy(image_2_CCL, image_2_temp);
+			engine.excludeLabelsOnEdges(image_2_temp, image_2_CCL);
 			image_2_temp.close();
 		}
 		
 		
-		ResultsTable original_results = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(image_1_CCL, image_1_CCL, original_results);
-		double[] original_pixel_count = original_results.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.value);
-		
-		if (show_original_primary_statistics) {
-			original_results.show("Original Primary Statistics");			
-		}
+		original_results = engine.statisticsOfLabelledPixels(image_1_CCL, image_1_CCL);
+		label_id =  original_results.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.value);
 		
-		ClearCLBuffer image_2_mask_on_image_1 = clij2.create(image_1_CCL);
-		clij2.binaryAnd(image_1_CCL, image_2_CCL, image_2_mask_on_image_1);
-		//BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, image_2_mask_on_image_1, false, LutNames.GLASBEY_LUT, null);
+		//voxel counts and overlap of all label pairs in one pass over both label maps
+		HostImage image_1_labels = engine.pullHostImage(image_1_CCL);
+		HostImage image_2_labels = engine.pullHostImage(image_2_CCL);
+		LabelOverlap label_overlap = LabelOverlap.measure(image_1_labels, image_2_labels);
+		image_1_labels.close();
+		image_2_labels.close();
 		
-		ResultsTable comparison_1_and_2 = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(image_2_mask_on_image_1, image_1_CCL, comparison_1_and_2);
-		//comparison_1_and_2.show("comparison_1_and_2");
-		double[] comparison_1_2_overlap = comparison_1_and_2.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.value);
+		max_primary_label_count = label_overlap.getPrimaryLabelCount();
+		selector_count = label_overlap.getSecondaryLabelCount();
+		original_pixel_count = label_overlap.getPrimaryVoxelCount();
+		comparison_1_2_overlap = label_overlap.getOverlapVoxelCount();
+		percent_volume = label_overlap.getOverlapPercent();
 		
-		int max_primary_label_count = (int) clij2.maximumOfAllPixels(image_1_CCL);
+		log.debug(() -> "max_primary_label_count = " + max_primary_label_count);
 		
-		log.debug("max_primary_label_count = " + max_primary_label_count);
+		LabelFilter labelFilter = new LabelFilter(max_primary_label_count)
+				.keepIf(l -> percent_volume[l] > 0.0)
+				.keepInRange(percent_volume, minVolume, maxVolume);
 		
-		ImagePlus flag_list_image = IJ.createImage("kept_object_vector", max_primary_label_count + 1, 1, 1, 8);
-		ImageProcessor flag_list_processor = flag_list_image.getProcessor();
-		flag_list_processor.putPixel(0, 0, 0);
-		
-		ImagePlus percent_volume_image = IJ.createImage("percent_volume_image", max_primary_label_count + 1, 1, 1, 32);
-		ImageProcessor percent_volume_processor = percent_volume_image.getProcessor();
-		percent_volume_processor.putPixelValue(0, 0, 0.0);
-		
-		int kept_objects_count = 0;
-		boolean[] kept_results = new boolean[max_primary_label_count];
-		//kept_results[0] = false;
-		double[] percent_volume = new double[max_primary_label_count];
-		percent_volume[0] = 0.0;
-		
-		for (int c1 = 0; c1 < max_primary_label_count; c1++) {
-			
-			percent_volume[c1] = (100.00 / original_pixel_count[c1]) * comparison_1_2_overlap[c1];
-			
-			if (percent_volume[c1] > 100.00) {
-				percent_volume[c1] = 100.00;
-			}
-			
-		
-			percent_volume_processor.putPixelValue(c1+1, 0, percent_volume[c1]);
-
-			if (percent_volume[c1] > 0.0 && percent_volume[c1] >= minVolume && percent_volume[c1] <= maxVolume) {
-				
-				flag_list_processor.putPixel(c1+1, 0, 0);	//keep label
-				kept_objects_count++;
-				kept_results[c1] = true;
-				
-			} else {
-				
-				flag_list_processor.putPixel(c1+1, 0, 1);	//remove label
-				kept_results[c1] = false;
-			}
-			//System.out.println(c1+1 + " --> " + percent_volume[c1] + "% --> " + flag_list_processor.get(c1+1, 0));
+		kept_objects_count = labelFilter.getKeptCount();
+		kept_results = new boolean[max_primary_label_count];
+		for (int kept_index : labelFilter.getKeptIndices()) {
+			kept_results[kept_index] = true;
 		}
 		
 				
 		if (show_percent_volume_map) {
-			ClearCLBuffer percent_volume_map = clij2.create(image_1_CCL.getDimensions(), NativeTypeEnum.Float);
-			ClearCLBuffer percent_volume_vector = clij2.push(percent_volume_image);
+			EngineImage percent_volume_map = engine.create(image_1_CCL.getDimensions());
 			percent_volume_map.setName("%volume_" + image_plus_2.getTitle());
-			clij2.generateParametricImage(image_1_CCL, percent_volume_vector, percent_volume_map);
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, percent_volume_map, true, LutNames.GEEN_FIRE_BLUE_LUT, image_plus_1.getCalibration());
+			engine.generateParametricImage(image_1_CCL, percent_volume, percent_volume_map);
+			percent_volume_map_ImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, percent_volume_map, true, LutNames.GEEN_FIRE_BLUE_LUT);
+			percent_volume_map_ImagePlus.setCalibration(image_plus_1.getCalibration());
 			percent_volume_map.close();
-			percent_volume_vector.close();
 		}
 		
 		if (show_extracted_objects) {
-			//flag_list_image.show();
-			ClearCLBuffer flag_list_vector = clij2.push(flag_list_image);
-			ClearCLBuffer kept_image_1_CCL = clij2.create(image_1_CCL);
+			EngineImage kept_image_1_CCL = engine.create(image_1_CCL);
 			kept_image_1_CCL.setName("extracted_" + image_plus_1.getTitle());
-			clij2.excludeLabels(flag_list_vector, image_1_CCL, kept_image_1_CCL);
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, kept_image_1_CCL, true, LutNames.GLASBEY_LUT, image_plus_1.getCalibration());
-			flag_list_vector.close();
+			labelFilter.apply(engine, image_1_CCL, kept_image_1_CCL);
+			extracted_objects_ImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, kept_image_1_CCL, true, LutNames.GLASBEY_LUT);
+			extracted_objects_ImagePlus.setCalibration(image_plus_1.getCalibration());
 			kept_image_1_CCL.close();
 			
 			//TODO: get final labels for extracted in relation to initial labels and add to full analysis table
 		}
 		
+		image_1_CCL.close();
+		image_2_CCL.close();
+		
+		engine.clear();
+		
+	}
+	
+	
+	/**
+	 * Displays the results of {@link #analyze()} according to the output flags.
+	 * Count and volume statistics are appended to already open statistics tables.
+	 */
+	public void showResults() {
+		
+		if (show_original_primary_statistics) {
+			original_results.show("Original Primary Statistics");			
+		}
+		
+		if (percent_volume_map_ImagePlus != null) {
+			percent_volume_map_ImagePlus.show();
+		}
+		
+		if (extracted_objects_ImagePlus != null) {
+			extracted_objects_ImagePlus.show();
+		}
+		
 		if (show_count_statistics) {
 			ResultsTable count_statistics_table = ResultsTable.getResultsTable("OE3D_Count");
 			if (count_statistics_table == null) {
 				count_statistics_table = new ResultsTable();
 			} 
-			count_statistics_table.addRow();
-			count_statistics_table.addValue("IMAGE_NAME", image_plus_1.getTitle());
-			count_statistics_table.addValue("ORIGINAL_COUNT", max_primary_label_count);
-			count_statistics_table.addValue("SELECTOR_COUNT", clij2.maximumOfAllPixels(image_2_CCL));
-			count_statistics_table.addValue("EXTRACTED_COUNT", kept_objects_count);
+			addCountStatistics(count_statistics_table);
 			count_statistics_table.show("OE3D_Count");
 		}
 		
@@ -297,43 +327,92 @@ public class BV_OverlapExtractor {
 			if (full_statistics_table == null) {
 				full_statistics_table = new ResultsTable();
 			} 
-			
-			int starting_row = full_statistics_table.size();
-			log.debug("starting_row = " + starting_row);
-			double[] label_id =  original_results.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.value);
-			log.debug("label_id length = " + label_id.length);
-			int offset = 0;
-			for (int row = starting_row; row < max_primary_label_count + starting_row; row++) {
-				log.debug("processing row = " + row + " / starting row = " + starting_row);
-				int index = row - starting_row;
-				log.debug("index = " + index);
-				if (kept_results[index]) {
-					log.debug("row - offset = " + (row - offset));
-					full_statistics_table.setValue("IDENTIFIER", row - offset, (row - offset + 1));
-					full_statistics_table.setValue("ORIGINAL_LABEL_ID", row - offset, label_id[index]);
-					full_statistics_table.setValue("ORIGINAL_VOXELS", row - offset, original_pixel_count[index]);
-					full_statistics_table.setValue("SELECTOR_VOXELS", row - offset, comparison_1_2_overlap[index]);
-					full_statistics_table.setValue("PERCENT_VOLUME", row - offset, percent_volume[index]);					
-				} else {	
-					full_statistics_table.setValue("IDENTIFIER", row - offset, (row - offset + 1));
-					full_statistics_table.setValue("ORIGINAL_LABEL_ID", row - offset, label_id[index]);
-					full_statistics_table.setValue("ORIGINAL_VOXELS", row - offset, original_pixel_count[index]);
-					full_statistics_table.setValue("SELECTOR_VOXELS", row - offset, comparison_1_2_overlap[index]);
-					full_statistics_table.setValue("PERCENT_VOLUME", row - offset, percent_volume[index]);		
-//					offset++;
-//					log.debug("offset = " + offset);
-				}
-			}
-			
+			addVolumeStatistics(full_statistics_table);
 			full_statistics_table.show("OE3D_Statistics");
 		}
+	}
+	
+	
+	private void addCountStatistics(ResultsTable count_statistics_table) {
+		count_statistics_table.addRow();
+		count_statistics_table.addValue("IMAGE_NAME", image_plus_1.getTitle());
+		count_statistics_table.addValue("ORIGINAL_COUNT", max_primary_label_count);
+		count_statistics_table.addValue("SELECTOR_COUNT", selector_count);
+		count_statistics_table.addValue("EXTRACTED_COUNT", kept_objects_count);
+	}
+	
+	
+	private void addVolumeStatistics(ResultsTable full_statistics_table) {
 		
-		image_1_CCL.close();
-		image_2_CCL.close();
-		comparison_1_2_overlap = null;
-		
-		clij2.clear();
-		
+		int starting_row = full_statistics_table.size();
+		log.debug(() -> "starting_row = " + starting_row);
+		log.debug(() -> "label_id length = " + label_id.length);
+		for (int row = starting_row; row < max_primary_label_count + starting_row; row++) {
+			int index = row - starting_row;
+			full_statistics_table.setValue("IDENTIFIER", row, (row + 1));
+			full_statistics_table.setValue("ORIGINAL_LABEL_ID", row, label_id[index]);
+			full_statistics_table.setValue("ORIGINAL_VOXELS", row, original_pixel_count[index]);
+			full_statistics_table.setValue("SELECTOR_VOXELS", row, comparison_1_2_overlap[index]);
+			full_statistics_table.setValue("PERCENT_VOLUME", row, percent_volume[index]);
+		}
+	}
+	
+	
+	/**
+	 * 
+	 * @return the statistics of all primary labels before extraction
+	 */
+	public ResultsTable getOriginalStatistics() {
+		return original_results;
+	}
+	
+	
+	/**
+	 * 
+	 * @return one row with the number of original, selector and extracted objects
+	 */
+	public ResultsTable getCountStatistics() {
+		ResultsTable count_statistics_table = new ResultsTable();
+		addCountStatistics(count_statistics_table);
+		return count_statistics_table;
+	}
+	
+	
+	/**
+	 * 
+	 * @return the original and overlapping volume of all primary labels
+	 */
+	public ResultsTable getVolumeStatistics() {
+		ResultsTable full_statistics_table = new ResultsTable();
+		addVolumeStatistics(full_statistics_table);
+		return full_statistics_table;
+	}
+	
+	
+	/**
+	 * 
+	 * @return true for each primary label (index = label - 1) within the volume range
+	 */
+	public boolean[] getExtractedLabelFlags() {
+		return kept_results;
+	}
+	
+	
+	/**
+	 * 
+	 * @return the primary labels with their overlap in percent if requested via the output flags, otherwise null
+	 */
+	public ImagePlus getPercentVolumeMap() {
+		return percent_volume_map_ImagePlus;
+	}
+	
+	
+	/**
+	 * 
+	 * @return the extracted primary labels if requested via the output flags, otherwise null
+	 */
+	public ImagePlus getExtractedObjects() {
+		return extracted_objects_ImagePlus;
 	}
 	
 	public void run() {
@@ -3,6 +3,7 @@
  */
 package de.biovoxxel.bv3dbox.plugins;
 
+import org.scijava.Cancelable;
 import org.scijava.command.DynamicCommand;
 import org.scijava.log.LogLevel;
 import org.scijava.log.LogService;
@@ -10,11 +11,12 @@ import org.scijava.log.StderrLogService;
 import org.scijava.prefs.DefaultPrefService;
 import org.scijava.prefs.PrefService;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import ij.ImagePlus;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 /*
  * BSD 3-Clause License
@@ -60,8 +62,10 @@ public class BV_PostProcessor extends DynamicCommand {
 
 	private final LogService log = new StderrLogService();
 	private final PrefService prefs = new DefaultPrefService();
-	private static CLIJ2 clij2;
-	private ClearCLBuffer input_image;
+	private static ComputeEngine engine;
+	private EngineImage input_image;
+	private double[] voxel_spacing;
+	private Cancelable previewCancelable = null;
 //	private BV_LabelSeparator bvls = new BV_LabelSeparator();
 	
 	/**
@@ -73,8 +77,8 @@ public class BV_PostProcessor extends DynamicCommand {
 	
 		log.debug("input_image = " + inputImagePlus);
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		engine = ComputeEngineFactory.getEngine();
+		engine.clear();
 		
 		setInputImage(inputImagePlus);
 		
@@ -88,32 +92,46 @@ public class BV_PostProcessor extends DynamicCommand {
 
 	
 	public void setInputImage(ImagePlus inputImagePlus) {
-		ClearCLBuffer temp_input_image = clij2.push(inputImagePlus);
+		EngineImage temp_input_image = engine.push(inputImagePlus);
 		log.debug("temp_input_image = " + temp_input_image);
-		this.input_image = clij2.create(temp_input_image.getDimensions(), NativeTypeEnum.Float);
+		this.input_image = engine.create(temp_input_image.getDimensions());
+		this.voxel_spacing = BV3DBoxUtilities.getVoxelSpacing(inputImagePlus);
 
 		if (inputImagePlus.getProcessor().isBinary()) {
-			clij2.connectedComponentsLabelingDiamond(temp_input_image, input_image);
+			engine.connectedComponentsLabeling(temp_input_image, input_image, true);
 		} else {
 			
-			clij2.copy(temp_input_image, input_image);
+			engine.copy(temp_input_image, input_image);
 		}
 		temp_input_image.close();
 	}
 	
 	
-	public ClearCLBuffer getInputBuffer() {
+	public EngineImage getInputImage() {
 		return input_image;
 	}
 	
-	public ClearCLBuffer postProcessor(String method, int iteration) {
+	public EngineImage postProcessor(String method, int iteration) {
+		return postProcessor(method, iteration, false);
+	}
+	
+	
+	/**
+	 * 
+	 * @param method
+	 * @param iteration
+	 * @param anisotropic	erode and dilate labels by the same calibrated distance along all axes, measured in pixels along x (CPU only)
+	 * @return the processed labels, null if canceled (see {@link #setPreviewCancelable(Cancelable)})
+	 */
+	public EngineImage postProcessor(String method, int iteration, boolean anisotropic) {
+		
+		if (isPreviewCanceled()) {
+			return null;
+		}
 
-		ClearCLBuffer output_image = clij2.create(input_image);
+		EngineImage output_image = engine.create(input_image);
+		double[] label_spacing = anisotropic ? voxel_spacing : null;
 			
-		boolean is3D = input_image.getDimension() > 2 ? true : false;
-		
-		
-		//System.out.println("is3D = " + is3D);
 	
 		
 		switch (method) {
@@ -124,18 +142,15 @@ public class BV_PostProcessor extends DynamicCommand {
 //			
 				
 			case "Erode Label":
-				clij2.erodeLabels(input_image, output_image, iteration, true);
+				engine.erodeLabels(input_image, output_image, iteration, label_spacing, true);
 				break;
 				
 			case "Dilate Label":
-				clij2.dilateLabels(input_image, output_image, iteration);
+				engine.dilateLabels(input_image, output_image, iteration, label_spacing);
 				break;
 				
 			case "Open Label":
-				ClearCLBuffer temp_eroded = clij2.create(input_image);
-				clij2.erodeLabels(input_image, temp_eroded, iteration, true);
-				clij2.dilateLabels(temp_eroded, output_image, iteration);
-				temp_eroded.close();
+				engine.openingLabels(input_image, output_image, iteration, label_spacing);
 				break;
 			
 //			case "Close Label":
@@ -156,117 +171,56 @@ public class BV_PostProcessor extends DynamicCommand {
 //				break;
 				
 			case "Minimum (sphere)":
-				if (is3D) {
-					clij2.minimum3DSphere(input_image, output_image, iteration, iteration, iteration);					
-				} else {
-					clij2.minimum2DSphere(input_image, output_image, iteration, iteration);
-				}
+				engine.minimum(input_image, output_image, iteration, iteration, iteration, false);
 				break;
 				
 			case "Minimum (box)":
-				if (is3D) {
-					clij2.minimum3DBox(input_image, output_image, iteration, iteration, iteration);					
-				} else {
-					clij2.minimum2DBox(input_image, output_image, iteration, iteration);
-				}
+				engine.minimum(input_image, output_image, iteration, iteration, iteration, true);
 				break;
 				
 			case "Maximum (sphere)":
-				if (is3D) {
-					clij2.maximum3DSphere(input_image, output_image, iteration, iteration, iteration);					
-				} else {
-					clij2.maximum2DSphere(input_image, output_image, iteration, iteration);
-				}
+				engine.maximum(input_image, output_image, iteration, iteration, iteration, false);
 				break;
 				
 			case "Maximum (box)":
-				if (is3D) {
-					clij2.maximum3DBox(input_image, output_image, iteration, iteration, iteration);					
-				} else {
-					clij2.maximum2DBox(input_image, output_image, iteration, iteration);
-				}
+				engine.maximum(input_image, output_image, iteration, iteration, iteration, true);
 				break;
 				
 			case "Open (sphere)":
-				ClearCLBuffer temp_eroded_sphere = clij2.create(input_image);
-				if (is3D) {
-//					clij2.greyscaleOpeningSphere(input_image, output_image, iteration, iteration, iteration);
-					clij2.minimum3DSphere(input_image, temp_eroded_sphere, iteration, iteration, iteration);	
-					clij2.maximum3DSphere(temp_eroded_sphere, output_image, iteration, iteration, iteration);		
-				} else {
-//					clij2.greyscaleOpeningSphere(input_image, output_image, iteration, iteration, 0);
-					clij2.minimum2DSphere(input_image, temp_eroded_sphere, iteration, iteration);
-					clij2.maximum2DSphere(temp_eroded_sphere, output_image, iteration, iteration);
-				}
-				temp_eroded_sphere.close();
+				engine.opening(input_image, output_image, iteration, iteration, iteration, false, false);
 				break;
 				
 			case "Open (box)":
-				ClearCLBuffer temp_eroded_box = clij2.create(input_image);
-				if (is3D) {
-//					clij2.greyscaleOpeningSphere(input_image, output_image, iteration, iteration, iteration);
-					clij2.minimum3DBox(input_image, temp_eroded_box, iteration, iteration, iteration);	
-					clij2.maximum3DBox(temp_eroded_box, output_image, iteration, iteration, iteration);		
-				} else {
-//					clij2.greyscaleOpeningSphere(input_image, output_image, iteration, iteration, 0);
-					clij2.minimum2DBox(input_image, temp_eroded_box, iteration, iteration);
-					clij2.maximum2DBox(temp_eroded_box, output_image, iteration, iteration);
-				}
-				temp_eroded_box.close();
+				engine.opening(input_image, output_image, iteration, iteration, iteration, true, false);
 				break;
 				
 			case "Close (sphere)":
-				ClearCLBuffer temp_dilated_sphere = clij2.create(input_image);
-				if (is3D) {
-//					clij2.greyscaleClosingSphere(input_image, output_image, iteration, iteration, iteration);
-					clij2.maximum3DSphere(input_image, temp_dilated_sphere, iteration, iteration, iteration);		
-					clij2.minimum3DSphere(temp_dilated_sphere, output_image, iteration, iteration, iteration);	
-				} else {
-//					clij2.greyscaleClosingSphere(input_image, output_image, iteration, iteration, 0);
-					clij2.maximum2DSphere(input_image, temp_dilated_sphere, iteration, iteration);
-					clij2.minimum2DSphere(temp_dilated_sphere, output_image, iteration, iteration);
-				}
-				temp_dilated_sphere.close();
+				engine.opening(input_image, output_image, iteration, iteration, iteration, false, true);
 				break;
 				
 			case "Close (box)":
-				ClearCLBuffer temp_dilated_box = clij2.create(input_image);
-				if (is3D) {
-//					clij2.greyscaleClosingSphere(input_image, output_image, iteration, iteration, iteration);
-					clij2.maximum3DBox(input_image, temp_dilated_box, iteration, iteration, iteration);		
-					clij2.minimum3DBox(temp_dilated_box, output_image, iteration, iteration, iteration);	
-				} else {
-//					clij2.greyscaleClosingSphere(input_image, output_image, iteration, iteration, 0);
-					clij2.maximum2DBox(input_image, temp_dilated_box, iteration, iteration);
-					clij2.minimum2DBox(temp_dilated_box, output_image, iteration, iteration);
-				}
-				temp_dilated_box.close();
+				engine.opening(input_image, output_image, iteration, iteration, iteration, true, true);
 				break;
 				
 			case "Fill holes":
-				ClearCLBuffer filled_holes_image = clij2.create(input_image);
-				clij2.binaryFillHoles(input_image, filled_holes_image);
-				clij2.connectedComponentsLabelingDiamond(filled_holes_image, output_image);
+				EngineImage filled_holes_image = engine.create(input_image);
+				engine.binaryFillHoles(input_image, filled_holes_image);
+				if (!isPreviewCanceled()) {
+					engine.connectedComponentsLabeling(filled_holes_image, output_image, true);
+				}
 				filled_holes_image.close();
 				
 				break;
 			
+			//the radius limit only applies to CLIJ2, the choice names are kept for recorded macros
 			case "Median (sphere, max r=15)":
-				iteration = iteration > 15 ? 15 : iteration;
-				if (is3D) {
-					clij2.median3DSliceBySliceSphere(input_image, output_image, iteration, iteration);
-				} else {
-					clij2.median2DSphere(input_image, output_image, iteration, iteration);
-				}
+				iteration = iteration > 15 && !ComputeEngineFactory.isCPUEngineSelected() ? 15 : iteration;
+				engine.median(input_image, output_image, iteration, iteration, 0, false);
 				break;
 				
 			case "Median (box, max r=15)":
-				iteration = iteration > 15 ? 15 : iteration;
-				if (is3D) {
-					clij2.median3DSliceBySliceBox(input_image, output_image, iteration, iteration);
-				} else {
-					clij2.median2DBox(input_image, output_image, iteration, iteration);
-				}
+				iteration = iteration > 15 && !ComputeEngineFactory.isCPUEngineSelected() ? 15 : iteration;
+				engine.median(input_image, output_image, iteration, iteration, 0, true);
 				break;
 				
 //			case "Variance (sphere)":
@@ -290,8 +244,13 @@ public class BV_PostProcessor extends DynamicCommand {
 			}
 		
 		
-		ClearCLBuffer output_image_with_closed_index_gaps = clij2.create(output_image);
-		clij2.closeIndexGapsInLabelMap(output_image, output_image_with_closed_index_gaps);
+		if (isPreviewCanceled()) {
+			output_image.close();
+			return null;
+		}
+		
+		EngineImage output_image_with_closed_index_gaps = engine.create(output_image);
+		engine.closeIndexGaps(output_image, output_image_with_closed_index_gaps);
 		
 		output_image.close();
 		
@@ -312,20 +271,35 @@ public class BV_PostProcessor extends DynamicCommand {
 //	}
 //	
 	
-	public ImagePlus getImagePlus(ClearCLBuffer buffer) {
-		return clij2.pull(buffer);
+	public ImagePlus getImagePlus(EngineImage image) {
+		return engine.pull(image);
+	}
+	
+	public ComputeEngine getComputeEngine() {
+		return engine;
+	}
+	
+	
+	/**
+	 * Not the cancellation of this command itself, which is only used as a plugin by the GUI.
+	 * 
+	 * @param previewCancelable	checked between the processing stages, e.g. the PreviewExecutor of a GUI
+	 */
+	public void setPreviewCancelable(Cancelable previewCancelable) {
+		this.previewCancelable = previewCancelable;
 	}
 	
-	public CLIJ2 getCLIJ2Instance() {
-		return clij2;
+	
+	private boolean isPreviewCanceled() {
+		return previewCancelable != null && previewCancelable.isCanceled();
 	}
 	
 	public static void main(String[] args) {
 		ImagePlus inputImage = new ImagePlus("C:\\Users\\broch\\Desktop\\Binary Nuclei.tif"); 
 		BV_PostProcessor bvpp = new BV_PostProcessor(inputImage);
 		
-		ClearCLBuffer output = bvpp.postProcessor("Erode", 3);
-		clij2.pull(output).show();
+		EngineImage output = bvpp.postProcessor("Erode", 3);
+		engine.pull(output).show();
 	}
 	
 }
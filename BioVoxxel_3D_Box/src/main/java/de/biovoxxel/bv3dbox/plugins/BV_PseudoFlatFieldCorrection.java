@@ -7,15 +7,15 @@ import org.scijava.log.StderrLogService;
 import org.scijava.prefs.DefaultPrefService;
 import org.scijava.prefs.PrefService;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.ImagePlus;
 import ij.WindowManager;
 import ij.measure.Calibration;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 /*
  * BSD 3-Clause License
@@ -56,14 +56,18 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 	PrefService prefs = new DefaultPrefService();
 	LogService log = new StderrLogService();
 			
-	CLIJ2 clij2;
-	ClearCLBuffer inputImage;
+	ComputeEngine engine;
+	EngineImage inputImage;
+	private ComputeEngine selectedEngine = null;
 	
 	private ImagePlus inputImagePlus;
 	private ImagePlus outputImagePlus = null;
 	private String outputImageName = "";
 	private double x_y_ratio;
 	private double z_x_ratio;
+	
+	private volatile String cancelReason = null;
+	private Cancelable cancelable = null;
 
 		
 		
@@ -74,10 +78,24 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 	}
 	
 	
+	/**
+	 * 
+	 * @param inputImagePlus
+	 * @param engine	used instead of the compute engine chosen in the settings, e.g. to compare engines
+	 */
+	public BV_PseudoFlatFieldCorrection(ImagePlus inputImagePlus, ComputeEngine engine) {
+		
+		this.selectedEngine = engine;
+		setInputImage(inputImagePlus, 0);
+		
+	}
+	
+	
 	public void setInputImage(ImagePlus image, int activeSlice) {
 		
 		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
 		this.inputImagePlus = image;
+		cancelReason = null;
 				
 		//outputImageName = WindowManager.getUniqueName("PFFC_" + inputImagePlus.getTitle());
 		outputImageName = "PFFC_" + inputImagePlus.getTitle();
@@ -85,21 +103,21 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 		
 		readCalibration();
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		engine = selectedEngine != null ? selectedEngine : ComputeEngineFactory.getEngine();
+		engine.clear();
 		
 				
 		if (inputImagePlus.getRoi() != null) {
 			if (activeSlice > 0) {
-				inputImage = clij2.pushCurrentSelection(inputImagePlus.crop("slice"));
+				inputImage = engine.pushCurrentSelection(inputImagePlus.crop("slice"));
 			} else {
-				inputImage = clij2.pushCurrentSelection(inputImagePlus);				
+				inputImage = engine.pushCurrentSelection(inputImagePlus);				
 			}
 		} else {
 			if (activeSlice > 0) {
-				inputImage = clij2.push(inputImagePlus.crop("whole-slice"));
+				inputImage = engine.push(inputImagePlus.crop("whole-slice"));
 			} else {
-				inputImage = clij2.push(inputImagePlus);
+				inputImage = engine.push(inputImagePlus);
 			}
 						
 		}
@@ -107,12 +125,19 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 	}
 		
 	
+	/**
+	 * 
+	 * @param radius
+	 * @param force2D
+	 * @param showBackgroundImage
+	 * @return the corrected image or the background, null if canceled
+	 */
 	//TODO: implement for RGB images
 	public ImagePlus runCorrection(float radius, boolean force2D, boolean showBackgroundImage) {
 		
-		ClearCLBuffer backgound = clij2.create(inputImage.getDimensions(), NativeTypeEnum.Float);
-		clij2.copy(inputImage, backgound);
-		ClearCLBuffer blurredBackground = clij2.create(backgound);
+		EngineImage backgound = engine.create(inputImage.getDimensions());
+		engine.copy(inputImage, backgound);
+		EngineImage blurredBackground = engine.create(backgound);
 		
 		double y_filter_radius = radius * x_y_ratio;
 		
@@ -132,33 +157,45 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 			} 
 			log.debug("z_filter_radius=" + z_filter_radius);
 			
-			clij2.gaussianBlur3D(backgound, blurredBackground, radius, y_filter_radius, z_filter_radius);
+			engine.gaussianBlur(backgound, blurredBackground, radius, y_filter_radius, z_filter_radius);
 			log.debug("3D filtering for background creation");
 		} else {
-			clij2.gaussianBlur2D(backgound, blurredBackground, radius, y_filter_radius);
+			engine.gaussianBlur(backgound, blurredBackground, radius, y_filter_radius, 0);
 			log.debug("2D filtering for background creation");
 		}
 		
 		backgound.close();
 		
+		if (isCanceled()) {
+			log.debug("Correction canceled: " + getCancelReason());
+			blurredBackground.close();
+			return null;
+		}
+		
 		ImagePlus tempOutputImagePlus;
 		if (showBackgroundImage) {
-			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, blurredBackground, false, LutNames.PHYSICS);
+			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, blurredBackground, false, LutNames.PHYSICS);
 			
 		} else {
 			
-			double meanBackgroundIntensity = clij2.meanOfAllPixels(blurredBackground);
+			double meanBackgroundIntensity = engine.meanOfAllPixels(blurredBackground);
 			log.debug("meanBackgroundIntensity = " + meanBackgroundIntensity);
 			
-			ClearCLBuffer dividedImage = clij2.create(blurredBackground);
-			clij2.divideImages(inputImage, blurredBackground, dividedImage);
+			EngineImage dividedImage = engine.create(blurredBackground);
+			engine.divideImages(inputImage, blurredBackground, dividedImage);
 			log.debug("Image devided by background");
 			
-			ClearCLBuffer outputImage = clij2.create(dividedImage);
-			clij2.multiplyImageAndScalar(dividedImage, outputImage, meanBackgroundIntensity);
+			if (isCanceled()) {
+				dividedImage.close();
+				blurredBackground.close();
+				return null;
+			}
+			
+			EngineImage outputImage = engine.create(dividedImage);
+			engine.multiplyImageAndScalar(dividedImage, outputImage, meanBackgroundIntensity);
 			dividedImage.close();
 			
-			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, outputImage, true, LutNames.GRAY);
+			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, outputImage, true, LutNames.GRAY);
 			outputImage.close();
 		}
 		
@@ -206,28 +243,40 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 	}
 	
 
+	/**
+	 * 
+	 * @param cancelable	checked between the processing steps, e.g. the PreviewExecutor of a GUI
+	 */
+	public void setCancelable(Cancelable cancelable) {
+		this.cancelable = cancelable;
+	}
+	
+
 	@Override
 	public boolean isCanceled() {
-		// TODO Auto-generated method stub
-		return false;
+		return cancelReason != null || (cancelable != null && cancelable.isCanceled());
 	}
 
 
 	@Override
 	public void cancel(String reason) {
+		cancelReason = reason;
+		
 		ImagePlus outputImagePlus = WindowManager.getImage(outputImageName);
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
-		clij2.clear();
+		engine.clear();
 		
 	}
 
 
 	@Override
 	public String getCancelReason() {
-		// TODO Auto-generated method stub
-		return null;
+		if (cancelReason == null && cancelable != null) {
+			return cancelable.getCancelReason();
+		}
+		return cancelReason;
 	}
 }
 
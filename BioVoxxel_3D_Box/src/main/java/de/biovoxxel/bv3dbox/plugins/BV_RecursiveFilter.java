@@ -5,10 +5,11 @@ package de.biovoxxel.bv3dbox.plugins;
 
 import org.scijava.Cancelable;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import ij.ImagePlus;
 import ij.measure.Calibration;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 /*
  * BSD 3-Clause License
@@ -52,18 +53,21 @@ import net.haesleinhuepf.clij2.CLIJ2;
 public class BV_RecursiveFilter implements Cancelable {
 
 	ImagePlus inputImagePlus;
-	private ClearCLBuffer input_image;
-	ClearCLBuffer difference_check;
+	private EngineImage input_image;
+	EngineImage difference_check;
 	
 	int finalIteration = 0;
 	double lastDifference = Double.NEGATIVE_INFINITY;
 	
-	private CLIJ2 clij2;
+	private ComputeEngine engine;
 	private double x_y_ratio;
 	private double z_x_ratio;
 	private double z_y_ratio;
 	private int z_slices;
 	
+	private volatile String cancelReason = null;
+	private Cancelable cancelable = null;
+	
 	
 	
 	public BV_RecursiveFilter(ImagePlus inputImagePlus) {
@@ -73,9 +77,10 @@ public class BV_RecursiveFilter implements Cancelable {
 		
 	private void setupImage(ImagePlus image) {
 		this.inputImagePlus = image;
+		cancelReason = null;
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		engine = ComputeEngineFactory.getEngine();
+		engine.clear();
 		
 		Calibration cal = inputImagePlus.getCalibration();
 		x_y_ratio = cal.pixelWidth / cal.pixelHeight;
@@ -85,16 +90,16 @@ public class BV_RecursiveFilter implements Cancelable {
 		z_slices = inputImagePlus.getNSlices();
 		
 		if (inputImagePlus.getRoi() != null) {
-			input_image = clij2.pushCurrentSelection(inputImagePlus);
+			input_image = engine.pushCurrentSelection(inputImagePlus);
 		} else {
-			input_image = clij2.push(inputImagePlus);
+			input_image = engine.push(inputImagePlus);
 		}
 		
 	}
 	
 	
-	public CLIJ2 getCurrentCLIJ2Instance() {
-		return clij2;
+	public ComputeEngine getComputeEngine() {
+		return engine;
 		
 	}
 	
@@ -104,11 +109,12 @@ public class BV_RecursiveFilter implements Cancelable {
 	 * The plugin decides automatically between 2D or 3D filtering dependent on the input image.  
 	 * Uncalibrated images are filtered isotropically in all dimensions. Calibrated images are filtered in relation to their
 	 * x/y, x/z, and y/z calibrated aspect ratio to avoid dimensional distortion artifacts.
+	 * If canceled, the iterations stop and the image filtered so far is returned.
 	 */
-	public ClearCLBuffer runRecursiveFilter(String filterMethod, double radius, int iterations) {
+	public EngineImage runRecursiveFilter(String filterMethod, double radius, int iterations) {
 		
-		ClearCLBuffer temp_image = clij2.create(input_image);
-		difference_check = clij2.create(input_image);
+		EngineImage temp_image = engine.create(input_image);
+		difference_check = engine.create(input_image);
 		
 		finalIteration = iterations;
 		
@@ -123,21 +129,26 @@ public class BV_RecursiveFilter implements Cancelable {
 			
 			for (int i = 0; i < iterations; i++) {
 				
+				if (isCanceled()) {
+					finalIteration = i;
+					break;
+				}
+				
 				for (int j = 0; j < fullIterations; j++) {
 					
-					clij2.copy(input_image, temp_image);
-					clij2.median2DSphere(temp_image, input_image, radius, (radius * x_y_ratio));
+					engine.copy(input_image, temp_image);
+					engine.median(temp_image, input_image, radius, (radius * x_y_ratio), 0, false);
 					
 				}
-				if (isLowDifference(clij2, temp_image, input_image)) {
+				if (isLowDifference(temp_image, input_image)) {
 					finalIteration = i;
 					break;
 				}
 			}
 			
 			if (finalRadius != 0) {
-				clij2.copy(input_image, temp_image);
-				clij2.median2DSphere(temp_image, input_image, finalRadius, (finalRadius * x_y_ratio));
+				engine.copy(input_image, temp_image);
+				engine.median(temp_image, input_image, finalRadius, (finalRadius * x_y_ratio), 0, false);
 				
 			}
 		
@@ -146,10 +157,15 @@ public class BV_RecursiveFilter implements Cancelable {
 				
 				for (int i = 0; i < iterations; i++) {
 					
-					clij2.copy(input_image, temp_image);
-					clij2.gaussianBlur2D(temp_image, input_image, radius, (radius * x_y_ratio));
+					if (isCanceled()) {
+						finalIteration = i;
+						break;
+					}
+					
+					engine.copy(input_image, temp_image);
+					engine.gaussianBlur(temp_image, input_image, radius, (radius * x_y_ratio), 0);
 					
-					if (isLowDifference(clij2, temp_image, input_image)) {
+					if (isLowDifference(temp_image, input_image)) {
 						finalIteration = i;
 						break;
 					}
@@ -168,22 +184,27 @@ public class BV_RecursiveFilter implements Cancelable {
 				
 				for (int i = 0; i < iterations; i++) {
 					
+					if (isCanceled()) {
+						finalIteration = i;
+						break;
+					}
+					
 					for (int j = 0; j < fullIterations; j++) {
 						
-						clij2.copy(input_image, temp_image);
-						clij2.median3DSphere(temp_image, input_image, radius, (radius * x_y_ratio), radius / z_x_ratio);
+						engine.copy(input_image, temp_image);
+						engine.median(temp_image, input_image, radius, (radius * x_y_ratio), radius / z_x_ratio, false);
 						
 					}
 
-					if (isLowDifference(clij2, temp_image, input_image)) {
+					if (isLowDifference(temp_image, input_image)) {
 						finalIteration = i;
 						break;
 					}
 				}
 				
 				if (finalRadius != 0) {
-					clij2.copy(input_image, temp_image);
-					clij2.median3DSphere(temp_image, input_image, (finalRadius * z_x_ratio), (finalRadius * z_y_ratio), finalRadius);					
+					engine.copy(input_image, temp_image);
+					engine.median(temp_image, input_image, (finalRadius * z_x_ratio), (finalRadius * z_y_ratio), finalRadius, false);					
 				}
 			}
 			
@@ -191,10 +212,15 @@ public class BV_RecursiveFilter implements Cancelable {
 				
 				for (int i = 0; i < iterations; i++) {
 					
-					clij2.copy(input_image, temp_image);
-					clij2.gaussianBlur3D(temp_image, input_image, radius, (radius * x_y_ratio), radius / z_x_ratio);
+					if (isCanceled()) {
+						finalIteration = i;
+						break;
+					}
+					
+					engine.copy(input_image, temp_image);
+					engine.gaussianBlur(temp_image, input_image, radius, (radius * x_y_ratio), radius / z_x_ratio);
 									
-					if (isLowDifference(clij2, temp_image, input_image)) {
+					if (isLowDifference(temp_image, input_image)) {
 						finalIteration = i;
 						break;
 					}		
@@ -203,14 +229,15 @@ public class BV_RecursiveFilter implements Cancelable {
 		}
 		
 		temp_image.close();
+		difference_check.close();
 
 		return input_image;		
 	}
 	
 	
-	private boolean isLowDifference(CLIJ2 clij2, ClearCLBuffer img1, ClearCLBuffer img2) {
-		clij2.absoluteDifference(img1, img2, difference_check);
-		double currentDifference = clij2.meanOfAllPixels(difference_check);
+	private boolean isLowDifference(EngineImage img1, EngineImage img2) {
+		engine.absoluteDifference(img1, img2, difference_check);
+		double currentDifference = engine.meanOfAllPixels(difference_check);
 		
 		boolean lowDifference = false;
 		if (currentDifference - lastDifference == 0) {
@@ -221,24 +248,33 @@ public class BV_RecursiveFilter implements Cancelable {
 	}
 
 
+	/**
+	 * 
+	 * @param cancelable	checked before each iteration, e.g. the command running the filter
+	 */
+	public void setCancelable(Cancelable cancelable) {
+		this.cancelable = cancelable;
+	}
+
+
 	@Override
 	public boolean isCanceled() {
-		// TODO Auto-generated method stub
-		return false;
+		return cancelReason != null || (cancelable != null && cancelable.isCanceled());
 	}
 
 
 	@Override
 	public void cancel(String reason) {
-		// TODO Auto-generated method stub
-		
+		cancelReason = reason;
 	}
 
 
 	@Override
 	public String getCancelReason() {
-		// TODO Auto-generated method stub
-		return null;
+		if (cancelReason == null && cancelable != null) {
+			return cancelable.getCancelReason();
+		}
+		return cancelReason;
 	}
 
 	
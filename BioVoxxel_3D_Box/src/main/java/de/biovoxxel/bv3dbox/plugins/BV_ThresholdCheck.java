@@ -19,6 +19,10 @@ import org.scijava.prefs.PrefService;
 import org.scijava.widget.Button;
 import org.scijava.widget.NumberWidget;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxLogger;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
@@ -31,8 +35,6 @@ import ij.process.AutoThresholder;
 import ij.process.ImageProcessor;
 import ij.process.LUT;
 import ij.process.StackProcessor;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 /*
  * BSD 3-Clause License
@@ -80,6 +82,8 @@ public class BV_ThresholdCheck extends DynamicCommand {
 	
 	@Parameter
 	LogService log;
+	
+	private BV3DBoxLogger logger;
 		
 	@Parameter(label = "Input image", initializer = "imageSetup")
 	ImagePlus inputImagePlus;
@@ -133,8 +137,8 @@ public class BV_ThresholdCheck extends DynamicCommand {
 //	private Button createBinary = null;
 
 
-	CLIJ2 clij2;
-	ClearCLBuffer inputImage;
+	ComputeEngine engine;
+	EngineImage inputImage;
 	int bins = 256;
 	
 	byte[] red = new byte[bins];
@@ -294,7 +298,8 @@ public class BV_ThresholdCheck extends DynamicCommand {
 	
 	public void applyThreshold(double thresholdValue) {
 				
-		ClearCLBuffer outputImage = clij2.create(inputImage);
+		EngineImage binaryImage = engine.create(inputImage);
+		EngineImage outputImage = engine.create(inputImage);
 		log.debug("outputImage = " + outputImage);
 		
 //		if (inputImagePlus.getBitDepth() == 16) {
@@ -304,7 +309,9 @@ public class BV_ThresholdCheck extends DynamicCommand {
 //		}
 //		log.debug("thresholdValue = " + thresholdValue);
 		
-		clij2.threshold(inputImage, outputImage, thresholdValue);
+		engine.threshold(inputImage, binaryImage, thresholdValue);
+		engine.multiplyImageAndScalar(binaryImage, outputImage, 255);
+		binaryImage.close();
 		
 		String outputImageName = WindowManager.getUniqueName(thresholdMethod + "_" + inputImagePlus.getTitle());
 		
@@ -313,7 +320,7 @@ public class BV_ThresholdCheck extends DynamicCommand {
 		inputImagePlus.setLut(originalLut);
 		
 		log.debug("creating 0/255 result");
-		ImagePlus outputImagePlus = clij2.pullBinary(outputImage);
+		ImagePlus outputImagePlus = engine.pull(outputImage);
 		outputImagePlus.setTitle(outputImageName);
 		outputImagePlus.setCalibration(inputImagePlus.getCalibration());
 		outputImagePlus.show();	
@@ -349,7 +356,7 @@ public class BV_ThresholdCheck extends DynamicCommand {
 		//cleanup
 		inputImage.close();
 		outputImage.close();
-		clij2.clear();
+		engine.clear();
 		
 		String ignore_setting = "";
 		switch (histogramUsage) {
@@ -437,6 +444,7 @@ public class BV_ThresholdCheck extends DynamicCommand {
 		Recorder.record = false;
 		
 		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
+		logger = new BV3DBoxLogger(log);
 		
 		ImageProcessor inputImageProcessor = inputImagePlus.getProcessor();
 		if (inputImageProcessor.getBitDepth() == 24) {
@@ -448,13 +456,13 @@ public class BV_ThresholdCheck extends DynamicCommand {
 		IJ.run(inputImagePlus, "Enhance Contrast...", "saturated=0.0 normalize process_all use");
 		originalLut = inputImagePlus.getProcessor().getLut();
 
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();		
+		engine = ComputeEngineFactory.getEngine();
+		engine.clear();		
 		
-		inputImage = clij2.push(BV3DBoxUtilities.convertToGray8(inputImagePlus));
+		inputImage = engine.push(BV3DBoxUtilities.convertToGray8(inputImagePlus));
 //		BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, inputImage, false, LutNames.GRAY, null);
 					
-		log.debug(inputImagePlus.getTitle() + " pushed to GPU");
+		log.debug(inputImagePlus.getTitle() + " pushed to " + engine.getName());
 		
 		final MutableModuleItem<Integer> stackSlice = getInfo().getMutableInput("stackSlice", Integer.class);
 		if(inputImagePlus.hasImageStack()) {
@@ -493,8 +501,8 @@ public class BV_ThresholdCheck extends DynamicCommand {
 		percentSaturation = percentSaturation > 100 ? 100 : percentSaturation;
 		
 		//int totalPixelCount = (inputImagePlus.getWidth() * inputImagePlus.getHeight() * inputImagePlus.getNSlices());
-		double totalPixelCount = (double) inputImage.getVolume();
-		log.debug("totalPixelCount =" + totalPixelCount);
+		final double totalPixelCount = (double) inputImage.getVolume();
+		logger.debug(() -> "totalPixelCount =" + totalPixelCount);
 		
 		double acceptedSaturatedPixelCount = totalPixelCount / 100 * percentSaturation;
 		
@@ -515,25 +523,26 @@ public class BV_ThresholdCheck extends DynamicCommand {
 				foregroundPixelCount += histogram[intensity];
 			}
 		}
-		log.debug("foregroundPixelCount =" + foregroundPixelCount);
-		
 		double backgroundPixelCount = totalPixelCount - foregroundPixelCount;
-		log.debug("backgroundPixelCount =" + backgroundPixelCount);
 		
 		truePositive = Math.min(saturatedPixelCount, foregroundPixelCount);
-		log.debug("truePositive =" + truePositive);
 		trueNegative = Math.min(backgroundPixelCount, (totalPixelCount - saturatedPixelCount));
-		log.debug("trueNegative =" + trueNegative);
 		falsePositive = Math.max(foregroundPixelCount - saturatedPixelCount, 0);
-		log.debug("falsePositive =" + falsePositive);
 		falseNegative = Math.max(saturatedPixelCount - foregroundPixelCount, 0);
-		log.debug("falseNegative =" + falseNegative);
 		
 		jaccardIndex = truePositive / (truePositive + falsePositive + falseNegative);
-		log.debug("JaccardIndex = " + df.format(jaccardIndex));
-		
 		diceCoeff = (2 * truePositive) / (2 * truePositive + falsePositive + falseNegative);
-		log.debug("DiceCoeff = " + df.format(diceCoeff));
+		
+		if (logger.isDebug()) {
+			logger.debug("foregroundPixelCount =" + foregroundPixelCount);
+			logger.debug("backgroundPixelCount =" + backgroundPixelCount);
+			logger.debug("truePositive =" + truePositive);
+			logger.debug("trueNegative =" + trueNegative);
+			logger.debug("falsePositive =" + falsePositive);
+			logger.debug("falseNegative =" + falseNegative);
+			logger.debug("JaccardIndex = " + df.format(jaccardIndex));
+			logger.debug("DiceCoeff = " + df.format(diceCoeff));
+		}
 		
 		IJ.showStatus(thresholdMethod + "--> JaccardIndex=" + df.format(jaccardIndex) + " / DiceCoeff = " + df.format(diceCoeff));
 		
@@ -545,7 +554,7 @@ public class BV_ThresholdCheck extends DynamicCommand {
 	public void cancel() {
 		System.out.println("ThresholdCheck closed/cancelled");
 		inputImage.close();
-		clij2.close();
+		engine.close();
 		inputImagePlus.setLut(originalLut);
 	}
 	
@@ -1,6 +1,8 @@
 package de.biovoxxel.bv3dbox.plugins;
 
 import java.awt.Rectangle;
+import java.io.File;
+import java.util.Arrays;
 
 import org.scijava.Cancelable;
 import org.scijava.log.LogLevel;
@@ -9,21 +11,29 @@ import org.scijava.log.StderrLogService;
 import org.scijava.prefs.DefaultPrefService;
 import org.scijava.prefs.PrefService;
 
+import de.biovoxxel.bv3dbox.engine.CPUEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
+import de.biovoxxel.bv3dbox.engine.HostImage;
+import de.biovoxxel.bv3dbox.engine.SlabLabelStitcher;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.utilities.BufferPool;
+import de.biovoxxel.bv3dbox.utilities.BufferPool.Lease;
+import de.biovoxxel.bv3dbox.utilities.StageProfiler;
+import de.biovoxxel.bv3dbox.utilities.StageProfiler.Stage;
+import de.biovoxxel.bv3dbox.utilities.StreamingHistogram;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.WindowManager;
 import ij.gui.Roi;
 import ij.plugin.LutLoader;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
 import ij.process.LUT;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
-import net.haesleinhuepf.clijx.CLIJx;
-import net.haesleinhuepf.clijx.imagej2.ImageJ2Tubeness;
 
 
 /*
@@ -71,14 +81,17 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 	PrefService prefs = new DefaultPrefService();
 	LogService log = new StderrLogService();
 			
-	private CLIJ2 clij2;
-	private CLIJx clijx;
-	
-	ImageJ2Tubeness ij2Tubeness = new ImageJ2Tubeness();
+	private ComputeEngine engine;
+	private BufferPool bufferPool = null;
 	
 	private ImagePlus inputImagePlus;
+	private ImagePlus inputGray8ImagePlus;
 	
-	private ClearCLBuffer input_image;
+	private EngineImage input_image;
+	private Rectangle roiBounds = null;
+	private EngineImage preview_image = null;
+	private int[] previewBlock = null;	//x, y, z, width, height, depth of the preview input within the input image
+	private int[] previewCore = null;	//x, y, z, width, height, depth of the previewed region within the preview input
 	private ImagePlus outputImagePlus = null;
 	private String outputImageName = "";
 	
@@ -95,15 +108,26 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 	private double [] calibration;
 	
 	LUT grays = BV3DBoxUtilities.createGrayLUT();
-	LUT glasbey = LutLoader.openLut(IJ.getDirectory("luts") + LutNames.GLASBEY_LUT.lutName + ".lut");
+	LUT glasbey;	//loaded on first display, see getGlasbeyLUT()
 
 	private final String OUTPUT_PREFIX = "VTL_"; 
 
-	private ClearCLBuffer filteredImage = null;
-	private ClearCLBuffer backgroundSubtractedImage = null;
-	private ClearCLBuffer thresholdedImage = null;
-	private ClearCLBuffer seedImage = null;
-	private ClearCLBuffer outputImage = null;
+	private EngineImage filteredImage = null;
+	private EngineImage backgroundSubtractedImage = null;
+	private EngineImage thresholdedImage = null;
+	private EngineImage seedImage = null;
+	private EngineImage outputImage = null;
+	
+	private int additionalTileHalo = 0;
+	private int maxTileSlices = 0;
+	private boolean displayOutput = true;
+	private StageProfiler stageProfiler = null;
+	
+	private volatile String cancelReason = null;
+	private static final int DEVICE_BYTES_PER_VOXEL = 32;	//all float images of one segmented block alive at the same time
+	private static final int HOST_BLOCK_BYTES_PER_VOXEL = 5;	//pulled 8-bit and int label slices of one block
+	private static final int HOST_STACK_BYTES_PER_VOXEL = 9;	//8-bit background subtracted slices, stitched int labels and output of the complete stack
+	private static final int GAUSSIAN_REACH = 4;	//kernel radius in sigma, as cut by CLIJ2 and the CPU engine
 
 	
 	public BV_VoronoiThresholdLabeling() {
@@ -153,24 +177,33 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 		
 		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
 		this.inputImagePlus = image;
+		cancelReason = null;
 				
-		outputImageName = WindowManager.getUniqueName(OUTPUT_PREFIX + inputImagePlus.getTitle());
+		outputImageName = displayOutput ? WindowManager.getUniqueName(OUTPUT_PREFIX + inputImagePlus.getTitle()) : OUTPUT_PREFIX + inputImagePlus.getTitle();
 		log.debug("outputImageName = " + outputImageName);
 		
 		calibration = BV3DBoxUtilities.readCalibration(image);
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		if (bufferPool != null) {
+			bufferPool.close();
+		}
 		
-		clijx = CLIJx.getInstance();
-		clijx.clear();
+		engine = ComputeEngineFactory.getEngine();
+		engine.clear();
+		bufferPool = new BufferPool(engine, "Voronoi Threshold Labeling");
 		
 		Roi currentRoi = inputImagePlus.getRoi();
 		log.debug("currentRoi = " + currentRoi);
 		
+		roiBounds = null;
+		preview_image = null;
+		previewBlock = null;
+		previewCore = null;
+		
 		if (currentRoi != null) {
 			
 			Rectangle boundingRectangle = currentRoi.getBounds();
+			roiBounds = boundingRectangle;
 			log.debug("boundingRectangle = " + boundingRectangle);
 			
 			ImageStack croppedStack = inputImagePlus.getStack().crop(boundingRectangle.x, boundingRectangle.y, 0, boundingRectangle.width, boundingRectangle.height, inputImagePlus.getNSlices());
@@ -179,13 +212,15 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 			ImagePlus tempImagePlus = new ImagePlus("tempImage", croppedStack);
 			log.debug("tempImagePlus = " + tempImagePlus);
 
-			input_image = clij2.push(BV3DBoxUtilities.convertToGray8(tempImagePlus));
+			inputGray8ImagePlus = BV3DBoxUtilities.convertToGray8(tempImagePlus);
 			
 		} else {
 			
-			input_image = clij2.push(BV3DBoxUtilities.convertToGray8(inputImagePlus));
+			inputGray8ImagePlus = BV3DBoxUtilities.convertToGray8(inputImagePlus);
 			
 		}
+		
+		input_image = null;	//only pushed when needed, tiled processing pushes blocks instead
 	}
 	
 	
@@ -221,43 +256,651 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 	 * Complete processing sequence with either the default input values or the given ones (via Constructor)
 	 */
 	public void processImage() {
-						
-		filteredImage = filterImage(input_image, filterMethod, filterRadius);
+		
+		stageProfiler = new StageProfiler("Voronoi Threshold Labeling", inputImagePlus.getTitle());
+		stageProfiler.setBufferPool(bufferPool);
+		
+		EngineImage input;
+		try (Stage stage = stageProfiler.stage("push", getInputVoxelCount())) {
+			boolean pushed = input_image != null;
+			input = getInputImage();
+			if (!pushed) {
+				StageProfiler.transferred(stage, input.getSizeInBytes());
+			}
+		}
+		
+		try (Stage stage = stageProfiler.stage("filter", input)) {
+			filteredImage = filterImage(input, filterMethod, filterRadius);
+		}
 		IJ.showProgress(0.2);
 		
-		backgroundSubtractedImage = backgroundSubtraction(filteredImage, backgroundSubtractionMethod, backgroundRadius);
+		try (Stage stage = stageProfiler.stage("background", input)) {
+			backgroundSubtractedImage = backgroundSubtraction(filteredImage, backgroundSubtractionMethod, backgroundRadius);
+		}
 		filteredImage.close();
 		IJ.showProgress(0.4);
 		
-		thresholdedImage = thresholdImage(backgroundSubtractedImage, thresholdMethod);
+		try (Stage stage = stageProfiler.stage("threshold", input)) {
+			thresholdedImage = thresholdImage(backgroundSubtractedImage, thresholdMethod);
+		}
 		backgroundSubtractedImage.close();
 		IJ.showProgress(0.6);
 				
-		BV_LabelSplitter labelSplitter = new BV_LabelSplitter(clij2);
+		BV_LabelSplitter labelSplitter = new BV_LabelSplitter(engine, bufferPool);
 		
-		outputImage = labelSplitter.splitLabels(thresholdedImage, separationMethod, spotSigma, maximaRadius);
+		try (Stage stage = stageProfiler.stage("split", input)) {
+			outputImage = labelSplitter.splitLabels(thresholdedImage, separationMethod, spotSigma, maximaRadius);
+		}
 		IJ.showProgress(0.8);
 		
 		thresholdedImage.close();
-		seedImage.close();
 		IJ.showProgress(0.9);
 		
-		createOutputImage(outputImage, outputType);
+		try (Stage stage = stageProfiler.stage("output (pull)", input)) {
+			createOutputImage(outputImage, outputType);
+			StageProfiler.transferred(stage, outputImage.getSizeInBytes());
+		}
 		outputImage.close();
 		IJ.showProgress(1.0);
 		
+		stageProfiler.finish(displayOutput);
+	}
+
+	
+	/**
+	 * Threshold, hole filling, seed detection and Voronoi labeling of an already filtered
+	 * and background subtracted image with the current separation parameters
+	 * 
+	 * @param input_image	the gray8 input image, needed for seed detection on intensities
+	 * @param background_subtracted_image
+	 * @param thresholdValue
+	 * @param fillHoles	"Off", "2D" or "3D"
+	 * @return the label image
+	 */
+	public EngineImage segmentImage(EngineImage input_image, EngineImage background_subtracted_image, double thresholdValue, String fillHoles) {
+		
+		EngineImage thresholded_image = createBinaryImage(background_subtracted_image, thresholdValue, fillHoles);
+		EngineImage label_image = createLabelImage(input_image, thresholded_image);
+		thresholded_image.close();
+		
+		return label_image;
+	}
+	
+	
+	
+	/**
+	 * 
+	 * @param background_subtracted_image
+	 * @param thresholdValue
+	 * @param fillHoles	"Off", "2D" or "3D"
+	 * @return the thresholded image with filled holes
+	 */
+	public EngineImage createBinaryImage(EngineImage background_subtracted_image, double thresholdValue, String fillHoles) {
+		
+		log.debug("threshold = " + thresholdValue);
+		
+		EngineImage thresholded_image = engine.create(background_subtracted_image);
+		engine.threshold(background_subtracted_image, thresholded_image, thresholdValue);
+		
+		switch (fillHoles) {
+		
+		case "2D":			
+			try (Lease temp_fill_slice_holes_image = bufferPool.lease(thresholded_image)) {
+				engine.copy(thresholded_image, temp_fill_slice_holes_image.get());
+				engine.binaryFillHolesSliceBySlice(temp_fill_slice_holes_image.get(), thresholded_image);
+			}
+			break;
+			
+		case "3D":
+			try (Lease temp_fill_holes_image = bufferPool.lease(thresholded_image)) {
+				engine.copy(thresholded_image, temp_fill_holes_image.get());
+				engine.binaryFillHoles(temp_fill_holes_image.get(), thresholded_image);
+			}
+			break;
+			
+		default:
+			break;
+		}
+		
+		return thresholded_image;
+	}
+	
+	
+	
+	/**
+	 * Seed detection and Voronoi labeling with the current separation parameters
+	 * 
+	 * @param input_image	the gray8 input image, needed for seed detection on intensities
+	 * @param thresholded_image	is not modified
+	 * @return the label image
+	 */
+	public EngineImage createLabelImage(EngineImage input_image, EngineImage thresholded_image) {
+		
+		BV_LabelSplitter labelSplitter = new BV_LabelSplitter(engine, bufferPool);
+		
+		EngineImage seed_image;
+		
+		switch (separationMethod) {
+		
+		case "None":
+			seed_image = thresholded_image;
+			break;
+		case "Maxima":
+			seed_image = labelSplitter.detectMaxima(input_image, spotSigma, maximaRadius);
+			break;
+		case "Eroded Maxima":
+			seed_image = labelSplitter.detectErodedMaxima(input_image, Math.round(spotSigma), maximaRadius);
+			break;
+		case "EDM Maxima":
+			seed_image = labelSplitter.detectDistanceMapMaxima(thresholded_image, maximaRadius);
+			break;
+		case "Maxima Spheres":
+			seed_image = labelSplitter.createMaximaSpheres(thresholded_image, spotSigma, maximaRadius);
+			break;
+		case "DoG Seeds":
+			try (Lease binary_8_bit_image = bufferPool.lease(thresholded_image)) {
+				engine.multiplyImageAndScalar(thresholded_image, binary_8_bit_image.get(), 255);
+				seed_image = labelSplitter.detectDoGSeeds(binary_8_bit_image.get(), spotSigma, maximaRadius);
+			}
+			break;
+		default:
+			seed_image = labelSplitter.createErodedSeeds(thresholded_image, Math.round(spotSigma), separationMethod);
+			break;
+		}
+		
+		EngineImage label_image = labelSplitter.createLabels(seed_image, thresholded_image);
+		
+		if (seed_image != thresholded_image) {
+			seed_image.close();
+		}
+		
+		return label_image;
+	}
+	
+	
+	
+	/**
+	 * The halo is estimated from the filter and seed parameters. Seeds of large objects (e.g. "EDM Maxima")
+	 * can depend on voxels further away, which can be compensated with additional halo slices.
+	 * 
+	 * @param additionalTileHalo	number of slices added to the estimated halo
+	 */
+	public void setAdditionalTileHalo(int additionalTileHalo) {
+		this.additionalTileHalo = Math.max(0, additionalTileHalo);
+	}
+	
+	
+	/**
+	 * 
+	 * @param maxTileSlices	maximum number of core slices per block, 0 = determined from the memory of the compute engine
+	 */
+	public void setMaxTileSlices(int maxTileSlices) {
+		this.maxTileSlices = Math.max(0, maxTileSlices);
+	}
+	
+	
+	/**
+	 * Without display the output image is only created and can be retrieved via {@link #getOutputImage()},
+	 * e.g. for batch processing. Needs to be set before {@link #setupInputImage(ImagePlus)}.
+	 * 
+	 * @param displayOutput	true (default) to show the output image in its window
+	 */
+	public void setDisplayOutput(boolean displayOutput) {
+		this.displayOutput = displayOutput;
+	}
+	
+	
+	
+	/**
+	 * Adds the filtered and background subtracted 8-bit slices of the complete stack to a histogram, block by block
+	 * as in the first pass of {@link #processImageTiled(String, String, String, boolean)} but without profiling.
+	 * Thresholding a preview of single slices with the complete histogram gives the same threshold as the processing
+	 * of the complete stack. A canceled computation can be continued from the returned slice.
+	 * 
+	 * @param histogram	with 256 bins from 0 to 256, receives the slices
+	 * @param startSlice	first slice to add (0-based)
+	 * @param maxCoreSlices	maximum number of slices added per block, e.g. to keep each block as short as a preview
+	 * @param cancelable	stops the computation before the next block, can be null
+	 * @return the first slice not added yet, the stack size if all slices are added
+	 */
+	public int addBackgroundSubtractedSlices(StreamingHistogram histogram, int startSlice, int maxCoreSlices, Cancelable cancelable) {
+		
+		final int halo = getTileHalo();
+		final int coreSlices = Math.max(1, Math.min(maxCoreSlices, getTileCoreSlices(inputGray8ImagePlus.getWidth(), inputGray8ImagePlus.getHeight(), inputGray8ImagePlus.getStackSize(), halo)));
+		
+		return subtractBackgroundInBlocks(histogram, null, startSlice, coreSlices, null, cancelable);
+	}
+	
+	
+	/**
+	 * Filters and subtracts the background of the input block by block with the halo of the tiled processing
+	 * 
+	 * @param histogram	receives all core slices
+	 * @param background_subtracted_slices	receives the 8-bit core slices of all blocks, can be null if only the histogram is needed
+	 * @param startSlice	first core slice
+	 * @param coreSlices	slices per block without the halo
+	 * @param profiler	records the stages, null to process without profiling
+	 * @param cancelable	checked before each block, can be null
+	 * @return the first slice not processed, the stack size if not canceled
+	 */
+	private int subtractBackgroundInBlocks(StreamingHistogram histogram, Object[] background_subtracted_slices, int startSlice, int coreSlices, StageProfiler profiler, Cancelable cancelable) {
+		
+		final int width = inputGray8ImagePlus.getWidth();
+		final int height = inputGray8ImagePlus.getHeight();
+		final int depth = inputGray8ImagePlus.getStackSize();
+		final Object[] input_slices = inputGray8ImagePlus.getStack().getImageArray();
+		
+		final int halo = getTileHalo();
+		int blockDepth = 0;
+		
+		for (int coreStart = startSlice; coreStart < depth; coreStart += coreSlices) {
+			
+			if (cancelable != null && cancelable.isCanceled()) {
+				return coreStart;
+			}
+			
+			int coreEnd = Math.min(depth, coreStart + coreSlices);
+			int blockStart = Math.max(0, coreStart - halo);
+			int blockEnd = Math.min(depth, coreEnd + halo);
+			log.debug("block = slices " + blockStart + "-" + blockEnd + ", core = " + coreStart + "-" + coreEnd);
+			
+			if (blockEnd - blockStart != blockDepth) {
+				//idle intermediate buffers of other block sizes would only occupy memory
+				bufferPool.trim();
+				blockDepth = blockEnd - blockStart;
+			}
+			
+			EngineImage input_block;
+			try (Stage stage = stage(profiler, "push", (long) width * height * (blockEnd - blockStart))) {
+				input_block = pushSlices(input_slices, width, height, blockStart, blockEnd);
+				StageProfiler.transferred(stage, input_block.getSizeInBytes());
+			}
+			
+			EngineImage filtered_block;
+			try (Stage stage = stage(profiler, "filter", input_block.getVoxelCount())) {
+				filtered_block = filterImage(input_block, filterMethod, filterRadius);
+			}
+			input_block.close();
+			
+			EngineImage background_subtracted_block;
+			try (Stage stage = stage(profiler, "background", filtered_block.getVoxelCount())) {
+				background_subtracted_block = backgroundSubtraction(filtered_block, backgroundSubtractionMethod, backgroundRadius);
+			}
+			filtered_block.close();
+			
+			if (background_subtracted_slices == null) {
+				
+				//only the histogram of the core slices is needed, which the engine computes without pulling the block
+				try (Stage stage = stage(profiler, "histogram", (long) width * height * (coreEnd - coreStart))) {
+					EngineImage core_block = background_subtracted_block;
+					if (blockStart != coreStart || blockEnd != coreEnd) {
+						core_block = engine.create(new long[] { width, height, coreEnd - coreStart }, background_subtracted_block.getBitDepth());
+						engine.crop(background_subtracted_block, core_block, 0, 0, coreStart - blockStart);
+					}
+					histogram.add(engine.histogram(core_block, histogram.getBinCount(), histogram.getBinStart(0), histogram.getBinStart(histogram.getBinCount())));
+					if (core_block != background_subtracted_block) {
+						core_block.close();
+					}
+				}
+				background_subtracted_block.close();
+				
+			} else {
+				
+				Object[] block_slices;
+				try (Stage stage = stage(profiler, "pull", background_subtracted_block.getVoxelCount())) {
+					block_slices = engine.pull(background_subtracted_block).getStack().getImageArray();
+					StageProfiler.transferred(stage, background_subtracted_block.getSizeInBytes());
+				}
+				background_subtracted_block.close();
+				
+				try (Stage stage = stage(profiler, "histogram", (long) width * height * (coreEnd - coreStart))) {
+					for (int z = coreStart; z < coreEnd; z++) {
+						histogram.add(block_slices[z - blockStart]);
+						background_subtracted_slices[z] = block_slices[z - blockStart];
+					}
+				}
+			}
+			IJ.showProgress(0.4 * coreEnd / depth);
+		}
+		return depth;
+	}
+	
+	
+	private static Stage stage(StageProfiler profiler, String name, long voxels) {
+		return profiler != null ? profiler.stage(name, voxels) : null;
+	}
+	
+	
+	
+	/**
+	 * Complete processing sequence in blocks of z-slices for stacks not fitting into the memory of the compute engine.
+	 * Each block is processed together with a halo of additional slices on both sides covering the reach
+	 * of all filters and only its core slices are kept. The block size is determined from the engine memory
+	 * (see {@link #setMaxTileSlices(int)}).
+	 * 
+	 * The first pass filters and subtracts the background block by block, keeping the resulting
+	 * 8-bit core slices in the main memory. The threshold is then determined once from the histogram of the complete stack.
+	 * The second pass thresholds, separates and labels each block and the labels of all blocks are
+	 * merged across the block borders and consecutively relabeled. Volume range and edge exclusion
+	 * are applied to the merged labels.
+	 * 
+	 * Inside each block the results equal the untiled processing as long as the halo covers the reach
+	 * of the filters and seed detection (see {@link #setAdditionalTileHalo(int)}). The recursive Gaussian
+	 * of the CPU engine (sigma of 3 and above) reaches further than the halo of 4 sigma, which lets
+	 * intensities close to the block borders deviate by about 0.01% of the intensity range.
+	 * 3D hole filling only closes holes which are completely contained within one block including its halo.
+	 * 
+	 * The tiling bounds the memory of the compute engine, not the main memory. Besides the 8-bit input,
+	 * the 8-bit background subtracted slices, the int labels and the output image of the complete stack
+	 * stay in the main memory (about 10 bytes per voxel). The blocks are sized from the heap remaining
+	 * after them, with the CPU engine also its block images.
+	 * 
+	 * @param histogramUsage	"full", "ignore black", "ignore white" or "ignore both"
+	 * @param fillHoles	"Off", "2D" or "3D"
+	 * @param volumeRange
+	 * @param excludeOnEdges
+	 */
+	public void processImageTiled(String histogramUsage, String fillHoles, String volumeRange, boolean excludeOnEdges) {
+		
+		final int width = inputGray8ImagePlus.getWidth();
+		final int height = inputGray8ImagePlus.getHeight();
+		final int depth = inputGray8ImagePlus.getStackSize();
+		final Object[] input_slices = inputGray8ImagePlus.getStack().getImageArray();
+		
+		stageProfiler = new StageProfiler("Voronoi Threshold Labeling (tiled)", inputImagePlus.getTitle());
+		stageProfiler.setBufferPool(bufferPool);
+		
+		final int halo = getTileHalo();
+		final int coreSlices = getTileCoreSlices(width, height, depth, halo);
+		final int tileCount = (depth + coreSlices - 1) / coreSlices;
+		log.info("Tiled processing of " + depth + " slices in " + tileCount + " blocks of " + coreSlices + " slices with a halo of " + halo + " slices");
+		
+		
+		//first pass: filtering and background subtraction of all blocks
+		final Object[] background_subtracted_slices = new Object[depth];
+		final StreamingHistogram histogram = new StreamingHistogram(256, 0, 256);
+		if (subtractBackgroundInBlocks(histogram, background_subtracted_slices, 0, coreSlices, stageProfiler, this) < depth) {
+			log.info("Tiled processing canceled: " + cancelReason);
+			return;
+		}
+		
+		double thresholdValue = histogram.getThresholdValue(thresholdMethod, histogramUsage);
+		log.debug("thresholdValue = " + thresholdValue);
+		
+		
+		//second pass: segmentation of all blocks and merging of the labels across the block borders
+		SlabLabelStitcher stitcher = new SlabLabelStitcher(width, height, depth);
+		int blockDepth = 0;
+		
+		for (int tile = 0; tile < tileCount; tile++) {
+			
+			if (isCanceled()) {
+				log.info("Tiled processing canceled: " + cancelReason);
+				return;
+			}
+			
+			int coreStart = tile * coreSlices;
+			int coreEnd = Math.min(depth, coreStart + coreSlices);
+			int blockStart = Math.max(0, coreStart - halo);
+			int blockEnd = Math.min(depth, coreEnd + halo);
+			
+			if (blockEnd - blockStart != blockDepth) {
+				//idle intermediate buffers of other block sizes would only occupy memory
+				bufferPool.trim();
+				blockDepth = blockEnd - blockStart;
+			}
+			
+			EngineImage input_block;
+			EngineImage background_subtracted_block;
+			try (Stage stage = stageProfiler.stage("push", 2L * width * height * (blockEnd - blockStart))) {
+				input_block = pushSlices(input_slices, width, height, blockStart, blockEnd);
+				background_subtracted_block = pushSlices(background_subtracted_slices, width, height, blockStart, blockEnd);
+				StageProfiler.transferred(stage, input_block.getSizeInBytes() + background_subtracted_block.getSizeInBytes());
+			}
+			
+			EngineImage label_block;
+			try (Stage stage = stageProfiler.stage("segment", input_block)) {
+				label_block = segmentImage(input_block, background_subtracted_block, thresholdValue, fillHoles);
+			}
+			input_block.close();
+			background_subtracted_block.close();
+			
+			int[][] label_slices;
+			try (Stage stage = stageProfiler.stage("pull", label_block)) {
+				label_slices = engine.pullHostImage(label_block).getLabelSlices();
+				StageProfiler.transferred(stage, label_block.getSizeInBytes());
+			}
+			label_block.close();
+			
+			try (Stage stage = stageProfiler.stage("stitch", (long) width * height * (coreEnd - coreStart))) {
+				int[][] coreLabels = Arrays.copyOfRange(label_slices, coreStart - blockStart, coreEnd - blockStart);
+				int[] lookaheadLabels = null;
+				if (coreEnd < depth) {
+					lookaheadLabels = label_slices[coreEnd - blockStart];
+				}
+				stitcher.addSlab(coreStart, coreLabels, lookaheadLabels);
+			}
+			
+			//slices not reached by the following blocks anymore
+			int nextBlockStart = Math.min(depth, Math.max(0, coreEnd - halo));
+			for (int z = blockStart; z < nextBlockStart; z++) {
+				background_subtracted_slices[z] = null;
+			}
+			IJ.showProgress(0.4 + 0.5 * (tile + 1) / tileCount);
+		}
+		
+		final long voxelCount = (long) width * height * depth;
+		int labelCount;
+		HostImage labels;
+		try (Stage stage = stageProfiler.stage("stitch", voxelCount)) {
+			labelCount = stitcher.finish();
+			labels = stitcher.getLabelImage();
+		}
+		log.debug("labelCount = " + labelCount);
+		
+		if (!volumeRange.equalsIgnoreCase("0-infinity") || excludeOnEdges) {
+			try (Stage stage = stageProfiler.stage("label exclusion", voxelCount)) {
+				labelCount = excludeLabels(labels, volumeRange, excludeOnEdges);
+			}
+			log.debug("remaining labels = " + labelCount);
+		}
+		IJ.showProgress(0.95);
+		
+		try (Stage stage = stageProfiler.stage("output", voxelCount)) {
+			createOutputImage(labels, labelCount, coreSlices, outputType);
+		}
+		IJ.showProgress(1.0);
+		
+		stageProfiler.finish(displayOutput);
+	}
+	
+	
+	
+	/**
+	 * Estimates how many slices in z each processing step reaches beyond a voxel.
+	 * One additional slice is needed to compare the labels of neighboring blocks.
+	 */
+	private int getTileHalo() {
+		return (int) Math.ceil(getReach(true)) + 1 + additionalTileHalo;
+	}
+	
+	
+	
+	/**
+	 * Estimates how far all processing steps together reach beyond a voxel.
+	 * Gaussian kernels reach 4 sigma, the recursive Gaussian of the CPU engine has an unbounded support
+	 * but its weights beyond 4 sigma sum up to less than 1e-4.
+	 * 
+	 * @param alongZ	true for the reach in slices, false for the reach in pixels within the slices
+	 */
+	private double getReach(boolean alongZ) {
+		
+		double scale = alongZ ? 1 / calibration[2] : Math.max(1, calibration[1]);
+		double scaled_filter_radius = filterRadius * scale;
+		double scaled_bckgr_radius = backgroundRadius * scale;
+		
+		double filterHalo = 0;
+		switch (filterMethod) {
+		case "Gaussian":
+			filterHalo = GAUSSIAN_REACH * scaled_filter_radius;
+			break;
+		case "DoG":
+			filterHalo = GAUSSIAN_REACH * (filterRadius + 2) * scale;
+			break;
+		case "DoG (diff to r*3)":
+			filterHalo = 3 * GAUSSIAN_REACH * scaled_filter_radius;
+			break;
+		case "DoG (2D forced, diff to r*3)":
+			filterHalo = alongZ ? 0 : 3 * GAUSSIAN_REACH * scaled_filter_radius;
+			break;
+		case "Median":
+			filterHalo = alongZ ? 0 : scaled_filter_radius;
+			break;
+		case "Mean":
+		case "Minimum":
+		case "Maximum":
+		case "Variance":
+			filterHalo = scaled_filter_radius;
+			break;
+		case "Open":
+		case "Close":
+			filterHalo = 2 * scaled_filter_radius;
+			break;
+		case "Tubeness":
+		case "Inverted Tubeness":
+			filterHalo = GAUSSIAN_REACH * filterRadius + 1;	//Hessian matrix of the blurred image
+			break;
+		default:
+			//slice by slice or no filter
+			break;
+		}
+		
+		double backgroundHalo = 0;
+		switch (backgroundSubtractionMethod) {
+		case "DoG":
+			backgroundHalo = GAUSSIAN_REACH * scaled_bckgr_radius;
+			break;
+		case "DoM":
+		case "Minimum":
+			backgroundHalo = alongZ ? 0 : scaled_bckgr_radius;
+			break;
+		case "TopHat":
+		case "BottomHat":
+			backgroundHalo = 2 * scaled_bckgr_radius;
+			break;
+		case "Inverted Tubeness":
+			backgroundHalo = GAUSSIAN_REACH * backgroundRadius + 1;
+			break;
+		default:
+			break;
+		}
+		
+		double seedHalo = 0;
+		switch (separationMethod) {
+		case "Maxima":
+		case "DoG Seeds":
+			seedHalo = GAUSSIAN_REACH * spotSigma + maximaRadius;
+			break;
+		case "Eroded Maxima":
+		case "Maxima Spheres":
+			seedHalo = spotSigma + maximaRadius;
+			break;
+		case "EDM Maxima":
+			seedHalo = maximaRadius;
+			break;
+		case "Eroded box":
+		case "Eroded sphere":
+			seedHalo = spotSigma;
+			break;
+		default:
+			break;
+		}
+		
+		return filterHalo + backgroundHalo + seedHalo;
+	}
+	
+	
+	
+	private int getTileCoreSlices(int width, int height, int depth, int halo) {
+		
+		if (maxTileSlices > 0) {
+			return Math.min(depth, maxTileSlices);
+		}
+		
+		long sliceVoxels = (long) width * height;
+		long maxBlockSlices;
+		long hostBytesPerBlockVoxel = HOST_BLOCK_BYTES_PER_VOXEL;
+		
+		if (engine instanceof CPUEngine) {
+			//the block images of the CPU engine share the heap with the host copies of the complete stack
+			hostBytesPerBlockVoxel += DEVICE_BYTES_PER_VOXEL;
+			maxBlockSlices = Long.MAX_VALUE;
+		} else {
+			long globalMemory = engine.getMemorySize();
+			long maxAllocation = engine.getMaxAllocationSize();
+			log.debug(engine.getName() + " memory = " + globalMemory + " / max allocation = " + maxAllocation);
+			maxBlockSlices = Math.min(globalMemory / DEVICE_BYTES_PER_VOXEL, maxAllocation / Float.BYTES) / sliceVoxels;
+		}
+		
+		Runtime runtime = Runtime.getRuntime();
+		long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		long blockHeap = freeHeap - sliceVoxels * depth * HOST_STACK_BYTES_PER_VOXEL;
+		log.debug("free heap = " + freeHeap + " / heap for blocks = " + blockHeap);
+		if (blockHeap <= 0) {
+			log.warn("The complete stack needs more than the free main memory of " + freeHeap + " bytes besides the blocks");
+		}
+		maxBlockSlices = Math.min(maxBlockSlices, Math.max(0, blockHeap) / (hostBytesPerBlockVoxel * sliceVoxels));
+		
+		long coreSlices = maxBlockSlices - 2L * halo;
+		if (coreSlices < 1) {
+			log.warn("Halo of " + halo + " slices does not fit into the memory together with the block, processing single slices");
+			coreSlices = 1;
+		}
+		
+		return (int) Math.min(depth, coreSlices);
+	}
+	
+	
+	
+	private EngineImage pushSlices(Object[] slices, int width, int height, int start, int end) {
+		
+		ImageStack blockStack = new ImageStack(width, height);
+		for (int z = start; z < end; z++) {
+			blockStack.addSlice(null, slices[z]);
+		}
+		
+		return engine.push(new ImagePlus("block", blockStack));
+	}
+	
+	
+	
+	/**
+	 * Host side equivalent of excluding labels outside the volume range and/or on the image edges
+	 * 
+	 * @return the number of remaining labels, which are consecutively relabeled
+	 */
+	private int excludeLabels(HostImage labels, String volumeRange, boolean excludeOnEdges) {
+		
+		double minVolume = 0;
+		double maxVolume = Double.POSITIVE_INFINITY;
+		if (!volumeRange.equalsIgnoreCase("0-infinity")) {
+			minVolume = BV3DBoxUtilities.getMinFromRange(volumeRange);
+			maxVolume = BV3DBoxUtilities.getMaxFromRange(volumeRange);
+		}
+		
+		return CPUEngine.excludeLabels(labels, minVolume, maxVolume, excludeOnEdges);
 	}
 
 	
-	public void invertImage(ClearCLBuffer input_image, ClearCLBuffer inverted_image) {
-		clij2.invert(input_image, inverted_image);
+	public void invertImage(EngineImage input_image, EngineImage inverted_image) {
+		engine.invert(input_image, inverted_image);
 	}
 	
 
-	public ClearCLBuffer filterImage(ClearCLBuffer input_image, String filterMethod, Float filterRadius) {
+	public EngineImage filterImage(EngineImage input_image, String filterMethod, Float filterRadius) {
 					
-		ClearCLBuffer filtered_image = clij2.create(input_image);
-		//ClearCLBuffer filtered_image = clij2.create(input_image.getDimensions(), NativeTypeEnum.Float);
+		EngineImage filtered_image = engine.create(input_image);
+		//EngineImage filtered_image = engine.create(input_image.getDimensions());
 		
 		double y_filter_radius = filterRadius * calibration[1];
 		double z_filter_radius = filterRadius / calibration[2];
@@ -270,73 +913,57 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 		
 		switch (filterMethod) {
 		case "Gaussian":
-			clij2.gaussianBlur3D(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
+			engine.gaussianBlur(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
 			break;
 		case "DoG":
 			double dogFilterRadius = filterRadius + 2d;
-			clij2.differenceOfGaussian3D(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, dogFilterRadius, (dogFilterRadius * calibration[1]), (dogFilterRadius / calibration[2]));
+			engine.differenceOfGaussian(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, dogFilterRadius, (dogFilterRadius * calibration[1]), (dogFilterRadius / calibration[2]));
 			break;
 		
 		case "DoG (diff to r*3)":
 			double dogRadiusTimesThree = filterRadius * 3d;
-			clij2.differenceOfGaussian3D(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, dogRadiusTimesThree, (dogRadiusTimesThree * calibration[1]), (dogRadiusTimesThree / calibration[2]));
+			engine.differenceOfGaussian(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, dogRadiusTimesThree, (dogRadiusTimesThree * calibration[1]), (dogRadiusTimesThree / calibration[2]));
 			break;
 		
 			
 		case "DoG (2D forced, diff to r*3)":
 			double dogRadius2DTimesThree = filterRadius * 3d;
-			clij2.differenceOfGaussian3D(input_image, filtered_image, filterRadius, y_filter_radius, 0, dogRadius2DTimesThree, (dogRadius2DTimesThree * calibration[1]), 0);
+			engine.differenceOfGaussian(input_image, filtered_image, filterRadius, y_filter_radius, 0, dogRadius2DTimesThree, (dogRadius2DTimesThree * calibration[1]), 0);
 			break;
 		
 		case "Median":
-			if (stackSize == 1) {
-				clij2.median2DSphere(input_image, filtered_image, filterRadius, y_filter_radius);	
-			} else {
-				clij2.median3DSliceBySliceSphere(input_image, filtered_image, filterRadius, y_filter_radius);
-			}
+			engine.median(input_image, filtered_image, filterRadius, y_filter_radius, 0, false);
 			break;
 		case "Mean":
-			if (stackSize == 1) {
-				clij2.mean2DSphere(input_image, filtered_image, filterRadius, y_filter_radius);	
-			} else {
-				clij2.mean3DSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);				
-			}
+			engine.mean(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, false);
 			break;
 		case "Minimum":
-			if (stackSize == 1) {
-				clij2.minimum2DSphere(input_image, filtered_image, filterRadius, y_filter_radius);	
-			} else {
-				clij2.minimum3DSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);				
-			}
+			engine.minimum(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, false);
 			break;	
 		case "Maximum":
-			if (stackSize == 1) {
-				clij2.maximum2DSphere(input_image, filtered_image, filterRadius, y_filter_radius);	
-			} else {
-				clij2.maximum3DSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);				
-			}
+			engine.maximum(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, false);
 			break;
 		case "Open":
-			clij2.greyscaleOpeningSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
+			engine.opening(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, false, false);
 			break;
 		case "Close":
-			clij2.greyscaleClosingSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
+			engine.opening(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, false, true);
 			break;
 		case "Variance":
-			clij2.varianceSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
+			engine.variance(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, false);
 			break;
 		case "Tubeness":
-			ij2Tubeness.imageJ2Tubeness(clij2, input_image, filtered_image, filterRadius, 0f, 0f, 0f);
+			engine.tubeness(input_image, filtered_image, filterRadius);
 			break;
 		case "Inverted Tubeness":
-			ClearCLBuffer inverted_image = clij2.create(input_image.getDimensions(), NativeTypeEnum.Float);
-			clij2.invert(input_image, inverted_image);
-			//BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, inverted_image, false, LutNames.GRAY);
-			ij2Tubeness.imageJ2Tubeness(clij2, inverted_image, filtered_image, filterRadius, 0f, 0f, 0f);
-			inverted_image.close();
+			try (Lease inverted_image = bufferPool.lease(input_image.getDimensions())) {
+				engine.invert(input_image, inverted_image.get());
+				//BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, inverted_image, false, LutNames.GRAY);
+				engine.tubeness(inverted_image.get(), filtered_image, filterRadius);
+			}
 			break;
 		default:
-			clij2.copy(input_image, filtered_image);
+			engine.copy(input_image, filtered_image);
 			break;
 		}
 		
@@ -347,9 +974,9 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 	
 	
 	
-	public ClearCLBuffer backgroundSubtraction(ClearCLBuffer filtered_image, String backgroundSubtractionMethod, Float backgroundRadius) {
+	public EngineImage backgroundSubtraction(EngineImage filtered_image, String backgroundSubtractionMethod, Float backgroundRadius) {
 		
-		ClearCLBuffer background_subtracted_image = clij2.create(filtered_image);
+		EngineImage background_subtracted_image = engine.create(filtered_image);
 		
 		double y_bckgr_radius = backgroundRadius * calibration[1];
 		double z_bckgr_radius = backgroundRadius / calibration[2];
@@ -362,49 +989,46 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 		
 		switch (backgroundSubtractionMethod) {
 		case "None":
-			clij2.copy(filtered_image, background_subtracted_image);
+			engine.copy(filtered_image, background_subtracted_image);
 			break;
 		case "DoG":
-			clij2.differenceOfGaussian3D(filtered_image, background_subtracted_image, 0, 0, 0, backgroundRadius, y_bckgr_radius, z_bckgr_radius);	
+			engine.differenceOfGaussian(filtered_image, background_subtracted_image, 0, 0, 0, backgroundRadius, y_bckgr_radius, z_bckgr_radius);	
 			break;
 		case "DoM":
-			ClearCLBuffer tempMedian = clij2.create(filtered_image);
-			if (zSlices == 1) {
-				clij2.median2DSphere(filtered_image, tempMedian, backgroundRadius, y_bckgr_radius);	
-			} else {
-				clij2.median3DSliceBySliceSphere(filtered_image, tempMedian, backgroundRadius, y_bckgr_radius);				
+			try (Lease tempMedian = bufferPool.lease(filtered_image)) {
+				engine.median(filtered_image, tempMedian.get(), backgroundRadius, y_bckgr_radius, 0, false);
+				engine.subtractImages(filtered_image, tempMedian.get(), background_subtracted_image);
 			}
-			clij2.subtractImages(filtered_image, tempMedian, background_subtracted_image);
-			tempMedian.close();
 			break;
 		case "Minimum":
-			ClearCLBuffer tempMinimum = clij2.create(filtered_image);
-			if (zSlices == 1) {
-				clij2.minimum2DSphere(filtered_image, tempMinimum, backgroundRadius, y_bckgr_radius);	
-			} else {
-				clij2.minimum3DSliceBySliceSphere(filtered_image, tempMinimum, backgroundRadius, y_bckgr_radius);				
+			try (Lease tempMinimum = bufferPool.lease(filtered_image)) {
+				engine.minimum(filtered_image, tempMinimum.get(), backgroundRadius, y_bckgr_radius, 0, false);
+				engine.subtractImages(filtered_image, tempMinimum.get(), background_subtracted_image);
 			}
-			clij2.subtractImages(filtered_image, tempMinimum, background_subtracted_image);
-			tempMinimum.close();
 			break;
 		case "TopHat":
-			clij2.topHatBox(filtered_image, background_subtracted_image, backgroundRadius, y_bckgr_radius, z_bckgr_radius);
+			try (Lease tempOpened = bufferPool.lease(filtered_image)) {
+				engine.opening(filtered_image, tempOpened.get(), backgroundRadius, y_bckgr_radius, z_bckgr_radius, true, false);
+				engine.subtractImages(filtered_image, tempOpened.get(), background_subtracted_image);
+			}
 			break;
 		case "BottomHat":
-			clij2.bottomHatBox(filtered_image, background_subtracted_image, backgroundRadius, y_bckgr_radius, z_bckgr_radius);
+			try (Lease tempClosed = bufferPool.lease(filtered_image)) {
+				engine.opening(filtered_image, tempClosed.get(), backgroundRadius, y_bckgr_radius, z_bckgr_radius, true, true);
+				engine.subtractImages(tempClosed.get(), filtered_image, background_subtracted_image);
+			}
 			break;
 		case "Inverted Tubeness":
-			ClearCLBuffer temp_image = clij2.create(input_image.getDimensions(), NativeTypeEnum.Float);
-			ClearCLBuffer tubeness_image = clij2.create(input_image.getDimensions(), NativeTypeEnum.Float);
-			clij2.invert(filtered_image, temp_image);
-			ij2Tubeness.imageJ2Tubeness(clij2, temp_image, tubeness_image, backgroundRadius, 0f, 0f, 0f);
-			clij2.multiplyImageAndScalar(tubeness_image, temp_image, 2.0);	//increase tube intensity to elivate the subtraction effect
-			clij2.subtractImages(filtered_image, temp_image, background_subtracted_image);
-			temp_image.close();
-			tubeness_image.close();
+			try (Lease temp_image = bufferPool.lease(filtered_image.getDimensions());
+					Lease tubeness_image = bufferPool.lease(filtered_image.getDimensions())) {
+				engine.invert(filtered_image, temp_image.get());
+				engine.tubeness(temp_image.get(), tubeness_image.get(), backgroundRadius);
+				engine.multiplyImageAndScalar(tubeness_image.get(), temp_image.get(), 2.0);	//increase tube intensity to elivate the subtraction effect
+				engine.subtractImages(filtered_image, temp_image.get(), background_subtracted_image);
+			}
 			break;
 		default:
-			clij2.copy(input_image, filtered_image);
+			engine.copy(filtered_image, background_subtracted_image);
 			break;
 		}
 		
@@ -415,34 +1039,202 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 	
 	
 	@Deprecated
-	public ClearCLBuffer thresholdImage(ClearCLBuffer background_subtracted_image, String thresholdMethod) {
+	public EngineImage thresholdImage(EngineImage background_subtracted_image, String thresholdMethod) {
 		
-		ClearCLBuffer thresholded_image = clij2.create(background_subtracted_image);
-						
-		log.debug("threshold = " + clij2.getAutomaticThreshold(background_subtracted_image, thresholdMethod));
+		return createBinaryImage(background_subtracted_image, getThresholdValue(background_subtracted_image, thresholdMethod, "full"), "Off");
+	}
+
+	
+	
+	/**
+	 * Threshold from the histogram of the complete 8-bit image, as in the tiled processing
+	 * 
+	 * @param background_subtracted_image
+	 * @param thresholdMethod
+	 * @param histogramUsage	"full", "ignore black", "ignore white" or "ignore both"
+	 * @return
+	 */
+	public double getThresholdValue(EngineImage background_subtracted_image, String thresholdMethod, String histogramUsage) {
 		
-		clij2.automaticThreshold(background_subtracted_image, thresholded_image, thresholdMethod);
+		//the histogram is computed by the engine, so the image does not need to be pulled
+		StreamingHistogram histogram = new StreamingHistogram(256, 0, 256);
+		histogram.add(engine.histogram(background_subtracted_image, 256, 0, 256));
 		
-		return thresholded_image;
+		return histogram.getThresholdValue(thresholdMethod, histogramUsage);
 	}
 
 	
 	
-	public void createOutputImage(ClearCLBuffer output_image, String outputType) {
+	public void createOutputImage(EngineImage output_image, String outputType) {
+		createOutputImage(getInputImage(), output_image, outputType);
+	}
+	
+	
+	
+	/**
+	 * Output of a preview computed on the input from {@link #getPreviewInputImage(int)},
+	 * only the previewed region without its halo is displayed.
+	 * 
+	 * @param output_image	result of the preview input
+	 * @param outputType
+	 */
+	public void createPreviewOutputImage(EngineImage output_image, String outputType) {
+		
+		if (previewCore == null) {
+			createOutputImage(output_image, outputType);
+			return;
+		}
+		
+		EngineImage input_core = cropPreviewCore(preview_image);
+		EngineImage output_core = cropPreviewCore(output_image);
+		createOutputImage(input_core, output_core, outputType);
+		input_core.close();
+		output_core.close();
+	}
+	
+	
+	
+	private EngineImage cropPreviewCore(EngineImage block_image) {
+		
+		EngineImage core_image;
+		if (block_image.getDepth() == 1) {
+			core_image = engine.create(new long[] { previewCore[3], previewCore[4] }, block_image.getBitDepth());
+		} else {
+			core_image = engine.create(new long[] { previewCore[3], previewCore[4], previewCore[5] }, block_image.getBitDepth());
+		}
+		engine.crop(block_image, core_image, previewCore[0], previewCore[1], previewCore[2]);
+		return core_image;
+	}
+	
+	
+	
+	private void createOutputImage(EngineImage input_image, EngineImage output_image, String outputType) {
 		ImagePlus tempOutputImagePlus = null;
 		
 		if (outputType.equals("Binary")) {
-			tempOutputImagePlus = clij2.pullBinary(output_image);
+			
+			EngineImage binary_image = engine.create(output_image.getDimensions(), 8);
+			engine.threshold(output_image, binary_image, 1);
+			engine.multiplyImageAndScalar(binary_image, binary_image, 255);
+			tempOutputImagePlus = engine.pull(binary_image);
+			binary_image.close();
+			
 		} else if (outputType.equals("Labels")) {
-			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, output_image, false, LutNames.GLASBEY_LUT);
+			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, output_image, false, LutNames.GLASBEY_LUT);
 		} else {
 			
-			ClearCLBuffer temp_output_image = clij2.create(input_image);
-			clij2.visualizeOutlinesOnOriginal(input_image, output_image, temp_output_image);
-			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, temp_output_image, false, LutNames.OUTLINE);
+			EngineImage temp_output_image = engine.create(input_image);
+			engine.visualizeOutlinesOnOriginal(input_image, output_image, temp_output_image);
+			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromEngine(engine, temp_output_image, false, LutNames.OUTLINE);
 			temp_output_image.close();
 		}
-						
+		
+		showOutputImage(tempOutputImagePlus, engine.maximumOfAllPixels(output_image));
+	}
+	
+	
+	
+	/**
+	 * Output of the tiled processing from labels in the main memory,
+	 * outlines are drawn block by block with the core slices of the tiled processing.
+	 */
+	private void createOutputImage(HostImage labels, int labelCount, int coreSlices, String outputType) {
+		
+		final int width = labels.getWidth();
+		final int height = labels.getHeight();
+		final int depth = labels.getDepth();
+		ImagePlus tempOutputImagePlus = null;
+		
+		if (outputType.equals("Binary")) {
+			
+			ImageStack binaryStack = new ImageStack(width, height);
+			float[] slice = null;
+			for (int z = 0; z < depth; z++) {
+				slice = labels.readSlice(z, slice);
+				byte[] pixels = new byte[slice.length];
+				for (int i = 0; i < slice.length; i++) {
+					pixels[i] = slice[i] > 0 ? (byte) 255 : 0;
+				}
+				binaryStack.addSlice(new ByteProcessor(width, height, pixels));
+			}
+			tempOutputImagePlus = new ImagePlus("binary", binaryStack);
+			
+		} else if (outputType.equals("Labels")) {
+			
+			ImageStack labelStack = new ImageStack(width, height);
+			for (int z = 0; z < depth; z++) {
+				labelStack.addSlice(new FloatProcessor(width, height, labels.readSlice(z, null)));
+			}
+			tempOutputImagePlus = new ImagePlus("labels", labelStack);
+			LUT labelLut = getGlasbeyLUT();
+			if (labelLut != null) {
+				tempOutputImagePlus.setLut(labelLut);
+			}
+			
+		} else {
+			
+			Object[] input_slices = inputGray8ImagePlus.getStack().getImageArray();
+			Object[] label_slices = new Object[depth];
+			ImageStack outlineStack = new ImageStack(width, height);
+			
+			for (int coreStart = 0; coreStart < depth; coreStart += coreSlices) {
+				int coreEnd = Math.min(depth, coreStart + coreSlices);
+				int blockStart = Math.max(0, coreStart - 1);
+				int blockEnd = Math.min(depth, coreEnd + 1);
+				
+				for (int z = blockStart; z < blockEnd; z++) {
+					label_slices[z] = labels.readSlice(z, null);
+				}
+				EngineImage input_block = pushSlices(input_slices, width, height, blockStart, blockEnd);
+				EngineImage label_block = pushSlices(label_slices, width, height, blockStart, blockEnd);
+				Arrays.fill(label_slices, blockStart, blockEnd, null);
+				EngineImage outline_block = engine.create(input_block);
+				engine.visualizeOutlinesOnOriginal(input_block, label_block, outline_block);
+				input_block.close();
+				label_block.close();
+				
+				ImageStack outline_slices = engine.pull(outline_block).getStack();
+				outline_block.close();
+				for (int z = coreStart; z < coreEnd; z++) {
+					outlineStack.addSlice(outline_slices.getProcessor(z - blockStart + 1));
+				}
+			}
+			tempOutputImagePlus = new ImagePlus("outlines", outlineStack);
+			tempOutputImagePlus.setLut(BV3DBoxUtilities.createOutlineLUT());
+		}
+		
+		showOutputImage(tempOutputImagePlus, labelCount);
+	}
+	
+	
+	
+	/**
+	 * The glasbey LUT is only needed for displayed label images and is missing without a
+	 * Fiji installation, e.g. in headless batch processing.
+	 * 
+	 * @return the glasbey LUT or null if the output is not displayed or the luts folder is missing
+	 */
+	private LUT getGlasbeyLUT() {
+		if (glasbey == null && displayOutput) {
+			String lutDirectory = IJ.getDirectory("luts");
+			if (lutDirectory != null && new File(lutDirectory, LutNames.GLASBEY_LUT.lutName + ".lut").isFile()) {
+				glasbey = LutLoader.openLut(lutDirectory + LutNames.GLASBEY_LUT.lutName + ".lut");
+			}
+		}
+		return glasbey;
+	}
+	
+	
+	private void showOutputImage(ImagePlus tempOutputImagePlus, double maxValue) {
+		
+		if (!displayOutput) {
+			outputImagePlus = tempOutputImagePlus;
+			outputImagePlus.setCalibration(inputImagePlus.getCalibration());
+			outputImagePlus.setTitle(outputImageName);
+			outputImagePlus.setDisplayRange(0, maxValue);
+			return;
+		}
+		
 		outputImagePlus = WindowManager.getImage(outputImageName);			
 		
 		if (outputImagePlus == null) {
@@ -454,7 +1246,7 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 		outputImagePlus.setTitle(outputImageName);
 		outputImagePlus.show();
 		
-		outputImagePlus.setDisplayRange(0, clij2.getMaximumOfAllPixels(output_image));     
+		outputImagePlus.setDisplayRange(0, maxValue);     
 		
 		BV3DBoxUtilities.adaptImageDisplay(inputImagePlus, outputImagePlus);
 		
@@ -466,43 +1258,155 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 		return outputImageName;
 	}
 	
-	public ClearCLBuffer getInputImageAsClearClBuffer() {
+	public EngineImage getInputImage() {
+		if (input_image == null && inputGray8ImagePlus != null) {
+			input_image = engine.push(inputGray8ImagePlus);
+		}
 		return input_image;	
 	}
 	
 	
+	/**
+	 * Pushes only the part of the input image needed to preview a single slice and/or the selection.
+	 * The previewed region is extended by a halo covering the estimated reach of the filters and
+	 * seed detection (see {@link #setAdditionalTileHalo(int)}), in z for a single slice and in x and y
+	 * for a selection. Objects extending beyond the halo are only measured by their part within it.
+	 * 
+	 * Needs to be called after {@link #setParameters(String, Float, String, Float, String, String, Float, Float, String)}.
+	 * 
+	 * @param slice	slice to preview (1-based), 0 to preview all slices
+	 * @return the input for the preview, owned by this class and only valid until the next call
+	 */
+	public EngineImage getPreviewInputImage(int slice) {
+		
+		final int depth = inputGray8ImagePlus.getStackSize();
+		Rectangle core = roiBounds != null ? roiBounds : new Rectangle(0, 0, inputGray8ImagePlus.getWidth(), inputGray8ImagePlus.getHeight());
+		int coreStart = 0;
+		int coreEnd = depth;
+		if (slice > 0 && depth > 1) {
+			coreStart = Math.min(slice, depth) - 1;
+			coreEnd = coreStart + 1;
+		}
+		
+		int xyHalo = roiBounds != null ? (int) Math.ceil(getReach(false)) + additionalTileHalo : 0;
+		int zHalo = coreEnd - coreStart < depth ? (int) Math.ceil(getReach(true)) + additionalTileHalo : 0;
+		
+		Rectangle block = new Rectangle(core);
+		block.grow(xyHalo, xyHalo);
+		block = block.intersection(new Rectangle(0, 0, inputImagePlus.getWidth(), inputImagePlus.getHeight()));
+		int blockStart = Math.max(0, coreStart - zHalo);
+		int blockEnd = Math.min(depth, coreEnd + zHalo);
+		
+		if (block.equals(core) && blockEnd - blockStart == depth) {
+			previewBlock = null;
+			previewCore = null;
+			return getInputImage();
+		}
+		
+		int[] region = new int[] { block.x, block.y, blockStart, block.width, block.height, blockEnd - blockStart };
+		log.debug("preview block = " + Arrays.toString(region));
+		
+		if (!Arrays.equals(region, previewBlock)) {
+			
+			closePreviewInputImage();
+			if (roiBounds == null) {
+				preview_image = pushSlices(inputGray8ImagePlus.getStack().getImageArray(), block.width, block.height, blockStart, blockEnd);
+			} else {
+				ImageStack croppedStack = inputImagePlus.getStack().crop(block.x, block.y, blockStart, block.width, block.height, blockEnd - blockStart);
+				preview_image = engine.push(BV3DBoxUtilities.convertToGray8(new ImagePlus("preview", croppedStack)));
+			}
+			previewBlock = region;
+		}
+		previewCore = new int[] { core.x - block.x, core.y - block.y, coreStart - blockStart, core.width, core.height, coreEnd - coreStart };
+		
+		return preview_image;
+	}
+	
+	
+	
+	/**
+	 * 
+	 * @return x, y, z, width, height and depth of the current preview input within the input image, null if the complete input is previewed
+	 */
+	public int[] getPreviewBlock() {
+		return previewBlock == null ? null : previewBlock.clone();
+	}
+	
+	
+	
+	private void closePreviewInputImage() {
+		if (preview_image != null) {
+			preview_image.close();
+			preview_image = null;
+		}
+		previewBlock = null;
+	}
+	
+	
+	/**
+	 * Releases the input and all idle intermediate buffers of the compute engine and logs their peak memory
+	 */
+	public void closeInputImage() {
+		if (input_image != null) {
+			input_image.close();
+			input_image = null;
+		}
+		closePreviewInputImage();
+		if (bufferPool != null) {
+			bufferPool.close();
+		}
+	}
+	
+	
 	public ImagePlus getOutputImage() {
 		return outputImagePlus;
 	}
 	
-	public CLIJ2 getCurrentCLIJ2Instance() {
-		return clij2;
+	public ComputeEngine getComputeEngine() {
+		return engine;
+	}
+	
+	
+	/**
+	 * 
+	 * @return the stages of the last processing, empty if profiling is switched off in the settings
+	 */
+	public StageProfiler getStageProfiler() {
+		return stageProfiler;
+	}
+	
+	
+	private long getInputVoxelCount() {
+		return (long) inputGray8ImagePlus.getWidth() * inputGray8ImagePlus.getHeight() * inputGray8ImagePlus.getStackSize();
 	}
 	
 		
+	/**
+	 * Stops a running tiled processing after the current block
+	 */
 	public void cancel() {
-		
+		cancelReason = "Canceled";
 	}
 
 	public boolean isCanceled() {
-		// TODO Auto-generated method stub
-		return false;
+		return cancelReason != null;
 	}
 
 	public void cancel(String reason) {
 		
+		cancelReason = reason;
+		
 		ImagePlus outputImagePlus = WindowManager.getImage(outputImageName);
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
-		clij2.close();
+		engine.close();
 		
 	}
 
 	public String getCancelReason() {
-		// TODO Auto-generated method stub
-		return null;
+		return cancelReason;
 	}
 	
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,306 @@
+package de.biovoxxel.bv3dbox.plugins;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.scijava.log.LogLevel;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
+import org.scijava.prefs.DefaultPrefService;
+import org.scijava.prefs.PrefService;
+
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
+import ij.IJ;
+import ij.ImagePlus;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Headless batch processing of all images in a folder with the Voronoi Threshold Labeling.
+ *
+ * Images are read and written by a pool of I/O threads while the segmentation runs on a single
+ * compute thread, since all images share the same compute engine. Reading of further images
+ * overlaps with the segmentation of the current one, as long as the estimated memory of all images in
+ * process stays within the memory budget. Output images are never displayed.
+ *
+ * The parameter file is a Java properties file using the parameter names of the Voronoi Threshold Labeling
+ * GUI (e.g. filterMethod=Gaussian, filterRadius=2.0) and the following batch settings:
+ *
+ * fileExtension		only files with this extension are processed (default ".tif")
+ * ioThreads			number of threads reading and writing images (default 2)
+ * maxMemoryMB			memory budget of all images in process (default half of the maximum heap size)
+ * maxTileSlices		see {@link BV_VoronoiThresholdLabeling#setMaxTileSlices(int)}
+ * additionalTileHalo	see {@link BV_VoronoiThresholdLabeling#setAdditionalTileHalo(int)}
+ *
+ * @author BioVoxxel
+ *
+ */
+public class BV_VoronoiThresholdLabelingBatch {
+
+	PrefService prefs = new DefaultPrefService();
+	LogService log = new StderrLogService();
+
+	private static final int MEMORY_PER_FILE_BYTE = 6;	//8-bit input, its gray8 copy and the 32-bit labels
+
+	private final Properties parameters;
+	private final File inputFolder;
+	private final File outputFolder;
+
+	private final AtomicInteger processedImages = new AtomicInteger();
+	private final List<String> failedImages = new ArrayList<String>();
+
+
+	/**
+	 *
+	 * @param parameterFile
+	 * @param inputFolder
+	 * @param outputFolder	created if not existing
+	 * @throws IOException	if the parameter file cannot be read
+	 */
+	public BV_VoronoiThresholdLabelingBatch(File parameterFile, File inputFolder, File outputFolder) throws IOException {
+		this(readParameters(parameterFile), inputFolder, outputFolder);
+	}
+
+
+	public BV_VoronoiThresholdLabelingBatch(Properties parameters, File inputFolder, File outputFolder) {
+
+		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
+
+		this.parameters = parameters;
+		this.inputFolder = inputFolder;
+		this.outputFolder = outputFolder;
+	}
+
+
+
+	private static Properties readParameters(File parameterFile) throws IOException {
+
+		Properties parameters = new Properties();
+		try (InputStream input = new FileInputStream(parameterFile)) {
+			parameters.load(input);
+		}
+		return parameters;
+	}
+
+
+
+	/**
+	 * Processes all images of the input folder and saves the output images as tif
+	 * with the prefix of the Voronoi Threshold Labeling into the output folder.
+	 * Images which cannot be read, processed or written are logged and skipped.
+	 *
+	 * @return the number of images which failed
+	 */
+	public int run() {
+
+		final String fileExtension = parameters.getProperty("fileExtension", ".tif").toLowerCase();
+		File[] files = inputFolder.listFiles((folder, name) -> name.toLowerCase().endsWith(fileExtension));
+		if (files == null) {
+			throw new IllegalArgumentException("Input folder " + inputFolder + " cannot be read");
+		}
+		Arrays.sort(files);
+
+		if (!outputFolder.isDirectory() && !outputFolder.mkdirs()) {
+			throw new IllegalArgumentException("Output folder " + outputFolder + " cannot be created");
+		}
+
+		final int ioThreads = Math.max(1, Integer.parseInt(parameters.getProperty("ioThreads", "2")));
+		final int memoryBudgetMB = Math.max(1, Integer.parseInt(parameters.getProperty("maxMemoryMB", "" + Runtime.getRuntime().maxMemory() / (2 * 1024 * 1024))));
+		log.info("Batch processing of " + files.length + " images with " + ioThreads + " I/O threads and a memory budget of " + memoryBudgetMB + " MB");
+
+		final BV_VoronoiThresholdLabeling bvvtl = createVoronoiThresholdLabeling();
+		final Semaphore memoryBudget = new Semaphore(memoryBudgetMB);
+
+		ExecutorService ioExecutor = Executors.newFixedThreadPool(ioThreads, runnable -> new Thread(runnable, "BV3DBox-Batch-IO"));
+		ExecutorService computeExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "BV3DBox-Batch-Compute"));
+		List<CompletableFuture<Void>> runningImages = new ArrayList<CompletableFuture<Void>>();
+
+		long startTime = System.currentTimeMillis();
+
+		try {
+
+			for (final File file : files) {
+
+				//images larger than the budget are processed alone
+				final int requiredMB = (int) Math.min(memoryBudgetMB, Math.max(1, file.length() * MEMORY_PER_FILE_BYTE / (1024 * 1024)));
+				memoryBudget.acquire(requiredMB);
+
+				runningImages.add(CompletableFuture
+						.supplyAsync(() -> readImage(file), ioExecutor)
+						.thenApplyAsync(image -> segmentImage(bvvtl, image), computeExecutor)
+						.thenAcceptAsync(outputImage -> writeImage(outputImage), ioExecutor)
+						.handle((result, error) -> {
+							memoryBudget.release(requiredMB);
+							if (error == null) {
+								processedImages.incrementAndGet();
+							} else {
+								log.error("Processing of " + file.getName() + " failed", error);
+								synchronized (failedImages) {
+									failedImages.add(file.getName());
+								}
+							}
+							return null;
+						}));
+			}
+
+			CompletableFuture.allOf(runningImages.toArray(new CompletableFuture[runningImages.size()])).join();
+
+		} catch (InterruptedException e) {
+
+			log.warn("Batch processing interrupted");
+			Thread.currentThread().interrupt();
+
+		} finally {
+
+			ioExecutor.shutdownNow();
+			computeExecutor.shutdown();
+			try {
+				computeExecutor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			bvvtl.closeInputImage();
+			if (bvvtl.getComputeEngine() != null) {
+				bvvtl.getComputeEngine().close();
+			}
+		}
+
+		log.info("Batch processing of " + processedImages.get() + " images finished in " + (System.currentTimeMillis() - startTime) / 1000 + " s");
+		if (!failedImages.isEmpty()) {
+			log.warn(failedImages.size() + " images failed: " + failedImages);
+		}
+
+		return failedImages.size();
+	}
+
+
+
+	private BV_VoronoiThresholdLabeling createVoronoiThresholdLabeling() {
+
+		BV_VoronoiThresholdLabeling bvvtl = new BV_VoronoiThresholdLabeling();
+		bvvtl.setDisplayOutput(false);
+		bvvtl.setParameters(parameters.getProperty("filterMethod", "None"),
+				Float.parseFloat(parameters.getProperty("filterRadius", "1.0")),
+				parameters.getProperty("backgroundSubtractionMethod", "None"),
+				Float.parseFloat(parameters.getProperty("backgroundRadius", "1.0")),
+				parameters.getProperty("thresholdMethod", "Default"),
+				parameters.getProperty("separationMethod", "Maxima"),
+				Float.parseFloat(parameters.getProperty("spotSigma", "0")),
+				Float.parseFloat(parameters.getProperty("maximaRadius", "0")),
+				parameters.getProperty("outputType", "Labels"));
+		bvvtl.setMaxTileSlices(Integer.parseInt(parameters.getProperty("maxTileSlices", "0")));
+		bvvtl.setAdditionalTileHalo(Integer.parseInt(parameters.getProperty("additionalTileHalo", "0")));
+
+		return bvvtl;
+	}
+
+
+
+	private ImagePlus readImage(File file) {
+
+		log.debug("Reading " + file);
+		ImagePlus image = IJ.openImage(file.getPath());
+		if (image == null) {
+			throw new IllegalStateException(file.getName() + " cannot be opened");
+		}
+		return image;
+	}
+
+
+
+	/**
+	 * Stacks exceeding the memory of the compute engine are processed in blocks of slices, otherwise as one block
+	 */
+	private ImagePlus segmentImage(BV_VoronoiThresholdLabeling bvvtl, ImagePlus image) {
+
+		log.debug("Segmenting " + image.getTitle());
+		bvvtl.setupInputImage(image);
+		bvvtl.processImageTiled(parameters.getProperty("histogramUsage", "full"),
+				parameters.getProperty("fillHoles", "Off"),
+				parameters.getProperty("volumeRange", "0-Infinity"),
+				Boolean.parseBoolean(parameters.getProperty("excludeOnEdges", "false")));
+
+		return bvvtl.getOutputImage();
+	}
+
+
+
+	private void writeImage(ImagePlus outputImage) {
+
+		File outputFile = new File(outputFolder, outputImage.getTitle());
+		log.debug("Writing " + outputFile);
+		if (!IJ.saveAsTiff(outputImage, outputFile.getPath())) {
+			throw new IllegalStateException(outputFile.getName() + " cannot be written");
+		}
+	}
+
+
+
+	/**
+	 * Usage: BV_VoronoiThresholdLabelingBatch parameterFile inputFolder [outputFolder]
+	 *
+	 * The output folder defaults to the subfolder "VTL_output" of the input folder.
+	 * The exit code is 1 if any image failed.
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 2) {
+			System.err.println("Usage: BV_VoronoiThresholdLabelingBatch parameterFile inputFolder [outputFolder]");
+			System.exit(2);
+		}
+
+		File inputFolder = new File(args[1]);
+		File outputFolder = args.length > 2 ? new File(args[2]) : new File(inputFolder, "VTL_output");
+
+		int failedImages = new BV_VoronoiThresholdLabelingBatch(new File(args[0]), inputFolder, outputFolder).run();
+		System.exit(failedImages > 0 ? 1 : 0);
+	}
+
+}
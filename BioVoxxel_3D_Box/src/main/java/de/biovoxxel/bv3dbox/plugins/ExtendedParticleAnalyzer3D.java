@@ -9,12 +9,13 @@ import org.scijava.module.MutableModuleItem;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import ij.ImagePlus;
 import ij.measure.ResultsTable;
 import ij.plugin.filter.ParticleAnalyzer;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 
 //@Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Extended Particle Analyzer (2D/3D)")
@@ -74,7 +75,7 @@ public class ExtendedParticleAnalyzer3D extends DynamicCommand {
 		}
 		
 		
-		CLIJ2 clij2 = CLIJ2.getInstance();
+		ComputeEngine engine = ComputeEngineFactory.getEngine();
 		
 				
 		double minSize = (double) BV3DBoxUtilities.getMinFromRange(areaRange);
@@ -88,12 +89,12 @@ public class ExtendedParticleAnalyzer3D extends DynamicCommand {
 //		ClearCLBuffer initialResultsVector = clij2.create(rowCount, headings.length);
 //		clij2.pushResultsTable(initialResultsVector, initialResults);
 				
-		ClearCLBuffer temp = clij2.push(binaryImagePlus);
-		ClearCLBuffer input_image = clij2.create(temp);
+		EngineImage temp = engine.push(binaryImagePlus);
+		EngineImage input_image = engine.create(temp.getDimensions());
 		if (binaryImagePlus.getProcessor().isBinary()) {
-			clij2.connectedComponentsLabelingBox(temp, input_image);
+			engine.connectedComponentsLabeling(temp, input_image, false);
 		} else {
-			clij2.copy(temp, input_image);
+			engine.copy(temp, input_image);
 		}
 		temp.close();
 		
@@ -0,0 +1,152 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.util.function.Supplier;
+
+import org.scijava.log.LogLevel;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
+import org.scijava.prefs.DefaultPrefService;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Level-guarded logging for the bv3dbox plugins with the logging level from the
+ * {@link BV3DBoxSettings}, read once when the logger is created.
+ *
+ * Messages given as {@link Supplier} are only built if their level is enabled, so that
+ * debug messages with string concatenation cost nothing if debugging is switched off.
+ * In loops over labels or pixels, messages depending on the loop variable should be
+ * guarded with {@link #isDebug()} instead, to also avoid creating the supplier.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class BV3DBoxLogger {
+
+	public static final String LOG_LEVEL_KEY = "bv_3d_box_settings_debug_level";
+
+	private final LogService log;
+	private final int level;
+
+
+	public BV3DBoxLogger() {
+		this(new StderrLogService());
+	}
+
+
+	/**
+	 *
+	 * @param log	e.g. the LogService injected into a command, its level is set from the settings
+	 */
+	public BV3DBoxLogger(LogService log) {
+		this.log = log;
+		this.level = getLogLevel();
+		log.setLevel(level);
+	}
+
+
+	/**
+	 *
+	 * @return the bv3dbox logging level from the settings as {@link LogLevel} value
+	 */
+	public static int getLogLevel() {
+		return new DefaultPrefService().getInt(BV3DBoxSettings.class, LOG_LEVEL_KEY, LogLevel.INFO);
+	}
+
+
+	public boolean isDebug() {
+		return level >= LogLevel.DEBUG;
+	}
+
+
+	public boolean isInfo() {
+		return level >= LogLevel.INFO;
+	}
+
+
+	public void debug(String message) {
+		if (level >= LogLevel.DEBUG) {
+			log.debug(message);
+		}
+	}
+
+
+	public void debug(Supplier<String> message) {
+		if (level >= LogLevel.DEBUG) {
+			log.debug(message.get());
+		}
+	}
+
+
+	public void info(String message) {
+		if (level >= LogLevel.INFO) {
+			log.info(message);
+		}
+	}
+
+
+	public void info(Supplier<String> message) {
+		if (level >= LogLevel.INFO) {
+			log.info(message.get());
+		}
+	}
+
+
+	public void warn(String message) {
+		if (level >= LogLevel.WARN) {
+			log.warn(message);
+		}
+	}
+
+
+	public void error(String message) {
+		if (level >= LogLevel.ERROR) {
+			log.error(message);
+		}
+	}
+
+
+	public void error(String message, Throwable throwable) {
+		if (level >= LogLevel.ERROR) {
+			log.error(message, throwable);
+		}
+	}
+
+
+	public LogService getLogService() {
+		return log;
+	}
+
+}
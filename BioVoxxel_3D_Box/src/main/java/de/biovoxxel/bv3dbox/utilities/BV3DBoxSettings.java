@@ -1,11 +1,16 @@
 package de.biovoxxel.bv3dbox.utilities;
 
+import java.io.File;
+
 import org.scijava.command.Command;
 import org.scijava.log.LogLevel;
 import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.prefs.PrefService;
+import org.scijava.widget.FileWidget;
+
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
 
 @Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Settings")
 public class BV3DBoxSettings implements Command {
@@ -24,6 +29,18 @@ public class BV3DBoxSettings implements Command {
 																													+ "if set to 'NONE', there will be no console output anymore!")
 	private String scijavaLogLevel = "WARN"; 
 	
+	@Parameter(label = "Compute engine", choices = {ComputeEngineFactory.ENGINE_AUTO, ComputeEngineFactory.ENGINE_CLIJ2, ComputeEngineFactory.ENGINE_CPU}, description = "Auto uses CLIJ2 if an OpenCL device is available and the CPU otherwise, default = Auto")
+	private String computeEngine = ComputeEngineFactory.ENGINE_AUTO;
+	
+	@Parameter(label = "CPU threads", min = "0", description = "number of threads used by the CPU engine, 0 = all available processors")
+	private Integer cpuThreads = 0;
+	
+	@Parameter(label = "Stage profiling", description = "records time, GPU transfers and buffer memory of each processing stage and reports them as table and JSON, default = off")
+	private Boolean stageProfiling = false;
+	
+	@Parameter(label = "Profiling output folder", required = false, style = FileWidget.DIRECTORY_STYLE, description = "folder for the JSON stage profiles, if empty the profiles are written to the log")
+	private File profilingFolder;
+	
 //	@Parameter(label = "Display debug images")
 //	private Boolean displayDebugImages = false; 
 
@@ -95,6 +112,18 @@ public class BV3DBoxSettings implements Command {
 		
 		
 		
+		prefs.put(BV3DBoxSettings.class, "bv_3d_box_settings_compute_engine", computeEngine);
+		System.out.println("Compute engine = " + computeEngine);
+		
+		prefs.put(BV3DBoxSettings.class, "bv_3d_box_settings_cpu_threads", Math.max(0, cpuThreads));
+		System.out.println("CPU threads = " + (cpuThreads > 0 ? cpuThreads : "all (" + Runtime.getRuntime().availableProcessors() + ")"));
+		
+		prefs.put(BV3DBoxSettings.class, StageProfiler.PROFILING_KEY, stageProfiling);
+		prefs.put(BV3DBoxSettings.class, StageProfiler.PROFILING_FOLDER_KEY, profilingFolder != null ? profilingFolder.getPath() : "");
+		System.out.println("Stage profiling = " + stageProfiling + (stageProfiling && profilingFolder != null ? " (" + profilingFolder + ")" : ""));
+		
+		
+		
 //		if (displayDebugImages) {
 //			prefs.put(BV3DBoxSettings.class, "bv_3d_box_settings_display_debug_images", true);
 //		} else {
@@ -8,6 +8,10 @@ import java.awt.Window;
 import org.scijava.log.LogService;
 import org.scijava.log.StderrLogService;
 
+import de.biovoxxel.bv3dbox.engine.CLIJ2Engine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
+
 import ij.IJ;
 import ij.ImagePlus;
 import ij.WindowManager;
@@ -163,6 +167,39 @@ public class BV3DBoxUtilities {
 	}
 	
 	
+	/**
+	 * 
+	 * @param image
+	 * @return	double[] with voxel width, height and depth relative to the voxel width, e.g. for distances in pixels along x
+	 */
+	public static double[] getVoxelSpacing(ImagePlus image) {
+		
+		if (image == null) {
+			return new double[] { 1.0, 1.0, 1.0 };
+		}
+		
+		return getVoxelSpacing(image.getCalibration());
+	}
+	
+	
+	/**
+	 * 
+	 * @param cal
+	 * @return	double[] with voxel width, height and depth relative to the voxel width, e.g. for distances in pixels along x
+	 */
+	public static double[] getVoxelSpacing(Calibration cal) {
+		
+		double height_width_ratio = cal.pixelHeight / cal.pixelWidth;
+		double depth_width_ratio = cal.pixelDepth / cal.pixelWidth;
+		
+		if (!(height_width_ratio > 0) || !(depth_width_ratio > 0) || Double.isInfinite(height_width_ratio) || Double.isInfinite(depth_width_ratio)) {
+			return new double[] { 1.0, 1.0, 1.0 };
+		}
+		
+		return new double[] { 1.0, height_width_ratio, depth_width_ratio };
+	}
+	
+	
 	public static String[] extendImageTitleListWithNone() {
 		String[] allImageNames = WindowManager.getImageTitles();
 		String[] imageNames = new String[allImageNames.length + 1];
@@ -238,6 +275,37 @@ public class BV3DBoxUtilities {
 	}
 	
 	
+	public static ImagePlus pullImageFromEngine(ComputeEngine engine, EngineImage imageToShow, boolean autoContrast, LutNames lutName) {
+		
+		if (engine instanceof CLIJ2Engine) {
+			return pullImageFromGPU(((CLIJ2Engine) engine).getCLIJ2(), CLIJ2Engine.buffer(imageToShow), autoContrast, lutName);
+		}
+		
+		ImagePlus imagePlusToBePulled = engine.pull(imageToShow);
+		imagePlusToBePulled.setTitle(imageToShow.getName());
+		
+		LUT outputLut;
+		if (lutName.equals(LutNames.GRAY)) {
+			outputLut = createGrayLUT();
+		} else if (lutName.equals(LutNames.OUTLINE)) {
+			outputLut = createOutlineLUT();
+		} else {
+			outputLut = LutLoader.openLut(IJ.getDirectory("luts") + lutName.lutName + ".lut");		
+		}
+		
+		if (outputLut != null) { imagePlusToBePulled.setLut(outputLut); }
+		
+		if (autoContrast) {
+			double max_int = engine.maximumOfAllPixels(imageToShow);
+			imagePlusToBePulled.setDisplayRange(0.0, max_int);			
+		} else {
+			imagePlusToBePulled.resetDisplayRange();			
+		}
+		
+		return imagePlusToBePulled;
+	}
+	
+	
 	public static void addImagePlusToBatchModeImages(ImagePlus imageToAdd) {
 		
 		System.out.println("isBatchMode=" + Interpreter.isBatchMode());
@@ -272,6 +340,25 @@ public class BV3DBoxUtilities {
 	}
 	
 	
+	/**
+	 * Labels a binary image into a new 32-bit label image on the given engine.
+	 * 
+	 * @param engine
+	 * @param binary_image
+	 * @param diamond	true for 6-connectivity (4 in 2D), false for 26-connectivity (8 in 2D)
+	 * @return consecutive labels
+	 */
+	public static EngineImage labelBinaryImage(ComputeEngine engine, ImagePlus binary_image, boolean diamond) {
+		
+		EngineImage temp_input_image = engine.push(binary_image);
+		EngineImage connectedComponentLabels = engine.create(temp_input_image.getDimensions());
+		engine.connectedComponentsLabeling(temp_input_image, connectedComponentLabels, diamond);
+		temp_input_image.close();
+		
+		return connectedComponentLabels;
+	}
+	
+	
 	public static int[] getHistogram(ImagePlus image) {
 		StackStatistics stackStatistics;
 		if (image.getRoi() != null) {
@@ -366,6 +453,36 @@ public class BV3DBoxUtilities {
 	}
 	
 	
+	/**
+	 * 
+	 * @param thresholdMethod
+	 * @param histogram	is not modified
+	 * @param limitation	"full", "ignore black", "ignore white" or "ignore both" to exclude the first and/or last histogram bin
+	 * @return
+	 */
+	public static int getThresholdValue(String thresholdMethod, int[] histogram, String limitation) {
+		
+		int[] finalHistogram = histogram.clone();
+		
+		switch (limitation) {
+		case "ignore black":
+			finalHistogram[0] = 0;
+			break;
+		case "ignore white":
+			finalHistogram[finalHistogram.length-1] = 0;
+			break;
+		case "ignore both":
+			finalHistogram[0] = 0;
+			finalHistogram[finalHistogram.length-1] = 0;
+			break;
+		default:
+			break;
+		}
+		
+		return getThresholdValue(thresholdMethod, finalHistogram);
+	}
+	
+	
 	public static ClearCLBuffer thresholdImage(CLIJ2 clij2, ClearCLBuffer input_image, double threshold) {
 		
 		log.debug("threshold = " + threshold);
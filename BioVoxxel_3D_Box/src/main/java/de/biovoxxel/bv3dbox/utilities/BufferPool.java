@@ -0,0 +1,294 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.scijava.log.LogLevel;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
+import org.scijava.prefs.DefaultPrefService;
+import org.scijava.prefs.PrefService;
+
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Reuses the images of a {@link ComputeEngine} for intermediate results instead of creating
+ * and releasing them for each processing step, e.g. in iterative loops or repeated previews.
+ *
+ * Buffers are leased with try-with-resources and returned to the pool when the lease
+ * is closed. A returned buffer is handed out again for the next lease with the same
+ * dimensions and bit depth and keeps its previous content. Results which outlive the pool
+ * need to be detached from their lease.
+ *
+ * Closing the pool releases all idle buffers and reports the peak memory used by its
+ * buffers. In debug mode, the code location of each lease which was not returned is logged.
+ *
+ * A pool needs to be created after clearing the engine, since clearing the CLIJ2 instance
+ * also releases the idle buffers of the pool.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class BufferPool implements AutoCloseable {
+
+	PrefService prefs = new DefaultPrefService();
+	LogService log = new StderrLogService();
+
+	private final ComputeEngine engine;
+	private final String owner;
+	private final boolean trackLeases;
+
+	private final Map<String, ArrayDeque<EngineImage>> idleBuffers = new HashMap<String, ArrayDeque<EngineImage>>();
+	private final Map<EngineImage, Throwable> leasedBuffers = new IdentityHashMap<EngineImage, Throwable>();
+
+	private long allocatedBytes = 0;
+	private long peakBytes = 0;
+	private long markedPeakBytes = 0;
+	private int allocations = 0;
+	private int reuses = 0;
+
+
+	/**
+	 *
+	 * @param engine
+	 * @param owner	name of the plugin using the pool, used in the log
+	 */
+	public BufferPool(ComputeEngine engine, String owner) {
+		this.engine = engine;
+		this.owner = owner;
+		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
+		trackLeases = log.isDebug();
+	}
+
+
+	/**
+	 *
+	 * @param template
+	 * @return a lease of an idle buffer with the same dimensions and bit depth as the template or of a new one
+	 */
+	public Lease lease(EngineImage template) {
+		return lease(template.getDimensions(), template.getBitDepth());
+	}
+
+
+	/**
+	 *
+	 * @param dimensions
+	 * @return a lease of an idle 32-bit buffer with the given dimensions or of a new one
+	 */
+	public Lease lease(long[] dimensions) {
+		return lease(dimensions, 32);
+	}
+
+
+	/**
+	 *
+	 * @param dimensions
+	 * @param bitDepth
+	 * @return a lease of an idle buffer with the given dimensions and bit depth or of a new one
+	 */
+	public synchronized Lease lease(long[] dimensions, int bitDepth) {
+
+		ArrayDeque<EngineImage> idle = idleBuffers.get(getKey(dimensions, bitDepth));
+		EngineImage buffer;
+
+		if (idle != null && !idle.isEmpty()) {
+			buffer = idle.pop();
+			reuses++;
+		} else {
+			buffer = engine.create(dimensions, bitDepth);
+			allocations++;
+			allocatedBytes += buffer.getSizeInBytes();
+			peakBytes = Math.max(peakBytes, allocatedBytes);
+			markedPeakBytes = Math.max(markedPeakBytes, allocatedBytes);
+		}
+
+		leasedBuffers.put(buffer, trackLeases ? new Throwable("Leased by " + owner) : null);
+		return new Lease(buffer);
+	}
+
+
+	private synchronized void giveBack(EngineImage buffer) {
+
+		if (!leasedBuffers.containsKey(buffer)) {
+			return;
+		}
+		leasedBuffers.remove(buffer);
+
+		String key = getKey(buffer.getDimensions(), buffer.getBitDepth());
+		ArrayDeque<EngineImage> idle = idleBuffers.get(key);
+		if (idle == null) {
+			idle = new ArrayDeque<EngineImage>();
+			idleBuffers.put(key, idle);
+		}
+		idle.push(buffer);
+	}
+
+
+	private synchronized void detach(EngineImage buffer) {
+		if (leasedBuffers.containsKey(buffer)) {
+			leasedBuffers.remove(buffer);
+			allocatedBytes -= buffer.getSizeInBytes();
+		}
+	}
+
+
+	private static String getKey(long[] dimensions, int bitDepth) {
+		return bitDepth + "-bit" + Arrays.toString(dimensions);
+	}
+
+
+	/**
+	 * Releases all idle buffers, leased buffers are not affected
+	 */
+	public synchronized void trim() {
+		for (ArrayDeque<EngineImage> idle : idleBuffers.values()) {
+			for (EngineImage buffer : idle) {
+				allocatedBytes -= buffer.getSizeInBytes();
+				buffer.close();
+			}
+		}
+		idleBuffers.clear();
+	}
+
+
+	/**
+	 *
+	 * @return bytes of all idle and leased buffers
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+
+	/**
+	 *
+	 * @return maximum of bytes allocated at the same time since the pool was created
+	 */
+	public synchronized long getPeakBytes() {
+		return peakBytes;
+	}
+
+
+	/**
+	 * Starts a new peak measurement from the currently allocated bytes, e.g. per processing stage
+	 */
+	public synchronized void markPeak() {
+		markedPeakBytes = allocatedBytes;
+	}
+
+
+	/**
+	 *
+	 * @return maximum of bytes allocated at the same time since the last {@link #markPeak()}
+	 */
+	public synchronized long getPeakBytesSinceMark() {
+		return markedPeakBytes;
+	}
+
+
+	public synchronized int getLeaseCount() {
+		return leasedBuffers.size();
+	}
+
+
+	/**
+	 * Releases all idle buffers and logs the peak memory and buffers still leased
+	 */
+	@Override
+	public synchronized void close() {
+
+		trim();
+
+		log.info(owner + ": peak memory of intermediate buffers = " + (peakBytes / (1024 * 1024)) + " MB (" + allocations + " created, " + reuses + " reused)");
+
+		if (!leasedBuffers.isEmpty()) {
+			log.warn(owner + ": " + leasedBuffers.size() + " intermediate buffer(s) not returned");
+			for (Throwable leaseLocation : leasedBuffers.values()) {
+				if (leaseLocation != null) {
+					log.warn("Buffer not returned", leaseLocation);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * A buffer leased from the pool which is returned when the lease is closed
+	 */
+	public class Lease implements AutoCloseable {
+
+		private EngineImage buffer;
+
+		private Lease(EngineImage buffer) {
+			this.buffer = buffer;
+		}
+
+		public EngineImage get() {
+			if (buffer == null) {
+				throw new IllegalStateException("Buffer already returned or detached");
+			}
+			return buffer;
+		}
+
+		/**
+		 * Removes the buffer from the pool, e.g. to return it as a result.
+		 * The caller is responsible for closing the buffer.
+		 *
+		 * @return the buffer
+		 */
+		public EngineImage detach() {
+			EngineImage detachedBuffer = get();
+			BufferPool.this.detach(detachedBuffer);
+			buffer = null;
+			return detachedBuffer;
+		}
+
+		@Override
+		public void close() {
+			if (buffer != null) {
+				giveBack(buffer);
+				buffer = null;
+			}
+		}
+	}
+
+}
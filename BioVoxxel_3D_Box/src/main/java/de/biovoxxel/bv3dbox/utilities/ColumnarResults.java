@@ -0,0 +1,301 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ij.measure.ResultsTable;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Results table storing each column as one primitive double array.
+ *
+ * Used to collect per-object measurements without creating one object per value.
+ * A {@link ResultsTable} is only created for display, while the results can be
+ * exported directly as CSV or in a simple binary format.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class ColumnarResults {
+
+	private static final int BINARY_FORMAT_ID = 0x42564352;	//"BVCR"
+	private static final int BINARY_FORMAT_VERSION = 1;
+
+	private final Map<String, double[]> columns = new LinkedHashMap<String, double[]>();
+	private int rowCount = -1;
+
+
+
+	/**
+	 * Adds or replaces a column. All columns need to have the same length.
+	 *
+	 * @param heading
+	 * @param values	stored without copying
+	 */
+	public void setColumn(String heading, double[] values) {
+		if (rowCount == -1) {
+			rowCount = values.length;
+		} else if (values.length != rowCount) {
+			throw new IllegalArgumentException("Column " + heading + " has " + values.length + " rows instead of " + rowCount);
+		}
+		columns.put(heading, values);
+	}
+
+
+	public double[] getColumn(String heading) {
+		return columns.get(heading);
+	}
+
+
+	public boolean columnExists(String heading) {
+		return columns.containsKey(heading);
+	}
+
+
+	public String[] getHeadings() {
+		return columns.keySet().toArray(new String[columns.size()]);
+	}
+
+
+	public int size() {
+		return Math.max(0, rowCount);
+	}
+
+
+	public double getValue(String heading, int row) {
+		return columns.get(heading)[row];
+	}
+
+
+	public void reset() {
+		columns.clear();
+		rowCount = -1;
+	}
+
+
+	/**
+	 * Sorts all rows in ascending order of the given column. Rows with equal values keep their order.
+	 *
+	 * @param heading
+	 */
+	public void sort(String heading) {
+
+		final double[] key = columns.get(heading);
+		if (key == null) {
+			throw new IllegalArgumentException("Column " + heading + " does not exist");
+		}
+
+		int[] order = getSortOrder(key);
+
+		for (Map.Entry<String, double[]> column : columns.entrySet()) {
+			double[] values = column.getValue();
+			double[] sorted = new double[rowCount];
+			for (int row = 0; row < rowCount; row++) {
+				sorted[row] = values[order[row]];
+			}
+			column.setValue(sorted);
+		}
+	}
+
+
+	/**
+	 * Stable bottom-up merge sort of the row indices without boxing.
+	 */
+	private static int[] getSortOrder(double[] key) {
+
+		int[] order = new int[key.length];
+		int[] buffer = new int[key.length];
+		for (int row = 0; row < order.length; row++) {
+			order[row] = row;
+		}
+
+		for (int width = 1; width < order.length; width *= 2) {
+			for (int start = 0; start < order.length; start += 2 * width) {
+				int middle = Math.min(start + width, order.length);
+				int end = Math.min(start + 2 * width, order.length);
+				int left = start;
+				int right = middle;
+				for (int i = start; i < end; i++) {
+					if (left < middle && (right >= end || Double.compare(key[order[left]], key[order[right]]) <= 0)) {
+						buffer[i] = order[left++];
+					} else {
+						buffer[i] = order[right++];
+					}
+				}
+			}
+			int[] swap = order;
+			order = buffer;
+			buffer = swap;
+		}
+		return order;
+	}
+
+
+	/**
+	 *
+	 * @return a new ResultsTable with the same columns, e.g. to display the results
+	 */
+	public ResultsTable toResultsTable() {
+
+		ResultsTable table = new ResultsTable(size());
+		for (Map.Entry<String, double[]> column : columns.entrySet()) {
+			table.setValues(column.getKey(), column.getValue());
+		}
+		return table;
+	}
+
+
+	public void show(String title) {
+		toResultsTable().show(title);
+	}
+
+
+	/**
+	 * Writes all columns as comma separated values with a header line.
+	 *
+	 * @param path
+	 * @throws IOException
+	 */
+	public void saveAsCSV(String path) throws IOException {
+
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8), 1 << 16)) {
+
+			List<double[]> values = new ArrayList<double[]>(columns.values());
+
+			writer.write(" ");
+			for (String heading : columns.keySet()) {
+				writer.write(',');
+				writer.write(heading.indexOf(',') >= 0 ? "\"" + heading + "\"" : heading);
+			}
+			writer.newLine();
+
+			StringBuilder line = new StringBuilder();
+			for (int row = 0; row < size(); row++) {
+				line.setLength(0);
+				line.append(row + 1);
+				for (double[] column : values) {
+					line.append(',');
+					appendValue(line, column[row]);
+				}
+				writer.append(line);
+				writer.newLine();
+			}
+		}
+	}
+
+
+	private static void appendValue(StringBuilder line, double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			line.append((long) value);
+		} else if (Double.isNaN(value)) {
+			line.append("NaN");
+		} else {
+			line.append(value);
+		}
+	}
+
+
+	/**
+	 * Writes all columns in a binary format (big endian):
+	 * format id, version, row count, column count, then for each column its heading (modified UTF-8) followed by all values as double.
+	 *
+	 * @param path
+	 * @throws IOException
+	 */
+	public void saveAsBinary(String path) throws IOException {
+
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+			output.writeInt(BINARY_FORMAT_ID);
+			output.writeInt(BINARY_FORMAT_VERSION);
+			output.writeInt(size());
+			output.writeInt(columns.size());
+
+			for (Map.Entry<String, double[]> column : columns.entrySet()) {
+				output.writeUTF(column.getKey());
+				for (double value : column.getValue()) {
+					output.writeDouble(value);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Reads results written by {@link #saveAsBinary(String)}
+	 *
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static ColumnarResults openBinary(String path) throws IOException {
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+			if (input.readInt() != BINARY_FORMAT_ID) {
+				throw new IOException(path + " is not a BioVoxxel 3D Box results file");
+			}
+			int version = input.readInt();
+			if (version != BINARY_FORMAT_VERSION) {
+				throw new IOException("Unsupported results file version " + version);
+			}
+			int rows = input.readInt();
+			int columnCount = input.readInt();
+
+			ColumnarResults results = new ColumnarResults();
+			for (int c = 0; c < columnCount; c++) {
+				String heading = input.readUTF();
+				double[] values = new double[rows];
+				for (int row = 0; row < rows; row++) {
+					values[row] = input.readDouble();
+				}
+				results.setColumn(heading, values);
+			}
+			return results;
+		}
+	}
+
+}
@@ -0,0 +1,239 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.scijava.Cancelable;
+import org.scijava.log.LogLevel;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
+import org.scijava.prefs.DefaultPrefService;
+import org.scijava.prefs.PrefService;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Runs the previews of a GUI asynchronously on one background thread.
+ *
+ * Each submitted preview waits for a short delay, and is skipped if another
+ * preview was submitted in the meantime, so that fast parameter changes (e.g.
+ * dragging a slider) lead to only one computation with the latest parameters.
+ * A running preview is superseded by each new submission and should check
+ * {@link #isCanceled()} between its processing steps to stop early. Results
+ * are only displayed via {@link #publish(Runnable)} if they are still current.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class PreviewExecutor implements Cancelable {
+
+	public static final long DEFAULT_DELAY = 300;	//milliseconds
+
+	PrefService prefs = new DefaultPrefService();
+	LogService log = new StderrLogService();
+
+	private final long delay;
+	private final AtomicLong generation = new AtomicLong();
+	private volatile long runningGeneration = -1;
+	private volatile Thread workerThread = null;
+	private volatile String cancelReason = null;
+	private ScheduledExecutorService executor = null;
+	private ScheduledFuture<?> latestPreview = null;
+
+
+	public PreviewExecutor() {
+		this(DEFAULT_DELAY);
+	}
+
+
+	/**
+	 *
+	 * @param delay	in milliseconds before a submitted preview starts
+	 */
+	public PreviewExecutor(long delay) {
+		this.delay = delay;
+		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
+	}
+
+
+	/**
+	 * Schedules the preview and supersedes all previously submitted ones.
+	 *
+	 * @param preview
+	 */
+	public synchronized void submit(final Runnable preview) {
+
+		final long submittedGeneration = generation.incrementAndGet();
+		cancelReason = null;
+
+		latestPreview = getExecutor().schedule(() -> {
+			if (submittedGeneration != generation.get()) {
+				log.debug("Skipping superseded preview " + submittedGeneration);
+				return;
+			}
+			runningGeneration = submittedGeneration;
+			try {
+				preview.run();
+			} catch (RuntimeException e) {
+				log.error("Preview failed", e);
+			} finally {
+				runningGeneration = -1;
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+
+	private ScheduledExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				workerThread = new Thread(runnable, "BV3DBox-Preview");
+				workerThread.setDaemon(true);
+				return workerThread;
+			});
+		}
+		return executor;
+	}
+
+
+	/**
+	 * Displays the result of the running preview, unless it has been superseded.
+	 * Outside of previews the result is always displayed.
+	 *
+	 * @param display
+	 */
+	public void publish(Runnable display) {
+		if (!isCanceled()) {
+			display.run();
+		}
+	}
+
+
+	/**
+	 *
+	 * @return true if called from a preview which has been superseded or canceled
+	 */
+	@Override
+	public boolean isCanceled() {
+		return Thread.currentThread() == workerThread && runningGeneration != generation.get();
+	}
+
+
+	/**
+	 * Cancels the running and all pending previews
+	 */
+	@Override
+	public void cancel(String reason) {
+		cancelReason = reason;
+		generation.incrementAndGet();
+	}
+
+
+	@Override
+	public String getCancelReason() {
+		return cancelReason;
+	}
+
+
+	/**
+	 * Cancels all previews and waits until a running preview returned,
+	 * e.g. before processing the complete image on the calling thread.
+	 */
+	public void cancelAndWait() {
+
+		cancel("Superseded by final processing");
+
+		ScheduledExecutorService currentExecutor;
+		synchronized (this) {
+			currentExecutor = executor;
+		}
+		if (currentExecutor == null || Thread.currentThread() == workerThread) {
+			return;
+		}
+
+		try {
+			currentExecutor.submit(() -> {}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			log.error(e);
+		}
+	}
+
+
+	/**
+	 * Waits until the latest submitted preview has finished, e.g. to keep its result as final output.
+	 */
+	public void awaitLatest() {
+
+		ScheduledFuture<?> preview;
+		synchronized (this) {
+			preview = latestPreview;
+		}
+		if (preview == null || Thread.currentThread() == workerThread) {
+			return;
+		}
+
+		try {
+			preview.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | CancellationException e) {
+			log.error(e);
+		}
+	}
+
+
+	/**
+	 * Cancels all previews, waits for a running one and stops the background thread
+	 */
+	public void shutdown() {
+
+		cancelAndWait();
+
+		synchronized (this) {
+			if (executor != null) {
+				executor.shutdownNow();
+				executor = null;
+				latestPreview = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.biovoxxel.bv3dbox.engine.EngineImage;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Keeps the results of processing stages on the compute engine to avoid recomputing them
+ * during interactive previews when only parameters of later stages change.
+ *
+ * Each result is stored under a key built from the parameters of its stage and
+ * the key of the previous stage, so that changing any upstream parameter leads
+ * to new keys for all downstream stages. When the memory budget is exceeded the
+ * least recently used images are closed.
+ *
+ * Images handed to the cache are owned by it and must not be closed elsewhere.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class StageCache {
+
+	private final long maxBytes;
+	private long usedBytes = 0;
+	private final LinkedHashMap<String, EngineImage> images = new LinkedHashMap<String, EngineImage>(16, 0.75f, true);
+
+
+	/**
+	 *
+	 * @param maxBytes	memory budget, the most recently added image is always kept even if it is larger
+	 */
+	public StageCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+
+	/**
+	 *
+	 * @param previousKey	key of the stage the result depends on, null for the first stage
+	 * @param stage
+	 * @param parameters
+	 * @return the key for the result of the stage with the given parameters
+	 */
+	public static String key(String previousKey, String stage, Object... parameters) {
+		StringBuilder key = new StringBuilder();
+		if (previousKey != null) {
+			key.append(previousKey).append(" > ");
+		}
+		key.append(stage);
+		for (Object parameter : parameters) {
+			key.append('|').append(parameter);
+		}
+		return key.toString();
+	}
+
+
+	/**
+	 *
+	 * @param key
+	 * @return the cached image or null
+	 */
+	public synchronized EngineImage get(String key) {
+		return images.get(key);
+	}
+
+
+	public synchronized boolean contains(String key) {
+		return images.containsKey(key);
+	}
+
+
+	public synchronized void put(String key, EngineImage image) {
+
+		EngineImage previous = images.put(key, image);
+		if (previous != null && previous != image) {
+			usedBytes -= previous.getSizeInBytes();
+			previous.close();
+		}
+		if (previous != image) {
+			usedBytes += image.getSizeInBytes();
+		}
+
+		Iterator<Map.Entry<String, EngineImage>> leastRecentlyUsed = images.entrySet().iterator();
+		while (usedBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+			Map.Entry<String, EngineImage> entry = leastRecentlyUsed.next();
+			if (entry.getValue() == image) {
+				continue;
+			}
+			usedBytes -= entry.getValue().getSizeInBytes();
+			entry.getValue().close();
+			leastRecentlyUsed.remove();
+		}
+	}
+
+
+	/**
+	 * Closes all cached images
+	 */
+	public synchronized void clear() {
+		for (EngineImage image : images.values()) {
+			image.close();
+		}
+		images.clear();
+		usedBytes = 0;
+	}
+
+
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+
+	public synchronized int size() {
+		return images.size();
+	}
+
+}
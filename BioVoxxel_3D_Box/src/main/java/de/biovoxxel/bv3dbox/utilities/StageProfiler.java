@@ -0,0 +1,333 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.scijava.log.LogLevel;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
+import org.scijava.prefs.DefaultPrefService;
+import org.scijava.prefs.PrefService;
+
+import ij.measure.ResultsTable;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Records the wall time, transferred bytes, peak memory of intermediate buffers and
+ * voxel throughput of the processing stages of one plugin run, to find out which
+ * stage dominates the run time on a given dataset.
+ *
+ * Stages with the same name are summed up, e.g. over all blocks of a tiled processing.
+ * Stages marked as transfer (push to or pull from the GPU) count as transfer time.
+ * Stages must not be nested.
+ *
+ * Profiling is switched on in the {@link BV3DBoxSettings}. Otherwise all methods return
+ * immediately and {@link #finish(boolean)} reports nothing.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class StageProfiler {
+
+	public static final String PROFILING_KEY = "bv_3d_box_settings_stage_profiling";
+	public static final String PROFILING_FOLDER_KEY = "bv_3d_box_settings_profiling_folder";
+
+	private static final double MB = 1024.0 * 1024.0;
+
+	PrefService prefs = new DefaultPrefService();
+	LogService log = new StderrLogService();
+
+	private final String owner;
+	private final String imageTitle;
+	private final boolean enabled;
+	private final long startTime;
+	private BufferPool bufferPool = null;
+	private final Map<String, StageRecord> stageRecords = new LinkedHashMap<String, StageRecord>();
+	private long totalTime = -1;
+
+
+	/**
+	 *
+	 * @param owner	name of the plugin, used in the report
+	 * @param imageTitle	of the processed image, used in the report
+	 */
+	public StageProfiler(String owner, String imageTitle) {
+		this.owner = owner;
+		this.imageTitle = imageTitle;
+		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
+		enabled = prefs.getBoolean(BV3DBoxSettings.class, PROFILING_KEY, false);
+		startTime = System.nanoTime();
+	}
+
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+
+	/**
+	 * The peak memory of leased buffers is reported for each stage
+	 *
+	 * @param bufferPool
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+
+	/**
+	 *
+	 * @param name
+	 * @param voxels	number of processed voxels for the throughput
+	 * @return the running stage which ends when closed
+	 */
+	public synchronized Stage stage(String name, long voxels) {
+		if (!enabled) {
+			return null;
+		}
+		if (bufferPool != null) {
+			bufferPool.markPeak();
+		}
+		return new Stage(name, voxels);
+	}
+
+
+	/**
+	 *
+	 * @param name
+	 * @param processedImage
+	 * @return the running stage which ends when closed
+	 */
+	public Stage stage(String name, EngineImage processedImage) {
+		return stage(name, processedImage.getVoxelCount());
+	}
+
+
+	/**
+	 * Marks a stage as transfer between main memory and the GPU
+	 *
+	 * @param stage	can be null if profiling is switched off
+	 * @param bytes	transferred bytes
+	 */
+	public static void transferred(Stage stage, long bytes) {
+		if (stage != null) {
+			stage.transferredBytes += bytes;
+		}
+	}
+
+
+	private synchronized void record(Stage stage, long wallTime) {
+
+		StageRecord record = stageRecords.get(stage.name);
+		if (record == null) {
+			record = new StageRecord();
+			stageRecords.put(stage.name, record);
+		}
+
+		record.count++;
+		record.wallTime += wallTime;
+		record.voxels += stage.voxels;
+		if (stage.transferredBytes > 0) {
+			record.transferTime += wallTime;
+			record.transferredBytes += stage.transferredBytes;
+		}
+		if (bufferPool != null) {
+			record.peakBytes = Math.max(record.peakBytes, bufferPool.getPeakBytesSinceMark());
+		}
+	}
+
+
+	/**
+	 * Ends the run, displays the stages as results table (only if requested and not headless)
+	 * and writes them as JSON to the profiling folder from the settings or to the log.
+	 *
+	 * @param showTable
+	 */
+	public void finish(boolean showTable) {
+
+		if (!enabled) {
+			return;
+		}
+		totalTime = System.nanoTime() - startTime;
+
+		if (showTable && !GraphicsEnvironment.isHeadless()) {
+			getResultsTable().show("Stage profile " + owner + " (" + imageTitle + ")");
+		}
+
+		String profilingFolder = prefs.get(BV3DBoxSettings.class, PROFILING_FOLDER_KEY, "");
+		if (profilingFolder.isEmpty()) {
+			log.info(toJSON());
+		} else {
+			String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS").format(new Date());
+			File profileFile = new File(profilingFolder, owner.replaceAll("\\W+", "_") + "_" + timeStamp + ".json");
+			try {
+				saveJSON(profileFile);
+				log.info("Stage profile written to " + profileFile);
+			} catch (IOException e) {
+				log.error("Stage profile cannot be written to " + profileFile, e);
+			}
+		}
+	}
+
+
+	/**
+	 *
+	 * @return one row per stage in the order of their first execution
+	 */
+	public synchronized ResultsTable getResultsTable() {
+
+		ResultsTable table = new ResultsTable();
+		for (Map.Entry<String, StageRecord> entry : stageRecords.entrySet()) {
+			StageRecord record = entry.getValue();
+			table.incrementCounter();
+			table.addValue("Stage", entry.getKey());
+			table.addValue("Calls", record.count);
+			table.addValue("Wall time (ms)", record.wallTime / 1e6);
+			table.addValue("Transfer time (ms)", record.transferTime / 1e6);
+			table.addValue("Transferred (MB)", record.transferredBytes / MB);
+			table.addValue("Buffer peak (MB)", record.peakBytes / MB);
+			table.addValue("Throughput (MVoxel/s)", record.getThroughput());
+		}
+
+		if (totalTime >= 0) {
+			table.incrementCounter();
+			table.addValue("Stage", "total");
+			table.addValue("Calls", 1);
+			table.addValue("Wall time (ms)", totalTime / 1e6);
+		}
+		return table;
+	}
+
+
+	/**
+	 *
+	 * @return the stages in the same units as in the results table
+	 */
+	public synchronized String toJSON() {
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\"plugin\":\"").append(escape(owner)).append('"');
+		json.append(",\"image\":\"").append(escape(imageTitle)).append('"');
+		if (totalTime >= 0) {
+			json.append(",\"total_ms\":").append(format(totalTime / 1e6));
+		}
+		json.append(",\"stages\":[");
+
+		boolean first = true;
+		for (Map.Entry<String, StageRecord> entry : stageRecords.entrySet()) {
+			StageRecord record = entry.getValue();
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			json.append("{\"stage\":\"").append(escape(entry.getKey())).append('"')
+				.append(",\"calls\":").append(record.count)
+				.append(",\"wall_ms\":").append(format(record.wallTime / 1e6))
+				.append(",\"transfer_ms\":").append(format(record.transferTime / 1e6))
+				.append(",\"transferred_bytes\":").append(record.transferredBytes)
+				.append(",\"buffer_peak_bytes\":").append(record.peakBytes)
+				.append(",\"voxels\":").append(record.voxels)
+				.append(",\"mvoxel_per_s\":").append(format(record.getThroughput()))
+				.append('}');
+		}
+		return json.append("]}").toString();
+	}
+
+
+	public void saveJSON(File file) throws IOException {
+		Files.write(file.toPath(), toJSON().getBytes(StandardCharsets.UTF_8));
+	}
+
+
+	private static String escape(String text) {
+		return text.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+
+	private static String format(double value) {
+		return String.format(Locale.US, "%.3f", value);
+	}
+
+
+
+	/**
+	 * A running stage, which is recorded when closed
+	 */
+	public class Stage implements AutoCloseable {
+
+		private final String name;
+		private final long voxels;
+		private final long stageStartTime;
+		private long transferredBytes = 0;
+
+		private Stage(String name, long voxels) {
+			this.name = name;
+			this.voxels = voxels;
+			this.stageStartTime = System.nanoTime();
+		}
+
+		@Override
+		public void close() {
+			record(this, System.nanoTime() - stageStartTime);
+		}
+	}
+
+
+
+	private static class StageRecord {
+
+		int count = 0;
+		long wallTime = 0;
+		long transferTime = 0;
+		long transferredBytes = 0;
+		long peakBytes = 0;
+		long voxels = 0;
+
+		double getThroughput() {
+			return wallTime > 0 ? voxels / (wallTime / 1e9) / 1e6 : 0;
+		}
+	}
+
+}
@@ -0,0 +1,344 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import de.biovoxxel.bv3dbox.engine.CPUThreads;
+import ij.ImagePlus;
+import ij.ImageStack;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Histogram which is accumulated slice by slice, e.g. from a virtual stack or
+ * from blocks of an image processed one after the other, to determine one
+ * automatic threshold for the complete volume without holding it in memory.
+ *
+ * The bins cover the range [min, max) with equal width. Values outside the range
+ * are counted in the first or last bin, NaN values are ignored.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class StreamingHistogram {
+
+	private final int binCount;
+	private final double min;
+	private final double max;
+	private final double binWidth;
+	private final long[] counts;
+
+
+	/**
+	 *
+	 * @param binCount
+	 * @param min	start of the first bin
+	 * @param max	end of the last bin (exclusive)
+	 */
+	public StreamingHistogram(int binCount, double min, double max) {
+
+		if (binCount < 1 || !(max > min)) {
+			throw new IllegalArgumentException("Invalid histogram with " + binCount + " bins from " + min + " to " + max);
+		}
+		this.binCount = binCount;
+		this.min = min;
+		this.max = max;
+		this.binWidth = (max - min) / binCount;
+		this.counts = new long[binCount];
+	}
+
+
+	/**
+	 * 8-bit images use 256 bins, 16-bit images one bin per gray value
+	 * and 32-bit images 256 bins between the minimum and maximum of the stack.
+	 *
+	 * @param image
+	 * @return the histogram of all slices of the image
+	 */
+	public static StreamingHistogram forImage(ImagePlus image) {
+		return forImage(image, image.getBitDepth() == 16 ? 65536 : 256);
+	}
+
+
+	/**
+	 * For 16- and 32-bit images the bins are distributed between the minimum
+	 * and maximum of the stack, which is determined in an additional pass.
+	 *
+	 * @param image
+	 * @param binCount
+	 * @return the histogram of all slices of the image
+	 */
+	public static StreamingHistogram forImage(ImagePlus image, int binCount) {
+
+		ImageStack stack = image.getStack();
+		StreamingHistogram histogram;
+
+		if (image.getBitDepth() == 8) {
+			histogram = new StreamingHistogram(binCount, 0, 256);
+		} else if (image.getBitDepth() == 16 && binCount == 65536) {
+			histogram = new StreamingHistogram(binCount, 0, 65536);
+		} else {
+			double[] range = getRange(stack);
+			double end = image.getBitDepth() == 32 ? Math.nextUp(range[1]) : range[1] + 1;
+			histogram = new StreamingHistogram(binCount, range[0], end > range[0] ? end : range[0] + 1);
+		}
+
+		histogram.addStack(stack);
+		return histogram;
+	}
+
+
+	/**
+	 * Adds all slices of the stack in parallel. Slices of virtual stacks are
+	 * read one after the other but binned in parallel.
+	 *
+	 * @param stack	8-, 16- or 32-bit
+	 */
+	public void addStack(final ImageStack stack) {
+
+		final int size = stack.getSize();
+		final int chunks = Math.max(1, Math.min(size, CPUThreads.getThreadCount()));
+		final boolean virtual = stack.isVirtual();
+
+		CPUThreads.parallelFor(0, chunks, c -> {
+			long[] localCounts = new long[binCount];
+			for (int z = (int) ((long) size * c / chunks); z < (long) size * (c + 1) / chunks; z++) {
+				Object pixels;
+				if (virtual) {
+					synchronized (stack) {
+						pixels = stack.getPixels(z + 1);
+					}
+				} else {
+					pixels = stack.getPixels(z + 1);
+				}
+				accumulate(pixels, localCounts);
+			}
+			merge(localCounts);
+		});
+	}
+
+
+	/**
+	 * Adds one slice, can be called from several threads at the same time.
+	 *
+	 * @param pixels	byte[], short[] or float[]
+	 */
+	public void add(Object pixels) {
+		long[] localCounts = new long[binCount];
+		accumulate(pixels, localCounts);
+		merge(localCounts);
+	}
+
+
+	/**
+	 * Adds counts binned elsewhere, e.g. on the GPU, with the same bins as this histogram.
+	 *
+	 * @param binCounts	one count per bin
+	 */
+	public void add(long[] binCounts) {
+		if (binCounts.length != binCount) {
+			throw new IllegalArgumentException("Expected " + binCount + " bins but got " + binCounts.length);
+		}
+		merge(binCounts);
+	}
+
+
+	public void add(StreamingHistogram histogram) {
+		if (histogram.binCount != binCount || histogram.min != min || histogram.max != max) {
+			throw new IllegalArgumentException("Histograms with different bins cannot be combined");
+		}
+		merge(histogram.getCounts());
+	}
+
+
+	private synchronized void merge(long[] localCounts) {
+		for (int b = 0; b < binCount; b++) {
+			counts[b] += localCounts[b];
+		}
+	}
+
+
+	private void accumulate(Object pixels, long[] target) {
+
+		if (pixels instanceof byte[]) {
+			byte[] values = (byte[]) pixels;
+			if (binCount == 256 && min == 0 && max == 256) {
+				for (int i = 0; i < values.length; i++) {
+					target[values[i] & 0xff]++;
+				}
+			} else {
+				for (int i = 0; i < values.length; i++) {
+					target[getBin(values[i] & 0xff)]++;
+				}
+			}
+		} else if (pixels instanceof short[]) {
+			short[] values = (short[]) pixels;
+			if (binCount == 65536 && min == 0 && max == 65536) {
+				for (int i = 0; i < values.length; i++) {
+					target[values[i] & 0xffff]++;
+				}
+			} else {
+				for (int i = 0; i < values.length; i++) {
+					target[getBin(values[i] & 0xffff)]++;
+				}
+			}
+		} else if (pixels instanceof float[]) {
+			float[] values = (float[]) pixels;
+			for (int i = 0; i < values.length; i++) {
+				if (!Float.isNaN(values[i])) {
+					target[getBin(values[i])]++;
+				}
+			}
+		} else {
+			throw new IllegalArgumentException("Only 8-, 16- and 32-bit pixels are supported");
+		}
+	}
+
+
+	private int getBin(double value) {
+		int bin = (int) Math.floor((value - min) / binWidth);
+		return bin < 0 ? 0 : (bin >= binCount ? binCount - 1 : bin);
+	}
+
+
+	private static double[] getRange(final ImageStack stack) {
+
+		final int size = stack.getSize();
+		final double[][] sliceRange = new double[size][];
+		final boolean virtual = stack.isVirtual();
+
+		CPUThreads.parallelFor(0, size, z -> {
+			Object pixels;
+			if (virtual) {
+				synchronized (stack) {
+					pixels = stack.getPixels(z + 1);
+				}
+			} else {
+				pixels = stack.getPixels(z + 1);
+			}
+
+			double sliceMin = Double.POSITIVE_INFINITY;
+			double sliceMax = Double.NEGATIVE_INFINITY;
+			if (pixels instanceof byte[]) {
+				for (byte value : (byte[]) pixels) {
+					sliceMin = Math.min(sliceMin, value & 0xff);
+					sliceMax = Math.max(sliceMax, value & 0xff);
+				}
+			} else if (pixels instanceof short[]) {
+				for (short value : (short[]) pixels) {
+					sliceMin = Math.min(sliceMin, value & 0xffff);
+					sliceMax = Math.max(sliceMax, value & 0xffff);
+				}
+			} else if (pixels instanceof float[]) {
+				for (float value : (float[]) pixels) {
+					if (!Float.isNaN(value)) {
+						sliceMin = Math.min(sliceMin, value);
+						sliceMax = Math.max(sliceMax, value);
+					}
+				}
+			} else {
+				throw new IllegalArgumentException("Only 8-, 16- and 32-bit pixels are supported");
+			}
+			sliceRange[z] = new double[] { sliceMin, sliceMax };
+		});
+
+		double[] range = { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (double[] r : sliceRange) {
+			range[0] = Math.min(range[0], r[0]);
+			range[1] = Math.max(range[1], r[1]);
+		}
+		if (range[0] > range[1]) {
+			range[0] = 0;
+			range[1] = 0;
+		}
+		return range;
+	}
+
+
+	public synchronized long[] getCounts() {
+		return counts.clone();
+	}
+
+
+	/**
+	 * The threshold methods expect int counts and sum them up as int. If the total
+	 * count exceeds the int range all counts are divided by the same factor, so that
+	 * their sum stays within the int range. Bins with a count below the factor become 0.
+	 *
+	 * @return
+	 */
+	public synchronized int[] getHistogram() {
+
+		long totalCount = 0;
+		for (long count : counts) {
+			totalCount += count;
+		}
+		long divisor = totalCount > Integer.MAX_VALUE ? (totalCount + Integer.MAX_VALUE - 1) / Integer.MAX_VALUE : 1;
+
+		int[] histogram = new int[binCount];
+		for (int b = 0; b < binCount; b++) {
+			histogram[b] = (int) (counts[b] / divisor);
+		}
+		return histogram;
+	}
+
+
+	public synchronized long getTotalCount() {
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		return total;
+	}
+
+
+	public int getBinCount() {
+		return binCount;
+	}
+
+
+	public double getBinStart(int bin) {
+		return min + bin * binWidth;
+	}
+
+
+	/**
+	 *
+	 * @param thresholdMethod	one of the ImageJ auto threshold methods or "Huang2"
+	 * @param limitation	"full", "ignore black", "ignore white" or "ignore both"
+	 * @return the intensity at the start of the threshold bin
+	 */
+	public double getThresholdValue(String thresholdMethod, String limitation) {
+		return getBinStart(BV3DBoxUtilities.getThresholdValue(thresholdMethod, getHistogram(), limitation));
+	}
+
+}
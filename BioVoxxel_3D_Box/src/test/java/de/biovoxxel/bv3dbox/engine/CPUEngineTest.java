@@ -0,0 +1,263 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CPUEngineTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	@Test
+	void holesAreFilledButNotTheBackgroundAtTheBorder() {
+		//hollow cube with a closed cavity and a cube open to the border along z
+		HostImage binary = new HostImage(12, 7, 7, 8);
+		for (int z = 1; z < 6; z++) {
+			for (int y = 1; y < 6; y++) {
+				for (int x = 1; x < 6; x++) {
+					boolean shell = x == 1 || x == 5 || y == 1 || y == 5 || z == 1 || z == 5;
+					binary.set(x, y, z, shell ? 1 : 0);
+					binary.set(x + 6, y, z, shell && z != 5 ? 1 : 0);
+				}
+			}
+		}
+		HostImage filled = new HostImage(12, 7, 7, 8);
+
+		new CPUEngine().binaryFillHoles(binary, filled);
+
+		assertEquals(HostImage.Storage.BYTE, filled.getStorage());
+		assertEquals(1f, filled.get(3, 3, 3));
+		assertEquals(1f, filled.get(1, 1, 1));
+		assertEquals(0f, filled.get(9, 3, 3));
+		assertEquals(1f, filled.get(7, 3, 3));
+		assertEquals(0f, filled.get(0, 0, 0));
+	}
+
+
+	@Test
+	void holesInTwoDimensionsAreFilled() {
+		HostImage binary = new HostImage(6, 5, 1, 8);
+		for (int y = 0; y < 5; y++) {
+			for (int x = 0; x < 5; x++) {
+				binary.set(x, y, 0, x == 0 || x == 4 || y == 0 || y == 4 ? 1 : 0);
+			}
+		}
+		HostImage filled = new HostImage(6, 5, 1, 8);
+
+		new CPUEngine().binaryFillHoles(binary, filled);
+
+		assertEquals(1f, filled.get(2, 2, 0));
+		assertEquals(0f, filled.get(5, 2, 0));
+	}
+
+
+	@Test
+	void indexGapsAreClosedInTheOrderOfTheLabels() {
+		int[][] slices = { { 0, 7, 7, 3 }, { 12, 0, 3, 0 } };
+		HostImage labels = new HostImage(2, 2, 32, slices);
+		HostImage closed = new HostImage(2, 2, 2, 32);
+
+		new CPUEngine().closeIndexGaps(labels, closed);
+
+		assertArrayEquals(new int[] { 0, 2, 2, 1 }, closed.getLabelSlice(0));
+		assertArrayEquals(new int[] { 3, 0, 1, 0 }, closed.getLabelSlice(1));
+		assertEquals(7f, labels.get(1, 0, 0));
+	}
+
+
+	@Test
+	void tubesOpenAlongZAreOnlyFilledSliceBySlice() {
+		HostImage binary = new HostImage(5, 5, 3, 8);
+		for (int z = 0; z < 3; z++) {
+			for (int y = 0; y < 5; y++) {
+				for (int x = 0; x < 5; x++) {
+					binary.set(x, y, z, x == 0 || x == 4 || y == 0 || y == 4 ? 1 : 0);
+				}
+			}
+		}
+		HostImage filled = new HostImage(5, 5, 3, 8);
+		HostImage filledSlices = new HostImage(5, 5, 3, 8);
+
+		new CPUEngine().binaryFillHoles(binary, filled);
+		new CPUEngine().binaryFillHolesSliceBySlice(binary, filledSlices);
+
+		assertEquals(0f, filled.get(2, 2, 1));
+		for (int z = 0; z < 3; z++) {
+			assertEquals(1f, filledSlices.get(2, 2, z));
+		}
+	}
+
+
+	@Test
+	void labelsOutsideTheSizeRangeOrOnTheEdgesAreExcluded() {
+		int[][] slices = { {
+				1, 1, 0, 0, 0, 0,
+				0, 0, 0, 0, 0, 0,
+				0, 2, 2, 0, 3, 0,
+				0, 2, 2, 0, 0, 0,
+				0, 0, 0, 0, 0, 0 } };
+		HostImage labels = new HostImage(6, 5, 32, slices);
+
+		assertEquals(1, CPUEngine.excludeLabels(labels, 2, 4, true));
+		assertEquals(0f, labels.get(0, 0, 0));
+		assertEquals(1f, labels.get(1, 2, 0));
+		assertEquals(0f, labels.get(4, 2, 0));
+	}
+
+
+	@Test
+	void onlyTheLocalMaximaAreDetected() {
+		HostImage image = new HostImage(9, 9, 1, 32);
+		image.set(2, 2, 0, 5);
+		image.set(6, 6, 0, 9);
+		image.set(7, 6, 0, 3);
+		HostImage maxima = new HostImage(9, 9, 1, 8);
+
+		new CPUEngine().detectMaxima(image, maxima, 2, 2, 0);
+
+		assertEquals(1f, maxima.get(2, 2, 0));
+		assertEquals(1f, maxima.get(6, 6, 0));
+		assertEquals(0f, maxima.get(7, 6, 0));
+		assertEquals(0f, maxima.get(3, 2, 0));
+	}
+
+
+	@Test
+	void cropKeepsTheLabels() {
+		int[][] slices = { { 1, 2, 3, 4, 5, 6 }, { 7, 8, 9, 10, 11, 12 } };
+		HostImage labels = new HostImage(3, 2, 32, slices);
+		HostImage cropped = new HostImage(2, 1, 1, 32);
+
+		new CPUEngine().crop(labels, cropped, 1, 1, 1);
+
+		assertArrayEquals(new int[] { 11, 12 }, cropped.getLabelSlice(0));
+	}
+
+
+	@Test
+	void spheresAreDrawnWithinTheImage() {
+		HostImage image = new HostImage(7, 7, 5, 8);
+		CPUEngine engine = new CPUEngine();
+		engine.set(image, 1);
+		engine.drawSphere(image, 0, 3, 2, 2, 2, 1, 255);
+
+		assertEquals(255f, image.get(0, 3, 2));
+		assertEquals(255f, image.get(2, 3, 2));
+		assertEquals(255f, image.get(0, 3, 1));
+		assertEquals(1f, image.get(2, 3, 1));
+		assertEquals(1f, image.get(0, 3, 0));
+		assertEquals(1f, image.get(3, 3, 2));
+	}
+
+
+	@Test
+	void parametricImagesKeepIntegerLabelValues() {
+		int[][] slices = { { 0, 1, 2, 3, 3, 1 } };
+		HostImage labels = new HostImage(3, 2, 32, slices);
+		HostImage relabeled = new HostImage(3, 2, 1, 32);
+		HostImage parametric = new HostImage(3, 2, 1, 32);
+		CPUEngine engine = new CPUEngine();
+
+		engine.replaceIntensities(labels, new float[] { 0, 16777216, 0, 7 }, relabeled);
+		engine.generateParametricImage(labels, new double[] { 0.5, 2, 4.25 }, parametric);
+
+		assertEquals(HostImage.Storage.INT, relabeled.getStorage());
+		assertArrayEquals(new int[] { 0, 16777216, 0, 7, 7, 16777216 }, relabeled.getLabelSlice(0));
+		assertEquals(0f, parametric.get(0, 0, 0));
+		assertEquals(0.5f, parametric.get(1, 0, 0));
+		assertEquals(4.25f, parametric.get(1, 1, 0));
+	}
+
+
+	@Test
+	void voronoiExtensionKeepsTheLabels() {
+		int[][] slices = { {
+				1, 0, 0, 0, 0, 0, 2,
+				0, 0, 0, 0, 0, 0, 0 } };
+		HostImage labels = new HostImage(7, 2, 32, slices);
+		HostImage extended = new HostImage(7, 2, 1, 32);
+		HostImage neighbors = new HostImage(7, 2, 1, 32);
+		CPUEngine engine = new CPUEngine();
+
+		engine.extendLabelingViaVoronoi(labels, extended);
+		engine.touchingNeighborCountMap(extended, neighbors);
+
+		for (int y = 0; y < 2; y++) {
+			for (int x = 0; x < 3; x++) {
+				assertEquals(1f, extended.get(x, y, 0));
+				assertEquals(2f, extended.get(6 - x, y, 0));
+			}
+			assertTrue(extended.get(3, y, 0) > 0);
+		}
+		assertEquals(1f, neighbors.get(0, 0, 0));
+		assertEquals(1f, neighbors.get(6, 1, 0));
+		assertEquals(1f, labels.get(0, 0, 0));
+		assertEquals(0f, labels.get(3, 0, 0));
+	}
+
+
+	@Test
+	void anisotropicStacksAreInterpolatedToCubicVoxels() {
+		HostImage image = new HostImage(4, 4, 2, 32);
+		for (int y = 0; y < 4; y++) {
+			for (int x = 0; x < 4; x++) {
+				image.set(x, y, 1, 40);
+			}
+		}
+		HostImage isotropic = new HostImage(4, 4, 4, 32);
+
+		new CPUEngine().makeIsotropic(image, isotropic, 1, 1, 2, 1);
+
+		assertEquals(0f, isotropic.get(1, 1, 0), 1e-4);
+		assertEquals(10f, isotropic.get(1, 1, 1), 1e-4);
+		assertEquals(30f, isotropic.get(1, 1, 2), 1e-4);
+		assertEquals(40f, isotropic.get(1, 1, 3), 1e-4);
+	}
+
+
+	@Test
+	void pulledHostImagesAreIndependentCopies() {
+		int[][] slices = { { 0, 5, 6, 0 } };
+		HostImage labels = new HostImage(2, 2, 32, slices);
+
+		HostImage pulled = new CPUEngine().pullHostImage(labels);
+		labels.set(1, 0, 0, 9);
+
+		assertEquals(HostImage.Storage.INT, pulled.getStorage());
+		assertArrayEquals(new int[] { 0, 5, 6, 0 }, pulled.getLabelSlice(0));
+	}
+
+
+	@Test
+	void histogramsCountValuesOutsideTheRangeInTheOuterBins() {
+		HostImage image = new HostImage(3, 2, 2, 32);
+		float[] values = { 0, 1, 1.5f, 255, 300, -2, 7, Float.NaN, 7, 7, 254.9f, 0 };
+		for (int i = 0; i < values.length; i++) {
+			image.set(i % 3, (i / 3) % 2, i / 6, values[i]);
+		}
+
+		long[] histogram = new CPUEngine().histogram(image, 256, 0, 256);
+
+		assertEquals(256, histogram.length);
+		assertEquals(3, histogram[0]);
+		assertEquals(2, histogram[1]);
+		assertEquals(3, histogram[7]);
+		assertEquals(1, histogram[254]);
+		assertEquals(2, histogram[255]);
+		assertEquals(11, Arrays.stream(histogram).sum());
+	}
+
+}
@@ -0,0 +1,62 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ComputeEngineFactoryTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	@Test
+	void autoFallsBackToTheCPUEngineWithoutOpenCL() {
+		assumeFalse(ComputeEngineFactory.isOpenCLAvailable());
+
+		assertTrue(ComputeEngineFactory.getEngine(ComputeEngineFactory.ENGINE_AUTO) instanceof CPUEngine);
+	}
+
+
+	@Test
+	void neighborAnalysisRunsOnTheCPUEngine() {
+		ComputeEngine engine = ComputeEngineFactory.getEngine(ComputeEngineFactory.ENGINE_CPU);
+		assertTrue(engine instanceof CPUEngine);
+
+		EngineImage binary = engine.create(new long[] { 9, 5, 3 }, 8);
+		for (int z = 0; z < 3; z++) {
+			for (int y = 1; y < 4; y++) {
+				CPUEngine.host(binary).set(1, y, z, 1);
+				CPUEngine.host(binary).set(4, y, z, 1);
+				CPUEngine.host(binary).set(7, y, z, 1);
+			}
+		}
+
+		EngineImage labels = engine.create(binary.getDimensions());
+		EngineImage voronoi = engine.create(labels);
+		EngineImage neighbors = engine.create(labels);
+		EngineImage neighborCountMap = engine.create(labels);
+		engine.connectedComponentsLabeling(binary, labels, true);
+		engine.extendLabelingViaVoronoi(labels, voronoi);
+		engine.touchingNeighborCountMap(voronoi, neighbors);
+		engine.mask(neighbors, labels, neighborCountMap);
+
+		assertEquals(3.0, engine.maximumOfAllPixels(labels));
+		assertEquals(1f, CPUEngine.host(neighborCountMap).get(1, 2, 1));
+		assertEquals(2f, CPUEngine.host(neighborCountMap).get(4, 2, 1));
+		assertEquals(0f, CPUEngine.host(neighborCountMap).get(2, 2, 1));
+
+		engine.close();
+	}
+
+}
@@ -0,0 +1,66 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConnectedComponentsLabelingTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+	
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+	
+	
+	@Test
+	void diagonalNeighborsDependOnConnectivity() {
+		HostImage binary = new HostImage(10, 10, 10, 8);
+		binary.set(2, 2, 2, 1);
+		binary.set(3, 3, 3, 1);
+		
+		HostImage labels = new HostImage(10, 10, 10, 32);
+		assertEquals(2, ConnectedComponentsLabeling.label(binary, labels, true));
+		assertEquals(1, ConnectedComponentsLabeling.label(binary, labels, false));
+	}
+	
+	
+	@Test
+	void objectsSpanningSlabBordersGetOneLabel() {
+		HostImage binary = new HostImage(8, 8, 16, 8);
+		for (int z = 0; z < 16; z++) {
+			binary.set(1, 1, z, 1);
+			binary.set(6, 6, z, 1);
+		}
+		
+		HostImage labels = new HostImage(8, 8, 16, 32);
+		assertEquals(2, ConnectedComponentsLabeling.label(binary, labels, true));
+		for (int z = 0; z < 16; z++) {
+			assertEquals(1f, labels.get(1, 1, z));
+			assertEquals(2f, labels.get(6, 6, z));
+		}
+	}
+	
+	
+	@Test
+	void labels2DAreConsecutive() {
+		HostImage binary = new HostImage(9, 9, 1, 8);
+		for (int y = 0; y < 9; y += 2) {
+			for (int x = 0; x < 9; x += 2) {
+				binary.set(x, y, 0, 1);
+			}
+		}
+		
+		HostImage labels = new HostImage(9, 9, 1, 32);
+		assertEquals(25, ConnectedComponentsLabeling.label(binary, labels, false));
+		assertEquals(1f, labels.get(0, 0, 0));
+		assertEquals(25f, labels.get(8, 8, 0));
+	}
+
+}
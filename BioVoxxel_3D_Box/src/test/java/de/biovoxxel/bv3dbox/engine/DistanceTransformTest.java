@@ -0,0 +1,109 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DistanceTransformTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	private static HostImage createRandomLabels(Random random, int width, int height, int depth, boolean binary) {
+		HostImage labels = new HostImage(width, height, depth, 32);
+		for (int z = 0; z < depth; z++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if (random.nextDouble() > 0.15) {
+						labels.set(x, y, z, binary ? 1 : 1 + (x / 4 + (y / 3) * 3 + (z / 2) * 7) % 5);
+					}
+				}
+			}
+		}
+		return labels;
+	}
+
+
+	private static void assertExact(HostImage labels, HostImage distances, double[] spacing, boolean binary) {
+		int width = labels.getWidth();
+		int height = labels.getHeight();
+		int depth = labels.getDepth();
+
+		for (int z = 0; z < depth; z++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					float label = labels.get(x, y, z);
+					double expected = label == 0 ? 0 : Double.POSITIVE_INFINITY;
+
+					for (int zz = 0; zz < depth && label != 0; zz++) {
+						for (int yy = 0; yy < height; yy++) {
+							for (int xx = 0; xx < width; xx++) {
+								float other = labels.get(xx, yy, zz);
+								if (binary ? other == 0 : other != label) {
+									double dx = (x - xx) * spacing[0];
+									double dy = (y - yy) * spacing[1];
+									double dz = (z - zz) * spacing[2];
+									expected = Math.min(expected, Math.sqrt(dx * dx + dy * dy + dz * dz));
+								}
+							}
+						}
+					}
+					assertEquals(expected, distances.get(x, y, z), 1e-4 * Math.max(1, expected));
+				}
+			}
+		}
+	}
+
+
+	@Test
+	void anisotropicDistanceMapIsExact() {
+		Random random = new Random(1);
+		double[] spacing = { 1.0, 0.7, 2.5 };
+		HostImage binary = createRandomLabels(random, 15, 11, 6, true);
+		HostImage distances = new HostImage(15, 11, 6, 32);
+
+		DistanceTransform.distanceMap(binary, distances, spacing);
+
+		assertExact(binary, distances, spacing, true);
+	}
+
+
+	@Test
+	void touchingLabelsAreSeparatedByTheirBorder() {
+		Random random = new Random(2);
+		double[] spacing = { 1.0, 1.0, 3.0 };
+		HostImage labels = createRandomLabels(random, 13, 12, 7, false);
+		HostImage distances = new HostImage(13, 12, 7, 32);
+
+		DistanceTransform.labelBorderDistanceMap(labels, distances, spacing);
+
+		assertExact(labels, distances, spacing, false);
+	}
+
+
+	@Test
+	void imageBorderIsNoBoundary() {
+		HostImage binary = new HostImage(5, 1, 1, 32);
+		for (int x = 1; x < 5; x++) {
+			binary.set(x, 0, 0, 1);
+		}
+		HostImage distances = new HostImage(5, 1, 1, 32);
+
+		DistanceTransform.distanceMap(binary, distances, new double[] { 2.0, 1.0, 1.0 });
+
+		assertArrayEquals(new float[] { 0, 2, 4, 6, 8 }, distances.getSlice(0));
+	}
+
+}
@@ -0,0 +1,88 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HostImageTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	@Test
+	void labelsAbove2To24StayExact() {
+		int[][] slices = new int[2][6];
+		slices[0][1] = (1 << 24) + 1;
+		slices[1][5] = (1 << 24) + 3;
+		HostImage labels = new HostImage(3, 2, 32, slices);
+
+		CPUEngine engine = new CPUEngine();
+		HostImage copy = new HostImage(3, 2, 2, 32);
+		engine.copy(labels, copy);
+		HostImage masked = new HostImage(3, 2, 2, 32);
+		engine.mask(copy, labels, masked);
+
+		assertEquals(HostImage.Storage.INT, masked.getStorage());
+		assertEquals((1 << 24) + 1, masked.getLabelSlice(0)[1]);
+		assertEquals((1 << 24) + 3, masked.getLabelSlice(1)[5]);
+	}
+
+
+	@Test
+	void binaryImagesAreStoredAsByte() {
+		HostImage gray = new HostImage(4, 4, 2, 32);
+		gray.set(1, 1, 0, 200.4f);
+		gray.set(2, 3, 1, 300f);
+
+		CPUEngine engine = new CPUEngine();
+		HostImage binary = new HostImage(4, 4, 2, 8);
+		engine.threshold(gray, binary, 250);
+		assertEquals(HostImage.Storage.BYTE, binary.getStorage());
+		assertEquals(0f, binary.get(1, 1, 0));
+		assertEquals(1f, binary.get(2, 3, 1));
+
+		HostImage labels = new HostImage(4, 4, 2, 32);
+		assertEquals(1, ConnectedComponentsLabeling.label(binary, labels, true));
+		assertEquals(HostImage.Storage.BYTE, binary.getStorage());
+		assertEquals(HostImage.Storage.INT, labels.getStorage());
+		assertEquals(1, labels.getLabelSlice(1)[3 * 4 + 2]);
+	}
+
+
+	@Test
+	void readingDoesNotChangeTheStorage() {
+		HostImage image = new HostImage(5, 1, new byte[][] { { 0, 1, 2, (byte) 255, 7 } });
+
+		float[] slice = image.readSlice(0, null);
+		assertArrayEquals(new float[] { 0, 1, 2, 255, 7 }, slice);
+		assertEquals(HostImage.Storage.BYTE, image.getStorage());
+
+		image.getSlice(0)[4] = 256.6f;
+		assertEquals(HostImage.Storage.FLOAT, image.getStorage());
+		image.convertToBitDepth();
+		assertEquals(HostImage.Storage.BYTE, image.getStorage());
+		assertEquals(255f, image.get(4, 0, 0));
+	}
+
+	@Test
+	void closedImagesCanNotBeAccessed() {
+		HostImage image = new HostImage(3, 2, 2, 32);
+		image.set(1, 1, 1, 3f);
+		image.close();
+
+		assertThrows(IllegalStateException.class, () -> image.readSlice(1, null));
+		assertThrows(IllegalStateException.class, () -> image.get(1, 1, 1));
+		assertThrows(IllegalStateException.class, image::getLabelSlices);
+	}
+
+}
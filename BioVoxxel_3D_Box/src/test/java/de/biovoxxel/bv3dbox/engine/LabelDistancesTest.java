@@ -0,0 +1,94 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LabelDistancesTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	/**
+	 * Two touching 3x3 squares (labels 1 and 2) next to a single voxel (label 3) in one slice
+	 */
+	private static HostImage createLabels() {
+		HostImage labels = new HostImage(8, 5, 1, 32);
+		for (int y = 1; y < 4; y++) {
+			for (int x = 0; x < 3; x++) {
+				labels.set(x, y, 0, 1);
+				labels.set(x + 3, y, 0, 2);
+			}
+		}
+		labels.set(7, 2, 0, 3);
+		return labels;
+	}
+
+
+	@Test
+	void edgeExtensionsAreMeasuredOnTheLabelEdges() {
+		HostImage labels = createLabels();
+		LabelStatistics statistics = LabelStatistics.measure(labels, new HostImage[0], false);
+
+		LabelDistances distances = LabelDistances.measure(labels, statistics, new double[] { 1, 1, 1 });
+
+		//the image border is no label edge, so the center and the left center voxel of label 1 are no edge voxels
+		assertArrayEquals(new double[] { 7, 8, 1 }, distances.getEdgeVoxelCount());
+		assertArrayEquals(new double[] { 1, 1, 0 }, distances.getMinimumEdgeExtension(), 1e-6);
+		assertArrayEquals(new double[] { Math.sqrt(2), Math.sqrt(2), 0 }, distances.getMaximumEdgeExtension(), 1e-6);
+		assertEquals(0f, distances.getCentroidDistanceMap().get(1, 2, 0));
+		assertEquals(1f, distances.getBorderDistanceMap().get(2, 2, 0));	//next to label 2
+		assertEquals(2f, distances.getBorderDistanceMap().get(1, 2, 0));
+	}
+
+
+	@Test
+	void relabelingKeepsTheDistancesOfRemainingLabels() {
+		HostImage labels = createLabels();
+		LabelStatistics statistics = LabelStatistics.measure(labels, new HostImage[0], false);
+		LabelDistances distances = LabelDistances.measure(labels, statistics, new double[] { 1, 1, 1 });
+
+		LabelDistances relabeled = distances.relabel(new LabelFilter(3).keepIf(index -> index != 0));
+
+		assertEquals(2, relabeled.getLabelCount());
+		assertArrayEquals(new double[] { 8, 1 }, relabeled.getEdgeVoxelCount());
+		assertEquals(0f, relabeled.getLabels().get(1, 2, 0));
+		assertEquals(0f, relabeled.getBorderDistanceMap().get(1, 2, 0));
+		assertEquals(1f, relabeled.getLabels().get(4, 2, 0));
+		assertEquals(2f, relabeled.getBorderDistanceMap().get(4, 2, 0));
+	}
+
+
+	@Test
+	void statisticsMeasureCentroidDistancesWithTheSameSpacing() {
+		HostImage labels = new HostImage(5, 5, 5, 32);
+		for (int z = 1; z < 4; z++) {
+			for (int y = 1; y < 4; y++) {
+				for (int x = 1; x < 4; x++) {
+					labels.set(x, y, z, 1);
+				}
+			}
+		}
+		double[] spacing = { 1, 1, 2 };
+
+		LabelStatistics statistics = LabelStatistics.measure(labels, new HostImage[0], true, spacing);
+		LabelDistances distances = LabelDistances.measure(labels, statistics, spacing);
+
+		//the corners of the cube are the most distant voxels and edge voxels
+		assertEquals(Math.sqrt(6), statistics.getMaxDistanceToCentroid()[0], 1e-6);
+		assertEquals(statistics.getMaxDistanceToCentroid()[0], distances.getMaximumEdgeExtension()[0], 1e-6);
+		assertEquals(statistics.getMaxDistanceToCentroid()[0], statistics.getMaxDistanceToMassCenter()[0], 1e-6);
+		assertEquals(Math.sqrt(3), LabelStatistics.measure(labels, new HostImage[0], true).getMaxDistanceToCentroid()[0], 1e-6);
+	}
+
+}
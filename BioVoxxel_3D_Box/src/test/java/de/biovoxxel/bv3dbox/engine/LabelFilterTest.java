@@ -0,0 +1,79 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LabelFilterTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+	
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+	
+	
+	@Test
+	void remainingLabelsAreConsecutive() {
+		double[] volume = { 5, 50, 500, 20 };
+		
+		LabelFilter labelFilter = new LabelFilter(4).keepInRange(volume, 10, 100);
+		
+		assertArrayEquals(new float[] { 0, 0, 1, 0, 2 }, labelFilter.getNewLabels());
+		assertArrayEquals(new int[] { 1, 3 }, labelFilter.getKeptIndices());
+	}
+	
+	
+	@Test
+	void allConditionsNeedToBeFulfilled() {
+		double[] volume = { 50, 50, 50 };
+		double[] ratio = { 0.2, 0.8, 0.5 };
+		
+		LabelFilter labelFilter = new LabelFilter(3)
+				.keepInRange(volume, 10, 100)
+				.keepInRange(ratio, 0.4, 1.0)
+				.keepIf(index -> index != 2);
+		
+		assertEquals(1, labelFilter.getKeptCount());
+		assertEquals(1f, labelFilter.getNewLabels()[2]);
+	}
+	
+	
+	@Test
+	void labelImageIsRelabeledInPlace() {
+		HostImage labels = new HostImage(4, 3, 2, 32);
+		labels.set(0, 0, 0, 1);
+		labels.set(3, 2, 0, 2);
+		labels.set(1, 1, 1, 3);
+		labels.set(2, 2, 1, 7);	//above the label count
+		
+		int remainingLabels = new LabelFilter(3).keepIf(index -> index > 0).apply(labels);
+		
+		assertEquals(2, remainingLabels);
+		assertEquals(0f, labels.get(0, 0, 0));
+		assertEquals(1f, labels.get(3, 2, 0));
+		assertEquals(2f, labels.get(1, 1, 1));
+		assertEquals(0f, labels.get(2, 2, 1));
+	}
+	
+	
+	@Test
+	void negativeOrFractionalLabelsAreRejected() {
+		LabelFilter labelFilter = new LabelFilter(3).keepIf(index -> true);
+		
+		HostImage negative = new HostImage(4, 3, 2, 32);
+		negative.set(2, 1, 1, -1);
+		assertThrows(IllegalArgumentException.class, () -> labelFilter.apply(negative));
+		
+		HostImage fractional = new HostImage(4, 3, 2, 32);
+		fractional.set(1, 2, 0, 1.5f);
+		assertThrows(IllegalArgumentException.class, () -> labelFilter.apply(fractional));
+	}
+
+}
@@ -0,0 +1,156 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LabelMorphologyTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	private static HostImage createBlockLabels(Random random, int width, int height, int depth, double fill) {
+		HostImage labels = new HostImage(width, height, depth, 32);
+		for (int z = 0; z < depth; z++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if (random.nextDouble() < fill) {
+						labels.set(x, y, z, 1 + (x / 5 + (y / 4) * 3 + (z / 3) * 7) % 6);
+					}
+				}
+			}
+		}
+		return labels;
+	}
+
+
+	/**
+	 * Smallest distance from the voxel to a voxel with a label (other = false) or with another value (other = true)
+	 */
+	private static double bruteForceDistance(HostImage labels, int x, int y, int z, double[] spacing, boolean other) {
+		float label = labels.get(x, y, z);
+		double distance = Double.POSITIVE_INFINITY;
+		for (int zz = 0; zz < labels.getDepth(); zz++) {
+			for (int yy = 0; yy < labels.getHeight(); yy++) {
+				for (int xx = 0; xx < labels.getWidth(); xx++) {
+					float value = labels.get(xx, yy, zz);
+					if (other ? value != label : value != 0) {
+						double dx = (x - xx) * spacing[0];
+						double dy = (y - yy) * spacing[1];
+						double dz = (z - zz) * spacing[2];
+						distance = Math.min(distance, Math.sqrt(dx * dx + dy * dy + dz * dz));
+					}
+				}
+			}
+		}
+		return distance;
+	}
+
+
+	@Test
+	void erosionRemovesVoxelsWithinTheRadius() {
+		double[] spacing = { 1, 1, 2 };
+		HostImage labels = createBlockLabels(new Random(3), 19, 14, 7, 0.95);
+		HostImage eroded = new HostImage(19, 14, 7, 32);
+
+		LabelMorphology.erode(labels, eroded, 1.5, spacing, false);
+
+		for (int z = 0; z < 7; z++) {
+			for (int y = 0; y < 14; y++) {
+				for (int x = 0; x < 19; x++) {
+					float label = labels.get(x, y, z);
+					boolean kept = label > 0 && bruteForceDistance(labels, x, y, z, spacing, true) > 1.5;
+					assertEquals(kept ? label : 0, eroded.get(x, y, z));
+				}
+			}
+		}
+	}
+
+
+	@Test
+	void dilationTakesTheNearestLabelWithinTheRadius() {
+		double[] spacing = { 1, 1.5, 2 };
+		HostImage labels = createBlockLabels(new Random(5), 23, 17, 6, 0.02);
+		HostImage dilated = new HostImage(23, 17, 6, 32);
+
+		LabelMorphology.dilate(labels, dilated, 4, spacing);
+
+		for (int z = 0; z < 6; z++) {
+			for (int y = 0; y < 17; y++) {
+				for (int x = 0; x < 23; x++) {
+					double distance = bruteForceDistance(labels, x, y, z, spacing, false);
+					float label = dilated.get(x, y, z);
+					if (distance > 4) {
+						assertEquals(0, label);
+					} else {
+						//the nearest voxels of the assigned label are as close as the nearest voxels of any label
+						HostImage single = new HostImage(23, 17, 6, 32);
+						for (int i = 0; i < 23 * 17; i++) {
+							for (int k = 0; k < 6; k++) {
+								single.getSlice(k)[i] = labels.getSlice(k)[i] == label ? label : 0;
+							}
+						}
+						assertTrue(label > 0);
+						assertEquals(distance, bruteForceDistance(single, x, y, z, spacing, false), 1e-4);
+					}
+				}
+			}
+		}
+	}
+
+
+	@Test
+	void labelsFallingApartAreRelabeled() {
+		//two squares connected by a thin bridge
+		HostImage labels = new HostImage(20, 9, 1, 16);
+		for (int y = 1; y < 8; y++) {
+			for (int x = 1; x < 19; x++) {
+				if (x < 8 || x > 11 || y == 4) {
+					labels.set(x, y, 0, 5);
+				}
+			}
+		}
+		HostImage eroded = new HostImage(20, 9, 1, 16);
+
+		LabelMorphology.erode(labels, eroded, 1, null, true);
+
+		assertTrue(eroded.get(4, 4, 0) > 0);
+		assertTrue(eroded.get(15, 4, 0) > 0);
+		assertNotEquals(eroded.get(4, 4, 0), eroded.get(15, 4, 0));
+		assertEquals(0, eroded.get(9, 4, 0));
+	}
+
+
+	@Test
+	void touchingLabelsAreSeparated() {
+		HostImage labels = new HostImage(16, 10, 1, 8);
+		for (int y = 2; y < 6; y++) {
+			for (int x = 2; x < 10; x++) {
+				labels.set(x, y, 0, x < 6 ? 1 : 2);
+			}
+		}
+		HostImage separated = new HostImage(16, 10, 1, 8);
+
+		LabelMorphology.separate(labels, separated);
+
+		for (int y = 0; y < 10; y++) {
+			for (int x = 0; x < 16; x++) {
+				float expected = x == 5 || x == 6 ? 0 : labels.get(x, y, 0);
+				assertEquals(expected, separated.get(x, y, 0));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LabelNeighborsTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	@Test
+	void touchingLabelsAreCountedOnce() {
+		int[][] slices = { {
+				1, 1, 2, 2,
+				1, 1, 2, 2,
+				0, 0, 0, 0,
+				3, 0, 0, 4 },
+				{
+				0, 0, 0, 0,
+				0, 0, 0, 0,
+				0, 0, 0, 0,
+				1, 0, 0, 0 } };
+		HostImage labels = new HostImage(4, 4, 32, slices);
+
+		double[] neighborCount = LabelNeighbors.countTouchingNeighbors(labels);
+
+		assertArrayEquals(new double[] { 2, 1, 1, 0 }, neighborCount, 1e-9);
+	}
+
+
+	@Test
+	void proximalLabelsAreCountedWithinTheDistanceRange() {
+		HostImage labels = new HostImage(20, 3, 1, 32);
+		labels.set(1, 1, 0, 1);
+		labels.set(5, 1, 0, 2);
+		labels.set(15, 1, 0, 4);
+
+		LabelStatistics statistics = LabelStatistics.measure(labels, new HostImage[0], false);
+		double[] neighborCount = LabelNeighbors.countProximalNeighbors(statistics, 1, 10);
+
+		assertArrayEquals(new double[] { 1, 2, 0, 1 }, neighborCount, 1e-9);
+	}
+
+}
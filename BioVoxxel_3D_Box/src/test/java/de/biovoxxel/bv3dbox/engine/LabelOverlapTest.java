@@ -0,0 +1,87 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LabelOverlapTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	private static void fill(HostImage image, int x0, int x1, int y0, int y1, int z, float value) {
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				image.set(x, y, z, value);
+			}
+		}
+	}
+
+
+	@Test
+	void overlapIsDerivedFromLabelPairs() {
+		HostImage primary = new HostImage(10, 10, 2, 32);
+		HostImage secondary = new HostImage(10, 10, 2, 32);
+
+		fill(primary, 0, 5, 0, 4, 0, 1);	//20 voxels
+		fill(primary, 5, 10, 0, 4, 0, 2);	//20 voxels
+		fill(primary, 0, 10, 5, 10, 1, 3);	//50 voxels, not covered
+
+		fill(secondary, 0, 2, 0, 4, 0, 1);	//8 voxels in primary 1
+		fill(secondary, 4, 7, 0, 4, 0, 2);	//4 voxels in primary 1, 8 voxels in primary 2
+		fill(secondary, 0, 3, 0, 3, 1, 3);	//9 voxels outside of all primary labels
+
+		LabelOverlap overlap = LabelOverlap.measure(primary, secondary);
+
+		assertEquals(3, overlap.getPrimaryLabelCount());
+		assertEquals(3, overlap.getSecondaryLabelCount());
+		assertArrayEquals(new double[] { 20, 20, 50 }, overlap.getPrimaryVoxelCount());
+		assertArrayEquals(new double[] { 8, 12, 9 }, overlap.getSecondaryVoxelCount());
+		assertArrayEquals(new double[] { 12, 8, 0 }, overlap.getOverlapVoxelCount());
+		assertArrayEquals(new double[] { 60, 40, 0 }, overlap.getOverlapPercent(), 1e-9);
+		assertArrayEquals(new double[] { 2, 1, 0 }, overlap.getSecondaryLabelCountPerPrimary());
+		assertArrayEquals(new double[] { 1, 2, 0 }, overlap.getPrimaryOrigin());
+	}
+
+
+	@Test
+	void manyPairsAreCountedOnce() {
+		HostImage primary = new HostImage(100, 100, 3, 32);
+		HostImage secondary = new HostImage(100, 100, 3, 32);
+		for (int z = 0; z < 3; z++) {
+			for (int y = 0; y < 100; y++) {
+				for (int x = 0; x < 100; x++) {
+					primary.set(x, y, z, y + 1);
+					secondary.set(x, y, z, x + 1);
+				}
+			}
+		}
+
+		LabelOverlap overlap = LabelOverlap.measure(primary, secondary);
+
+		assertEquals(100 * 100, overlap.getPairCount());
+		long voxels = 0;
+		for (int p = 0; p < overlap.getPairCount(); p++) {
+			assertEquals(3, overlap.getVoxelCount(p));
+			voxels += overlap.getVoxelCount(p);
+		}
+		assertEquals(100 * 100 * 3, voxels);
+	}
+
+
+	@Test
+	void differentSizesAreRejected() {
+		assertThrows(IllegalArgumentException.class, () -> LabelOverlap.measure(new HostImage(4, 4, 1, 32), new HostImage(4, 5, 1, 32)));
+	}
+
+}
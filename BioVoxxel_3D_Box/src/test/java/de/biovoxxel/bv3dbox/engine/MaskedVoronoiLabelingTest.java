@@ -0,0 +1,107 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MaskedVoronoiLabelingTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	private static void fill(HostImage image, int x0, int x1, int y0, int y1, int z, float value) {
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				image.set(x, y, z, value);
+			}
+		}
+	}
+
+
+	@Test
+	void tiesAreWonByTheHigherLabel() {
+		HostImage mask = new HostImage(7, 1, 1, 32);
+		HostImage seeds = new HostImage(7, 1, 1, 32);
+		fill(mask, 0, 7, 0, 1, 0, 1);
+		seeds.set(0, 0, 0, 1);
+		seeds.set(6, 0, 0, 1);
+		HostImage labels = new HostImage(7, 1, 1, 32);
+
+		assertEquals(2, MaskedVoronoiLabeling.label(seeds, mask, labels, new double[] { 1, 1, 1 }));
+
+		assertArrayEquals(new float[] { 1, 1, 1, 2, 2, 2, 2 }, labels.getSlice(0));
+	}
+
+
+	@Test
+	void labelsGrowAlongThePathInsideOfTheMask() {
+		//U shape: the right arm is closer to the seed on the left arm in the image than along the mask
+		HostImage mask = new HostImage(9, 10, 1, 32);
+		fill(mask, 0, 2, 0, 10, 0, 1);
+		fill(mask, 0, 9, 8, 10, 0, 1);
+		fill(mask, 7, 9, 0, 10, 0, 1);
+		fill(mask, 4, 5, 0, 3, 0, 1);	//no seed inside
+		HostImage seeds = new HostImage(9, 10, 1, 32);
+		seeds.set(0, 0, 0, 1);
+		seeds.set(8, 6, 0, 1);
+		seeds.set(4, 5, 0, 1);	//outside of the mask, not counted
+		HostImage labels = new HostImage(9, 10, 1, 32);
+
+		MaskedVoronoiLabeling.label(seeds, mask, labels, new double[] { 1, 1, 1 });
+
+		assertEquals(1f, labels.get(1, 7, 0));
+		assertEquals(2f, labels.get(7, 0, 0));
+		assertEquals(2f, labels.get(6, 9, 0));
+		assertEquals(0f, labels.get(4, 5, 0));
+		assertEquals(0f, labels.get(4, 1, 0));
+	}
+
+
+	@Test
+	void anisotropicSpacingShiftsTheBorder() {
+		HostImage mask = new HostImage(4, 1, 3, 32);
+		HostImage seeds = new HostImage(4, 1, 3, 32);
+		HostImage labels = new HostImage(4, 1, 3, 32);
+		for (int z = 0; z < 3; z++) {
+			fill(mask, 0, 4, 0, 1, z, 1);
+		}
+		seeds.set(0, 0, 0, 1);
+		seeds.set(3, 0, 2, 1);
+
+		MaskedVoronoiLabeling.label(seeds, mask, labels, new double[] { 1, 1, 2 });
+
+		//3 steps in x are shorter than 2 steps in z
+		assertEquals(1f, labels.get(3, 0, 0));
+		assertEquals(2f, labels.get(0, 0, 2));
+	}
+
+
+	@Test
+	void byteMasksAreKeptAndLabelsStoredAsInt() {
+		HostImage mask = new HostImage(6, 1, 1, 8);
+		HostImage seeds = new HostImage(6, 1, 1, 8);
+		fill(mask, 0, 5, 0, 1, 0, 255);
+		seeds.set(0, 0, 0, 255);
+		seeds.set(4, 0, 0, 255);
+		seeds.set(5, 0, 0, 255);	//outside of the mask
+		HostImage labels = new HostImage(6, 1, 1, 32);
+
+		assertEquals(2, MaskedVoronoiLabeling.label(seeds, mask, labels, new double[] { 1, 1, 1 }));
+
+		assertEquals(HostImage.Storage.BYTE, mask.getStorage());
+		assertEquals(HostImage.Storage.BYTE, seeds.getStorage());
+		assertEquals(HostImage.Storage.INT, labels.getStorage());
+		assertArrayEquals(new int[] { 1, 1, 2, 2, 2, 0 }, labels.getLabelSlice(0));
+	}
+
+}
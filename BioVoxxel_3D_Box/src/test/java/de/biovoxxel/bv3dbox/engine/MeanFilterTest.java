@@ -0,0 +1,125 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MeanFilterTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	private static HostImage createImage(int width, int height, int depth, long seed) {
+		Random random = new Random(seed);
+		HostImage image = new HostImage(width, height, depth, 32);
+		for (int z = 0; z < depth; z++) {
+			float[] slice = image.getSlice(z);
+			for (int i = 0; i < slice.length; i++) {
+				slice[i] = random.nextFloat() * 1000;
+			}
+		}
+		return image;
+	}
+
+
+	/**
+	 * Mean and variance of the clamped neighborhood of one voxel
+	 */
+	private static double[] bruteForce(HostImage image, int x, int y, int z, double radiusX, double radiusY, double radiusZ, boolean box) {
+		int extentX = (int) radiusX;
+		int extentY = (int) radiusY;
+		int extentZ = (int) radiusZ;
+		double sum = 0;
+		double sumOfSquares = 0;
+		int count = 0;
+		for (int dz = -extentZ; dz <= extentZ; dz++) {
+			for (int dy = -extentY; dy <= extentY; dy++) {
+				for (int dx = -extentX; dx <= extentX; dx++) {
+					double distance = square(dx, radiusX) + square(dy, radiusY) + square(dz, radiusZ);
+					if (box || distance <= 1 + 1e-9) {
+						double value = image.get(clamp(x + dx, image.getWidth()), clamp(y + dy, image.getHeight()), clamp(z + dz, image.getDepth()));
+						sum += value;
+						sumOfSquares += value * value;
+						count++;
+					}
+				}
+			}
+		}
+		double mean = sum / count;
+		return new double[] { mean, sumOfSquares / count - mean * mean };
+	}
+
+
+	private static double square(int offset, double radius) {
+		return radius > 0 ? (offset / radius) * (offset / radius) : 0;
+	}
+
+
+	private static int clamp(int position, int length) {
+		return Math.min(length - 1, Math.max(0, position));
+	}
+
+
+	private static void assertBruteForce(HostImage source, double radiusX, double radiusY, double radiusZ, boolean box) {
+		HostImage mean = new HostImage(source.getWidth(), source.getHeight(), source.getDepth(), 32);
+		HostImage variance = new HostImage(source.getWidth(), source.getHeight(), source.getDepth(), 32);
+		MeanFilter.mean(source, mean, radiusX, radiusY, radiusZ, box);
+		MeanFilter.variance(source, variance, radiusX, radiusY, radiusZ, box);
+
+		for (int z = 0; z < source.getDepth(); z++) {
+			for (int y = 0; y < source.getHeight(); y++) {
+				for (int x = 0; x < source.getWidth(); x++) {
+					double[] expected = bruteForce(source, x, y, z, radiusX, radiusY, radiusZ, box);
+					assertEquals(expected[0], mean.get(x, y, z), 1e-2);
+					assertEquals(expected[1], variance.get(x, y, z), 1);
+				}
+			}
+		}
+	}
+
+
+	@Test
+	void sphereMatchesBruteForce() {
+		assertBruteForce(createImage(17, 13, 7, 1), 2.5, 1.5, 1, false);
+		assertBruteForce(createImage(17, 13, 7, 2), 3, 3, 0, false);
+	}
+
+
+	@Test
+	void boxMatchesBruteForce() {
+		assertBruteForce(createImage(15, 11, 5, 3), 2, 1, 1, true);
+		assertBruteForce(createImage(21, 9, 1, 4), 4, 2, 3, true);
+	}
+
+
+	@Test
+	void filteringInPlaceKeepsTheByteStorage() {
+		HostImage image = new HostImage(12, 8, 3, 8);
+		HostImage expected = new HostImage(12, 8, 3, 8);
+		for (int z = 0; z < 3; z++) {
+			for (int i = 0; i < 12 * 8; i++) {
+				image.getByteSlices()[z][i] = (byte) ((i * 7 + z * 31) % 256);
+			}
+		}
+		MeanFilter.mean(image, expected, 2, 2, 1, false);
+		MeanFilter.mean(image, image, 2, 2, 1, false);
+
+		assertEquals(HostImage.Storage.BYTE, image.getStorage());
+		for (int z = 0; z < 3; z++) {
+			assertArrayEquals(expected.getByteSlices()[z], image.getByteSlices()[z]);
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MedianFilterTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	private static HostImage createImage(int width, int height, int depth, int bitDepth, int range, long seed) {
+		Random random = new Random(seed);
+		HostImage image = new HostImage(width, height, depth, bitDepth);
+		for (int z = 0; z < depth; z++) {
+			float[] slice = image.getSlice(z);
+			for (int i = 0; i < slice.length; i++) {
+				slice[i] = random.nextInt(range);
+			}
+		}
+		return image;
+	}
+
+
+	/**
+	 * Sorts the clamped neighborhood of each voxel given by the chords
+	 */
+	private static float bruteForceMedian(HostImage image, int x, int y, int z, int[][] chords) {
+		int count = 0;
+		for (int[] chord : chords) {
+			count += 2 * chord[2] + 1;
+		}
+		float[] values = new float[count];
+		int index = 0;
+		for (int[] chord : chords) {
+			int chordY = Math.min(image.getHeight() - 1, Math.max(0, y + chord[0]));
+			int chordZ = Math.min(image.getDepth() - 1, Math.max(0, z + chord[1]));
+			for (int dx = -chord[2]; dx <= chord[2]; dx++) {
+				values[index++] = image.get(Math.min(image.getWidth() - 1, Math.max(0, x + dx)), chordY, chordZ);
+			}
+		}
+		Arrays.sort(values);
+		return values[count / 2];
+	}
+
+
+	private static void assertBruteForceMedian(HostImage source, double radiusX, double radiusY, double radiusZ, boolean box) {
+		HostImage filtered = new HostImage(source.getWidth(), source.getHeight(), source.getDepth(), source.getBitDepth());
+		if (box) {
+			MedianFilter.box(source, filtered, radiusX, radiusY, radiusZ);
+		} else {
+			MedianFilter.sphere(source, filtered, radiusX, radiusY, radiusZ);
+		}
+
+		int[][] chords = MedianFilter.getChords(radiusX, radiusY, source.getDepth() > 1 ? radiusZ : 0, box);
+		for (int z = 0; z < source.getDepth(); z++) {
+			for (int y = 0; y < source.getHeight(); y++) {
+				for (int x = 0; x < source.getWidth(); x++) {
+					assertEquals(bruteForceMedian(source, x, y, z, chords), filtered.get(x, y, z));
+				}
+			}
+		}
+	}
+
+
+	@Test
+	void sphereChordsFollowTheEllipse() {
+		int[][] chords = MedianFilter.getChords(2, 1, 0, false);
+
+		assertEquals(3, chords.length);
+		assertArrayEquals(new int[] { -1, 0, 0 }, chords[0]);
+		assertArrayEquals(new int[] { 0, 0, 2 }, chords[1]);
+		assertArrayEquals(new int[] { 1, 0, 0 }, chords[2]);
+	}
+
+
+	@Test
+	void medianMatchesSorting() {
+		assertBruteForceMedian(createImage(37, 23, 1, 8, 256, 1), 4, 4, 0, false);
+		assertBruteForceMedian(createImage(37, 23, 1, 16, 65536, 2), 3, 5, 0, true);
+		assertBruteForceMedian(createImage(31, 19, 6, 16, 40, 3), 6, 3, 0, false);
+		assertBruteForceMedian(createImage(25, 21, 9, 8, 256, 4), 3.5, 3.5, 2, false);
+		assertBruteForceMedian(createImage(25, 21, 7, 32, 1000, 5), 2, 1, 1, true);
+	}
+
+
+	@Test
+	void floatImagesAreQuantized() {
+		HostImage source = new HostImage(30, 20, 1, 32);
+		float[] slice = source.getSlice(0);
+		for (int i = 0; i < slice.length; i++) {
+			slice[i] = (i % 7) * 0.3f - 1f;
+		}
+		HostImage filtered = new HostImage(30, 20, 1, 32);
+
+		MedianFilter.sphere(source, filtered, 2, 2, 0);
+
+		int[][] chords = MedianFilter.getChords(2, 2, 0, false);
+		for (int y = 0; y < 20; y++) {
+			for (int x = 0; x < 30; x++) {
+				assertEquals(bruteForceMedian(source, x, y, 0, chords), filtered.get(x, y, 0), 1e-4);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MinMaxFilterTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	private static void assertBruteForce(int width, int height, int depth, int radiusX, int radiusY, int radiusZ, boolean maximum) {
+		Random random = new Random(width * 31 + height);
+		HostImage source = new HostImage(width, height, depth, 16);
+		for (int z = 0; z < depth; z++) {
+			float[] slice = source.getSlice(z);
+			for (int i = 0; i < slice.length; i++) {
+				slice[i] = random.nextInt(1000);
+			}
+		}
+		HostImage filtered = new HostImage(width, height, depth, 16);
+
+		if (maximum) {
+			MinMaxFilter.maximumBox(source, filtered, radiusX, radiusY, radiusZ);
+		} else {
+			MinMaxFilter.minimumBox(source, filtered, radiusX, radiusY, radiusZ);
+		}
+
+		for (int z = 0; z < depth; z++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					float expected = maximum ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+					for (int k = Math.max(0, z - radiusZ); k <= Math.min(depth - 1, z + radiusZ); k++) {
+						for (int j = Math.max(0, y - radiusY); j <= Math.min(height - 1, y + radiusY); j++) {
+							for (int i = Math.max(0, x - radiusX); i <= Math.min(width - 1, x + radiusX); i++) {
+								expected = maximum ? Math.max(expected, source.get(i, j, k)) : Math.min(expected, source.get(i, j, k));
+							}
+						}
+					}
+					assertEquals(expected, filtered.get(x, y, z));
+				}
+			}
+		}
+	}
+
+
+	@Test
+	void boxFilterMatchesBruteForce() {
+		assertBruteForce(37, 23, 1, 3, 2, 0, false);
+		assertBruteForce(130, 9, 4, 5, 1, 0, true);
+		assertBruteForce(70, 21, 7, 2, 4, 2, false);
+		assertBruteForce(15, 12, 5, 1, 3, 1, true);
+	}
+
+
+	@Test
+	void radiiBeyondTheImageCoverTheWholeLine() {
+		assertBruteForce(9, 4, 3, 40, 10, 5, false);
+		assertBruteForce(1, 6, 2, 3, 20, 0, true);
+	}
+
+}
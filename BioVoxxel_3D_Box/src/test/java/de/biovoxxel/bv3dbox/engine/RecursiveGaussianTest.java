@@ -0,0 +1,83 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RecursiveGaussianTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	/**
+	 * Edge of height 100 in the middle of the given axis on an intensity ramp in x
+	 */
+	private static float[][] createImage(int width, int height, int depth, int axis) {
+		float[][] data = new float[depth][width * height];
+		for (int z = 0; z < depth; z++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int position = axis == 0 ? x : (axis == 1 ? y : z);
+					int length = axis == 0 ? width : (axis == 1 ? height : depth);
+					data[z][y * width + x] = x * 0.5f + (position < length / 2 ? 100 : 0);
+				}
+			}
+		}
+		return data;
+	}
+
+
+	@Test
+	void recursiveBlurApproximatesTheConvolution() {
+		int width = 97;
+		int height = 70;
+		int depth = 43;
+
+		for (int axis = 0; axis < 3; axis++) {
+			float[][] convolved = createImage(width, height, depth, axis);
+			float[][] recursive = createImage(width, height, depth, axis);
+			double[] sigma = new double[3];
+			sigma[axis] = 2.9;
+
+			CPUEngine.gaussianBlur(convolved, width, height, sigma[0], sigma[1], sigma[2]);
+			RecursiveGaussian.blur(recursive, width, height, sigma[0], sigma[1], sigma[2]);
+
+			//Young and van Vliet deviate up to about 1.5% of the edge height
+			for (int z = 0; z < depth; z++) {
+				for (int i = 0; i < width * height; i++) {
+					assertEquals(convolved[z][i], recursive[z][i], 1.5);
+				}
+			}
+		}
+	}
+
+
+	@Test
+	void constantImagesStayConstantForLargeSigmas() {
+		float[][] data = new float[5][40 * 30];
+		for (float[] slice : data) {
+			Arrays.fill(slice, 7f);
+		}
+
+		RecursiveGaussian.blur(data, 40, 30, 1000, 500, 100);
+
+		for (float[] slice : data) {
+			for (float value : slice) {
+				assertEquals(7f, value, 1e-3);
+			}
+		}
+	}
+
+}
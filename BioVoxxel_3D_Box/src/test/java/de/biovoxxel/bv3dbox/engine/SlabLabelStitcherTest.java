@@ -0,0 +1,136 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SlabLabelStitcherTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	@Test
+	void stitchedSlabsMatchTheLabelingOfTheWholeVolume() {
+		//separated ellipsoids of different heights, most of them crossing several slab borders
+		final int width = 52, height = 52, depth = 30, cell = 13;
+		HostImage binary = new HostImage(width, height, depth, 8);
+		Random random = new Random(42);
+		for (int cy = 0; cy < height / cell; cy++) {
+			for (int cx = 0; cx < width / cell; cx++) {
+				double radiusXY = 2 + random.nextInt(4);
+				double radiusZ = 2 + random.nextInt(13);
+				double centerZ = radiusZ + random.nextDouble() * (depth - 1 - 2 * radiusZ);
+				for (int z = 0; z < depth; z++) {
+					for (int y = 0; y < cell; y++) {
+						for (int x = 0; x < cell; x++) {
+							double dx = (x - cell / 2) / radiusXY;
+							double dy = (y - cell / 2) / radiusXY;
+							double dz = (z - centerZ) / radiusZ;
+							if (dx * dx + dy * dy + dz * dz <= 1) {
+								binary.set(cx * cell + x, cy * cell + y, z, 1);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		HostImage wholeLabels = new HostImage(width, height, depth, 32);
+		int wholeLabelCount = ConnectedComponentsLabeling.label(binary, wholeLabels, false);
+
+		for (int coreSlices : new int[] { 1, 4, 7, 30 }) {
+			HostImage stitchedLabels = labelInSlabs(binary, coreSlices, 2);
+			assertSamePartition(wholeLabels, stitchedLabels);
+			assertEquals(wholeLabelCount, (int) new CPUEngine().maximumOfAllPixels(stitchedLabels));
+		}
+	}
+
+
+	@Test
+	void fewOverlappingVoxelsDoNotMergeNeighbors() {
+		//two neighbors with a border shifted by one voxel in the second slab
+		int[] lookahead = { 1, 1, 1, 1, 2, 2, 2, 2 };
+		int[][] nextSlab = { { 1, 1, 1, 1, 1, 2, 2, 2 } };
+
+		SlabLabelStitcher stitcher = new SlabLabelStitcher(8, 1, 2);
+		stitcher.addSlab(0, new int[][] { lookahead }, lookahead);
+		stitcher.addSlab(1, nextSlab, null);
+
+		assertEquals(2, stitcher.finish());
+		HostImage labels = stitcher.getLabelImage();
+		assertArrayEquals(new int[] { 1, 1, 1, 1, 2, 2, 2, 2 }, labels.getLabelSlice(0));
+		assertArrayEquals(new int[] { 1, 1, 1, 1, 1, 2, 2, 2 }, labels.getLabelSlice(1));
+	}
+
+
+	@Test
+	void labelsAbove2To24AreKept() {
+		int[][] slab = { { 16777217, 0, 16777218 } };
+
+		SlabLabelStitcher stitcher = new SlabLabelStitcher(3, 1, 1);
+		stitcher.addSlab(0, slab, null);
+
+		assertEquals(2, stitcher.finish());
+		assertArrayEquals(new int[] { 1, 0, 2 }, stitcher.getLabelImage().getLabelSlice(0));
+	}
+
+
+	/**
+	 * Labels all slabs with a halo independently as done in the tiled Voronoi Threshold Labeling
+	 */
+	private static HostImage labelInSlabs(HostImage binary, int coreSlices, int halo) {
+
+		final int width = binary.getWidth();
+		final int height = binary.getHeight();
+		final int depth = binary.getDepth();
+		SlabLabelStitcher stitcher = new SlabLabelStitcher(width, height, depth);
+
+		for (int coreStart = 0; coreStart < depth; coreStart += coreSlices) {
+			int coreEnd = Math.min(depth, coreStart + coreSlices);
+			int blockStart = Math.max(0, coreStart - halo);
+			int blockEnd = Math.min(depth, coreEnd + halo);
+
+			byte[][] blockSlices = Arrays.copyOfRange(binary.getByteSlices(), blockStart, blockEnd);
+			HostImage block = new HostImage(width, height, blockSlices);
+			HostImage blockLabels = new HostImage(width, height, blockEnd - blockStart, 32);
+			ConnectedComponentsLabeling.label(block, blockLabels, false);
+
+			int[][] labelSlices = blockLabels.getLabelSlices();
+			int[] lookahead = coreEnd < depth ? labelSlices[coreEnd - blockStart] : null;
+			stitcher.addSlab(coreStart, Arrays.copyOfRange(labelSlices, coreStart - blockStart, coreEnd - blockStart), lookahead);
+		}
+
+		stitcher.finish();
+		return stitcher.getLabelImage();
+	}
+
+
+	private static void assertSamePartition(HostImage expected, HostImage actual) {
+		Map<Integer, Integer> expectedToActual = new HashMap<>();
+		Map<Integer, Integer> actualToExpected = new HashMap<>();
+		for (int z = 0; z < expected.getDepth(); z++) {
+			int[] expectedSlice = expected.getLabelSlice(z);
+			int[] actualSlice = actual.getLabelSlice(z);
+			for (int i = 0; i < expectedSlice.length; i++) {
+				assertEquals(actualSlice[i], (int) expectedToActual.merge(expectedSlice[i], actualSlice[i], (a, b) -> a));
+				assertEquals(expectedSlice[i], (int) actualToExpected.merge(actualSlice[i], expectedSlice[i], (a, b) -> a));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SphereMinMaxFilterTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	private static float bruteForce(HostImage image, int x, int y, int z, double radiusX, double radiusY, double radiusZ, boolean maximum) {
+		int[][] chords = MedianFilter.getChords(radiusX, radiusY, image.getDepth() > 1 ? radiusZ : 0, false);
+		float result = maximum ? Float.NEGATIVE_INFINITY : Float.POSITIVE_INFINITY;
+		for (int[] chord : chords) {
+			int chordY = y + chord[0];
+			int chordZ = z + chord[1];
+			if (chordY < 0 || chordY >= image.getHeight() || chordZ < 0 || chordZ >= image.getDepth()) {
+				continue;
+			}
+			for (int chordX = Math.max(0, x - chord[2]); chordX <= Math.min(image.getWidth() - 1, x + chord[2]); chordX++) {
+				float value = image.get(chordX, chordY, chordZ);
+				result = maximum ? Math.max(result, value) : Math.min(result, value);
+			}
+		}
+		return result;
+	}
+
+
+	private static void assertBruteForce(boolean binary, double radiusX, double radiusY, double radiusZ, boolean maximum) {
+		Random random = new Random(17);
+		HostImage source = new HostImage(33, 21, 6, 16);
+		for (int z = 0; z < 6; z++) {
+			float[] slice = source.getSlice(z);
+			for (int i = 0; i < slice.length; i++) {
+				slice[i] = binary ? (random.nextInt(10) < 7 ? 255 : 0) : random.nextInt(1000);
+			}
+		}
+		HostImage filtered = new HostImage(33, 21, 6, 16);
+
+		if (maximum) {
+			SphereMinMaxFilter.maximum(source, filtered, radiusX, radiusY, radiusZ);
+		} else {
+			SphereMinMaxFilter.minimum(source, filtered, radiusX, radiusY, radiusZ);
+		}
+
+		for (int z = 0; z < 6; z++) {
+			for (int y = 0; y < 21; y++) {
+				for (int x = 0; x < 33; x++) {
+					assertEquals(bruteForce(source, x, y, z, radiusX, radiusY, radiusZ, maximum), filtered.get(x, y, z));
+				}
+			}
+		}
+	}
+
+
+	@Test
+	void binaryImagesAreFilteredExactly() {
+		assertBruteForce(true, 4, 4, 2, false);
+		assertBruteForce(true, 3.5, 2, 1.5, true);
+		assertBruteForce(true, 9, 7, 0, false);
+		assertBruteForce(true, 2, 6, 3, true);
+	}
+
+
+	@Test
+	void smallNeighborhoodsAreFilteredExactly() {
+		assertBruteForce(false, 3, 3, 1, false);
+		assertBruteForce(false, 4.5, 2, 2, true);
+		assertBruteForce(false, 12, 8, 0, false);
+	}
+
+
+	/**
+	 * Dilating a single voxel in a gray value image gives the shape of the neighborhood
+	 */
+	private static void assertApproximateEllipsoid(double radiusX, double radiusY, double radiusZ) {
+		int width = (int) (2 * radiusX) + 5;
+		int height = (int) (2 * radiusY) + 5;
+		int depth = radiusZ > 0 ? (int) (2 * radiusZ) + 5 : 1;
+		HostImage image = new HostImage(width, height, depth, 32);
+		image.set(width / 2, height / 2, depth / 2, 2);
+		image.set(0, 0, 0, 1);
+
+		SphereMinMaxFilter.maximum(image, image, radiusX, radiusY, radiusZ);
+
+		for (int z = 0; z < depth; z++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					double dx = (x - width / 2) / radiusX;
+					double dy = (y - height / 2) / radiusY;
+					double dz = radiusZ > 0 ? (z - depth / 2) / radiusZ : 0;
+					double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+					if (distance < 0.9) {
+						assertEquals(2f, image.get(x, y, z));
+					}
+					if (distance > 1.1) {
+						assertNotEquals(2f, image.get(x, y, z));
+					}
+				}
+			}
+		}
+	}
+
+
+	@Test
+	void largeNeighborhoodsApproximateTheEllipsoid() {
+		assertApproximateEllipsoid(30, 30, 0);
+		assertApproximateEllipsoid(40, 25, 0);
+		assertApproximateEllipsoid(20, 20, 20);
+		assertApproximateEllipsoid(20, 20, 5);
+	}
+
+}
@@ -0,0 +1,80 @@
+package de.biovoxxel.bv3dbox.engine;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TubenessTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+
+
+	@Test
+	void eigenvaluesAreSortedByTheirAbsoluteValue() {
+		double[] eigenvalues = new double[3];
+
+		Tubeness.symmetricEigenvalues(2, 2, -5, 1, 0, 0, eigenvalues);
+		assertArrayEquals(new double[] { 1, 3, -5 }, eigenvalues, 1e-9);
+
+		Tubeness.symmetricEigenvalues(-4, 0.5, -2, 0, 0, 0, eigenvalues);
+		assertArrayEquals(new double[] { 0.5, -2, -4 }, eigenvalues, 1e-9);
+	}
+
+
+	@Test
+	void brightLinesRespondInThreeDimensions() {
+		HostImage image = new HostImage(21, 21, 21, 32);
+		for (int x = 0; x < 21; x++) {
+			image.set(x, 10, 10, 100);
+		}
+		HostImage tubeness = new HostImage(21, 21, 21, 32);
+
+		Tubeness.tubeness(image, tubeness, 2);
+
+		assertTrue(tubeness.get(10, 10, 10) > 1);
+		assertTrue(tubeness.get(10, 10, 10) > 10 * tubeness.get(10, 13, 10));
+		assertEquals(0f, tubeness.get(10, 2, 2), 1e-3);
+	}
+
+
+	@Test
+	void brightLinesRespondInTwoDimensions() {
+		HostImage image = new HostImage(21, 21, 1, 32);
+		for (int y = 0; y < 21; y++) {
+			image.set(10, y, 0, 100);
+		}
+		HostImage tubeness = new HostImage(21, 21, 1, 32);
+
+		Tubeness.tubeness(image, tubeness, 1.5);
+
+		assertTrue(tubeness.get(10, 10, 0) > 1);
+		assertEquals(0f, tubeness.get(2, 10, 0), 1e-3);
+	}
+
+
+	@Test
+	void uniformImagesHaveNoTubeness() {
+		HostImage image = new HostImage(9, 9, 5, 32);
+		new CPUEngine().set(image, 42);
+		HostImage tubeness = new HostImage(9, 9, 5, 32);
+
+		Tubeness.tubeness(image, tubeness, 1);
+
+		for (int z = 0; z < 5; z++) {
+			for (float value : tubeness.getSlice(z)) {
+				assertEquals(0f, value, 1e-4);
+			}
+		}
+	}
+
+}
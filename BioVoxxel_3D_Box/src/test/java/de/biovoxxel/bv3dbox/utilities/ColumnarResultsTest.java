@@ -0,0 +1,100 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ColumnarResultsTest {
+
+	@Test
+	void binaryFileContainsAllColumnsAndValues(@TempDir Path folder) throws IOException {
+		ColumnarResults results = new ColumnarResults();
+		results.setColumn("Label", new double[] { 1, 2, 3, 4 });
+		results.setColumn("Volume, calibrated", new double[] { 12.5, Double.NaN, Double.POSITIVE_INFINITY, -0.25 });
+		results.setColumn("Mean", new double[] { Double.MIN_VALUE, Double.MAX_VALUE, 0, 1e-300 });
+		String path = folder.resolve("results.bvcr").toString();
+		
+		results.saveAsBinary(path);
+		ColumnarResults reopened = ColumnarResults.openBinary(path);
+		
+		assertArrayEquals(results.getHeadings(), reopened.getHeadings());
+		assertEquals(4, reopened.size());
+		for (String heading : results.getHeadings()) {
+			assertArrayEquals(results.getColumn(heading), reopened.getColumn(heading));
+		}
+	}
+	
+	
+	@Test
+	void emptyResultsCanBeReopened(@TempDir Path folder) throws IOException {
+		String path = folder.resolve("empty.bvcr").toString();
+		
+		new ColumnarResults().saveAsBinary(path);
+		ColumnarResults reopened = ColumnarResults.openBinary(path);
+		
+		assertEquals(0, reopened.size());
+		assertEquals(0, reopened.getHeadings().length);
+	}
+	
+	
+	@Test
+	void otherFilesAreRejected(@TempDir Path folder) throws IOException {
+		String path = folder.resolve("results.csv").toString();
+		ColumnarResults results = new ColumnarResults();
+		results.setColumn("Label", new double[] { 1, 2 });
+		results.saveAsCSV(path);
+		
+		assertThrows(IOException.class, () -> ColumnarResults.openBinary(path));
+	}
+	
+	
+	@Test
+	void allColumnsAreSortedByOneColumn() {
+		ColumnarResults results = new ColumnarResults();
+		results.setColumn("Label", new double[] { 1, 2, 3, 4, 5, 6 });
+		results.setColumn("Volume", new double[] { 30, 10, 20, 10, Double.NaN, -5 });
+		
+		results.sort("Volume");
+		
+		//equal values keep their order, NaN is sorted to the end as by Double.compare
+		assertArrayEquals(new double[] { -5, 10, 10, 20, 30, Double.NaN }, results.getColumn("Volume"));
+		assertArrayEquals(new double[] { 6, 2, 4, 3, 1, 5 }, results.getColumn("Label"));
+	}
+	
+	
+	@Test
+	void sortingLargeColumnsIsStable() {
+		int rows = 1000;
+		double[] key = new double[rows];
+		double[] row = new double[rows];
+		for (int r = 0; r < rows; r++) {
+			key[r] = (r * 37) % 11;
+			row[r] = r;
+		}
+		ColumnarResults results = new ColumnarResults();
+		results.setColumn("Key", key);
+		results.setColumn("Row", row);
+		
+		results.sort("Key");
+		
+		double[] sortedKey = results.getColumn("Key");
+		double[] sortedRow = results.getColumn("Row");
+		for (int r = 1; r < rows; r++) {
+			assertTrue(sortedKey[r - 1] < sortedKey[r] || sortedKey[r - 1] == sortedKey[r] && sortedRow[r - 1] < sortedRow[r]);
+		}
+	}
+	
+	
+	@Test
+	void sortingByMissingColumnFails() {
+		ColumnarResults results = new ColumnarResults();
+		results.setColumn("Label", new double[] { 1, 2 });
+		
+		assertThrows(IllegalArgumentException.class, () -> results.sort("Volume"));
+	}
+
+}
@@ -0,0 +1,135 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.engine.CPUThreads;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.AutoThresholder;
+import ij.process.ByteProcessor;
+import ij.process.ShortProcessor;
+
+class StreamingHistogramTest {
+
+	@BeforeEach
+	void setup() {
+		CPUThreads.setThreadCount(4);
+	}
+	
+	@AfterEach
+	void reset() {
+		CPUThreads.setThreadCount(0);
+	}
+	
+	
+	/**
+	 * Two overlapping intensity populations, so that the threshold is not trivial
+	 */
+	private static int nextIntensity(Random random, int background, int foreground, int spread) {
+		int center = random.nextInt(3) == 0 ? foreground : background;
+		return Math.max(0, center + (int) Math.round(random.nextGaussian() * spread));
+	}
+	
+	
+	private static int[] getImageJHistogram(ImageStack stack) {
+		int[] histogram = null;
+		for (int z = 1; z <= stack.getSize(); z++) {
+			int[] sliceHistogram = stack.getProcessor(z).getHistogram();
+			if (histogram == null) {
+				histogram = new int[sliceHistogram.length];
+			}
+			for (int b = 0; b < sliceHistogram.length; b++) {
+				histogram[b] += sliceHistogram[b];
+			}
+		}
+		return histogram;
+	}
+	
+	
+	@Test
+	void histogramAndThresholdOf8BitStackMatchImageJ() {
+		Random random = new Random(11);
+		ImageStack stack = new ImageStack(31, 17);
+		for (int z = 0; z < 9; z++) {
+			ByteProcessor ip = new ByteProcessor(31, 17);
+			for (int i = 0; i < 31 * 17; i++) {
+				ip.set(i, Math.min(255, nextIntensity(random, 40, 170, 25)));
+			}
+			stack.addSlice(ip);
+		}
+		int[] expected = getImageJHistogram(stack);
+		
+		StreamingHistogram histogram = StreamingHistogram.forImage(new ImagePlus("stack", stack));
+		
+		assertArrayEquals(expected, histogram.getHistogram());
+		assertEquals(31 * 17 * 9, histogram.getTotalCount());
+		
+		int expectedThreshold = new AutoThresholder().getThreshold(AutoThresholder.Method.Otsu, expected);
+		assertEquals(expectedThreshold, histogram.getThresholdValue("Otsu", "full"));
+	}
+	
+	
+	@Test
+	void histogramAndThresholdOf16BitStackMatchImageJ() {
+		Random random = new Random(13);
+		ImageStack stack = new ImageStack(23, 19);
+		for (int z = 0; z < 7; z++) {
+			ShortProcessor ip = new ShortProcessor(23, 19);
+			for (int i = 0; i < 23 * 19; i++) {
+				ip.set(i, Math.min(65535, nextIntensity(random, 800, 3000, 300)));
+			}
+			stack.addSlice(ip);
+		}
+		int[] expected = getImageJHistogram(stack);
+		
+		StreamingHistogram histogram = StreamingHistogram.forImage(new ImagePlus("stack", stack));
+		
+		assertArrayEquals(expected, histogram.getHistogram());
+		
+		int expectedThreshold = new AutoThresholder().getThreshold(AutoThresholder.Method.Otsu, expected);
+		assertEquals(expectedThreshold, histogram.getThresholdValue("Otsu", "full"));
+	}
+	
+	
+	@Test
+	void totalCountOfHugeVolumesStaysWithinIntRange() {
+		Random random = new Random(17);
+		long[] shape = new long[256];
+		long shapeSum = 0;
+		for (int b = 0; b < 256; b++) {
+			shape[b] = nextIntensity(random, 2000, 2000, 500) * (b < 60 || b > 140 && b < 200 ? 2 : 1);
+			shapeSum += shape[b];
+		}
+		
+		//a volume with just below 2^31 voxels and the same volume 3 times, which has to be divided by 3
+		long factor = (long) (0.9 * Integer.MAX_VALUE / shapeSum);
+		long[] counts = new long[256];
+		int[] expected = new int[256];
+		for (int b = 0; b < 256; b++) {
+			expected[b] = (int) (shape[b] * factor);
+			counts[b] = 3 * shape[b] * factor;
+		}
+		
+		StreamingHistogram histogram = new StreamingHistogram(256, 0, 256);
+		histogram.add(counts);
+		int[] scaled = histogram.getHistogram();
+		
+		long total = 0;
+		for (int count : scaled) {
+			total += count;
+		}
+		assertTrue(histogram.getTotalCount() > Integer.MAX_VALUE);
+		assertTrue(total <= Integer.MAX_VALUE);
+		assertArrayEquals(expected, scaled);
+		
+		int expectedThreshold = new AutoThresholder().getThreshold(AutoThresholder.Method.Otsu, expected);
+		assertEquals(expectedThreshold, histogram.getThresholdValue("Otsu", "full"));
+	}
+
+}
@@ -0,0 +1,80 @@
+package de.biovoxxel.bv3dbox.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Runs all benchmarks and writes the results as JSON, e.g. to compare them between versions.
+ *
+ * Usage: java -jar target/benchmarks.jar [result file] [benchmark name regex]
+ *
+ * Without an OpenCL device, only the CPU engine is benchmarked.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class BenchmarkRunner {
+
+	public static final String DEFAULT_RESULT_FILE = "bv3dbox-benchmarks.json";
+
+
+	public static void main(String[] args) throws RunnerException {
+
+		String resultFile = args.length > 0 ? args[0] : DEFAULT_RESULT_FILE;
+		String benchmarkFilter = args.length > 1 ? args[1] : BenchmarkRunner.class.getPackage().getName() + ".*";
+
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.include(benchmarkFilter)
+				.result(resultFile)
+				.resultFormat(ResultFormatType.JSON);
+
+		if (!ComputeEngineFactory.isOpenCLAvailable()) {
+			System.err.println("No OpenCL device available, running CPU benchmarks only");
+
+			options.param("engine", ComputeEngineFactory.ENGINE_CPU);
+		}
+
+		new Runner(options.build()).run();
+		System.out.println("Benchmark results written to " + resultFile);
+	}
+
+}
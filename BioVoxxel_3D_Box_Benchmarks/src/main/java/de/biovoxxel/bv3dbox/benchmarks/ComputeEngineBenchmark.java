@@ -0,0 +1,162 @@
+package de.biovoxxel.bv3dbox.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.biovoxxel.bv3dbox.benchmarks.SyntheticImages.Pattern;
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
+import de.biovoxxel.bv3dbox.plugins.BV_PseudoFlatFieldCorrection;
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Compares the CPU and the CLIJ2 (GPU) compute engine on the same synthetic images,
+ * for the engine-based Pseudo Flat Field Correction and the engine operations
+ * it builds on. Push and pull are measured separately, since they dominate
+ * small images on the GPU.
+ *
+ * @author BioVoxxel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComputeEngineBenchmark {
+
+	@Param({ComputeEngineFactory.ENGINE_CPU, ComputeEngineFactory.ENGINE_CLIJ2})
+	public String engine;
+
+	@Param({"512x512x1", "256x256x64"})
+	public String size;
+
+	private ComputeEngine computeEngine;
+	private ImagePlus intensityImagePlus;
+	private ImagePlus gradientImagePlus;
+	private EngineImage intensityImage;
+	private EngineImage binaryImage;
+	private EngineImage labelImage;
+	private EngineImage outputImage;
+	private double sigmaZ;
+
+
+	@Setup
+	public void setup() {
+
+		intensityImagePlus = SyntheticImages.createIntensityImage(size, Pattern.BLOBS);
+		gradientImagePlus = SyntheticImages.createIntensityImage(size, Pattern.GRADIENT);
+		sigmaZ = intensityImagePlus.getStackSize() > 1 ? 2.0 : 0.0;
+
+		computeEngine = ComputeEngineFactory.getEngine(engine);
+		intensityImage = computeEngine.push(intensityImagePlus);
+
+		binaryImage = computeEngine.create(intensityImage.getDimensions());
+		computeEngine.threshold(intensityImage, binaryImage, 100);
+
+		labelImage = computeEngine.create(intensityImage.getDimensions());
+		computeEngine.connectedComponentsLabeling(binaryImage, labelImage, false);
+
+		outputImage = computeEngine.create(intensityImage.getDimensions());
+	}
+
+
+	@TearDown
+	public void tearDown() {
+		computeEngine.clear();
+		computeEngine.close();
+	}
+
+
+	@Benchmark
+	public ImagePlus pseudoFlatFieldCorrection() {
+		//the plugin clears the engine, so only the benchmark images of this method are used
+		return new BV_PseudoFlatFieldCorrection(gradientImagePlus, computeEngine).runCorrection(20f, false, false);
+	}
+
+
+	@Benchmark
+	public ImagePlus pushAndPull() {
+		EngineImage pushedImage = computeEngine.push(intensityImagePlus);
+		ImagePlus pulledImage = computeEngine.pull(pushedImage);
+		pushedImage.close();
+		return pulledImage;
+	}
+
+
+	@Benchmark
+	public EngineImage gaussianBlur() {
+		computeEngine.gaussianBlur(intensityImage, outputImage, 2.0, 2.0, sigmaZ);
+		return outputImage;
+	}
+
+
+	@Benchmark
+	public EngineImage differenceOfGaussian() {
+		computeEngine.differenceOfGaussian(intensityImage, outputImage, 1.0, 1.0, sigmaZ / 2, 3.0, 3.0, sigmaZ * 1.5);
+		return outputImage;
+	}
+
+
+	@Benchmark
+	public EngineImage connectedComponentsLabeling() {
+		computeEngine.connectedComponentsLabeling(binaryImage, outputImage, false);
+		return outputImage;
+	}
+
+
+	@Benchmark
+	public ResultsTable statisticsOfLabelledPixels() {
+		return computeEngine.statisticsOfLabelledPixels(intensityImage, labelImage);
+	}
+
+}
@@ -0,0 +1,138 @@
+package de.biovoxxel.bv3dbox.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.biovoxxel.bv3dbox.benchmarks.SyntheticImages.Pattern;
+import de.biovoxxel.bv3dbox.engine.ComputeEngine;
+import de.biovoxxel.bv3dbox.engine.ComputeEngineFactory;
+import de.biovoxxel.bv3dbox.engine.EngineImage;
+import de.biovoxxel.bv3dbox.plugins.BV_NeighborAnalysis;
+import de.biovoxxel.bv3dbox.plugins.BV_NeighborAnalysis.NeighborMethods;
+import de.biovoxxel.bv3dbox.plugins.BV_ObjectInspector;
+import de.biovoxxel.bv3dbox.plugins.BV_OverlapExtractor;
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Object based analyses on two overlapping sets of objects (blobs as primary,
+ * speckles as secondary objects) without displaying any results on both compute engines.
+ *
+ * @author BioVoxxel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObjectAnalysisBenchmark {
+
+	@Param({ComputeEngineFactory.ENGINE_CPU, ComputeEngineFactory.ENGINE_CLIJ2})
+	public String engine;
+
+	@Param({"512x512x1", "128x128x64", "256x256x128"})
+	public String size;
+
+	private ImagePlus primaryImagePlus;
+	private ImagePlus secondaryImagePlus;
+	private ImagePlus intensityImagePlus;
+	private ComputeEngine computeEngine;
+
+
+	@Setup
+	public void setup() {
+		computeEngine = ComputeEngineFactory.getEngine(engine);
+		computeEngine.clear();
+
+		primaryImagePlus = SyntheticImages.createBinaryImage(size, Pattern.BLOBS);
+		secondaryImagePlus = SyntheticImages.createBinaryImage(size, Pattern.SPECKLES);
+		intensityImagePlus = SyntheticImages.createIntensityImage(size, Pattern.BLOBS);
+	}
+
+
+	@TearDown
+	public void tearDown() {
+		computeEngine.clear();
+		computeEngine.close();
+	}
+
+
+	@Benchmark
+	public ResultsTable objectInspector() {
+		BV_ObjectInspector objectInspector = new BV_ObjectInspector(computeEngine, primaryImagePlus, secondaryImagePlus);
+		objectInspector.setOriginalImages(intensityImagePlus, intensityImagePlus);
+		objectInspector.setOutputImageFlags(false, false, true);
+		objectInspector.analyze();
+		return objectInspector.getPrimaryTable();
+	}
+
+
+	@Benchmark
+	public ResultsTable overlapExtractor() {
+		BV_OverlapExtractor overlapExtractor = new BV_OverlapExtractor(computeEngine, primaryImagePlus, secondaryImagePlus);
+		overlapExtractor.setOutputFlags(false, true, true, true, true, true, false);
+		overlapExtractor.analyze();
+		return overlapExtractor.getVolumeStatistics();
+	}
+
+
+	@Benchmark
+	public long neighborAnalysis() {
+		BV_NeighborAnalysis neighborAnalysis = new BV_NeighborAnalysis(computeEngine, primaryImagePlus);
+		EngineImage labelImage = neighborAnalysis.getConnectedComponentInput();
+		EngineImage neighborCountMap = neighborAnalysis.getNeighborCountMap(labelImage, NeighborMethods.OBJECTS.method, "0-Infinity", "0-Infinity", false);
+		long neighborCountMapSize = neighborCountMap.getSizeInBytes();
+		neighborCountMap.close();
+		labelImage.close();
+		return neighborCountMapSize;
+	}
+
+}
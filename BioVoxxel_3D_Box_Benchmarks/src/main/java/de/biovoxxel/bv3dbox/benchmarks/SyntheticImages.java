@@ -0,0 +1,279 @@
+package de.biovoxxel.bv3dbox.benchmarks;
+
+import java.util.Random;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Creates reproducible 8-bit test images for the benchmarks, so that all runs
+ * and both compute engines work on identical data without any image files.
+ *
+ * Objects are spheres (circles in 2D) with random positions and radii from a
+ * seeded random generator. The intensity images contain a radial intensity falloff
+ * towards the object border plus gaussian noise, the binary images only the objects.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class SyntheticImages {
+
+	public static final long DEFAULT_SEED = 42;
+
+	private static final int BACKGROUND = 20;
+	private static final int OBJECT_INTENSITY = 180;
+	private static final double NOISE_SIGMA = 8.0;
+
+	public enum Pattern {
+		/** well separated spheres of varying size */
+		BLOBS(6, 14, 0.5),
+		/** densely packed, partially overlapping spheres which need to be split */
+		TOUCHING_NUCLEI(8, 12, 1.2),
+		/** many small objects */
+		SPECKLES(1, 3, 5.0),
+		/** blobs on an uneven illumination, e.g. for flat field corrections */
+		GRADIENT(6, 14, 0.5);
+
+		final int minRadius;
+		final int maxRadius;
+		final double objectDensity;	//objects per 1000 pixels of one slice and per object diameter in z
+
+		Pattern(int minRadius, int maxRadius, double objectDensity) {
+			this.minRadius = minRadius;
+			this.maxRadius = maxRadius;
+			this.objectDensity = objectDensity;
+		}
+	}
+
+
+	private SyntheticImages() {
+
+	}
+
+
+	/**
+	 *
+	 * @param size	e.g. "256x256x64" or "512x512x1" for a 2D image
+	 * @return width, height and depth
+	 */
+	public static int[] parseSize(String size) {
+
+		String[] dimensions = size.toLowerCase().split("x");
+		if (dimensions.length < 2 || dimensions.length > 3) {
+			throw new IllegalArgumentException("Image size needs to be given as WIDTHxHEIGHT[xDEPTH] but was " + size);
+		}
+
+		int[] parsedSize = new int[] {1, 1, 1};
+		for (int d = 0; d < dimensions.length; d++) {
+			parsedSize[d] = Integer.parseInt(dimensions[d].trim());
+		}
+		return parsedSize;
+	}
+
+
+	public static ImagePlus createIntensityImage(String size, Pattern pattern) {
+		int[] dimensions = parseSize(size);
+		return createIntensityImage(dimensions[0], dimensions[1], dimensions[2], pattern, DEFAULT_SEED);
+	}
+
+
+	public static ImagePlus createBinaryImage(String size, Pattern pattern) {
+		int[] dimensions = parseSize(size);
+		return createBinaryImage(dimensions[0], dimensions[1], dimensions[2], pattern, DEFAULT_SEED);
+	}
+
+
+	/**
+	 * A flat field image matching the illumination of the {@link Pattern#GRADIENT} images
+	 *
+	 * @param size
+	 * @return
+	 */
+	public static ImagePlus createFlatFieldImage(String size) {
+		int[] dimensions = parseSize(size);
+		int width = dimensions[0];
+		int height = dimensions[1];
+
+		byte[] pixels = new byte[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				pixels[y * width + x] = (byte) clamp(200 * getIllumination(x, y, width, height));
+			}
+		}
+		return new ImagePlus("flat_field", new ByteProcessor(width, height, pixels));
+	}
+
+
+	/**
+	 *
+	 * @param width
+	 * @param height
+	 * @param depth	1 for a 2D image
+	 * @param pattern
+	 * @param seed
+	 * @return an 8-bit image with noisy objects on a dark background
+	 */
+	public static ImagePlus createIntensityImage(int width, int height, int depth, Pattern pattern, long seed) {
+
+		Random random = new Random(seed);
+		float[] profile = renderObjects(width, height, depth, createObjects(width, height, depth, pattern, random));
+
+		ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++) {
+			byte[] pixels = new byte[width * height];
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					double intensity = BACKGROUND + OBJECT_INTENSITY * profile[(z * height + y) * width + x];
+					if (pattern == Pattern.GRADIENT) {
+						intensity *= getIllumination(x, y, width, height);
+					}
+					intensity += random.nextGaussian() * NOISE_SIGMA;
+					pixels[y * width + x] = (byte) clamp(intensity);
+				}
+			}
+			stack.addSlice(null, new ByteProcessor(width, height, pixels));
+		}
+
+		return new ImagePlus(pattern.name().toLowerCase() + "_" + width + "x" + height + "x" + depth, stack);
+	}
+
+
+	/**
+	 *
+	 * @param width
+	 * @param height
+	 * @param depth	1 for a 2D image
+	 * @param pattern
+	 * @param seed
+	 * @return an 8-bit binary image (0/255) of the same objects as in the intensity image with the same seed
+	 */
+	public static ImagePlus createBinaryImage(int width, int height, int depth, Pattern pattern, long seed) {
+
+		Random random = new Random(seed);
+		float[] profile = renderObjects(width, height, depth, createObjects(width, height, depth, pattern, random));
+
+		ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++) {
+			byte[] pixels = new byte[width * height];
+			int sliceOffset = z * width * height;
+			for (int i = 0; i < pixels.length; i++) {
+				pixels[i] = profile[sliceOffset + i] > 0 ? (byte) 255 : 0;
+			}
+			stack.addSlice(null, new ByteProcessor(width, height, pixels));
+		}
+
+		return new ImagePlus("binary_" + pattern.name().toLowerCase() + "_" + width + "x" + height + "x" + depth, stack);
+	}
+
+
+	/**
+	 *
+	 * @return x, y, z and radius of each object
+	 */
+	private static double[][] createObjects(int width, int height, int depth, Pattern pattern, Random random) {
+
+		int objectCount = Math.max(1, (int) Math.round(width * height * pattern.objectDensity / 1000.0 * Math.max(1, depth / (2.0 * pattern.maxRadius))));
+		double[][] objects = new double[objectCount][];
+
+		for (int o = 0; o < objectCount; o++) {
+			double radius = pattern.minRadius + random.nextDouble() * (pattern.maxRadius - pattern.minRadius);
+			double x = random.nextDouble() * width;
+			double y = random.nextDouble() * height;
+			double z = depth > 1 ? random.nextDouble() * depth : 0;
+
+			if (pattern == Pattern.TOUCHING_NUCLEI && o > 0) {
+				//place the object directly next to the previous one to create touching pairs and clusters
+				double[] previous = objects[o - 1];
+				double angle = random.nextDouble() * 2 * Math.PI;
+				double distance = (previous[3] + radius) * 0.8;
+				x = Math.min(width - 1, Math.max(0, previous[0] + Math.cos(angle) * distance));
+				y = Math.min(height - 1, Math.max(0, previous[1] + Math.sin(angle) * distance));
+				if (random.nextInt(4) == 0) {
+					x = random.nextDouble() * width;
+					y = random.nextDouble() * height;
+				}
+			}
+			objects[o] = new double[] {x, y, z, radius};
+		}
+		return objects;
+	}
+
+
+	/**
+	 * Draws each object only within its bounding box
+	 *
+	 * @return 1 at an object center decreasing to 0.5 at its border, 0 outside of all objects
+	 */
+	private static float[] renderObjects(int width, int height, int depth, double[][] objects) {
+
+		float[] profile = new float[width * height * depth];
+
+		for (double[] object : objects) {
+			double radius = object[3];
+			int zRadius = depth > 1 ? (int) Math.ceil(radius) : 0;
+
+			for (int z = Math.max(0, (int) object[2] - zRadius); z <= Math.min(depth - 1, (int) object[2] + zRadius); z++) {
+				for (int y = Math.max(0, (int) (object[1] - radius)); y <= Math.min(height - 1, (int) (object[1] + radius)); y++) {
+					for (int x = Math.max(0, (int) (object[0] - radius)); x <= Math.min(width - 1, (int) (object[0] + radius)); x++) {
+
+						double dx = x - object[0];
+						double dy = y - object[1];
+						double dz = z - object[2];
+						double relativeDistance = Math.sqrt(dx * dx + dy * dy + dz * dz) / radius;
+						if (relativeDistance <= 1) {
+							int index = (z * height + y) * width + x;
+							profile[index] = (float) Math.max(profile[index], 1.0 - 0.5 * relativeDistance * relativeDistance);
+						}
+					}
+				}
+			}
+		}
+		return profile;
+	}
+
+
+	private static double getIllumination(int x, int y, int width, int height) {
+		return 0.4 + 0.6 * (x + y) / (double) (width + height);
+	}
+
+
+	private static int clamp(double value) {
+		return (int) Math.max(0, Math.min(255, Math.round(value)));
+	}
+
+}
@@ -0,0 +1,112 @@
+package de.biovoxxel.bv3dbox.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.biovoxxel.bv3dbox.benchmarks.SyntheticImages.Pattern;
+import de.biovoxxel.bv3dbox.plugins.BV_VoronoiThresholdLabeling;
+import ij.ImagePlus;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Complete Voronoi Threshold Labeling (filter, background subtraction, threshold,
+ * seed detection and labeling) on touching nuclei with the compute engine selected in the settings.
+ *
+ * @author BioVoxxel
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VoronoiThresholdLabelingBenchmark {
+
+	@Param({"512x512x1", "128x128x64", "256x256x128"})
+	public String size;
+
+	@Param({"Maxima", "EDM Maxima", "DoG Seeds"})
+	public String separationMethod;
+
+	private ImagePlus inputImagePlus;
+
+
+	@Setup
+	public void setup() {
+		inputImagePlus = SyntheticImages.createIntensityImage(size, Pattern.TOUCHING_NUCLEI);
+	}
+
+
+	@Benchmark
+	public ImagePlus processImage() {
+
+		BV_VoronoiThresholdLabeling voronoiThresholdLabeling = new BV_VoronoiThresholdLabeling();
+		voronoiThresholdLabeling.setDisplayOutput(false);
+		voronoiThresholdLabeling.setParameters("Gaussian", 1.0f, "DoG", 15.0f, "Otsu", separationMethod, 2.0f, 2.0f, "Labels");
+		voronoiThresholdLabeling.setupInputImage(inputImagePlus);
+		voronoiThresholdLabeling.processImage();
+		voronoiThresholdLabeling.closeInputImage();
+
+		return voronoiThresholdLabeling.getOutputImage();
+	}
+
+
+	@Benchmark
+	public ImagePlus processImageTiled() {
+
+		BV_VoronoiThresholdLabeling voronoiThresholdLabeling = new BV_VoronoiThresholdLabeling();
+		voronoiThresholdLabeling.setDisplayOutput(false);
+		voronoiThresholdLabeling.setParameters("Gaussian", 1.0f, "DoG", 15.0f, "Otsu", separationMethod, 2.0f, 2.0f, "Labels");
+		voronoiThresholdLabeling.setupInputImage(inputImagePlus);
+		voronoiThresholdLabeling.processImageTiled("full", "Off", "0-Infinity", false);
+		voronoiThresholdLabeling.closeInputImage();
+
+		return voronoiThresholdLabeling.getOutputImage();
+	}
+
+}